@@ -5,17 +5,17 @@
 # For more details, see
 #   http://developer.android.com/guide/developing/tools/proguard.html
 
-# If your project uses WebView with JS, uncomment the following
-# and specify the fully qualified class name to the JavaScript interface
-# class:
-#-keepclassmembers class fqcn.of.javascript.interface.for.webview {
-#   public *;
-#}
+# Views inflated from layouts are kept by the rules AAPT generates;
+# these cover what R8 full mode cannot see.
 
-# Uncomment this to preserve the line number information for
-# debugging stack traces.
-#-keepattributes SourceFile,LineNumberTable
+# MPAndroidChart: ChartAnimator drives its phases through ObjectAnimator property names
+-keepclassmembers class com.github.mikephil.charting.animation.ChartAnimator {
+    public void setPhase*(float);
+    public float getPhase*();
+}
+# Optional chart integrations that are not on the classpath
+-dontwarn com.github.mikephil.charting.**
 
-# If you keep the line number information, uncomment this to
-# hide the original source file name.
-#-renamesourcefileattribute SourceFile
\ No newline at end of file
+# Preserve line numbers so crash reports from minified builds stay readable
+-keepattributes SourceFile,LineNumberTable
+-renamesourcefileattribute SourceFile
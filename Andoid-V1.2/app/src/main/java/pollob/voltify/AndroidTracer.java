@@ -0,0 +1,36 @@
+package pollob.voltify;
+
+import android.os.Trace;
+
+import pollob.voltify.telemetry.Tracing;
+
+/**
+ * Tracing backend writing to android.os.Trace, so sections show up in Perfetto and systrace.
+ * Record with the app's package in the atrace categories (-a pollob.voltify).
+ */
+public class AndroidTracer implements Tracing.Tracer {
+    @Override
+    public void beginSection(String name) {
+        Trace.beginSection(name);
+    }
+
+    @Override
+    public void endSection() {
+        Trace.endSection();
+    }
+
+    @Override
+    public void beginAsyncSection(String name, int cookie) {
+        Trace.beginAsyncSection(name, cookie);
+    }
+
+    @Override
+    public void endAsyncSection(String name, int cookie) {
+        Trace.endAsyncSection(name, cookie);
+    }
+
+    @Override
+    public void setCounter(String name, long value) {
+        Trace.setCounter(name, value);
+    }
+}
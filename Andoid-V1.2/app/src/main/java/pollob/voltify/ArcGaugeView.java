@@ -0,0 +1,139 @@
+package pollob.voltify;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.RectF;
+import android.util.AttributeSet;
+import android.view.View;
+
+/**
+ * Half-circle gauge for the output current: green, amber and red bands up to the set current,
+ * a needle and the value in amps. Replaces HalfGauge, which re-laid itself out on every
+ * setValue; this one keeps its geometry and only invalidates when the needle would move
+ * visibly or the printed value changes.
+ */
+public class ArcGaugeView extends View {
+    // Band ends as fractions of the max value
+    private static final float[] BAND_ENDS = {0.6f, 0.85f, 1.0f};
+    private static final int[] BAND_COLORS = {
+            Color.parseColor("#4CAF50"), Color.parseColor("#FFC107"), Color.parseColor("#F44336")};
+    // Needle moves smaller than this many degrees are not redrawn
+    private static final float MIN_ANGLE_STEP = 0.25f;
+    private static final int DECIMALS = 3;
+
+    private float maxValue = 1f;
+    private float value = 0f;
+    private float shownAngle = Float.NaN;
+    private long shownScaled = Long.MIN_VALUE;
+
+    private final char[] valueChars = new char[FixedPointFormat.MAX_INTEGER_CHARS + DECIMALS + 2];
+    private int valueLength = 0;
+    private final char[] maxChars = new char[FixedPointFormat.MAX_INTEGER_CHARS + 2];
+    private int maxLength = 0;
+
+    private final RectF arcBounds = new RectF();
+    private final Paint bandPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint needlePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint valuePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint labelPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private float centerX, centerY, radius;
+
+    public ArcGaugeView(Context context) {
+        this(context, null);
+    }
+
+    public ArcGaugeView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        float density = getResources().getDisplayMetrics().density;
+        float scaledDensity = getResources().getDisplayMetrics().scaledDensity;
+
+        bandPaint.setStyle(Paint.Style.STROKE);
+        needlePaint.setColor(Color.parseColor("#424647"));
+        needlePaint.setStrokeWidth(2.5f * density);
+        needlePaint.setStrokeCap(Paint.Cap.ROUND);
+        valuePaint.setColor(Color.parseColor("#333333"));
+        valuePaint.setTextSize(14 * scaledDensity);
+        valuePaint.setTextAlign(Paint.Align.CENTER);
+        valuePaint.setFakeBoldText(true);
+        valuePaint.setFontFeatureSettings("tnum");
+        labelPaint.setColor(Color.parseColor("#666666"));
+        labelPaint.setTextSize(10 * scaledDensity);
+        labelPaint.setTextAlign(Paint.Align.CENTER);
+
+        formatMax();
+        update(true);
+    }
+
+    // Main thread only
+    public void setMaxValue(float maxValue) {
+        if (maxValue <= 0f || maxValue == this.maxValue) return;
+        this.maxValue = maxValue;
+        formatMax();
+        update(true);
+    }
+
+    // Main thread only
+    public void setValue(float value) {
+        this.value = value;
+        update(false);
+    }
+
+    private void formatMax() {
+        maxLength = FixedPointFormat.format(maxValue, 2, maxChars, 0);
+    }
+
+    private void update(boolean force) {
+        float angle = 180f * Math.max(0f, Math.min(1f, value / maxValue));
+        long scaled = FixedPointFormat.scale(value, DECIMALS);
+        boolean needleMoved = Float.isNaN(shownAngle) || Math.abs(angle - shownAngle) >= MIN_ANGLE_STEP;
+        if (!force && !needleMoved && scaled == shownScaled) return;
+
+        shownAngle = angle;
+        if (scaled != shownScaled) {
+            shownScaled = scaled;
+            valueLength = FixedPointFormat.format(scaled, DECIMALS, valueChars, 0);
+            valueChars[valueLength++] = ' ';
+            valueChars[valueLength++] = 'A';
+        }
+        invalidate();
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        float labelSpace = labelPaint.getTextSize() * 1.5f;
+        float availableWidth = w - getPaddingLeft() - getPaddingRight();
+        float availableHeight = h - getPaddingTop() - getPaddingBottom() - labelSpace;
+        radius = Math.max(1f, Math.min(availableWidth / 2f, availableHeight));
+        float stroke = radius * 0.16f;
+        bandPaint.setStrokeWidth(stroke);
+
+        centerX = getPaddingLeft() + availableWidth / 2f;
+        centerY = getPaddingTop() + radius;
+        float inset = stroke / 2f;
+        arcBounds.set(centerX - radius + inset, centerY - radius + inset, centerX + radius - inset, centerY + radius - inset);
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        float start = 0f;
+        for (int i = 0; i < BAND_ENDS.length; i++) {
+            bandPaint.setColor(BAND_COLORS[i]);
+            canvas.drawArc(arcBounds, 180f + start * 180f, (BAND_ENDS[i] - start) * 180f, false, bandPaint);
+            start = BAND_ENDS[i];
+        }
+
+        double radians = Math.toRadians(180f + shownAngle);
+        float needleLength = radius * 0.8f;
+        canvas.drawLine(centerX, centerY, centerX + (float) (Math.cos(radians) * needleLength),
+                centerY + (float) (Math.sin(radians) * needleLength), needlePaint);
+
+        canvas.drawText(valueChars, 0, valueLength, centerX, centerY - radius * 0.3f, valuePaint);
+        float labelY = centerY + labelPaint.getTextSize() * 1.2f;
+        canvas.drawText("0", arcBounds.left, labelY, labelPaint);
+        canvas.drawText(maxChars, 0, maxLength, arcBounds.right, labelY, labelPaint);
+    }
+}
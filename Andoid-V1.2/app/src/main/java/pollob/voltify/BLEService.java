@@ -1,330 +1,470 @@
 package pollob.voltify;
 
-import android.annotation.SuppressLint;
-import android.bluetooth.BluetoothAdapter;
-import android.bluetooth.BluetoothDevice;
-import android.bluetooth.BluetoothGatt;
-import android.bluetooth.BluetoothGattCallback;
-import android.bluetooth.BluetoothGattCharacteristic;
-import android.bluetooth.BluetoothGattDescriptor;
-import android.bluetooth.BluetoothGattService;
-import android.bluetooth.BluetoothManager;
-import android.bluetooth.BluetoothProfile;
 import android.content.Context;
 import android.os.Handler;
 import android.os.Looper;
 import android.util.Log;
 
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.util.UUID;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import pollob.voltify.protocol.ProtocolCodec;
+import pollob.voltify.protocol.ProtocolException;
+import pollob.voltify.protocol.SetpointCommand;
+import pollob.voltify.protocol.Transport;
+import pollob.voltify.telemetry.Metrics;
+import pollob.voltify.telemetry.SetpointStreamer;
 
 public class BLEService {
     private static final String TAG = "BLEService";
+    // Hello writes tried before settling on v1 framing
+    private static final int HELLO_ATTEMPTS = 3;
+    // Failed writes of one rate request before waiting for the next change to try again
+    private static final int RATE_ATTEMPTS = 3;
+    // Fallback for a write whose completion never comes, so the queue cannot jam
+    private static final long WRITE_TIMEOUT_NANOS = 500_000_000L;
+
+    private final Transport transport;
+    private final BLEListener listener;
+    // Connection state and errors are delivered here; data stays on the transport thread
+    private final Executor callbackExecutor;
+    // Slider drags go through here as writes without response, acknowledged by the telemetry
+    // echo; one-off sends use sendData()
+    private final SetpointStreamer streamer = new SetpointStreamer(this::writeSetpoint, true);
+
+    // Setpoint framing, v1 until the device answers the hello sent on connecting
+    private volatile int protocolVersion = ProtocolCodec.PROTOCOL_V1;
+    private volatile boolean helloDone = false;
+    // Guarded by this
+    private int helloAttempts = 0;
+    // Last setpoint the device acknowledged, which the next acknowledged write is sent as a
+    // delta of; null while the device's state is unknown, so the next frame goes out whole
+    private SetpointCommand lastAcked;
+    // Notify interval the app wants, and the one the device last accepted; 0 for none
+    private int requestedIntervalMillis = 0;
+    private int sentIntervalMillis = 0;
+    private boolean rateQueued = false;
+    private int rateFailures = 0;
+
+    // GATT runs one operation at a time, so every write waits here for the one before it to
+    // complete; guarded by this
+    private final ArrayDeque<QueuedWrite> writeQueue = new ArrayDeque<>();
+    private QueuedWrite inFlight;
+    // Set while clearWrites() fails the dropped writes, so their callbacks cannot queue more
+    private boolean clearing = false;
+    // When the write in flight started, 0 when there is none
+    private volatile long inFlightSinceNanos = 0;
+    private boolean helloQueued = false;
+
+    // Told once the write has completed, or failed to start or complete
+    private interface WriteCallback {
+        void onWritten(boolean success);
+    }
 
-    // UUIDs for BLE service and characteristics
-    private static final UUID SERVICE_UUID = UUID.fromString("12345678-1234-5678-9abc-123456789abc");
-    private static final UUID TX_CHARACTERISTIC_UUID = UUID.fromString("12345678-1234-5678-9abc-123456789abd"); // ESP32 -> Android (NOTIFY)
-    private static final UUID RX_CHARACTERISTIC_UUID = UUID.fromString("12345678-1234-5678-9abc-123456789abe"); // Android -> ESP32 (WRITE)
-
-    // UUID for the client characteristic configuration descriptor
-    private static final UUID CLIENT_CHARACTERISTIC_CONFIG = UUID.fromString("00002902-0000-1000-8000-00805f9b34fb");
-
-    private Context context;
-    private BLEListener listener;
-    private BluetoothAdapter bluetoothAdapter;
-    private BluetoothGatt bluetoothGatt;
-    private BluetoothGattCharacteristic rxCharacteristic; // For writing to ESP32
-    private BluetoothGattCharacteristic txCharacteristic; // For receiving from ESP32
-
-    private Handler mainHandler;
-    private boolean isConnected = false;
-    private boolean servicesDiscovered = false;
+    // Raw bytes, or a setpoint encoded when it goes out so it uses the framing of that moment
+    private static final class QueuedWrite {
+        final byte[] data;
+        final SetpointCommand command;
+        final boolean withoutResponse;
+        final WriteCallback callback;
+
+        QueuedWrite(byte[] data, SetpointCommand command, boolean withoutResponse, WriteCallback callback) {
+            this.data = data;
+            this.command = command;
+            this.withoutResponse = withoutResponse;
+            this.callback = callback;
+        }
+    }
 
     public interface BLEListener {
         void onDeviceConnected();
         void onDeviceDisconnected();
         void onDataReceived(byte[] data);
         void onError(String error);
+
+        // The device answered the hello; on the transport thread, like onDataReceived
+        default void onProtocolNegotiated(int version) {}
     }
 
     public BLEService(Context context, BLEListener listener) {
-        this.context = context;
-        this.listener = listener;
-        this.mainHandler = new Handler(Looper.getMainLooper());
-        initializeBluetooth();
+        this(new GattTransport(context), listener, new Handler(Looper.getMainLooper())::post);
     }
 
-    private void initializeBluetooth() {
-        try {
-            BluetoothManager bluetoothManager = (BluetoothManager) context.getSystemService(Context.BLUETOOTH_SERVICE);
-            if (bluetoothManager != null) {
-                bluetoothAdapter = bluetoothManager.getAdapter();
-            }
-        } catch (Exception e) {
-            Log.e(TAG, "Error initializing Bluetooth", e);
-        }
+    // Runs over any Transport, e.g. SimulatedEsp32 in tests
+    public BLEService(Transport transport, BLEListener listener, Executor callbackExecutor) {
+        this.transport = transport;
+        this.listener = listener;
+        this.callbackExecutor = callbackExecutor;
+        transport.setListener(transportListener);
     }
 
-    @SuppressLint("MissingPermission")
     public void connect(String macAddress) {
-        Log.d(TAG, "Connecting to: " + macAddress);
+        transport.connect(macAddress);
+    }
 
-        if (bluetoothAdapter == null) {
-            sendError("Bluetooth not available");
-            return;
-        }
+    public void disconnect() {
+        streamer.stop();
+        transport.disconnect();
+    }
 
-        if (!bluetoothAdapter.isEnabled()) {
-            sendError("Bluetooth is disabled");
-            return;
-        }
+    public boolean isConnected() {
+        return transport.isConnected();
+    }
 
-        try {
-            BluetoothDevice device = bluetoothAdapter.getRemoteDevice(macAddress);
-            if (device == null) {
-                sendError("Device not found: " + macAddress);
-                return;
-            }
+    public Transport getTransport() {
+        return transport;
+    }
 
-            Log.d(TAG, "Found device: " + device.getName() + " - " + device.getAddress());
+    public SetpointStreamer getSetpointStreamer() {
+        return streamer;
+    }
 
-            // Disconnect first if already connected
-            if (bluetoothGatt != null) {
-                bluetoothGatt.disconnect();
-                bluetoothGatt.close();
-                bluetoothGatt = null;
-            }
+    public int getProtocolVersion() {
+        return protocolVersion;
+    }
 
-            bluetoothGatt = device.connectGatt(context, false, gattCallback);
-            Log.d(TAG, "Connection initiated");
+    /**
+     * Asks the device to notify every intervalMillis. Remembered until it can be sent: v1
+     * firmware has a fixed rate, so the request only goes out once v2 has been negotiated.
+     */
+    public synchronized void setTelemetryInterval(int intervalMillis) {
+        if (intervalMillis != requestedIntervalMillis) rateFailures = 0;
+        requestedIntervalMillis = intervalMillis;
+        sendTelemetryInterval();
+    }
 
-        } catch (Exception e) {
-            Log.e(TAG, "Connection failed", e);
-            sendError("Connection failed: " + e.getMessage());
+    // Holding this; one request at a time, recorded once its write has completed
+    private void sendTelemetryInterval() {
+        if (rateQueued || requestedIntervalMillis == 0 || requestedIntervalMillis == sentIntervalMillis
+                || rateFailures >= RATE_ATTEMPTS
+                || protocolVersion < ProtocolCodec.PROTOCOL_V2 || !transport.isConnected()) {
+            return;
+        }
+        int intervalMillis = requestedIntervalMillis;
+        byte[] data;
+        try {
+            data = ProtocolCodec.encodeRateRequest(intervalMillis);
+        } catch (ProtocolException e) {
+            Log.e(TAG, "Invalid telemetry interval", e);
+            return;
+        }
+        // Set first: a write that fails to start calls back before enqueue returns
+        rateQueued = true;
+        if (!enqueue(data, false, success -> onRateWritten(intervalMillis, success))) {
+            rateQueued = false;
         }
     }
 
-    @SuppressLint("MissingPermission")
-    public void disconnect() {
-        Log.d(TAG, "Disconnecting...");
-        servicesDiscovered = false;
-        if (bluetoothGatt != null) {
-            bluetoothGatt.disconnect();
-            bluetoothGatt.close();
-            bluetoothGatt = null;
+    // Holding this, from the write queue
+    private void onRateWritten(int intervalMillis, boolean success) {
+        rateQueued = false;
+        if (success) {
+            sentIntervalMillis = intervalMillis;
+            rateFailures = 0;
+            Log.d(TAG, "Telemetry interval " + intervalMillis + " ms");
+        } else {
+            rateFailures++;
+            Log.e(TAG, "Telemetry interval request failed");
         }
-        isConnected = false;
-        rxCharacteristic = null;
-        txCharacteristic = null;
+        // Retries, or sends an interval requested while this one was queued
+        sendTelemetryInterval();
     }
 
-    public boolean isConnected() {
-        return isConnected && servicesDiscovered;
+    /**
+     * Asks the device for the samples it buffered after sinceDeviceMillis. They come back
+     * through onDataReceived as backfill notifications sized to the MTU. Needs v2, and an MTU
+     * with room for at least one frame; false if the request could not be queued. A request
+     * that fails later leaves the held samples to BackfillMerger's timeout.
+     */
+    public boolean requestBackfill(long sinceDeviceMillis) {
+        if (protocolVersion < ProtocolCodec.PROTOCOL_V2 || !transport.isConnected()) return false;
+        int payload = transport.getMtu() - 3;
+        if (ProtocolCodec.maxBackfillFrames(payload) < 1) {
+            Log.d(TAG, "MTU " + transport.getMtu() + " too small for backfill");
+            return false;
+        }
+        try {
+            return enqueue(ProtocolCodec.encodeBackfillRequest(sinceDeviceMillis, payload), false, success -> {
+                if (success) {
+                    Log.d(TAG, "Backfill requested after device time " + sinceDeviceMillis + " ms");
+                } else {
+                    Log.e(TAG, "Backfill request failed");
+                }
+            });
+        } catch (ProtocolException e) {
+            Log.e(TAG, "Invalid backfill request", e);
+            return false;
+        }
     }
 
-    @SuppressLint("MissingPermission")
     public void sendData(double setVolt, double setAmp, double maxVolt, double maxAmp, boolean outputOn) {
-        if (bluetoothGatt == null || rxCharacteristic == null) {
+        if (!transport.isConnected()) {
             sendError("Not connected to device or characteristic not ready");
-            Log.e(TAG, "Cannot send data - bluetoothGatt: " + bluetoothGatt + ", rxCharacteristic: " + rxCharacteristic);
             return;
         }
 
         try {
-            byte[] data = createDataPacket(setVolt, setAmp, maxVolt, maxAmp, outputOn);
-
-            Log.d(TAG, "Sending data to ESP32: " + data.length + " bytes");
-
-            // Set the value and write to the characteristic
-            rxCharacteristic.setValue(data);
-            boolean success = bluetoothGatt.writeCharacteristic(rxCharacteristic);
-
-            if (success) {
-                Log.d(TAG, "Data sent successfully to ESP32");
-                Log.d(TAG, String.format("Sent: SetV=%.2fV, SetA=%.2fA, MaxV=%.2fV, MaxA=%.2fA, Output=%s",
-                        setVolt, setAmp, maxVolt, maxAmp, outputOn ? "ON" : "OFF"));
-            } else {
-                Log.e(TAG, "Failed to write to RX characteristic");
-                sendError("Failed to send data - write operation failed");
+            boolean queued = writeCommand(new SetpointCommand(setVolt, setAmp, maxVolt, maxAmp, outputOn), false,
+                    success -> {
+                        if (success) {
+                            Log.d(TAG, "Data sent successfully to ESP32");
+                            Log.d(TAG, String.format("Sent: SetV=%.2fV, SetA=%.2fA, MaxV=%.2fV, MaxA=%.2fA, Output=%s",
+                                    setVolt, setAmp, maxVolt, maxAmp, outputOn ? "ON" : "OFF"));
+                        } else {
+                            Log.e(TAG, "Failed to write to RX characteristic");
+                            sendError("Failed to send data - write operation failed");
+                        }
+                    });
+            if (!queued) {
+                sendError("Not connected to device or characteristic not ready");
             }
+        } catch (ProtocolException e) {
+            Log.e(TAG, "Invalid setpoint", e);
+            sendError("Invalid setpoint: " + e.getMessage());
         } catch (Exception e) {
             Log.e(TAG, "Error sending data", e);
             sendError("Error sending data: " + e.getMessage());
         }
     }
 
-    private byte[] createDataPacket(double setVolt, double setAmp, double maxVolt, double maxAmp, boolean outputOn) {
-        ByteBuffer buffer = ByteBuffer.allocate(12);
-        buffer.order(ByteOrder.LITTLE_ENDIAN);
+    /**
+     * Sends setpoints while a control is being dragged. Calls can come at touch rate: writes are
+     * spaced out and only the newest value is sent, so call it again with the final value when
+     * the drag ends. Telemetry must be attached to the streamer to confirm delivery.
+     */
+    public void streamData(double setVolt, double setAmp, double maxVolt, double maxAmp, boolean outputOn) {
+        if (!transport.isConnected()) return;
+        streamer.offer(new SetpointCommand(setVolt, setAmp, maxVolt, maxAmp, outputOn));
+    }
 
-        // Convert values to uint16_t (multiply by 1000 to preserve decimals)
-        buffer.putShort((short) (setVolt * 1000));   // Set Voltage
-        buffer.putShort((short) (setAmp * 1000));    // Set Current
-        buffer.putShort((short) (maxVolt * 1000));   // Max Voltage
-        buffer.putShort((short) (maxAmp * 1000));    // Max Current
-        buffer.putShort((short) (outputOn ? 1 : 0)); // Output State
-        buffer.putShort((short) 0); // Reserved
+    // Streamer thread; the streamer sends nothing else until the write completes
+    private boolean writeSetpoint(SetpointCommand command) {
+        if (!transport.isConnected()) return false;
+        try {
+            return writeCommand(command, true, streamer::onWriteComplete);
+        } catch (ProtocolException e) {
+            Log.e(TAG, "Invalid setpoint", e);
+            sendError("Invalid setpoint: " + e.getMessage());
+            return false;
+        }
+    }
 
-        return buffer.array();
+    /**
+     * Queues command; throws if the negotiated framing cannot carry it. It is encoded when it
+     * reaches the front of the queue, see encodeCommand().
+     */
+    private synchronized boolean writeCommand(SetpointCommand command, boolean withoutResponse,
+                                              WriteCallback callback) throws ProtocolException {
+        encodeCommand(command, null);
+        return enqueue(new QueuedWrite(null, command, withoutResponse, callback));
     }
 
-    @SuppressLint("MissingPermission")
-    private void enableTXNotifications() {
-        if (bluetoothGatt == null || txCharacteristic == null) {
-            Log.e(TAG, "Cannot enable notifications - GATT or TX characteristic is null");
-            return;
+    /**
+     * Encodes command in the negotiated framing. A v2 frame only carries the fields that differ
+     * from base, or all of them without one; a command equal to it is a resend and goes out
+     * whole, in case the earlier frames were lost.
+     */
+    private byte[] encodeCommand(SetpointCommand command, SetpointCommand base) throws ProtocolException {
+        if (protocolVersion < ProtocolCodec.PROTOCOL_V2) {
+            return ProtocolCodec.encodeSetpoint(command);
         }
+        int fields = ProtocolCodec.changedFields(command, base);
+        if (fields == 0) fields = ProtocolCodec.FIELD_ALL;
+        byte[] data = new byte[ProtocolCodec.setpointV2Length(fields)];
+        ProtocolCodec.encodeSetpointV2(command, fields, data);
+        return data;
+    }
 
-        // Enable local notifications
-        boolean notificationSet = bluetoothGatt.setCharacteristicNotification(txCharacteristic, true);
-        Log.d(TAG, "Notification set: " + notificationSet);
+    // False if not connected
+    private synchronized boolean enqueue(byte[] data, boolean withoutResponse, WriteCallback callback) {
+        return enqueue(new QueuedWrite(data, null, withoutResponse, callback));
+    }
 
-        // Enable remote notifications via client characteristic configuration descriptor
-        BluetoothGattDescriptor descriptor = txCharacteristic.getDescriptor(CLIENT_CHARACTERISTIC_CONFIG);
-        if (descriptor != null) {
-            descriptor.setValue(BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE);
-            boolean descriptorWrite = bluetoothGatt.writeDescriptor(descriptor);
-            Log.d(TAG, "Descriptor write: " + descriptorWrite);
-        } else {
-            Log.e(TAG, "Client characteristic configuration descriptor not found!");
-        }
+    private synchronized boolean enqueue(QueuedWrite write) {
+        if (clearing || !transport.isConnected()) return false;
+        writeQueue.addLast(write);
+        startNextWrite();
+        return true;
     }
 
-    private final BluetoothGattCallback gattCallback = new BluetoothGattCallback() {
-        @Override
-        public void onConnectionStateChange(BluetoothGatt gatt, int status, int newState) {
-            super.onConnectionStateChange(gatt, status, newState);
-            Log.d(TAG, "Connection state changed: " + newState + ", status: " + status);
-
-            if (newState == BluetoothProfile.STATE_CONNECTED) {
-                isConnected = true;
-                Log.d(TAG, "Connected to device, discovering services...");
-                gatt.discoverServices();
-
-            } else if (newState == BluetoothProfile.STATE_DISCONNECTED) {
-                isConnected = false;
-                servicesDiscovered = false;
-                rxCharacteristic = null;
-                txCharacteristic = null;
-                mainHandler.post(() -> {
-                    if (listener != null) {
-                        listener.onDeviceDisconnected();
-                    }
-                });
-                Log.d(TAG, "Disconnected from device");
+    // Holding this: starts queued writes until one is in flight
+    private void startNextWrite() {
+        while (inFlight == null && !writeQueue.isEmpty()) {
+            QueuedWrite write = writeQueue.pollFirst();
+            byte[] data;
+            try {
+                // Streamed frames are never acknowledged, so they cannot be a delta of anything
+                data = write.command != null
+                        ? encodeCommand(write.command, write.withoutResponse ? null : lastAcked) : write.data;
+            } catch (ProtocolException e) {
+                // The framing changed while it waited
+                Log.e(TAG, "Invalid setpoint", e);
+                write.callback.onWritten(false);
+                continue;
+            }
+            inFlight = write;
+            inFlightSinceNanos = System.nanoTime();
+            // A transport may report completion before returning
+            boolean started = write.withoutResponse ? transport.writeWithoutResponse(data) : transport.write(data);
+            if (write.command != null) {
+                // Until acknowledged, the device may or may not have it
+                lastAcked = null;
+            }
+            if (!started && inFlight == write) {
+                inFlight = null;
+                inFlightSinceNanos = 0;
+                write.callback.onWritten(false);
             }
         }
+    }
 
-        @Override
-        public void onServicesDiscovered(BluetoothGatt gatt, int status) {
-            super.onServicesDiscovered(gatt, status);
-            Log.d(TAG, "Services discovered: " + status);
-
-            if (status == BluetoothGatt.GATT_SUCCESS) {
-                BluetoothGattService service = gatt.getService(SERVICE_UUID);
-                if (service != null) {
-                    Log.d(TAG, "Service found, setting up characteristics...");
-
-                    // Get RX Characteristic (for writing TO ESP32)
-                    rxCharacteristic = service.getCharacteristic(RX_CHARACTERISTIC_UUID);
-
-                    // Get TX Characteristic (for receiving FROM ESP32)
-                    txCharacteristic = service.getCharacteristic(TX_CHARACTERISTIC_UUID);
-
-                    if (rxCharacteristic != null && txCharacteristic != null) {
-                        Log.d(TAG, "Both characteristics found successfully");
-                        Log.d(TAG, "RX Char UUID: " + rxCharacteristic.getUuid());
-                        Log.d(TAG, "TX Char UUID: " + txCharacteristic.getUuid());
+    // Transport thread: the write in flight completed
+    private synchronized void onWriteComplete(boolean success) {
+        QueuedWrite write = inFlight;
+        if (write == null) return;
+        inFlight = null;
+        inFlightSinceNanos = 0;
+        if (success && write.command != null && !write.withoutResponse) {
+            lastAcked = write.command;
+        }
+        write.callback.onWritten(success);
+        startNextWrite();
+    }
 
-                        // Enable notifications for TX characteristic
-                        enableTXNotifications();
+    // Transport thread, on every notification: gives up on a completion that never came
+    private void checkWriteTimeout() {
+        long since = inFlightSinceNanos;
+        if (since == 0 || System.nanoTime() - since < WRITE_TIMEOUT_NANOS) return;
+        synchronized (this) {
+            if (inFlight == null || System.nanoTime() - inFlightSinceNanos < WRITE_TIMEOUT_NANOS) return;
+            Log.e(TAG, "Write timed out");
+            onWriteComplete(false);
+        }
+    }
 
-                        servicesDiscovered = true;
+    // Drops writes meant for the last connection, failing each through its callback
+    private synchronized void clearWrites() {
+        List<QueuedWrite> dropped = new ArrayList<>(writeQueue.size() + 1);
+        if (inFlight != null) dropped.add(inFlight);
+        dropped.addAll(writeQueue);
+        writeQueue.clear();
+        inFlight = null;
+        inFlightSinceNanos = 0;
+        clearing = true;
+        try {
+            for (QueuedWrite write : dropped) {
+                write.callback.onWritten(false);
+            }
+        } finally {
+            clearing = false;
+        }
+    }
 
-                        mainHandler.post(() -> {
-                            if (listener != null) {
-                                listener.onDeviceConnected();
-                            }
-                        });
+    // Transport thread once the link is ready for writes, and again if the write fails
+    private synchronized void sendHello() {
+        if (helloDone || helloQueued) return;
+        helloAttempts++;
+        // Set first: a write that fails to start calls back before enqueue returns
+        helloQueued = true;
+        if (!enqueue(ProtocolCodec.encodeHello(), false, this::onHelloWritten)) {
+            helloQueued = false;
+        }
+    }
 
-                        Log.d(TAG, "BLE setup complete - ready for communication");
+    // Holding this, from the write queue
+    private void onHelloWritten(boolean success) {
+        helloQueued = false;
+        if (success || helloAttempts >= HELLO_ATTEMPTS) {
+            helloDone = true;
+        } else {
+            sendHello();
+        }
+    }
 
-                    } else {
-                        Log.e(TAG, "Characteristics not found - RX: " + rxCharacteristic + ", TX: " + txCharacteristic);
-                        sendError("Required characteristics not found on device");
-                    }
-                } else {
-                    Log.e(TAG, "Service not found: " + SERVICE_UUID);
+    // True if the reply was valid
+    private synchronized boolean onHelloReply(byte[] data) {
+        try {
+            int version = Math.min(ProtocolCodec.decodeHelloReply(data), ProtocolCodec.PROTOCOL_V2);
+            helloDone = true;
+            lastAcked = null;
+            protocolVersion = Math.max(version, ProtocolCodec.PROTOCOL_V1);
+            Log.d(TAG, "Device speaks setpoint protocol v" + protocolVersion);
+            sendTelemetryInterval();
+            return true;
+        } catch (ProtocolException e) {
+            Log.e(TAG, "Invalid hello reply", e);
+            return false;
+        }
+    }
 
-                    // List all available services for debugging
-                    Log.d(TAG, "Available services:");
-                    for (BluetoothGattService s : gatt.getServices()) {
-                        Log.d(TAG, "Service: " + s.getUuid());
-                    }
+    private synchronized void resetProtocol() {
+        // First, so what the failed writes' callbacks change is reset below
+        clearWrites();
+        protocolVersion = ProtocolCodec.PROTOCOL_V1;
+        helloDone = false;
+        helloAttempts = 0;
+        helloQueued = false;
+        lastAcked = null;
+        sentIntervalMillis = 0;
+        rateQueued = false;
+        rateFailures = 0;
+    }
 
-                    sendError("Required service not found on device");
+    private final Transport.TransportListener transportListener = new Transport.TransportListener() {
+        @Override
+        public void onConnected() {
+            resetProtocol();
+            callbackExecutor.execute(() -> {
+                if (listener != null) {
+                    listener.onDeviceConnected();
                 }
-            } else {
-                Log.e(TAG, "Service discovery failed: " + status);
-                sendError("Service discovery failed");
-            }
+            });
+            // The transport only reports the connection once notifications are enabled, so
+            // the reply has somewhere to arrive
+            sendHello();
         }
 
         @Override
-        public void onCharacteristicChanged(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic) {
-            super.onCharacteristicChanged(gatt, characteristic);
-
-            Log.d(TAG, "Characteristic changed: " + characteristic.getUuid());
-
-            if (characteristic.getUuid().equals(TX_CHARACTERISTIC_UUID)) {
-                byte[] data = characteristic.getValue();
-                Log.d(TAG, "Received data from ESP32: " + data.length + " bytes");
-
-                // Print raw bytes for debugging
-                StringBuilder hexData = new StringBuilder();
-                for (byte b : data) {
-                    hexData.append(String.format("%02X ", b));
-                }
-                Log.d(TAG, "Raw data: " + hexData.toString());
-
+        public void onDisconnected() {
+            clearWrites();
+            callbackExecutor.execute(() -> {
                 if (listener != null) {
-                    listener.onDataReceived(data);
+                    listener.onDeviceDisconnected();
                 }
-            }
+            });
         }
 
         @Override
-        public void onCharacteristicWrite(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
-            super.onCharacteristicWrite(gatt, characteristic, status);
-
-            if (characteristic.getUuid().equals(RX_CHARACTERISTIC_UUID)) {
-                if (status == BluetoothGatt.GATT_SUCCESS) {
-                    Log.d(TAG, "Data successfully written to ESP32");
-                } else {
-                    Log.e(TAG, "Failed to write data to ESP32, status: " + status);
+        public void onNotification(byte[] data) {
+            if (ProtocolCodec.isHelloReply(data)) {
+                if (onHelloReply(data) && listener != null) {
+                    listener.onProtocolNegotiated(protocolVersion);
                 }
+                return;
+            }
+            checkWriteTimeout();
+            if (Metrics.enabled) Metrics.NOTIFICATIONS.increment();
+            if (listener != null) {
+                listener.onDataReceived(data);
             }
         }
 
         @Override
-        public void onDescriptorWrite(BluetoothGatt gatt, BluetoothGattDescriptor descriptor, int status) {
-            super.onDescriptorWrite(gatt, descriptor, status);
-            Log.d(TAG, "Descriptor write completed: " + descriptor.getUuid() + ", status: " + status);
+        public void onError(String error) {
+            sendError(error);
+        }
 
-            if (status == BluetoothGatt.GATT_SUCCESS) {
-                if (descriptor.getUuid().equals(CLIENT_CHARACTERISTIC_CONFIG)) {
-                    Log.d(TAG, "Notifications enabled successfully!");
-                }
-            } else {
-                Log.e(TAG, "Failed to write descriptor: " + status);
-            }
+        @Override
+        public void onWriteComplete(boolean success) {
+            BLEService.this.onWriteComplete(success);
         }
     };
 
     private void sendError(String error) {
         Log.e(TAG, error);
-        mainHandler.post(() -> {
+        callbackExecutor.execute(() -> {
             if (listener != null) {
                 listener.onError(error);
             }
@@ -0,0 +1,218 @@
+package pollob.voltify;
+
+import android.util.Log;
+
+import pollob.voltify.telemetry.TelemetryEvent;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Per-session log of TelemetryEvents, indexed by time and by type.
+ * Events are kept in memory (bounded) and appended to events_&lt;sessionId&gt;.csv
+ * so a history view can jump straight to them by session time or sample index. A new file
+ * starts with a header holding the session's wall-clock start, which places its events on
+ * HistoryStore's time axis.
+ * add() is called from the pipeline's analysis thread, so the file is written on a single
+ * writer thread.
+ */
+public class EventLog {
+    private static final String TAG = "EventLog";
+    private static final int MAX_EVENTS = 5000;
+    private static final String FILE_PREFIX = "events_";
+    private static final String FILE_SUFFIX = ".csv";
+    private static final String SESSION_ID_FORMAT = "yyyyMMdd-HHmmss";
+    // First line of a session file: the header, then epoch millis of the session start
+    private static final String START_HEADER = "#start,";
+
+    private final File directory;
+    private final List<TelemetryEvent> events = new ArrayList<>();
+    private final EnumMap<TelemetryEvent.Type, List<TelemetryEvent>> byType = new EnumMap<>(TelemetryEvent.Type.class);
+    private String sessionId = "";
+    private boolean closed = false;
+
+    // Owns writer; tasks run in the order the events were added
+    private final ExecutorService fileExecutor = Executors.newSingleThreadExecutor();
+    private BufferedWriter writer;
+
+    public EventLog(File directory) {
+        this.directory = directory;
+        for (TelemetryEvent.Type type : TelemetryEvent.Type.values()) {
+            byType.put(type, new ArrayList<>());
+        }
+    }
+
+    public synchronized void startSession(long wallClockMillis) {
+        events.clear();
+        for (List<TelemetryEvent> list : byType.values()) {
+            list.clear();
+        }
+        sessionId = new SimpleDateFormat(SESSION_ID_FORMAT, Locale.US).format(new Date(wallClockMillis));
+
+        if (directory != null && !closed) {
+            File file = sessionFile(directory, sessionId);
+            fileExecutor.execute(() -> openWriter(file, wallClockMillis));
+        }
+    }
+
+    public synchronized void add(TelemetryEvent event) {
+        if (events.size() >= MAX_EVENTS) {
+            TelemetryEvent oldest = events.remove(0);
+            byType.get(oldest.type).remove(0);
+        }
+        events.add(event);
+        byType.get(event.type).add(event);
+
+        if (directory != null && !closed) {
+            String line = event.toCsv();
+            fileExecutor.execute(() -> write(line));
+        }
+    }
+
+    // Pending events are still written before the file is closed
+    public synchronized void close() {
+        if (closed) return;
+        closed = true;
+        fileExecutor.execute(this::closeWriter);
+        fileExecutor.shutdown();
+    }
+
+    public synchronized String getSessionId() { return sessionId; }
+    public synchronized int size() { return events.size(); }
+    public synchronized int count(TelemetryEvent.Type type) { return byType.get(type).size(); }
+
+    public synchronized List<TelemetryEvent> getEvents() {
+        return new ArrayList<>(events);
+    }
+
+    public synchronized List<TelemetryEvent> getEvents(TelemetryEvent.Type type) {
+        return new ArrayList<>(byType.get(type));
+    }
+
+    // Index of the first event at or after sessionMillis, or size() if there is none
+    public synchronized int indexAtOrAfter(long sessionMillis) {
+        int low = 0, high = events.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (events.get(mid).sessionMillis < sessionMillis) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    public static File sessionFile(File directory, String sessionId) {
+        return new File(directory, FILE_PREFIX + sessionId + FILE_SUFFIX);
+    }
+
+    // Every session file in directory, oldest first
+    public static List<File> sessionFiles(File directory) {
+        List<File> files = new ArrayList<>();
+        File[] listed = directory.listFiles((dir, name) -> name.startsWith(FILE_PREFIX) && name.endsWith(FILE_SUFFIX));
+        if (listed != null) {
+            for (File file : listed) files.add(file);
+        }
+        // The session id sorts by time
+        files.sort((a, b) -> a.getName().compareTo(b.getName()));
+        return files;
+    }
+
+    /**
+     * Epoch millis the session in file started at, so an event happened at that plus its
+     * sessionMillis. Files without the header fall back to the session id, to the second;
+     * -1 if neither can be read.
+     */
+    public static long sessionStartMillis(File file) {
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line = reader.readLine();
+            if (line != null && line.startsWith(START_HEADER)) {
+                return Long.parseLong(line.substring(START_HEADER.length()));
+            }
+        } catch (IOException | NumberFormatException e) {
+            Log.e(TAG, "Error reading event log header: " + file, e);
+        }
+        String name = file.getName();
+        if (!name.startsWith(FILE_PREFIX) || !name.endsWith(FILE_SUFFIX)) return -1;
+        String id = name.substring(FILE_PREFIX.length(), name.length() - FILE_SUFFIX.length());
+        try {
+            return new SimpleDateFormat(SESSION_ID_FORMAT, Locale.US).parse(id).getTime();
+        } catch (ParseException e) {
+            return -1;
+        }
+    }
+
+    public static List<TelemetryEvent> load(File file) throws IOException {
+        List<TelemetryEvent> loaded = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.isEmpty() && !line.startsWith("#")) {
+                    loaded.add(TelemetryEvent.fromCsv(line));
+                }
+            }
+        }
+        return loaded;
+    }
+
+    // Writer thread
+    private void openWriter(File file, long wallClockMillis) {
+        closeWriter();
+        try {
+            if (!directory.exists() && !directory.mkdirs()) {
+                Log.e(TAG, "Cannot create event directory: " + directory);
+                return;
+            }
+            // A session restarted within the same second appends to the first one's file
+            boolean created = !file.exists() || file.length() == 0;
+            writer = new BufferedWriter(new FileWriter(file, true));
+            if (created) {
+                writer.write(START_HEADER + wallClockMillis);
+                writer.newLine();
+                writer.flush();
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Error opening event log", e);
+            writer = null;
+        }
+    }
+
+    // Writer thread
+    private void write(String line) {
+        if (writer == null) return;
+        try {
+            // Events are rare, so flushing each one keeps the file complete if the app dies
+            writer.write(line);
+            writer.newLine();
+            writer.flush();
+        } catch (IOException e) {
+            Log.e(TAG, "Error writing event", e);
+        }
+    }
+
+    // Writer thread
+    private void closeWriter() {
+        if (writer != null) {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                Log.e(TAG, "Error closing event log", e);
+            }
+            writer = null;
+        }
+    }
+}
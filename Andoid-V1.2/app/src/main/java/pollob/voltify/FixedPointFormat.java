@@ -0,0 +1,59 @@
+package pollob.voltify;
+
+/**
+ * Allocation-free decimal formatting into a char buffer, for views that redraw per sample.
+ * Values are rounded to a fixed number of decimals (half up, by Math.round) first, so callers
+ * can compare the scaled long to skip redraws when the visible digits have not changed.
+ */
+public final class FixedPointFormat {
+    public static final int MAX_DECIMALS = 6;
+    // Sign, 19 digits of a long and the decimal point
+    public static final int MAX_INTEGER_CHARS = 21;
+
+    private static final long[] POWERS_OF_TEN = {1L, 10L, 100L, 1000L, 10_000L, 100_000L, 1_000_000L};
+
+    private FixedPointFormat() {
+    }
+
+    // value * 10^decimals, rounded; NaN becomes 0
+    public static long scale(double value, int decimals) {
+        return Math.round(value * POWERS_OF_TEN[decimals]);
+    }
+
+    // Writes e.g. 12346 with 3 decimals as "12.346"; returns the number of chars written
+    public static int format(long scaled, int decimals, char[] out, int offset) {
+        int pos = offset;
+        if (scaled < 0) {
+            out[pos++] = '-';
+            scaled = -scaled;
+        }
+        long power = POWERS_OF_TEN[decimals];
+        long integer = scaled / power;
+        long fraction = scaled % power;
+
+        int start = pos;
+        do {
+            out[pos++] = (char) ('0' + integer % 10);
+            integer /= 10;
+        } while (integer > 0);
+        for (int i = start, j = pos - 1; i < j; i++, j--) {
+            char c = out[i];
+            out[i] = out[j];
+            out[j] = c;
+        }
+
+        if (decimals > 0) {
+            out[pos++] = '.';
+            for (int i = decimals - 1; i >= 0; i--) {
+                out[pos + i] = (char) ('0' + fraction % 10);
+                fraction /= 10;
+            }
+            pos += decimals;
+        }
+        return pos - offset;
+    }
+
+    public static int format(double value, int decimals, char[] out, int offset) {
+        return format(scale(value, decimals), decimals, out, offset);
+    }
+}
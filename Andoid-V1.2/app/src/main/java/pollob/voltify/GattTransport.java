@@ -0,0 +1,381 @@
+package pollob.voltify;
+
+import android.annotation.SuppressLint;
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCallback;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothGattService;
+import android.bluetooth.BluetoothManager;
+import android.bluetooth.BluetoothProfile;
+import android.content.Context;
+import android.util.Log;
+
+import java.util.UUID;
+
+import pollob.voltify.protocol.ProtocolCodec;
+import pollob.voltify.protocol.Transport;
+import pollob.voltify.telemetry.Tracing;
+
+/**
+ * Transport over the ESP32's GATT service: notifications on TX, setpoint writes on RX.
+ * Callbacks arrive on the Binder thread.
+ */
+public class GattTransport implements Transport {
+    private static final String TAG = "GattTransport";
+
+    // UUIDs for BLE service and characteristics
+    private static final UUID SERVICE_UUID = UUID.fromString("12345678-1234-5678-9abc-123456789abc");
+    private static final UUID TX_CHARACTERISTIC_UUID = UUID.fromString("12345678-1234-5678-9abc-123456789abd"); // ESP32 -> Android (NOTIFY)
+    private static final UUID RX_CHARACTERISTIC_UUID = UUID.fromString("12345678-1234-5678-9abc-123456789abe"); // Android -> ESP32 (WRITE)
+
+    // UUID for the client characteristic configuration descriptor
+    private static final UUID CLIENT_CHARACTERISTIC_CONFIG = UUID.fromString("00002902-0000-1000-8000-00805f9b34fb");
+
+    // Largest MTU the ESP32 stack accepts; fits 14 frames in a backfill notification
+    private static final int REQUESTED_MTU = 247;
+
+    private Context context;
+    private volatile TransportListener listener;
+    private BluetoothAdapter bluetoothAdapter;
+    private BluetoothGatt bluetoothGatt;
+    private BluetoothGattCharacteristic rxCharacteristic; // For writing to ESP32
+    private BluetoothGattCharacteristic txCharacteristic; // For receiving from ESP32
+
+    private volatile boolean isConnected = false;
+    // Services found and notifications enabled, so the GATT queue is free for writes
+    private volatile boolean ready = false;
+    private volatile int mtu = DEFAULT_MTU;
+
+    public GattTransport(Context context) {
+        this.context = context;
+        initializeBluetooth();
+    }
+
+    @Override
+    public void setListener(TransportListener listener) {
+        this.listener = listener;
+    }
+
+    private void initializeBluetooth() {
+        try {
+            BluetoothManager bluetoothManager = (BluetoothManager) context.getSystemService(Context.BLUETOOTH_SERVICE);
+            if (bluetoothManager != null) {
+                bluetoothAdapter = bluetoothManager.getAdapter();
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Error initializing Bluetooth", e);
+        }
+    }
+
+    @Override
+    @SuppressLint("MissingPermission")
+    public void connect(String macAddress) {
+        Log.d(TAG, "Connecting to: " + macAddress);
+
+        if (bluetoothAdapter == null) {
+            sendError("Bluetooth not available");
+            return;
+        }
+
+        if (!bluetoothAdapter.isEnabled()) {
+            sendError("Bluetooth is disabled");
+            return;
+        }
+
+        try {
+            BluetoothDevice device = bluetoothAdapter.getRemoteDevice(macAddress);
+            if (device == null) {
+                sendError("Device not found: " + macAddress);
+                return;
+            }
+
+            Log.d(TAG, "Found device: " + device.getName() + " - " + device.getAddress());
+
+            // Disconnect first if already connected
+            if (bluetoothGatt != null) {
+                bluetoothGatt.disconnect();
+                bluetoothGatt.close();
+                bluetoothGatt = null;
+            }
+
+            bluetoothGatt = device.connectGatt(context, false, gattCallback);
+            Log.d(TAG, "Connection initiated");
+
+        } catch (Exception e) {
+            Log.e(TAG, "Connection failed", e);
+            sendError("Connection failed: " + e.getMessage());
+        }
+    }
+
+    @Override
+    @SuppressLint("MissingPermission")
+    public void disconnect() {
+        Log.d(TAG, "Disconnecting...");
+        ready = false;
+        if (bluetoothGatt != null) {
+            bluetoothGatt.disconnect();
+            bluetoothGatt.close();
+            bluetoothGatt = null;
+        }
+        isConnected = false;
+        mtu = DEFAULT_MTU;
+        rxCharacteristic = null;
+        txCharacteristic = null;
+    }
+
+    @Override
+    public boolean isConnected() {
+        return isConnected && ready;
+    }
+
+    @Override
+    public int getMtu() {
+        return mtu;
+    }
+
+    @Override
+    @SuppressLint("MissingPermission")
+    public boolean write(byte[] data) {
+        return write(data, BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT);
+    }
+
+    @Override
+    public boolean writeWithoutResponse(byte[] data) {
+        return write(data, BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE);
+    }
+
+    @SuppressLint("MissingPermission")
+    private boolean write(byte[] data, int writeType) {
+        if (bluetoothGatt == null || rxCharacteristic == null) {
+            Log.e(TAG, "Cannot write - bluetoothGatt: " + bluetoothGatt + ", rxCharacteristic: " + rxCharacteristic);
+            return false;
+        }
+        // Firmware without the no-response property still gets a normal write
+        if (writeType == BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE
+                && (rxCharacteristic.getProperties() & BluetoothGattCharacteristic.PROPERTY_WRITE_NO_RESPONSE) == 0) {
+            writeType = BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT;
+        }
+
+        try {
+            // Set the value and write to the characteristic
+            rxCharacteristic.setWriteType(writeType);
+            rxCharacteristic.setValue(data);
+            return bluetoothGatt.writeCharacteristic(rxCharacteristic);
+        } catch (Exception e) {
+            Log.e(TAG, "Error writing characteristic", e);
+            return false;
+        }
+    }
+
+    // True if the descriptor write started; onDescriptorWrite then finishes the setup
+    @SuppressLint("MissingPermission")
+    private boolean enableTXNotifications() {
+        if (bluetoothGatt == null || txCharacteristic == null) {
+            Log.e(TAG, "Cannot enable notifications - GATT or TX characteristic is null");
+            return false;
+        }
+
+        // Enable local notifications
+        boolean notificationSet = bluetoothGatt.setCharacteristicNotification(txCharacteristic, true);
+        Log.d(TAG, "Notification set: " + notificationSet);
+
+        // Enable remote notifications via client characteristic configuration descriptor
+        BluetoothGattDescriptor descriptor = txCharacteristic.getDescriptor(CLIENT_CHARACTERISTIC_CONFIG);
+        if (descriptor != null) {
+            descriptor.setValue(BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE);
+            boolean descriptorWrite = bluetoothGatt.writeDescriptor(descriptor);
+            Log.d(TAG, "Descriptor write: " + descriptorWrite);
+            return descriptorWrite;
+        }
+        Log.e(TAG, "Client characteristic configuration descriptor not found!");
+        return false;
+    }
+
+    // The link is ready for writes; the first one can go out from onConnected()
+    private void setupComplete() {
+        ready = true;
+        TransportListener l = listener;
+        if (l != null) {
+            l.onConnected();
+        }
+        Log.d(TAG, "BLE setup complete - ready for communication");
+    }
+
+    private final BluetoothGattCallback gattCallback = new BluetoothGattCallback() {
+        @Override
+        public void onConnectionStateChange(BluetoothGatt gatt, int status, int newState) {
+            super.onConnectionStateChange(gatt, status, newState);
+            boolean traced = Tracing.begin("GATT onConnectionStateChange");
+            try {
+                Log.d(TAG, "Connection state changed: " + newState + ", status: " + status);
+
+                if (newState == BluetoothProfile.STATE_CONNECTED) {
+                    isConnected = true;
+                    // Services are discovered once the MTU exchange is done
+                    Log.d(TAG, "Connected to device, requesting MTU " + REQUESTED_MTU);
+                    if (!gatt.requestMtu(REQUESTED_MTU)) {
+                        gatt.discoverServices();
+                    }
+
+                } else if (newState == BluetoothProfile.STATE_DISCONNECTED) {
+                    isConnected = false;
+                    ready = false;
+                    mtu = DEFAULT_MTU;
+                    rxCharacteristic = null;
+                    txCharacteristic = null;
+                    TransportListener l = listener;
+                    if (l != null) {
+                        l.onDisconnected();
+                    }
+                    Log.d(TAG, "Disconnected from device");
+                }
+            } finally {
+                Tracing.end(traced);
+            }
+        }
+
+        @Override
+        public void onMtuChanged(BluetoothGatt gatt, int mtu, int status) {
+            super.onMtuChanged(gatt, mtu, status);
+            boolean traced = Tracing.begin("GATT onMtuChanged");
+            try {
+                Log.d(TAG, "MTU changed: " + mtu + ", status: " + status + ", discovering services...");
+                if (status == BluetoothGatt.GATT_SUCCESS) {
+                    GattTransport.this.mtu = mtu;
+                }
+                gatt.discoverServices();
+            } finally {
+                Tracing.end(traced);
+            }
+        }
+
+        @Override
+        public void onServicesDiscovered(BluetoothGatt gatt, int status) {
+            super.onServicesDiscovered(gatt, status);
+            boolean traced = Tracing.begin("GATT onServicesDiscovered");
+            try {
+                Log.d(TAG, "Services discovered: " + status);
+
+                if (status == BluetoothGatt.GATT_SUCCESS) {
+                    BluetoothGattService service = gatt.getService(SERVICE_UUID);
+                    if (service != null) {
+                        Log.d(TAG, "Service found, setting up characteristics...");
+
+                        // Get RX Characteristic (for writing TO ESP32)
+                        rxCharacteristic = service.getCharacteristic(RX_CHARACTERISTIC_UUID);
+
+                        // Get TX Characteristic (for receiving FROM ESP32)
+                        txCharacteristic = service.getCharacteristic(TX_CHARACTERISTIC_UUID);
+
+                        if (rxCharacteristic != null && txCharacteristic != null) {
+                            Log.d(TAG, "Both characteristics found successfully");
+                            Log.d(TAG, "RX Char UUID: " + rxCharacteristic.getUuid());
+                            Log.d(TAG, "TX Char UUID: " + txCharacteristic.getUuid());
+
+                            // Enable notifications for TX characteristic; writes wait until
+                            // the descriptor write is done, as GATT runs one operation at a time
+                            if (!enableTXNotifications()) {
+                                setupComplete();
+                            }
+
+                        } else {
+                            Log.e(TAG, "Characteristics not found - RX: " + rxCharacteristic + ", TX: " + txCharacteristic);
+                            sendError("Required characteristics not found on device");
+                        }
+                    } else {
+                        Log.e(TAG, "Service not found: " + SERVICE_UUID);
+
+                        // List all available services for debugging
+                        Log.d(TAG, "Available services:");
+                        for (BluetoothGattService s : gatt.getServices()) {
+                            Log.d(TAG, "Service: " + s.getUuid());
+                        }
+
+                        sendError("Required service not found on device");
+                    }
+                } else {
+                    Log.e(TAG, "Service discovery failed: " + status);
+                    sendError("Service discovery failed");
+                }
+            } finally {
+                Tracing.end(traced);
+            }
+        }
+
+        @Override
+        public void onCharacteristicChanged(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic) {
+            super.onCharacteristicChanged(gatt, characteristic);
+            boolean traced = Tracing.begin("GATT onCharacteristicChanged");
+            try {
+                if (characteristic.getUuid().equals(TX_CHARACTERISTIC_UUID)) {
+                    byte[] data = characteristic.getValue();
+                    // Every notification; enable with adb shell setprop log.tag.GattTransport VERBOSE
+                    if (Log.isLoggable(TAG, Log.VERBOSE)) {
+                        Log.v(TAG, "Raw data: " + ProtocolCodec.toHex(data));
+                    }
+
+                    TransportListener l = listener;
+                    if (l != null) {
+                        l.onNotification(data);
+                    }
+                }
+            } finally {
+                Tracing.end(traced);
+            }
+        }
+
+        @Override
+        public void onCharacteristicWrite(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
+            super.onCharacteristicWrite(gatt, characteristic, status);
+            boolean traced = Tracing.begin("GATT onCharacteristicWrite");
+            try {
+                if (characteristic.getUuid().equals(RX_CHARACTERISTIC_UUID)) {
+                    if (status == BluetoothGatt.GATT_SUCCESS) {
+                        // Streamed setpoints complete at the write rate
+                        if (Log.isLoggable(TAG, Log.VERBOSE)) Log.v(TAG, "Data successfully written to ESP32");
+                    } else {
+                        Log.e(TAG, "Failed to write data to ESP32, status: " + status);
+                    }
+                    TransportListener l = listener;
+                    if (l != null) {
+                        l.onWriteComplete(status == BluetoothGatt.GATT_SUCCESS);
+                    }
+                }
+            } finally {
+                Tracing.end(traced);
+            }
+        }
+
+        @Override
+        public void onDescriptorWrite(BluetoothGatt gatt, BluetoothGattDescriptor descriptor, int status) {
+            super.onDescriptorWrite(gatt, descriptor, status);
+            boolean traced = Tracing.begin("GATT onDescriptorWrite");
+            try {
+                Log.d(TAG, "Descriptor write completed: " + descriptor.getUuid() + ", status: " + status);
+
+                if (status == BluetoothGatt.GATT_SUCCESS) {
+                    if (descriptor.getUuid().equals(CLIENT_CHARACTERISTIC_CONFIG)) {
+                        Log.d(TAG, "Notifications enabled successfully!");
+                    }
+                } else {
+                    Log.e(TAG, "Failed to write descriptor: " + status);
+                }
+                if (descriptor.getUuid().equals(CLIENT_CHARACTERISTIC_CONFIG) && !ready) {
+                    setupComplete();
+                }
+            } finally {
+                Tracing.end(traced);
+            }
+        }
+    };
+
+    private void sendError(String error) {
+        TransportListener l = listener;
+        if (l != null) {
+            l.onError(error);
+        }
+    }
+}
\ No newline at end of file
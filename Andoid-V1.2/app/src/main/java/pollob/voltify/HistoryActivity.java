@@ -0,0 +1,300 @@
+package pollob.voltify;
+
+import android.graphics.Color;
+import android.os.Bundle;
+import android.util.Log;
+import android.view.MotionEvent;
+import android.widget.TextView;
+
+import androidx.appcompat.app.AppCompatActivity;
+
+import com.github.mikephil.charting.components.LimitLine;
+import com.github.mikephil.charting.components.XAxis;
+import com.github.mikephil.charting.components.YAxis;
+import com.github.mikephil.charting.data.Entry;
+import com.github.mikephil.charting.data.LineData;
+import com.github.mikephil.charting.data.LineDataSet;
+import com.github.mikephil.charting.formatter.ValueFormatter;
+import com.github.mikephil.charting.listener.ChartTouchListener;
+import com.github.mikephil.charting.listener.OnChartGestureListener;
+
+import pollob.voltify.telemetry.HistoryLoader;
+import pollob.voltify.telemetry.HistoryStore;
+import pollob.voltify.telemetry.HistoryTile;
+import pollob.voltify.telemetry.TelemetryEvent;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Pan and zoom over everything the recorder has stored. Each viewport change asks the
+ * HistoryLoader for the visible span at a tier that fits the chart width; tiles arrive
+ * asynchronously from its LRU cache or from disk, so gestures never wait for I/O.
+ * The x axis is seconds since the first recorded sample. Events from the EventLog session
+ * files are marked on it at the wall-clock time they happened.
+ */
+public class HistoryActivity extends AppCompatActivity {
+    private static final String TAG = "HistoryActivity";
+    private static final int MAX_CACHED_TILES = 64;
+    // Narrowest span the chart zooms to, in seconds
+    private static final float MIN_VISIBLE_SECONDS = 2f;
+    // Every marker is drawn on every frame, so only the newest are shown
+    private static final int MAX_EVENT_MARKERS = 200;
+
+    private TracedLineChart chart;
+    private TextView statusText;
+    private HistoryStore store;
+    private HistoryLoader loader;
+    private double originSeconds;
+    private final ExecutorService eventExecutor = Executors.newSingleThreadExecutor();
+
+    private LineDataSet voltSet, ampSet;
+    // Tiles on screen, to skip rebuilding the data when a gesture stays within them
+    private List<HistoryTile> shownTiles = new ArrayList<>();
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_history);
+        chart = findViewById(R.id.historyChart);
+        statusText = findViewById(R.id.historyStatusText);
+
+        try {
+            store = new HistoryStore(UIUpdate.historyDirectory(this));
+        } catch (IOException e) {
+            Log.e(TAG, "Cannot open telemetry history", e);
+            statusText.setText("Cannot open history: " + e.getMessage());
+            return;
+        }
+        if (store.isEmpty()) {
+            statusText.setText("No recorded telemetry yet");
+            return;
+        }
+        originSeconds = store.getStartSeconds();
+
+        configureChart((float) (store.getEndSeconds() - originSeconds));
+        loader = new HistoryLoader(store, MAX_CACHED_TILES, new HistoryLoader.ViewportListener() {
+            @Override
+            public void onViewportLoaded(long requestId, int tier, List<HistoryTile> tiles) {
+                runOnUiThread(() -> showTiles(tier, tiles));
+            }
+
+            @Override
+            public void onLoadFailed(IOException e) {
+                Log.e(TAG, "Error loading history tile", e);
+            }
+        });
+        loader.start();
+        // The visible range is known once the chart has been laid out
+        chart.post(this::requestViewport);
+
+        File eventsDirectory = UIUpdate.eventsDirectory(this);
+        double origin = originSeconds, end = store.getEndSeconds();
+        eventExecutor.execute(() -> {
+            List<TelemetryEvent> events = new ArrayList<>();
+            List<Float> times = new ArrayList<>();
+            loadEvents(eventsDirectory, origin, end, events, times);
+            runOnUiThread(() -> showEventMarkers(events, times));
+        });
+    }
+
+    @Override
+    protected void onDestroy() {
+        eventExecutor.shutdownNow();
+        if (loader != null) {
+            loader.stop();
+        }
+        if (store != null) {
+            try {
+                store.close();
+            } catch (IOException e) {
+                Log.e(TAG, "Error closing telemetry history", e);
+            }
+        }
+        super.onDestroy();
+    }
+
+    private void configureChart(float spanSeconds) {
+        chart.getDescription().setEnabled(false);
+        chart.setTouchEnabled(true);
+        chart.setDragEnabled(true);
+        chart.setScaleXEnabled(true);
+        chart.setScaleYEnabled(false);
+        chart.setPinchZoom(false);
+        chart.setDoubleTapToZoomEnabled(true);
+        chart.setDrawGridBackground(false);
+        // Fling keeps scrolling after the gesture ends, without gesture callbacks to follow it
+        chart.setDragDecelerationEnabled(false);
+        chart.setAutoScaleMinMaxEnabled(true);
+
+        XAxis xAxis = chart.getXAxis();
+        xAxis.setPosition(XAxis.XAxisPosition.BOTTOM);
+        xAxis.setDrawGridLines(false);
+        // A fixed axis range lets the viewport pan over data that is not loaded yet
+        xAxis.setAxisMinimum(0f);
+        xAxis.setAxisMaximum(Math.max(spanSeconds, MIN_VISIBLE_SECONDS));
+        xAxis.setValueFormatter(new ValueFormatter() {
+            private final SimpleDateFormat format = new SimpleDateFormat("MM-dd HH:mm:ss", Locale.getDefault());
+            private final Date date = new Date();
+
+            @Override
+            public String getFormattedValue(float value) {
+                date.setTime((long) ((originSeconds + value) * 1000));
+                return format.format(date);
+            }
+        });
+
+        chart.getAxisLeft().setDrawGridLines(true);
+        chart.getAxisRight().setEnabled(true);
+        chart.getAxisRight().setDrawGridLines(false);
+
+        voltSet = createDataSet("Voltage (V)", Color.BLUE, YAxis.AxisDependency.LEFT);
+        ampSet = createDataSet("Current (A)", Color.RED, YAxis.AxisDependency.RIGHT);
+        chart.setData(new LineData(voltSet, ampSet));
+        chart.setVisibleXRangeMinimum(MIN_VISIBLE_SECONDS);
+
+        chart.setOnChartGestureListener(new OnChartGestureListener() {
+            @Override public void onChartGestureStart(MotionEvent me, ChartTouchListener.ChartGesture lastPerformedGesture) {}
+            @Override public void onChartLongPressed(MotionEvent me) {}
+            @Override public void onChartSingleTapped(MotionEvent me) {}
+            @Override public void onChartFling(MotionEvent me1, MotionEvent me2, float velocityX, float velocityY) {}
+
+            @Override
+            public void onChartGestureEnd(MotionEvent me, ChartTouchListener.ChartGesture lastPerformedGesture) {
+                requestViewport();
+            }
+
+            @Override
+            public void onChartDoubleTapped(MotionEvent me) {
+                requestViewport();
+            }
+
+            @Override
+            public void onChartScale(MotionEvent me, float scaleX, float scaleY) {
+                requestViewport();
+            }
+
+            @Override
+            public void onChartTranslate(MotionEvent me, float dX, float dY) {
+                requestViewport();
+            }
+        });
+    }
+
+    // Event thread: the newest stored events between fromSeconds and toSeconds (epoch), with
+    // their x positions
+    private static void loadEvents(File directory, double fromSeconds, double toSeconds,
+                                   List<TelemetryEvent> events, List<Float> times) {
+        for (File file : EventLog.sessionFiles(directory)) {
+            long startMillis = EventLog.sessionStartMillis(file);
+            if (startMillis < 0) continue;
+            List<TelemetryEvent> loaded;
+            try {
+                loaded = EventLog.load(file);
+            } catch (IOException | IllegalArgumentException e) {
+                Log.e(TAG, "Error loading events: " + file, e);
+                continue;
+            }
+            for (TelemetryEvent event : loaded) {
+                double seconds = (startMillis + event.sessionMillis) / 1000.0;
+                if (seconds < fromSeconds || seconds > toSeconds) continue;
+                events.add(event);
+                times.add((float) (seconds - fromSeconds));
+            }
+        }
+        // Sessions and their events are in time order, so the oldest go first
+        int excess = events.size() - MAX_EVENT_MARKERS;
+        if (excess > 0) {
+            events.subList(0, excess).clear();
+            times.subList(0, excess).clear();
+        }
+    }
+
+    private void showEventMarkers(List<TelemetryEvent> events, List<Float> times) {
+        if (isFinishing() || events.isEmpty()) return;
+        XAxis xAxis = chart.getXAxis();
+        for (int i = 0; i < events.size(); i++) {
+            LimitLine marker = new LimitLine(times.get(i), events.get(i).describe());
+            marker.setLineColor(Color.parseColor("#00966E"));
+            marker.setLineWidth(1f);
+            marker.enableDashedLine(8f, 6f, 0f);
+            marker.setTextColor(Color.DKGRAY);
+            marker.setTextSize(8f);
+            marker.setLabelPosition(LimitLine.LimitLabelPosition.RIGHT_TOP);
+            xAxis.addLimitLine(marker);
+        }
+        xAxis.setDrawLimitLinesBehindData(true);
+        chart.invalidate();
+    }
+
+    private static LineDataSet createDataSet(String label, int color, YAxis.AxisDependency axis) {
+        LineDataSet dataSet = new LineDataSet(new ArrayList<>(), label);
+        dataSet.setAxisDependency(axis);
+        dataSet.setColor(color);
+        dataSet.setLineWidth(1f);
+        dataSet.setDrawCircles(false);
+        dataSet.setDrawValues(false);
+        dataSet.setHighlightEnabled(false);
+        dataSet.setMode(LineDataSet.Mode.LINEAR);
+        return dataSet;
+    }
+
+    // Cheap enough for every gesture event: cached tiles make repeated requests a lookup
+    private void requestViewport() {
+        if (loader == null || chart.getWidth() == 0) return;
+        double from = originSeconds + chart.getLowestVisibleX();
+        double to = originSeconds + chart.getHighestVisibleX();
+        loader.request(from, to, chart.getWidth());
+    }
+
+    private void showTiles(int tier, List<HistoryTile> tiles) {
+        if (isFinishing() || sameTiles(tiles)) return;
+        shownTiles = tiles;
+
+        int points = 0;
+        for (HistoryTile tile : tiles) {
+            points += 2 * tile.size();
+        }
+        List<Entry> voltEntries = new ArrayList<>(points);
+        List<Entry> ampEntries = new ArrayList<>(points);
+        for (HistoryTile tile : tiles) {
+            for (int i = 0; i < tile.size(); i++) {
+                float x = (float) (tile.times[i] - originSeconds);
+                // Both extremes of each bucket, so spikes survive at every zoom level
+                addBucket(voltEntries, x, tile.voltMin[i], tile.voltMax[i]);
+                addBucket(ampEntries, x, tile.ampMin[i], tile.ampMax[i]);
+            }
+        }
+        voltSet.setValues(voltEntries);
+        ampSet.setValues(ampEntries);
+        chart.getData().notifyDataChanged();
+        chart.notifyDataSetChanged();
+        chart.invalidate();
+
+        statusText.setText(String.format("%d buckets of %.1f s, %d tiles, cache %d hit / %d miss",
+                points / 2, HistoryStore.getBucketSeconds(tier), tiles.size(),
+                loader.getHits(), loader.getMisses()));
+    }
+
+    private boolean sameTiles(List<HistoryTile> tiles) {
+        if (tiles.size() != shownTiles.size()) return false;
+        for (int i = 0; i < tiles.size(); i++) {
+            if (tiles.get(i) != shownTiles.get(i)) return false;
+        }
+        return true;
+    }
+
+    private static void addBucket(List<Entry> entries, float x, float min, float max) {
+        entries.add(new Entry(x, min));
+        if (max != min) {
+            entries.add(new Entry(x, max));
+        }
+    }
+}
@@ -14,11 +14,16 @@ import android.graphics.Color;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Looper;
+import android.text.TextUtils;
 import android.util.Log;
+import android.view.Gravity;
 import android.view.View;
+import android.view.ViewGroup;
 import android.view.animation.Animation;
 import android.view.animation.AnimationUtils;
 import android.widget.Button;
+import android.widget.CheckBox;
+import android.widget.FrameLayout;
 import android.widget.SeekBar;
 import android.widget.TextView;
 import android.widget.Toast;
@@ -29,9 +34,27 @@ import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
 
-import com.github.mikephil.charting.charts.LineChart;
-import com.ekn.gruzer.gaugelibrary.HalfGauge;
-import com.ekn.gruzer.gaugelibrary.Range;
+
+import pollob.voltify.protocol.ProtocolCodec;
+import pollob.voltify.protocol.SimulatedEsp32;
+import pollob.voltify.telemetry.CapacityTest;
+import pollob.voltify.telemetry.RippleAnalyzer;
+import pollob.voltify.telemetry.StreamingStats;
+import pollob.voltify.telemetry.TelemetryEvent;
+import pollob.voltify.telemetry.TelemetryRatePolicy;
+import pollob.voltify.telemetry.TelemetrySnapshot;
+import pollob.voltify.telemetry.TelemetryStats;
+import pollob.voltify.telemetry.Tracing;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class MainActivity extends AppCompatActivity implements BLEService.BLEListener, UIUpdate.UIUpdateListener {
 
@@ -39,29 +62,49 @@ public class MainActivity extends AppCompatActivity implements BLEService.BLELis
     private static final int ENABLE_BLUETOOTH_REQUEST_CODE = 1002;
     private static final String PREFS_NAME = "VoltifyPrefs";
     private static final String MAC_ADDRESS_KEY = "mac_address";
+    private static final String TRACE_SECTIONS_KEY = "trace_sections";
+    // Address of the last device that connected, auto-connected on the next start
+    private static final String LAST_DEVICE_KEY = "last_device";
+    // Not in release builds: run on SimulatedEsp32 notifying at this rate instead of BLE
+    public static final String EXTRA_SIMULATE_HZ = "pollob.voltify.SIMULATE_HZ";
     private static final String DEFAULT_MAC = "00:11:22:33:44:55";
 
     // UI Elements
-    private TextView statusText, outputVoltText, outputAmpText, setVoltText, setAmpText;
-    private TextView outputPowerText, outputEnergyText, ccCvStatusText, outputStatusText;
-    private Button connectButton, flipButton, outputToggleButton, settingsButton, sendButton;
+    private TextView statusText, ccCvStatusText, outputStatusText;
+    // Readouts updated on every sample
+    private ReadoutView outputVoltText, outputAmpText, setVoltText, setAmpText, outputPowerText, outputEnergyText;
+    private TextView statsText;
+    private Button connectButton, flipButton, outputToggleButton, settingsButton, sendButton, eventsButton;
+    private Button historyButton;
+    private Button capacityButton;
+    private TextView capacityText;
     private View frontCard, backCard;
-    private LineChart voltChart, ampChart;
-    private HalfGauge hgau;
+    private ArcGaugeView hgau;
+    private SpectrumView spectrumView;
+    private WaveformView liveChart;
+    private MetricsHudView metricsHud;
 
     // Slider Elements
     private SeekBar setVoltSlider, setAmpSlider, maxVoltSlider, maxAmpSlider;
     private TextView setVoltValue, setAmpValue, maxVoltValue, maxAmpValue;
+    // When checked, Set V and Set A are streamed to the device during a drag
+    private CheckBox liveTuneCheck;
 
-    // Services
-    private BLEService bleService;
-    private UIUpdate uiUpdate;
+    // Services, created off the main thread during startup (see startDeferredInit)
+    private volatile BLEService bleService;
+    private volatile UIUpdate uiUpdate;
     private Handler mainHandler;
+    // Report files, written in order off the main thread
+    private final ExecutorService fileExecutor = Executors.newSingleThreadExecutor();
+    private volatile boolean destroyed = false;
+    private boolean firstTelemetryShown = false;
 
     // State variables
     private boolean isFrontVisible = true;
     private boolean isOutputOn = false;
-    private String deviceMacAddress;
+    private volatile String deviceMacAddress;
+    // Decides the notify rate asked of the device; UI thread
+    private final TelemetryRatePolicy ratePolicy = new TelemetryRatePolicy();
 
     // Slider values
     private double currentSetVolt = 7.0;
@@ -69,20 +112,78 @@ public class MainActivity extends AppCompatActivity implements BLEService.BLELis
     private double currentMaxVolt = 15.0;
     private double currentMaxAmp = 5.0;
 
-    private BluetoothAdapter bluetoothAdapter;
+    private volatile BluetoothAdapter bluetoothAdapter;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
+        mainHandler = new Handler(Looper.getMainLooper());
 
+        // Only what the first frame needs runs here
         initializeViews();
         setupClickListeners();
         setupSliderListeners();
-        initializeServices();
-        loadMacAddress();
-        initializeBluetooth();
         setDefaultSliderValues();
+        startDeferredInit();
+    }
+
+    /**
+     * Startup after the shell is on screen. Preferences, the telemetry pipeline and the BLE stack
+     * are built on a background thread, which then attaches the live chart and auto-connects to
+     * the last device.
+     */
+    private void startDeferredInit() {
+        connectButton.setEnabled(false);
+        new Thread(() -> {
+            loadMacAddress();
+            initializeServices();
+            initializeBluetooth();
+            if (destroyed) {
+                releaseServices();
+                return;
+            }
+            mainHandler.post(this::onServicesReady);
+            autoConnect();
+        }, "VoltifyStartup").start();
+
+    }
+
+    private void onServicesReady() {
+        if (bluetoothAdapter == null && !isSimulated()) {
+            Toast.makeText(this, "Bluetooth not supported on this device", Toast.LENGTH_LONG).show();
+            return;
+        }
+        connectButton.setEnabled(true);
+        updateTelemetryRate();
+    }
+
+    // Call whenever an input of the rate policy changes
+    private void updateTelemetryRate() {
+        if (bleService == null || uiUpdate == null) return;
+        ratePolicy.setCaptureRunning(uiUpdate.isCapacityTestRunning());
+        ratePolicy.setRecording(uiUpdate.isRecording());
+        bleService.setTelemetryInterval(ratePolicy.getIntervalMillis());
+    }
+
+    // Runs on the startup thread; never prompts, so it only goes ahead when nothing needs asking
+    @SuppressLint("MissingPermission")
+    private void autoConnect() {
+        if (isSimulated()) {
+            connectToDevice();
+            return;
+        }
+        String lastDevice = getSharedPreferences(PREFS_NAME, MODE_PRIVATE).getString(LAST_DEVICE_KEY, null);
+        if (lastDevice == null || !lastDevice.equals(deviceMacAddress)) return;
+        if (bluetoothAdapter == null || !hasBluetoothPermissions() || !bluetoothAdapter.isEnabled()) return;
+
+        Log.d("BLE", "Auto-connecting to last device: " + lastDevice);
+        mainHandler.post(() -> statusText.setText("Connecting..."));
+        connectToDevice();
+    }
+
+    private boolean isSimulated() {
+        return BuildConfig.SIMULATOR_ENABLED && getIntent().getIntExtra(EXTRA_SIMULATE_HZ, 0) > 0;
     }
 
     private void initializeViews() {
@@ -96,6 +197,7 @@ public class MainActivity extends AppCompatActivity implements BLEService.BLELis
         outputEnergyText = findViewById(R.id.outputEnergyText);
         ccCvStatusText = findViewById(R.id.ccCvStatusText);
         outputStatusText = findViewById(R.id.outputStatusText);
+        statsText = findViewById(R.id.statsText);
 
         // Buttons
         connectButton = findViewById(R.id.connectButton);
@@ -103,40 +205,38 @@ public class MainActivity extends AppCompatActivity implements BLEService.BLELis
         outputToggleButton = findViewById(R.id.outputToggleButton);
         settingsButton = findViewById(R.id.settingsButton);
         sendButton = findViewById(R.id.sendButton);
+        eventsButton = findViewById(R.id.eventsButton);
+        historyButton = findViewById(R.id.historyButton);
+        capacityButton = findViewById(R.id.capacityButton);
+        capacityText = findViewById(R.id.capacityText);
 
         // Cards
         frontCard = findViewById(R.id.frontCard);
         backCard = findViewById(R.id.backCard);
 
         // Charts
-        voltChart = findViewById(R.id.voltChart);
-        ampChart = findViewById(R.id.ampChart);
+        liveChart = findViewById(R.id.liveChart);
+        spectrumView = findViewById(R.id.spectrumView);
+
+        // Performance HUD floats over the scrolling content, top right
+        metricsHud = new MetricsHudView(this);
+        ViewGroup content = findViewById(android.R.id.content);
+        content.addView(metricsHud, new FrameLayout.LayoutParams(ViewGroup.LayoutParams.WRAP_CONTENT,
+                ViewGroup.LayoutParams.WRAP_CONTENT, Gravity.TOP | Gravity.END));
 
         // Sliders
         setVoltSlider = findViewById(R.id.setVoltSlider);
         setAmpSlider = findViewById(R.id.setAmpSlider);
         maxVoltSlider = findViewById(R.id.maxVoltSlider);
         maxAmpSlider = findViewById(R.id.maxAmpSlider);
-        // half gauge setup
         hgau = findViewById(R.id.gau);
-        Range low = new Range();
-        low.setColor(Color.parseColor("#4CAF50"));
-        Range mid = new Range();
-        mid.setColor(Color.parseColor("#FFC107"));
-        Range high = new Range();
-        high.setColor(Color.parseColor("#F44336"));
-
-        hgau.addRange(low);
-        hgau.addRange(mid);
-        hgau.addRange(high);
-        hgau.setMinValue(0);
         hgau.setMaxValue((float) currentSetAmp);
-        hgau.setValue(0);
         // Slider value displays
         setVoltValue = findViewById(R.id.setVoltValue);
         setAmpValue = findViewById(R.id.setAmpValue);
         maxVoltValue = findViewById(R.id.maxVoltValue);
         maxAmpValue = findViewById(R.id.maxAmpValue);
+        liveTuneCheck = findViewById(R.id.liveTuneCheck);
     }
 
     private void setupClickListeners() {
@@ -153,6 +253,19 @@ public class MainActivity extends AppCompatActivity implements BLEService.BLELis
 
         sendButton.setOnClickListener(v -> sendSliderDataToESP32());
 
+        eventsButton.setOnClickListener(v -> showEventsDialog());
+
+        historyButton.setOnClickListener(v -> startActivity(new Intent(this, HistoryActivity.class)));
+
+        capacityButton.setOnClickListener(v -> {
+            if (uiUpdate == null) return;
+            if (uiUpdate.isCapacityTestRunning()) {
+                confirmStopCapacityTest();
+            } else {
+                showCapacityTestDialog();
+            }
+        });
+
         // Memory buttons
         setupMemoryButtons();
     }
@@ -180,13 +293,19 @@ public class MainActivity extends AppCompatActivity implements BLEService.BLELis
             public void onProgressChanged(SeekBar seekBar, int progress, boolean fromUser) {
                 currentSetVolt = 2.0 + (progress / 100.0);
                 setVoltValue.setText(String.format("%.2f V", currentSetVolt));
+                if (fromUser) streamSliderData();
             }
 
             @Override
-            public void onStartTrackingTouch(SeekBar seekBar) {}
+            public void onStartTrackingTouch(SeekBar seekBar) {
+                setLiveTuning(liveTuneCheck.isChecked());
+            }
 
             @Override
-            public void onStopTrackingTouch(SeekBar seekBar) {}
+            public void onStopTrackingTouch(SeekBar seekBar) {
+                streamSliderData();
+                setLiveTuning(false);
+            }
         });
 
         // Set Current Slider (0.5A - 15.0A)
@@ -196,13 +315,19 @@ public class MainActivity extends AppCompatActivity implements BLEService.BLELis
                 currentSetAmp = 0.5 + (progress / 100.0);
                 setAmpValue.setText(String.format("%.2f A", currentSetAmp));
                 hgau.setMaxValue((float) currentSetAmp);
+                if (fromUser) streamSliderData();
             }
 
             @Override
-            public void onStartTrackingTouch(SeekBar seekBar) {}
+            public void onStartTrackingTouch(SeekBar seekBar) {
+                setLiveTuning(liveTuneCheck.isChecked());
+            }
 
             @Override
-            public void onStopTrackingTouch(SeekBar seekBar) {}
+            public void onStopTrackingTouch(SeekBar seekBar) {
+                streamSliderData();
+                setLiveTuning(false);
+            }
         });
 
         // Max Voltage Slider (3.0V - 30.0V)
@@ -236,16 +361,41 @@ public class MainActivity extends AppCompatActivity implements BLEService.BLELis
         });
     }
 
+    // The pipeline goes first so it is in place before the transport can deliver anything
     private void initializeServices() {
-        mainHandler = new Handler(Looper.getMainLooper());
-        bleService = new BLEService(this, this);
         uiUpdate = new UIUpdate(this, this);
+        uiUpdate.attachLiveChart(liveChart);
+        if (isSimulated()) {
+            SimulatedEsp32.Config config = new SimulatedEsp32.Config();
+            config.notifyRateHz = getIntent().getIntExtra(EXTRA_SIMULATE_HZ, 0);
+            config.outputOn = true;
+            config.protocolVersion = ProtocolCodec.PROTOCOL_V2;
+            bleService = new BLEService(new SimulatedEsp32(config), this, mainHandler::post);
+        } else {
+            bleService = new BLEService(this, this);
+        }
+        uiUpdate.attachSetpointEcho(bleService.getSetpointStreamer());
+    }
+
+    private void releaseServices() {
+        if (bleService != null) {
+            bleService.disconnect();
+        }
+        if (uiUpdate != null) {
+            uiUpdate.release();
+        }
     }
 
     private void loadMacAddress() {
         SharedPreferences prefs = getSharedPreferences(PREFS_NAME, MODE_PRIVATE);
         deviceMacAddress = prefs.getString(MAC_ADDRESS_KEY, DEFAULT_MAC);
         Log.d("BLE", "Loaded MAC: " + deviceMacAddress);
+        setTraceSections(prefs.getBoolean(TRACE_SECTIONS_KEY, false));
+    }
+
+    // android.os.Trace sections along the telemetry path; free when off
+    private void setTraceSections(boolean enabled) {
+        Tracing.install(enabled ? new AndroidTracer() : null);
     }
 
     private void setDefaultSliderValues() {
@@ -267,20 +417,40 @@ public class MainActivity extends AppCompatActivity implements BLEService.BLELis
             BluetoothManager bluetoothManager = (BluetoothManager) getSystemService(Context.BLUETOOTH_SERVICE);
             if (bluetoothManager != null) {
                 bluetoothAdapter = bluetoothManager.getAdapter();
-                if (bluetoothAdapter == null) {
-                    Toast.makeText(this, "Bluetooth not supported on this device", Toast.LENGTH_LONG).show();
-                    connectButton.setEnabled(false);
-                }
             }
         } catch (Exception e) {
             Log.e("BLE", "Error initializing Bluetooth", e);
-            Toast.makeText(this, "Error initializing Bluetooth: " + e.getMessage(), Toast.LENGTH_LONG).show();
+            mainHandler.post(() -> Toast.makeText(this, "Error initializing Bluetooth: " + e.getMessage(),
+                    Toast.LENGTH_LONG).show());
         }
     }
 
     private void checkPermissionsAndConnect() {
+        if (isSimulated()) {
+            connectToDevice();
+            return;
+        }
         Log.d("BLE", "Checking permissions...");
 
+        if (hasBluetoothPermissions()) {
+            Log.d("BLE", "All permissions granted, checking Bluetooth...");
+            checkBluetoothAndConnect();
+        } else {
+            Log.d("BLE", "Requesting permissions...");
+            ActivityCompat.requestPermissions(this, requiredPermissions(), PERMISSION_REQUEST_CODE);
+        }
+    }
+
+    private boolean hasBluetoothPermissions() {
+        for (String permission : requiredPermissions()) {
+            if (ContextCompat.checkSelfPermission(this, permission) != PackageManager.PERMISSION_GRANTED) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String[] requiredPermissions() {
         String[] requiredPermissions;
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
             // Android 12+ requires BLUETOOTH_SCAN and BLUETOOTH_CONNECT
@@ -297,22 +467,7 @@ public class MainActivity extends AppCompatActivity implements BLEService.BLELis
                     Manifest.permission.BLUETOOTH_ADMIN
             };
         }
-
-        boolean allPermissionsGranted = true;
-        for (String permission : requiredPermissions) {
-            if (ContextCompat.checkSelfPermission(this, permission) != PackageManager.PERMISSION_GRANTED) {
-                allPermissionsGranted = false;
-                break;
-            }
-        }
-
-        if (allPermissionsGranted) {
-            Log.d("BLE", "All permissions granted, checking Bluetooth...");
-            checkBluetoothAndConnect();
-        } else {
-            Log.d("BLE", "Requesting permissions...");
-            ActivityCompat.requestPermissions(this, requiredPermissions, PERMISSION_REQUEST_CODE);
-        }
+        return requiredPermissions;
     }
 
     private void checkBluetoothAndConnect() {
@@ -364,6 +519,9 @@ public class MainActivity extends AppCompatActivity implements BLEService.BLELis
             flipButton.setText("Show Graphs");
         }
         isFrontVisible = !isFrontVisible;
+        // The live chart and spectrum are on the back
+        ratePolicy.setChartsVisible(!isFrontVisible);
+        updateTelemetryRate();
     }
 
     private void toggleOutput() {
@@ -394,6 +552,18 @@ public class MainActivity extends AppCompatActivity implements BLEService.BLELis
         }
     }
 
+    // Full-rate telemetry while a drag is streamed, to see the output follow it
+    private void setLiveTuning(boolean liveTuning) {
+        ratePolicy.setLiveTuning(liveTuning);
+        updateTelemetryRate();
+    }
+
+    // Latest value wins; the call from onStopTrackingTouch makes sure the drag's end is sent
+    private void streamSliderData() {
+        if (!liveTuneCheck.isChecked() || bleService == null) return;
+        bleService.streamData(currentSetVolt, currentSetAmp, currentMaxVolt, currentMaxAmp, isOutputOn);
+    }
+
     private void showSettingsDialog() {
         AlertDialog.Builder builder = new AlertDialog.Builder(this);
         builder.setTitle("Change Device Address");
@@ -401,9 +571,16 @@ public class MainActivity extends AppCompatActivity implements BLEService.BLELis
         View dialogView = getLayoutInflater().inflate(R.layout.dialog_mac_address, null);
         TextView macInput = dialogView.findViewById(R.id.macInput);
         macInput.setText(deviceMacAddress);
+        CheckBox traceSectionsCheck = dialogView.findViewById(R.id.traceSectionsCheck);
+        traceSectionsCheck.setChecked(Tracing.isEnabled());
 
         builder.setView(dialogView);
         builder.setPositiveButton("Save", (dialog, which) -> {
+            boolean traceSections = traceSectionsCheck.isChecked();
+            setTraceSections(traceSections);
+            getSharedPreferences(PREFS_NAME, MODE_PRIVATE).edit()
+                    .putBoolean(TRACE_SECTIONS_KEY, traceSections).apply();
+
             String newMac = macInput.getText().toString();
             if (isValidMacAddress(newMac)) {
                 deviceMacAddress = newMac;
@@ -414,9 +591,118 @@ public class MainActivity extends AppCompatActivity implements BLEService.BLELis
             }
         });
         builder.setNegativeButton("Cancel", null);
+        builder.setNeutralButton(metricsHud.isRunning() ? "Hide HUD" : "Show HUD", (dialog, which) -> {
+            if (metricsHud.isRunning()) {
+                metricsHud.stop();
+            } else {
+                metricsHud.start();
+            }
+        });
+        builder.show();
+    }
+
+    private void showEventsDialog() {
+        if (uiUpdate == null) return;
+        List<TelemetryEvent> events = uiUpdate.getEventLog().getEvents();
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setTitle("Events " + uiUpdate.getEventLog().getSessionId());
+
+        if (events.isEmpty()) {
+            builder.setMessage("No events recorded in this session");
+        } else {
+            // Newest first
+            String[] items = new String[events.size()];
+            for (int i = 0; i < items.length; i++) {
+                TelemetryEvent event = events.get(events.size() - 1 - i);
+                long seconds = event.sessionMillis / 1000;
+                items[i] = String.format("%02d:%02d:%02d.%03d  #%d  %s", seconds / 3600, (seconds / 60) % 60,
+                        seconds % 60, event.sessionMillis % 1000, event.sampleIndex, event.describe());
+            }
+            builder.setItems(items, null);
+        }
+        builder.setNegativeButton("Close", null);
+        builder.show();
+    }
+
+    private void showCapacityTestDialog() {
+        if (bleService == null || !bleService.isConnected()) {
+            Toast.makeText(this, "Not connected to Device", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        if (!isOutputOn) {
+            Toast.makeText(this, "Turn the output on first", Toast.LENGTH_SHORT).show();
+            return;
+        }
+
+        View dialogView = getLayoutInflater().inflate(R.layout.dialog_capacity_test, null);
+        TextView cutoffVoltInput = dialogView.findViewById(R.id.cutoffVoltInput);
+        TextView cutoffAmpInput = dialogView.findViewById(R.id.cutoffAmpInput);
+
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setTitle("Battery Capacity Test");
+        builder.setView(dialogView);
+        builder.setPositiveButton("Start", (dialog, which) -> {
+            double cutoffVolt = parseOrZero(cutoffVoltInput.getText().toString());
+            double cutoffAmp = parseOrZero(cutoffAmpInput.getText().toString());
+            if (cutoffVolt <= 0 && cutoffAmp <= 0) {
+                Toast.makeText(this, "Set at least one stop condition", Toast.LENGTH_SHORT).show();
+                return;
+            }
+            uiUpdate.startCapacityTest(this::applyCapacitySetpoint, currentSetVolt, currentSetAmp, cutoffVolt, cutoffAmp);
+            capacityButton.setText("Stop Capacity Test");
+            capacityText.setVisibility(View.VISIBLE);
+            capacityText.setText("Capacity test running...");
+            updateTelemetryRate();
+        });
+        builder.setNegativeButton("Cancel", null);
+        builder.show();
+    }
+
+    private void confirmStopCapacityTest() {
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setTitle("Stop capacity test?");
+        builder.setPositiveButton("Stop", (dialog, which) -> uiUpdate.stopCapacityTest());
+        builder.setNegativeButton("Cancel", null);
         builder.show();
     }
 
+    private double parseOrZero(String text) {
+        try {
+            return text.isEmpty() ? 0.0 : Double.parseDouble(text);
+        } catch (NumberFormatException e) {
+            return 0.0;
+        }
+    }
+
+    // Called by the capacity test on the pipeline's analysis thread
+    private void applyCapacitySetpoint(double setVolt, double setAmp, boolean outputOn) {
+        if (bleService != null && bleService.isConnected()) {
+            bleService.sendData(setVolt, setAmp, currentMaxVolt, currentMaxAmp, outputOn);
+        }
+        if (!outputOn) {
+            mainHandler.post(() -> {
+                isOutputOn = false;
+                outputToggleButton.setText("OUT ON");
+                outputToggleButton.setBackgroundColor(Color.parseColor("#E91E63"));
+            });
+        }
+    }
+
+    private void saveCapacityReport(CapacityTest.Report report) {
+        File dir = new File(getFilesDir(), "capacity");
+        if (!dir.exists() && !dir.mkdirs()) {
+            Log.e("CAPACITY", "Cannot create report directory");
+            return;
+        }
+        String name = "capacity_" + new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.US).format(new Date()) + ".csv";
+        try (FileWriter writer = new FileWriter(new File(dir, name))) {
+            writer.write(report.toCsv());
+            Log.d("CAPACITY", "Report saved: " + name);
+        } catch (IOException e) {
+            Log.e("CAPACITY", "Error saving report", e);
+        }
+    }
+
     private boolean isValidMacAddress(String mac) {
         return mac.matches("^([0-9A-Fa-f]{2}[:-]){5}([0-9A-Fa-f]{2})$");
     }
@@ -429,11 +715,13 @@ public class MainActivity extends AppCompatActivity implements BLEService.BLELis
     }
 
     private void recallMemory(int memoryIndex) {
+        if (uiUpdate == null) return;
         uiUpdate.recallMemoryForSliders(memoryIndex);
         Toast.makeText(this, "Recalled M" + memoryIndex, Toast.LENGTH_SHORT).show();
     }
 
     private void storeMemory(int memoryIndex) {
+        if (uiUpdate == null) return;
         // Store current slider values to memory
         uiUpdate.storeMemory(memoryIndex, currentSetVolt, currentSetAmp);
         Toast.makeText(this, "Stored to M" + memoryIndex, Toast.LENGTH_SHORT).show();
@@ -442,6 +730,9 @@ public class MainActivity extends AppCompatActivity implements BLEService.BLELis
     // BLEListener implementations
     @Override
     public void onDeviceConnected() {
+        // Before the connection's first sample; a reconnect that is going to be backfilled
+        // continues the session
+        uiUpdate.onConnected();
         mainHandler.post(() -> {
             statusText.setText("Online");
             statusText.setTextColor(ContextCompat.getColor(this, android.R.color.holo_green_dark));
@@ -449,10 +740,16 @@ public class MainActivity extends AppCompatActivity implements BLEService.BLELis
             outputToggleButton.setVisibility(View.VISIBLE);
             Toast.makeText(this, "Connected to Device", Toast.LENGTH_SHORT).show();
         });
+        if (!isSimulated()) {
+            getSharedPreferences(PREFS_NAME, MODE_PRIVATE).edit()
+                    .putString(LAST_DEVICE_KEY, deviceMacAddress).apply();
+        }
     }
 
     @Override
     public void onDeviceDisconnected() {
+        // Before the next connection's first sample, which is held until the backfill is in
+        uiUpdate.onLinkLost(bleService != null && bleService.getProtocolVersion() >= ProtocolCodec.PROTOCOL_V2);
         mainHandler.post(() -> {
             statusText.setText("Offline");
             statusText.setTextColor(ContextCompat.getColor(this, android.R.color.holo_red_dark));
@@ -467,6 +764,15 @@ public class MainActivity extends AppCompatActivity implements BLEService.BLELis
         uiUpdate.processReceivedData(data);
     }
 
+    @Override
+    public void onProtocolNegotiated(int version) {
+        // Fills in the samples an outage cost, if this connection continues a session
+        long since = uiUpdate.requestBackfill();
+        if (since >= 0 && !bleService.requestBackfill(since)) {
+            uiUpdate.abandonBackfill();
+        }
+    }
+
     @Override
     public void onError(String error) {
         mainHandler.post(() -> {
@@ -477,26 +783,26 @@ public class MainActivity extends AppCompatActivity implements BLEService.BLELis
 
     // UIUpdateListener implementations
     @Override
-    public void updateOutputValues(double outputVolt, double outputAmp, double outputEnergy, String ccCvStatus) {
-        mainHandler.post(() -> {
-            outputVoltText.setText(String.format("%.3f V", outputVolt));
-            outputAmpText.setText(String.format("%.3f A", outputAmp));
-            outputEnergyText.setText(String.format("%.2f Wh", outputEnergy));
+    public void updateReadouts(TelemetrySnapshot latest) {
+        // Readouts skip the redraw when the rounded value is unchanged
+        outputVoltText.setValue(latest.getOutputVolt());
+        outputAmpText.setValue(latest.getOutputAmp());
+        outputEnergyText.setValue(latest.getOutputEnergy());
+        outputPowerText.setValue(latest.getOutputPower());
+        setVoltText.setValue(latest.getSetVolt());
+        setAmpText.setValue(latest.getSetAmp());
+        hgau.setValue((float) latest.getOutputAmp());
+        hgau.setMaxValue((float) latest.getSetAmp());
+        // setText relays out even for the same text, and the mode rarely changes
+        String ccCvStatus = latest.getCcCvStatus();
+        if (!TextUtils.equals(ccCvStatusText.getText(), ccCvStatus)) {
             ccCvStatusText.setText(ccCvStatus);
-            hgau.setValue((float) outputAmp);
-            // Calculate and display power
-            double power = outputVolt * outputAmp;
-            outputPowerText.setText(String.format("%.3f W", power));
-        });
-    }
-
-    @Override
-    public void updateSetValues(double setVolt, double setAmp) {
-        mainHandler.post(() -> {
-            setVoltText.setText(String.format("%.2f V", setVolt));
-            setAmpText.setText(String.format("%.2f A", setAmp));
-            hgau.setMaxValue((float) setAmp);
-        });
+        }
+        // Startup is complete once live readings are on screen (Macrobenchmark's time to full display)
+        if (!firstTelemetryShown) {
+            firstTelemetryShown = true;
+            reportFullyDrawn();
+        }
     }
 
     @Override
@@ -513,9 +819,54 @@ public class MainActivity extends AppCompatActivity implements BLEService.BLELis
     }
 
     @Override
-    public void updateGraphs(double volt, double amp) {
-        // Update charts with new data
-        uiUpdate.updateCharts(voltChart, ampChart, volt, amp);
+    public void updateStatistics(TelemetryStats.Snapshot windowStats, TelemetryStats.Snapshot sessionStats) {
+        String text = formatStatsLine("V", windowStats.volt) + "\n"
+                + formatStatsLine("A", windowStats.amp) + "\n"
+                + formatStatsLine("W", windowStats.power) + "\n"
+                + String.format("Session: %d samples, peak %.3f A, %.3f W",
+                        sessionStats.amp.count, sessionStats.amp.max, sessionStats.power.max);
+        mainHandler.post(() -> statsText.setText(text));
+    }
+
+    @Override
+    public void updateEvent(TelemetryEvent event, int totalEvents) {
+        mainHandler.post(() -> eventsButton.setText("Events (" + totalEvents + ")"));
+    }
+
+    @Override
+    public void updateCapacityTest(long elapsedMillis, double ampHours, double wattHours, double internalResistance) {
+        long seconds = elapsedMillis / 1000;
+        String text = String.format("%d:%02d:%02d  %.0f mAh  %.3f Wh  IR %s", seconds / 3600, (seconds / 60) % 60,
+                seconds % 60, ampHours * 1000, wattHours,
+                Double.isNaN(internalResistance) ? "--" : String.format("%.1f mOhm", internalResistance * 1000));
+        mainHandler.post(() -> capacityText.setText(text));
+    }
+
+    @Override
+    public void capacityTestFinished(CapacityTest.Report report) {
+        // Telemetry thread when the cutoff ends the test, main thread when the user stops it
+        fileExecutor.execute(() -> saveCapacityReport(report));
+        mainHandler.post(() -> {
+            capacityButton.setText("Capacity Test");
+            capacityText.setText(report.summary());
+            updateTelemetryRate();
+            AlertDialog.Builder builder = new AlertDialog.Builder(this);
+            builder.setTitle("Capacity Test Report");
+            builder.setMessage(report.summary());
+            builder.setPositiveButton("OK", null);
+            builder.show();
+        });
+    }
+
+    @Override
+    public void updateRipple(RippleAnalyzer.Result result) {
+        // Called on the analysis thread; the view copies the spectrum before returning
+        spectrumView.setSpectrum(result);
+    }
+
+    private String formatStatsLine(String unit, StreamingStats.Summary s) {
+        return String.format("%s min %.3f max %.3f avg %.3f rms %.3f P50 %.3f P95 %.3f P99 %.3f",
+                unit, s.min, s.max, s.mean, s.rms, s.p50, s.p95, s.p99);
     }
 
     public void updateSlidersFromReceivedData(double recalledSetVolt, double recalledSetAmp) {
@@ -570,11 +921,29 @@ public class MainActivity extends AppCompatActivity implements BLEService.BLELis
         }
     }
 
+    @Override
+    protected void onStart() {
+        super.onStart();
+        if (uiUpdate != null) uiUpdate.setBackground(false);
+        ratePolicy.setForeground(true);
+        updateTelemetryRate();
+    }
+
+    // Logging carries on unattended at the rate the recorder needs, with the UI detached
+    @Override
+    protected void onStop() {
+        if (uiUpdate != null) uiUpdate.setBackground(true);
+        ratePolicy.setForeground(false);
+        updateTelemetryRate();
+        super.onStop();
+    }
+
     @Override
     protected void onDestroy() {
         super.onDestroy();
-        if (bleService != null) {
-            bleService.disconnect();
-        }
+        destroyed = true;
+        releaseServices();
+        // Lets a report that is still being written finish
+        fileExecutor.shutdown();
     }
 }
\ No newline at end of file
@@ -0,0 +1,170 @@
+package pollob.voltify;
+
+import android.content.Context;
+import android.graphics.Color;
+import android.graphics.Typeface;
+import android.os.Debug;
+import android.util.AttributeSet;
+import android.view.Choreographer;
+import android.view.Display;
+import android.widget.TextView;
+
+import pollob.voltify.telemetry.Counter;
+import pollob.voltify.telemetry.LatencyHistogram;
+import pollob.voltify.telemetry.Metrics;
+import pollob.voltify.telemetry.TelemetryPipeline;
+
+/**
+ * Performance overlay: notify rate, per-stage and end-to-end latency percentiles,
+ * setpoint write rate and echo latency, dropped UI frames, samples the recorder and analysis
+ * queues dropped, and GC count, refreshed once a second. Showing it enables
+ * Metrics collection and hiding it turns collection off again.
+ */
+public class MetricsHudView extends TextView {
+    private static final long REFRESH_MILLIS = 1000;
+    // A frame counts as dropped when it took this many vsync periods or more
+    private static final double DROPPED_FRAME_FACTOR = 1.5;
+
+    private final Counter recorderDropped =
+            Metrics.REGISTRY.counter(Metrics.BUS_DROPPED_PREFIX + UIUpdate.RECORDER_SUBSCRIPTION);
+    private final Counter analysisDropped =
+            Metrics.REGISTRY.counter(Metrics.BUS_DROPPED_PREFIX + TelemetryPipeline.ANALYSIS_SUBSCRIPTION);
+
+    private boolean running = false;
+    private long lastRefreshNanos;
+    private long lastNotifications;
+    private long lastSetpointWrites;
+    private long lastFrameNanos = 0;
+    private long frameBudgetNanos = 16_666_667L;
+
+    public MetricsHudView(Context context) {
+        this(context, null);
+    }
+
+    public MetricsHudView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        setTypeface(Typeface.MONOSPACE);
+        setTextSize(10);
+        setTextColor(Color.WHITE);
+        setBackgroundColor(Color.argb(180, 0, 0, 0));
+        int padding = (int) (6 * getResources().getDisplayMetrics().density);
+        setPadding(padding, padding, padding, padding);
+        setVisibility(GONE);
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    public void start() {
+        if (running) return;
+        running = true;
+        Metrics.REGISTRY.reset();
+        Metrics.enabled = true;
+
+        Display display = getDisplay();
+        if (display != null && display.getRefreshRate() > 0) {
+            frameBudgetNanos = (long) (1e9 / display.getRefreshRate());
+        }
+        lastRefreshNanos = System.nanoTime();
+        lastNotifications = 0;
+        lastSetpointWrites = 0;
+        lastFrameNanos = 0;
+        setText("Collecting metrics...");
+        setVisibility(VISIBLE);
+
+        Choreographer.getInstance().postFrameCallback(frameCallback);
+        postDelayed(refresh, REFRESH_MILLIS);
+    }
+
+    public void stop() {
+        if (!running) return;
+        running = false;
+        Metrics.enabled = false;
+        Choreographer.getInstance().removeFrameCallback(frameCallback);
+        removeCallbacks(refresh);
+        setVisibility(GONE);
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        stop();
+        super.onDetachedFromWindow();
+    }
+
+    private final Choreographer.FrameCallback frameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            if (!running) return;
+            if (lastFrameNanos != 0) {
+                long interval = frameTimeNanos - lastFrameNanos;
+                if (interval >= frameBudgetNanos * DROPPED_FRAME_FACTOR) {
+                    Metrics.UI_FRAMES_DROPPED.add(Math.round((double) interval / frameBudgetNanos) - 1);
+                }
+            }
+            lastFrameNanos = frameTimeNanos;
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+    };
+
+    private final Runnable refresh = new Runnable() {
+        @Override
+        public void run() {
+            if (!running) return;
+            long now = System.nanoTime();
+            double seconds = (now - lastRefreshNanos) / 1e9;
+            long notifications = Metrics.NOTIFICATIONS.get();
+            double notifyRate = seconds > 0 ? (notifications - lastNotifications) / seconds : 0;
+            lastRefreshNanos = now;
+            lastNotifications = notifications;
+            long setpointWrites = Metrics.SETPOINT_WRITES.get();
+            double writeRate = seconds > 0 ? (setpointWrites - lastSetpointWrites) / seconds : 0;
+            lastSetpointWrites = setpointWrites;
+
+            String gcCount = Debug.getRuntimeStat("art.gc.gc-count");
+            if (gcCount != null) {
+                try {
+                    Metrics.GC_COUNT.set(Long.parseLong(gcCount));
+                } catch (NumberFormatException ignored) {
+                }
+            }
+
+            // Histograms cover the last interval; the counters are totals since the HUD was opened
+            String text = String.format("notify %6.1f/s  frames %d\n", notifyRate, notifications)
+                    + formatLatency("e2e", Metrics.END_TO_END) + "\n"
+                    + formatLatency("decode", Metrics.DECODE) + "\n"
+                    + formatLatency("aggr", Metrics.AGGREGATION) + "\n"
+                    + formatLatency("chart", Metrics.CHART_UPDATE) + "\n"
+                    + String.format("setpt  %5.1f/s  writes %d  retx %d\n", writeRate, setpointWrites,
+                            Metrics.SETPOINT_RETRANSMITS.get())
+                    + formatLatency("echo", Metrics.SETPOINT_ECHO) + "\n"
+                    + String.format("dropped UI %d  decode err %d  ripple %d\n",
+                            Metrics.UI_FRAMES_DROPPED.get(), Metrics.DECODE_ERRORS.get(),
+                            (long) Metrics.RIPPLE_DROPPED_BLOCKS.get())
+                    + String.format("dropped rec %d  analysis %d\n", recorderDropped.get(), analysisDropped.get())
+                    + String.format("GC %s", gcCount != null ? gcCount : "n/a");
+            setText(text);
+
+            Metrics.END_TO_END.reset();
+            Metrics.DECODE.reset();
+            Metrics.AGGREGATION.reset();
+            Metrics.CHART_UPDATE.reset();
+            Metrics.SETPOINT_ECHO.reset();
+            postDelayed(this, REFRESH_MILLIS);
+        }
+    };
+
+    private static String formatLatency(String label, LatencyHistogram histogram) {
+        if (histogram.getCount() == 0) {
+            return String.format("%-6s -", label);
+        }
+        return String.format("%-6s p50 %s p95 %s p99 %s max %s", label,
+                formatNanos(histogram.percentile(0.50)), formatNanos(histogram.percentile(0.95)),
+                formatNanos(histogram.percentile(0.99)), formatNanos(histogram.getMax()));
+    }
+
+    private static String formatNanos(long nanos) {
+        if (nanos >= 1_000_000L) return String.format("%5.1fms", nanos / 1e6);
+        return String.format("%5.1fus", nanos / 1e3);
+    }
+}
@@ -0,0 +1,113 @@
+package pollob.voltify;
+
+import android.content.Context;
+import android.content.res.TypedArray;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Typeface;
+import android.util.AttributeSet;
+import android.view.Gravity;
+import android.view.View;
+import android.view.accessibility.AccessibilityManager;
+
+/**
+ * Single numeric readout ("12.345 V") drawn straight from a char buffer.
+ * Replaces a TextView updated with String.format on every sample: setValue allocates nothing,
+ * returns early when the rounded value is unchanged, and never requests a layout since the
+ * view is measured once for its widest value. Only this view's display list is re-recorded.
+ */
+public class ReadoutView extends View {
+    private final int decimals;
+    private final int maxIntegerDigits;
+    private final char[] unit;
+    private final int gravity;
+    private final char[] chars;
+    private int length = 0;
+    private long shownScaled = Long.MIN_VALUE;
+
+    private final Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint.FontMetrics fontMetrics = new Paint.FontMetrics();
+    private final AccessibilityManager accessibilityManager;
+
+    public ReadoutView(Context context) {
+        this(context, null);
+    }
+
+    public ReadoutView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        TypedArray a = context.obtainStyledAttributes(attrs, R.styleable.ReadoutView);
+        try {
+            decimals = Math.min(FixedPointFormat.MAX_DECIMALS, a.getInt(R.styleable.ReadoutView_decimals, 2));
+            maxIntegerDigits = a.getInt(R.styleable.ReadoutView_maxIntegerDigits, 2);
+            String unitText = a.getString(R.styleable.ReadoutView_unit);
+            unit = unitText != null ? (" " + unitText).toCharArray() : new char[0];
+            gravity = a.getInt(R.styleable.ReadoutView_android_gravity, Gravity.START);
+
+            paint.setTextSize(a.getDimension(R.styleable.ReadoutView_android_textSize,
+                    14 * getResources().getDisplayMetrics().scaledDensity));
+            paint.setColor(a.getColor(R.styleable.ReadoutView_android_textColor, Color.BLACK));
+            Typeface typeface = a.hasValue(R.styleable.ReadoutView_android_fontFamily)
+                    ? a.getFont(R.styleable.ReadoutView_android_fontFamily) : null;
+            if (typeface == null) typeface = Typeface.DEFAULT;
+            paint.setTypeface(Typeface.create(typeface, a.getInt(R.styleable.ReadoutView_android_textStyle, Typeface.NORMAL)));
+        } finally {
+            a.recycle();
+        }
+        // Tabular digits so the readout does not shift sideways as values change
+        paint.setFontFeatureSettings("tnum");
+        paint.getFontMetrics(fontMetrics);
+
+        chars = new char[FixedPointFormat.MAX_INTEGER_CHARS + decimals + unit.length];
+        accessibilityManager = (AccessibilityManager) context.getSystemService(Context.ACCESSIBILITY_SERVICE);
+        setValue(0);
+    }
+
+    // Main thread only
+    public void setValue(double value) {
+        long scaled = FixedPointFormat.scale(value, decimals);
+        if (scaled == shownScaled) return;
+        shownScaled = scaled;
+
+        length = FixedPointFormat.format(scaled, decimals, chars, 0);
+        System.arraycopy(unit, 0, chars, length, unit.length);
+        length += unit.length;
+        invalidate();
+
+        // Screen readers and UI tests read the value from here; only built when someone listens
+        if (accessibilityManager != null && accessibilityManager.isEnabled()) {
+            setContentDescription(new String(chars, 0, length));
+        }
+    }
+
+    @Override
+    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        // Widest value this readout is expected to show, e.g. "-88.888 V"
+        StringBuilder widest = new StringBuilder("-");
+        for (int i = 0; i < maxIntegerDigits; i++) widest.append('8');
+        if (decimals > 0) widest.append('.');
+        for (int i = 0; i < decimals; i++) widest.append('8');
+        widest.append(unit);
+
+        int width = (int) Math.ceil(paint.measureText(widest.toString())) + getPaddingLeft() + getPaddingRight();
+        int height = (int) Math.ceil(fontMetrics.descent - fontMetrics.ascent) + getPaddingTop() + getPaddingBottom();
+        setMeasuredDimension(resolveSize(width, widthMeasureSpec), resolveSize(height, heightMeasureSpec));
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        float x = getPaddingLeft();
+        int horizontal = Gravity.getAbsoluteGravity(gravity, getLayoutDirection()) & Gravity.HORIZONTAL_GRAVITY_MASK;
+        if (horizontal != Gravity.LEFT) {
+            float free = getWidth() - getPaddingLeft() - getPaddingRight() - paint.measureText(chars, 0, length);
+            x += horizontal == Gravity.CENTER_HORIZONTAL ? free / 2 : free;
+        }
+        canvas.drawText(chars, 0, length, x, getPaddingTop() - fontMetrics.ascent, paint);
+    }
+
+    @Override
+    public CharSequence getAccessibilityClassName() {
+        return android.widget.TextView.class.getName();
+    }
+}
@@ -0,0 +1,103 @@
+package pollob.voltify;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.util.AttributeSet;
+import android.view.View;
+
+import pollob.voltify.telemetry.RippleAnalyzer;
+
+/**
+ * Draws the latest ripple spectrum (voltage and current) produced by RippleAnalyzer.
+ * setSpectrum may be called from any thread; it copies into preallocated buffers.
+ */
+public class SpectrumView extends View {
+    private static final int MAX_BINS = 1025;
+
+    private final float[] voltBins = new float[MAX_BINS];
+    private final float[] ampBins = new float[MAX_BINS];
+    private int binCount = 0;
+    private String label = "Ripple spectrum: waiting for data";
+
+    private final Paint voltPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint ampPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint textPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint axisPaint = new Paint();
+    private final Path path = new Path();
+
+    public SpectrumView(Context context) {
+        this(context, null);
+    }
+
+    public SpectrumView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        float density = getResources().getDisplayMetrics().density;
+
+        voltPaint.setColor(Color.BLUE);
+        voltPaint.setStyle(Paint.Style.STROKE);
+        voltPaint.setStrokeWidth(1.5f * density);
+
+        ampPaint.setColor(Color.RED);
+        ampPaint.setStyle(Paint.Style.STROKE);
+        ampPaint.setStrokeWidth(1.5f * density);
+
+        textPaint.setColor(Color.parseColor("#666666"));
+        textPaint.setTextSize(10 * getResources().getDisplayMetrics().scaledDensity);
+
+        axisPaint.setColor(Color.parseColor("#F2F2F2"));
+        axisPaint.setStrokeWidth(density);
+    }
+
+    public void setSpectrum(RippleAnalyzer.Result result) {
+        String text = String.format("Ripple %.1f mVpp @ %.1f Hz | %.1f mApp @ %.1f Hz | %.0f blk/s",
+                result.voltRipplePp * 1000, result.dominantVoltHz,
+                result.ampRipplePp * 1000, result.dominantAmpHz, result.blocksPerSecond);
+        synchronized (this) {
+            binCount = Math.min(MAX_BINS, result.voltSpectrum.length);
+            System.arraycopy(result.voltSpectrum, 0, voltBins, 0, binCount);
+            System.arraycopy(result.ampSpectrum, 0, ampBins, 0, binCount);
+            label = text;
+        }
+        postInvalidate();
+    }
+
+    @Override
+    protected synchronized void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        float width = getWidth();
+        float height = getHeight();
+        float top = textPaint.getTextSize() * 1.5f;
+
+        canvas.drawText(label, 0, textPaint.getTextSize(), textPaint);
+        canvas.drawLine(0, height - 1, width, height - 1, axisPaint);
+        if (binCount < 2) return;
+
+        drawSpectrum(canvas, voltBins, voltPaint, width, top, height);
+        drawSpectrum(canvas, ampBins, ampPaint, width, top, height);
+    }
+
+    // Each trace is scaled to its own peak so small current ripple stays visible next to voltage
+    private void drawSpectrum(Canvas canvas, float[] bins, Paint paint, float width, float top, float height) {
+        float peak = 0f;
+        for (int i = 1; i < binCount; i++) {
+            if (bins[i] > peak) peak = bins[i];
+        }
+        if (peak <= 0f) return;
+
+        float plotHeight = height - top;
+        float dx = width / (binCount - 1);
+        path.rewind();
+        for (int i = 0; i < binCount; i++) {
+            float y = height - (bins[i] / peak) * plotHeight;
+            if (i == 0) {
+                path.moveTo(0, y);
+            } else {
+                path.lineTo(i * dx, y);
+            }
+        }
+        canvas.drawPath(path, paint);
+    }
+}
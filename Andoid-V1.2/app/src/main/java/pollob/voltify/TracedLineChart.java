@@ -0,0 +1,37 @@
+package pollob.voltify;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.util.AttributeSet;
+
+import com.github.mikephil.charting.charts.LineChart;
+
+import pollob.voltify.telemetry.Tracing;
+
+/**
+ * LineChart with its redraw wrapped in a trace section, so chart rendering shows up
+ * inside the Choreographer frame in Perfetto.
+ */
+public class TracedLineChart extends LineChart {
+    public TracedLineChart(Context context) {
+        super(context);
+    }
+
+    public TracedLineChart(Context context, AttributeSet attrs) {
+        super(context, attrs);
+    }
+
+    public TracedLineChart(Context context, AttributeSet attrs, int defStyle) {
+        super(context, attrs, defStyle);
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        boolean traced = Tracing.begin("chart redraw");
+        try {
+            super.onDraw(canvas);
+        } finally {
+            Tracing.end(traced);
+        }
+    }
+}
@@ -2,99 +2,368 @@ package pollob.voltify;
 
 import android.content.SharedPreferences;
 import android.graphics.Color;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.PowerManager;
 import android.util.Log;
-
-import com.github.mikephil.charting.charts.LineChart;
-import com.github.mikephil.charting.components.XAxis;
-import com.github.mikephil.charting.components.YAxis;
-import com.github.mikephil.charting.data.Entry;
-import com.github.mikephil.charting.data.LineData;
-import com.github.mikephil.charting.data.LineDataSet;
-
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.util.ArrayList;
-import java.util.List;
+import android.view.Choreographer;
+
+import pollob.voltify.protocol.ProtocolCodec;
+import pollob.voltify.protocol.ProtocolException;
+import pollob.voltify.telemetry.CapacityTest;
+import pollob.voltify.telemetry.ClockSync;
+import pollob.voltify.telemetry.HistoryStore;
+import pollob.voltify.telemetry.Metrics;
+import pollob.voltify.telemetry.RippleAnalyzer;
+import pollob.voltify.telemetry.SetpointStreamer;
+import pollob.voltify.telemetry.TelemetryBus;
+import pollob.voltify.telemetry.TelemetryEvent;
+import pollob.voltify.telemetry.TelemetryPipeline;
+import pollob.voltify.telemetry.TelemetryRecorder;
+import pollob.voltify.telemetry.TelemetrySnapshot;
+import pollob.voltify.telemetry.TelemetryState;
+import pollob.voltify.telemetry.TelemetryStats;
+import pollob.voltify.telemetry.Tracing;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class UIUpdate {
     private static final String TAG = "UIUpdate";
     private static final String PREFS_NAME = "MemoryPrefs";
+    private static final String HISTORY_DIR = "history";
+    private static final String EVENTS_DIR = "events";
 
     private UIUpdateListener listener;
     private SharedPreferences memoryPrefs;
 
-    // Current values
-    private double outputVolt = 0.0;
-    private double outputAmp = 0.0;
-    private double outputEnergy = 0.0;
-    private String ccCvStatus = "CV";
-    private double setVolt = 0.0;
-    private double setAmp = 0.0;
     private boolean isOutputOn = false;
 
-    // Graph data
-    private List<Entry> voltEntries = new ArrayList<>();
-    private List<Entry> ampEntries = new ArrayList<>();
-    private int dataCount = 0;
-    private static final int MAX_DATA_POINTS = 100;
+    // Decode, timestamps, statistics, ripple, events and capacity test
+    private final TelemetryPipeline pipeline;
+    // Bus queues between the pipeline and the UI: readouts only need the newest sample,
+    // charts want every one but drop the oldest if their thread falls this far behind
+    private static final int CHART_QUEUE_CAPACITY = 256;
+    // The recorder drops its oldest samples when full rather than hold up notifications; about
+    // 16 s at 1 kHz rides out a slow flush. Drops show in the HUD under this name
+    static final String RECORDER_SUBSCRIPTION = "recorder";
+    private static final int RECORDER_QUEUE_CAPACITY = 16384;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    // Set from a readout until the next frame shows it, so a burst of samples costs one frame
+    // callback; the frame reads the newest sample, whatever arrived in between
+    private final AtomicBoolean readoutFramePending = new AtomicBoolean();
+    // Main thread only
+    private final TelemetrySnapshot readout = new TelemetrySnapshot();
+    private final EventLog eventLog;
+    // Every sample, recorded in resolution tiers for HistoryActivity; null if it cannot be opened
+    private HistoryStore historyStore;
+    private TelemetryRecorder recorder;
+    // Background logging flushes history this rarely, under a wake lock held only for the write
+    private static final long BACKGROUND_FLUSH_INTERVAL_NANOS = 60_000_000_000L;
+    private static final long FLUSH_WAKE_LOCK_TIMEOUT_MILLIS = 10_000;
+
+    // UI subscriptions, closed while in the background; guarded by this
+    private volatile boolean background = false;
+    private TelemetryBus.Subscription readoutSubscription, chartSubscription, echoSubscription;
+    private WaveformView liveChart;
+    private SetpointStreamer setpointStreamer;
 
     public interface UIUpdateListener {
-        void updateOutputValues(double outputVolt, double outputAmp, double outputEnergy, String ccCvStatus);
-        void updateSetValues(double setVolt, double setAmp);
+        // Main thread, at most once a frame; latest is reused after the call returns
+        void updateReadouts(TelemetrySnapshot latest);
         void updateSlidersFromReceivedData(double recalledSetVolt, double recalledSetAmp);
 
         void updateOutputStatus(boolean isOutputOn);
-        void updateGraphs(double volt, double amp);
+        void updateStatistics(TelemetryStats.Snapshot windowStats, TelemetryStats.Snapshot sessionStats);
+        void updateRipple(RippleAnalyzer.Result result);
+        void updateEvent(TelemetryEvent event, int totalEvents);
+        void updateCapacityTest(long elapsedMillis, double ampHours, double wattHours, double internalResistance);
+        void capacityTestFinished(CapacityTest.Report report);
     }
 
     public UIUpdate(android.content.Context context, UIUpdateListener listener) {
         this.listener = listener;
         this.memoryPrefs = context.getSharedPreferences(PREFS_NAME, android.content.Context.MODE_PRIVATE);
+        this.eventLog = new EventLog(eventsDirectory(context));
+        this.pipeline = new TelemetryPipeline(pipelineListener);
+        this.pipeline.start();
+        readoutSubscription = subscribeReadouts();
+        try {
+            historyStore = new HistoryStore(historyDirectory(context));
+            recorder = new TelemetryRecorder(historyStore);
+            recorder.setFlushHook(wakeLockFlushHook(context));
+            pipeline.getBus().subscribe(RECORDER_SUBSCRIPTION, RECORDER_QUEUE_CAPACITY,
+                    TelemetryBus.Policy.DROP_OLDEST, recorder);
+        } catch (IOException e) {
+            Log.e(TAG, "Cannot open telemetry history", e);
+        }
     }
 
-    public void processReceivedData(byte[] data) {
-        Log.d(TAG, "Processing received data: " + data.length + " bytes");
+    private static TelemetryRecorder.FlushHook wakeLockFlushHook(android.content.Context context) {
+        PowerManager powerManager = (PowerManager) context.getSystemService(android.content.Context.POWER_SERVICE);
+        PowerManager.WakeLock wakeLock = powerManager.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK,
+                "Voltify:historyFlush");
+        wakeLock.setReferenceCounted(false);
+        return new TelemetryRecorder.FlushHook() {
+            @Override
+            public void beforeFlush() {
+                wakeLock.acquire(FLUSH_WAKE_LOCK_TIMEOUT_MILLIS);
+            }
 
-        if (data.length >= 12) {
-            try {
-                ByteBuffer buffer = ByteBuffer.wrap(data);
-                buffer.order(ByteOrder.LITTLE_ENDIAN);
+            @Override
+            public void afterFlush() {
+                wakeLock.release();
+            }
+        };
+    }
 
-                // Parse the data according to ESP32 format
-                outputVolt = buffer.getShort() / 1000.0;
-                outputAmp = buffer.getShort() / 1000.0;
-                outputEnergy = buffer.getShort() / 100.0;
-                int ccCv = buffer.getShort();
-                setVolt = buffer.getShort() / 1000.0;
-                setAmp = buffer.getShort() / 1000.0;
+    /**
+     * Background logging: with the activity stopped, the readout, chart and setpoint echo
+     * subscriptions are closed so a notification only wakes the recorder and the pipeline's
+     * analysis, UI callbacks from the pipeline are skipped, and history is flushed in large
+     * batches. Undone on return.
+     */
+    public synchronized void setBackground(boolean background) {
+        if (this.background == background) return;
+        this.background = background;
+        if (background) {
+            closeUiSubscriptions();
+            if (recorder != null) recorder.setFlushIntervalNanos(BACKGROUND_FLUSH_INTERVAL_NANOS);
+        } else {
+            readoutSubscription = subscribeReadouts();
+            if (liveChart != null) chartSubscription = subscribeChart(liveChart);
+            if (setpointStreamer != null) echoSubscription = subscribeEcho(setpointStreamer);
+            if (recorder != null) recorder.setFlushIntervalNanos(TelemetryRecorder.FLUSH_INTERVAL_NANOS);
+        }
+        Log.d(TAG, background ? "Background logging" : "Foreground");
+    }
 
-                ccCvStatus = (ccCv == 0) ? "CV" : "CC";
+    private void closeUiSubscriptions() {
+        if (readoutSubscription != null) readoutSubscription.close();
+        if (chartSubscription != null) chartSubscription.close();
+        if (echoSubscription != null) echoSubscription.close();
+        readoutSubscription = chartSubscription = echoSubscription = null;
+    }
 
-                Log.d(TAG, String.format("Parsed - OutV: %.3fV, OutA: %.3fA, Energy: %.2fWh, Mode: %s, SetV: %.2fV, SetA: %.2fA",
-                        outputVolt, outputAmp, outputEnergy, ccCvStatus, setVolt, setAmp));
+    private TelemetryBus.Subscription subscribeReadouts() {
+        return pipeline.getBus().subscribe("readouts", 1, TelemetryBus.Policy.LATEST_ONLY, this::onReadout);
+    }
+
+    public static File historyDirectory(android.content.Context context) {
+        return new File(context.getFilesDir(), HISTORY_DIR);
+    }
+
+    public static File eventsDirectory(android.content.Context context) {
+        return new File(context.getFilesDir(), EVENTS_DIR);
+    }
+
+    // Lets the streamer time how long a setpoint write takes to show up in telemetry
+    public synchronized void attachSetpointEcho(SetpointStreamer streamer) {
+        setpointStreamer = streamer;
+        if (!background) echoSubscription = subscribeEcho(streamer);
+    }
+
+    private TelemetryBus.Subscription subscribeEcho(SetpointStreamer streamer) {
+        return pipeline.getBus().subscribe("setpoint echo", 1, TelemetryBus.Policy.LATEST_ONLY, streamer);
+    }
+
+    /**
+     * Sets up the live chart's traces (volts and set volts on the left axis, amps and set amps on
+     * the right, power on its own scale) and feeds it every sample from its own bus thread.
+     * The chart redraws at most once per frame however fast samples arrive.
+     */
+    public synchronized void attachLiveChart(WaveformView chart) {
+        chart.addTrace("V", "V", Color.BLUE, WaveformView.Axis.LEFT, 1.5f);
+        chart.addTrace("V set", "V", Color.argb(140, 0, 0, 255), WaveformView.Axis.LEFT, 1f);
+        chart.addTrace("A", "A", Color.RED, WaveformView.Axis.RIGHT, 1.5f);
+        chart.addTrace("A set", "A", Color.argb(140, 255, 0, 0), WaveformView.Axis.RIGHT, 1f);
+        chart.addTrace("P", "W", Color.parseColor("#00966E"), WaveformView.Axis.OWN, 1f);
+        liveChart = chart;
+        if (!background) chartSubscription = subscribeChart(chart);
+    }
 
-                // Update UI through listener
+    private TelemetryBus.Subscription subscribeChart(WaveformView chart) {
+        float[] values = new float[5];
+        return pipeline.getBus().subscribe("charts", CHART_QUEUE_CAPACITY, TelemetryBus.Policy.DROP_OLDEST,
+                snapshot -> {
+                    long chartStart = Metrics.enabled ? System.nanoTime() : 0;
+                    boolean traced = Tracing.begin("chart update");
+                    values[0] = (float) snapshot.getOutputVolt();
+                    values[1] = (float) snapshot.getSetVolt();
+                    values[2] = (float) snapshot.getOutputAmp();
+                    values[3] = (float) snapshot.getSetAmp();
+                    values[4] = (float) snapshot.getOutputPower();
+                    chart.append(snapshot.getChartSeconds(), values);
+                    if (Metrics.enabled) {
+                        long now = System.nanoTime();
+                        Metrics.CHART_UPDATE.record(now - chartStart);
+                        Metrics.END_TO_END.record(now - snapshot.getReceivedNanos());
+                    }
+                    Tracing.end(traced);
+
+                    if (Tracing.isEnabled()) {
+                        markSampleOnNextFrame((int) snapshot.getSequence(), snapshot.getReceivedNanos());
+                    }
+                });
+    }
+
+    // A connection came up: a new session, or the backfilled continuation of the last one
+    public void onConnected() {
+        pipeline.onConnected(System.nanoTime());
+    }
+
+    /**
+     * The link dropped. With a device that can backfill, the next connection continues this
+     * session and its samples wait for the ones the device buffered during the outage.
+     */
+    public void onLinkLost(boolean backfillSupported) {
+        if (backfillSupported) {
+            pipeline.onLinkLost();
+        }
+    }
+
+    // On the notification thread: device millis to backfill after, or -1 if there is no gap
+    public long requestBackfill() {
+        return pipeline.requestBackfill();
+    }
+
+    public void abandonBackfill() {
+        pipeline.abandonBackfill();
+    }
+
+    public void startCapacityTest(CapacityTest.SetpointController controller, double setVolt, double setAmp,
+                                  double cutoffVolt, double cutoffAmp) {
+        CapacityTest test = new CapacityTest(controller, new CapacityTest.CapacityListener() {
+            @Override
+            public void onProgress(long elapsedMillis, double ampHours, double wattHours, double internalResistance) {
                 if (listener != null) {
-                    listener.updateOutputValues(outputVolt, outputAmp, outputEnergy, ccCvStatus);
-                    listener.updateSetValues(setVolt, setAmp);
-                    listener.updateGraphs(outputVolt, outputAmp);
+                    listener.updateCapacityTest(elapsedMillis, ampHours, wattHours, internalResistance);
                 }
+            }
 
-            } catch (Exception e) {
-                Log.e(TAG, "Error parsing received data", e);
+            @Override
+            public void onFinished(CapacityTest.Report report) {
+                if (listener != null) {
+                    listener.capacityTestFinished(report);
+                }
             }
-        } else {
-            Log.e(TAG, "Invalid data length: " + data.length + " (expected 12)");
+        });
+        test.start(System.nanoTime(), setVolt, setAmp, cutoffVolt, cutoffAmp);
+        pipeline.setCapacityTest(test);
+        Log.d(TAG, String.format("Capacity test started: SetV=%.2fV, SetA=%.2fA, cutoff %.2fV / %.3fA",
+                setVolt, setAmp, cutoffVolt, cutoffAmp));
+    }
+
+    public void stopCapacityTest() {
+        CapacityTest test = pipeline.getCapacityTest();
+        if (test != null) {
+            test.stop(System.nanoTime());
+        }
+    }
 
-            // Print raw data for debugging
-            StringBuilder hex = new StringBuilder();
-            for (byte b : data) {
-                hex.append(String.format("%02X ", b));
+    public boolean isCapacityTestRunning() {
+        CapacityTest test = pipeline.getCapacityTest();
+        return test != null && test.isActive();
+    }
+
+    // True while samples are being written to the history store
+    public boolean isRecording() {
+        return historyStore != null;
+    }
+
+    public void release() {
+        // Closing the bus drains the recorder before its store is closed
+        pipeline.release();
+        eventLog.close();
+        if (historyStore != null) {
+            try {
+                historyStore.close();
+            } catch (IOException e) {
+                Log.e(TAG, "Error closing telemetry history", e);
             }
-            Log.d(TAG, "Raw data: " + hex.toString());
         }
     }
 
+    public void processReceivedData(byte[] data) {
+        // A synchronous section: samples the chart coalesces or drops, or that arrive in the
+        // background, have no frame to end an async one in
+        boolean traced = Tracing.begin("processReceivedData");
+        try {
+            pipeline.process(data, System.nanoTime());
+        } catch (Exception e) {
+            Log.e(TAG, "Error processing received data", e);
+        } finally {
+            Tracing.end(traced);
+        }
+    }
+
+    // Readout subscriber, on its own bus thread
+    private void onReadout(TelemetrySnapshot snapshot) {
+        // Per-sample logging allocates; enable with adb shell setprop log.tag.UIUpdate VERBOSE
+        if (Log.isLoggable(TAG, Log.VERBOSE)) Log.v(TAG, "Parsed - " + snapshot);
+
+        if (listener != null && readoutFramePending.compareAndSet(false, true)) {
+            mainHandler.post(scheduleReadoutFrame);
+        }
+    }
+
+    private final Choreographer.FrameCallback readoutFrame = this::showReadout;
+    private final Runnable scheduleReadoutFrame = () -> Choreographer.getInstance().postFrameCallback(readoutFrame);
+
+    // Main thread, in the frame after one or more readouts
+    private void showReadout(long frameTimeNanos) {
+        // Cleared before the copy, so a sample published after it gets a frame of its own
+        readoutFramePending.set(false);
+        if (background) return;
+        pipeline.getState().copyLatest(readout);
+        listener.updateReadouts(readout);
+    }
+
+    private final TelemetryPipeline.PipelineListener pipelineListener = new TelemetryPipeline.PipelineListener() {
+        @Override
+        public void onStatistics(TelemetryStats.Snapshot windowStats, TelemetryStats.Snapshot sessionStats) {
+            if (listener != null && !background) {
+                listener.updateStatistics(windowStats, sessionStats);
+            }
+        }
+
+        @Override
+        public void onRipple(RippleAnalyzer.Result result) {
+            if (listener != null && !background) {
+                listener.updateRipple(result);
+            }
+        }
+
+        @Override
+        public void onEvent(TelemetryEvent event) {
+            eventLog.add(event);
+            if (listener != null && !background) {
+                listener.updateEvent(event, eventLog.size());
+            }
+        }
+
+        @Override
+        public void onDecodeError(byte[] data, ProtocolException e) {
+            Log.e(TAG, e.getMessage());
+            if (Log.isLoggable(TAG, Log.DEBUG)) Log.d(TAG, "Raw data: " + ProtocolCodec.toHex(data));
+        }
+
+        @Override
+        public void onRippleFailed(Exception e) {
+            Log.e(TAG, "Ripple analysis failed", e);
+        }
+
+        @Override
+        public void onSessionStarted(long startNanos) {
+            eventLog.startSession(System.currentTimeMillis() - (System.nanoTime() - startNanos) / 1_000_000);
+        }
+    };
+
+    public void resetStatistics() {
+        pipeline.resetStatistics();
+    }
+
     public void storeMemory(int memoryIndex, double setVolt, double setAmp) {
         SharedPreferences.Editor editor = memoryPrefs.edit();
         String key = "memory_" + memoryIndex;
@@ -133,65 +402,23 @@ public class UIUpdate {
         }
     }
 
-    public void updateCharts(LineChart voltChart, LineChart ampChart, double volt, double amp) {
-        // Add new data points
-        voltEntries.add(new Entry(dataCount, (float) volt));
-        ampEntries.add(new Entry(dataCount, (float) amp));
-        dataCount++;
-
-        // Remove old data points if exceeding limit
-        if (voltEntries.size() > MAX_DATA_POINTS) {
-            voltEntries.remove(0);
-            ampEntries.remove(0);
-        }
-
-        // Update volt chart
-        updateChart(voltChart, voltEntries, "Voltage (V)", Color.BLUE);
-
-        // Update amp chart
-        updateChart(ampChart, ampEntries, "Current (A)", Color.RED);
-    }
-
-    private void updateChart(LineChart chart, List<Entry> entries, String label, int color) {
-        if (entries.isEmpty()) return;
-
-        LineDataSet dataSet = new LineDataSet(entries, label);
-        dataSet.setColor(color);
-        dataSet.setLineWidth(2f);
-        dataSet.setDrawCircles(true);
-        dataSet.setDrawValues(false);
-        dataSet.setDrawFilled(true);
-        dataSet.setMode(LineDataSet.Mode.CUBIC_BEZIER);
-
-        LineData lineData = new LineData(dataSet);
-        chart.setData(lineData);
-
-        // Configure chart appearance
-        chart.getDescription().setEnabled(false);
-        chart.setTouchEnabled(false);
-        chart.setDragEnabled(false);
-        chart.setScaleEnabled(false);
-        chart.setPinchZoom(false);
-        chart.setDrawGridBackground(false);
-
-        XAxis xAxis = chart.getXAxis();
-        xAxis.setPosition(XAxis.XAxisPosition.BOTTOM);
-        xAxis.setDrawGridLines(false);
-        xAxis.setGranularity(1f);
-
-        YAxis yAxis = chart.getAxisLeft();
-        yAxis.setDrawGridLines(true);
-
-        chart.getAxisRight().setEnabled(false);
-        chart.invalidate();
+    // Marks the sample inside the next Choreographer frame, so in Perfetto it sits within the
+    // doFrame that draws the updated chart, and records how long it took to get there
+    private void markSampleOnNextFrame(int sequence, long arrivalNanos) {
+        mainHandler.post(() -> Choreographer.getInstance().postFrameCallback(frameTimeNanos -> {
+            boolean traced = Tracing.begin("Choreographer frame #" + sequence);
+            Tracing.counter("telemetry.arrival.to.frame.us", (System.nanoTime() - arrivalNanos) / 1000);
+            Tracing.end(traced);
+        }));
     }
 
-    // Getters for current values
-    public double getOutputVolt() { return outputVolt; }
-    public double getOutputAmp() { return outputAmp; }
-    public double getOutputEnergy() { return outputEnergy; }
-    public String getCcCvStatus() { return ccCvStatus; }
-    public double getSetVolt() { return setVolt; }
-    public double getSetAmp() { return setAmp; }
+    // Current values: copies the newest published sample into target, from any thread
+    public long copyLatest(TelemetrySnapshot target) { return pipeline.getState().copyLatest(target); }
+    public TelemetryState getTelemetryState() { return pipeline.getState(); }
     public boolean isOutputOn() { return isOutputOn; }
+    public TelemetryStats getWindowStats() { return pipeline.getWindowStats(); }
+    public TelemetryStats getSessionStats() { return pipeline.getSessionStats(); }
+    public EventLog getEventLog() { return eventLog; }
+    public ClockSync getClockSync() { return pipeline.getClockSync(); }
+    public TelemetryPipeline getPipeline() { return pipeline; }
 }
\ No newline at end of file
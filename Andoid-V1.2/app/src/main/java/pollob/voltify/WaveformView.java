@@ -0,0 +1,449 @@
+package pollob.voltify;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.util.AttributeSet;
+import android.view.View;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import pollob.voltify.telemetry.SeriesRingBuffer;
+import pollob.voltify.telemetry.Tracing;
+
+/**
+ * Live trace for high-rate capture. Samples are appended from any thread into a
+ * SeriesRingBuffer; drawing keeps the traces as cached Path segments of SEGMENT_POINTS samples,
+ * adds only the samples that arrived since the last frame and scrolls by translating the
+ * canvas, so 10k+ visible points fit in a frame. All traces share one time base and are drawn
+ * in one pass per frame; MPAndroidChart stays for the history chart.
+ *
+ * Traces on the LEFT or RIGHT axis share that axis's range, labelled at the plot edges;
+ * an OWN trace is scaled to itself and shows its range in the legend. Ranges only grow;
+ * clear() starts over. When a range grows, only the traces on it are rebuilt, and only in the
+ * segments still on screen.
+ *
+ * The lock only covers appends and what the next frame picks up from them; paths are built
+ * and drawn outside it, so an append never waits for a frame.
+ */
+public class WaveformView extends View {
+    // Samples kept; a power of two for SeriesRingBuffer
+    private static final int CAPACITY = 1 << 14;
+    private static final int SEGMENT_POINTS = 256;
+    // One more segment than the ring fills, for the partly overwritten oldest one
+    private static final int SEGMENT_COUNT = CAPACITY / SEGMENT_POINTS + 1;
+    // Drawing reads samples while they are appended; it keeps this far clear of the oldest
+    // ones, which the next appends overwrite
+    private static final int OVERWRITE_MARGIN = SEGMENT_POINTS;
+    private static final float DEFAULT_WINDOW_SECONDS = 10f;
+    // Extra room added above and below when a trace outgrows its range
+    private static final float RANGE_HEADROOM = 0.1f;
+    private static final int AXIS_TEXT_COLOR = Color.parseColor("#666666");
+
+    public enum Axis { LEFT, RIGHT, OWN }
+
+    private static final class Range {
+        float min = Float.NaN, max = Float.NaN;
+        // Grown since the last frame took it up
+        boolean changed;
+
+        void reset() {
+            min = max = Float.NaN;
+        }
+
+        boolean isSet() {
+            return min == min;
+        }
+    }
+
+    private static final class Trace {
+        final String label;
+        final String unit;
+        final Axis axis;
+        final Range range;
+        final Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        // The range the paths are built for, main thread only
+        float min = Float.NaN, max = Float.NaN;
+        boolean stale;
+        String legendText;
+
+        Trace(String label, String unit, int color, Axis axis, Range range) {
+            this.label = label;
+            this.unit = unit;
+            this.axis = axis;
+            this.range = range;
+            paint.setColor(color);
+            paint.setStyle(Paint.Style.STROKE);
+        }
+
+        boolean isSet() {
+            return min == min;
+        }
+    }
+
+    /**
+     * Path pieces starting at sample from, with lines to samples [begin, end) in pixels
+     * relative to startTime. first is the start of the SEGMENT_POINTS block it covers.
+     */
+    private static final class Segment {
+        long first = -1;
+        long from, begin, end;
+        double startTime;
+        double endTime;
+        Path[] paths;
+    }
+
+    private final Object lock = new Object();
+    private final List<Trace> traces = new ArrayList<>();
+    private final Range leftRange = new Range();
+    private final Range rightRange = new Range();
+    // Guarded by lock: the samples, and what the next frame has to pick up
+    private SeriesRingBuffer samples;
+    private float windowSeconds = DEFAULT_WINDOW_SECONDS;
+    private boolean relayout = false;
+    private boolean frameRequested = false;
+
+    // Main thread only: samples [first, built) are in the paths
+    private final Segment[] segments = new Segment[SEGMENT_COUNT];
+    private long built = 0;
+    private float frameWindowSeconds = DEFAULT_WINDOW_SECONDS;
+    // Axis labels at the plot corners, rebuilt when a range changes
+    private String leftMaxText, leftMinText, rightMaxText, rightMinText;
+
+    // Plot geometry, main thread only
+    private float plotLeft, plotTop, plotWidth, plotHeight;
+    private float pixelsPerSecond;
+    private final Paint textPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint gridPaint = new Paint();
+
+    public WaveformView(Context context) {
+        this(context, null);
+    }
+
+    public WaveformView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        float density = getResources().getDisplayMetrics().density;
+        textPaint.setColor(AXIS_TEXT_COLOR);
+        textPaint.setTextSize(10 * getResources().getDisplayMetrics().scaledDensity);
+        gridPaint.setColor(Color.parseColor("#F2F2F2"));
+        gridPaint.setStrokeWidth(density);
+        for (int i = 0; i < SEGMENT_COUNT; i++) {
+            segments[i] = new Segment();
+        }
+    }
+
+    public void addTrace(String label, String unit, int color) {
+        addTrace(label, unit, color, Axis.OWN, 1f);
+    }
+
+    // Traces are set up once, before the first append; they draw in the order they are added
+    public void addTrace(String label, String unit, int color, Axis axis, float widthDp) {
+        synchronized (lock) {
+            if (samples != null && samples.getWritten() > 0) {
+                throw new IllegalStateException("Traces must be added before samples");
+            }
+            Range range = axis == Axis.LEFT ? leftRange : axis == Axis.RIGHT ? rightRange : new Range();
+            Trace trace = new Trace(label, unit, color, axis, range);
+            trace.paint.setStrokeWidth(widthDp * getResources().getDisplayMetrics().density);
+            traces.add(trace);
+            samples = new SeriesRingBuffer(CAPACITY, traces.size());
+            for (Segment segment : segments) {
+                Path[] paths = new Path[traces.size()];
+                for (int i = 0; i < paths.length; i++) {
+                    paths[i] = segment.paths != null && i < segment.paths.length ? segment.paths[i] : new Path();
+                }
+                segment.paths = paths;
+            }
+        }
+    }
+
+    public void setWindowSeconds(float seconds) {
+        if (seconds <= 0) {
+            throw new IllegalArgumentException("Window must be > 0 s");
+        }
+        synchronized (lock) {
+            windowSeconds = seconds;
+            relayout = true;
+        }
+        invalidate();
+    }
+
+    /**
+     * Appends one sample; values holds one entry per trace in the order they were added.
+     * Safe from any thread, never allocates, and schedules at most one redraw per frame.
+     */
+    public void append(double seconds, float[] values) {
+        synchronized (lock) {
+            // Time going backwards means a new timeline; start the traces over
+            if (!samples.isEmpty() && seconds < samples.getLastX()) {
+                startOver();
+            }
+            for (int i = 0; i < traces.size(); i++) {
+                float value = values[i];
+                Range range = traces.get(i).range;
+                if (value == value && !(value >= range.min && value <= range.max)) {
+                    growRange(range, value);
+                    range.changed = true;
+                }
+            }
+            samples.add(seconds, values);
+            if (frameRequested) return;
+            frameRequested = true;
+        }
+        postInvalidateOnAnimation();
+    }
+
+    public void clear() {
+        synchronized (lock) {
+            if (samples != null) startOver();
+        }
+        postInvalidateOnAnimation();
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        float lineHeight = textPaint.getTextSize() * 1.3f;
+        plotLeft = getPaddingLeft();
+        plotTop = getPaddingTop() + lineHeight;
+        plotWidth = Math.max(1, w - getPaddingLeft() - getPaddingRight());
+        plotHeight = Math.max(1, h - getPaddingBottom() - plotTop);
+        synchronized (lock) {
+            relayout = true;
+        }
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        boolean traced = Tracing.begin("waveform draw");
+        try {
+            long first, end;
+            boolean rebuildAll, rescaled = false;
+            synchronized (lock) {
+                frameRequested = false;
+                if (samples == null) return;
+                first = samples.getFirst();
+                end = samples.getWritten();
+                rebuildAll = relayout;
+                relayout = false;
+                frameWindowSeconds = windowSeconds;
+                for (Trace trace : traces) {
+                    if (trace.range.changed || rebuildAll) {
+                        trace.min = trace.range.min;
+                        trace.max = trace.range.max;
+                        trace.stale = true;
+                        rescaled = true;
+                    }
+                }
+                for (Trace trace : traces) {
+                    trace.range.changed = false;
+                }
+            }
+            if (rescaled) updateLabels();
+            buildSegments(Math.max(first, end - (CAPACITY - OVERWRITE_MARGIN)), end, rebuildAll);
+            drawSegments(canvas, first, end);
+            drawLabels(canvas);
+        } finally {
+            Tracing.end(traced);
+        }
+    }
+
+    // Guarded by lock: drops every sample and range
+    private void startOver() {
+        samples.clear();
+        resetRanges();
+        relayout = true;
+    }
+
+    /**
+     * Extends the cached paths with the samples since the last frame. A size, window or
+     * timeline change rebuilds them all; a grown range rebuilds its traces in the segments
+     * still on screen and drops the rest, which scrolling never brings back.
+     */
+    private void buildSegments(long first, long end, boolean rebuildAll) {
+        pixelsPerSecond = plotWidth / frameWindowSeconds;
+        if (rebuildAll) {
+            for (Segment segment : segments) {
+                segment.first = -1;
+            }
+            // From the sample before the left edge; nothing older comes back into view
+            built = end > first ? Math.max(first, indexAt(samples.getX(end - 1) - frameWindowSeconds, first, end) - 1) : first;
+            for (Trace trace : traces) {
+                trace.stale = false;
+            }
+        } else {
+            if (built < first) {
+                // Drawing fell more than a ring behind; what was skipped is already overwritten
+                built = first;
+            }
+            rebuildStaleTraces(first, end);
+        }
+        for (long i = built; i < end; i++) {
+            addToSegment(i, first);
+        }
+        built = end;
+    }
+
+    // First sample in [first, end) at or after time; times only increase within a timeline
+    private long indexAt(double time, long first, long end) {
+        long low = first, high = end;
+        while (low < high) {
+            long mid = (low + high) >>> 1;
+            if (samples.getX(mid) < time) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private void rebuildStaleTraces(long first, long end) {
+        boolean anyStale = false;
+        for (Trace trace : traces) {
+            anyStale |= trace.stale;
+        }
+        if (!anyStale) return;
+        double visibleStart = end > first ? samples.getX(end - 1) - frameWindowSeconds : 0;
+        for (Segment segment : segments) {
+            if (segment.first < 0) continue;
+            if (segment.endTime < visibleStart || segment.from < first) {
+                segment.first = -1;
+                continue;
+            }
+            for (int t = 0; t < traces.size(); t++) {
+                Trace trace = traces.get(t);
+                if (!trace.stale) continue;
+                Path path = segment.paths[t];
+                path.rewind();
+                path.moveTo(0f, toY(trace, samples.getY(t, segment.from)));
+                for (long i = segment.begin; i < segment.end; i++) {
+                    float x = (float) ((samples.getX(i) - segment.startTime) * pixelsPerSecond);
+                    path.lineTo(x, toY(trace, samples.getY(t, i)));
+                }
+            }
+        }
+        for (Trace trace : traces) {
+            trace.stale = false;
+        }
+    }
+
+    private void addToSegment(long index, long first) {
+        long segmentIndex = index / SEGMENT_POINTS;
+        Segment segment = segments[(int) (segmentIndex % SEGMENT_COUNT)];
+        double time = samples.getX(index);
+
+        if (segment.first != segmentIndex * SEGMENT_POINTS) {
+            segment.first = segmentIndex * SEGMENT_POINTS;
+            // Starts from the previous sample, if it is still there, so segments join up
+            segment.from = index > first ? index - 1 : index;
+            segment.begin = index;
+            segment.startTime = samples.getX(segment.from);
+            for (int t = 0; t < traces.size(); t++) {
+                Path path = segment.paths[t];
+                path.rewind();
+                path.moveTo(0f, toY(traces.get(t), samples.getY(t, segment.from)));
+            }
+        }
+        float x = (float) ((time - segment.startTime) * pixelsPerSecond);
+        for (int t = 0; t < traces.size(); t++) {
+            segment.paths[t].lineTo(x, toY(traces.get(t), samples.getY(t, index)));
+        }
+        segment.end = index + 1;
+        segment.endTime = time;
+    }
+
+    private void drawSegments(Canvas canvas, long first, long end) {
+        if (end == first) return;
+        double visibleStart = samples.getX(end - 1) - frameWindowSeconds;
+
+        canvas.save();
+        canvas.clipRect(plotLeft, plotTop, plotLeft + plotWidth, plotTop + plotHeight);
+        for (Segment segment : segments) {
+            if (segment.first < 0 || segment.endTime < visibleStart) continue;
+            float offset = plotLeft + (float) ((segment.startTime - visibleStart) * pixelsPerSecond);
+            canvas.translate(offset, 0f);
+            for (int t = 0; t < traces.size(); t++) {
+                canvas.drawPath(segment.paths[t], traces.get(t).paint);
+            }
+            canvas.translate(-offset, 0f);
+        }
+        canvas.restore();
+    }
+
+    // Legend entries, and the axis labels named by the first trace on each axis
+    private void updateLabels() {
+        leftMaxText = leftMinText = rightMaxText = rightMinText = null;
+        for (Trace trace : traces) {
+            if (trace.axis == Axis.OWN) {
+                trace.legendText = trace.isSet()
+                        ? String.format("%s %.2f..%.2f %s", trace.label, trace.min, trace.max, trace.unit)
+                        : trace.label;
+                continue;
+            }
+            trace.legendText = trace.label;
+            if (!trace.isSet()) continue;
+            if (trace.axis == Axis.LEFT && leftMaxText == null) {
+                leftMaxText = String.format("%.2f %s", trace.max, trace.unit);
+                leftMinText = String.format("%.2f %s", trace.min, trace.unit);
+            } else if (trace.axis == Axis.RIGHT && rightMaxText == null) {
+                rightMaxText = String.format("%.2f %s", trace.max, trace.unit);
+                rightMinText = String.format("%.2f %s", trace.min, trace.unit);
+            }
+        }
+    }
+
+    private void drawLabels(Canvas canvas) {
+        float bottom = plotTop + plotHeight;
+        canvas.drawLine(plotLeft, bottom, plotLeft + plotWidth, bottom, gridPaint);
+        float x = plotLeft;
+        float baseline = getPaddingTop() + textPaint.getTextSize();
+        for (Trace trace : traces) {
+            if (trace.legendText == null) continue;
+            textPaint.setColor(trace.paint.getColor());
+            canvas.drawText(trace.legendText, x, baseline, textPaint);
+            x += textPaint.measureText(trace.legendText) + textPaint.getTextSize();
+        }
+
+        textPaint.setColor(AXIS_TEXT_COLOR);
+        float top = plotTop + textPaint.getTextSize();
+        float low = bottom - textPaint.getTextSize() * 0.3f;
+        if (leftMaxText != null) {
+            canvas.drawText(leftMaxText, plotLeft, top, textPaint);
+            canvas.drawText(leftMinText, plotLeft, low, textPaint);
+        }
+        if (rightMaxText != null) {
+            textPaint.setTextAlign(Paint.Align.RIGHT);
+            canvas.drawText(rightMaxText, plotLeft + plotWidth, top, textPaint);
+            canvas.drawText(rightMinText, plotLeft + plotWidth, low, textPaint);
+            textPaint.setTextAlign(Paint.Align.LEFT);
+        }
+    }
+
+    private float toY(Trace trace, float value) {
+        float span = trace.max - trace.min;
+        float fraction = span > 0 ? (value - trace.min) / span : 0.5f;
+        return plotTop + plotHeight * (1f - fraction);
+    }
+
+    private void resetRanges() {
+        leftRange.reset();
+        rightRange.reset();
+        for (Trace trace : traces) {
+            trace.range.reset();
+        }
+    }
+
+    private static void growRange(Range range, float value) {
+        float min = range.isSet() ? Math.min(range.min, value) : value;
+        float max = range.isSet() ? Math.max(range.max, value) : value;
+        // A flat trace still gets a visible band around it
+        float headroom = Math.max((max - min) * RANGE_HEADROOM, Math.max(Math.abs(max), 1f) * 0.01f);
+        range.min = min - headroom;
+        range.max = max + headroom;
+    }
+}
@@ -0,0 +1,305 @@
+package pollob.voltify;
+
+import org.junit.Test;
+
+import pollob.voltify.protocol.ProtocolCodec;
+import pollob.voltify.protocol.ProtocolException;
+import pollob.voltify.protocol.SimulatedEsp32;
+import pollob.voltify.protocol.TelemetryFrame;
+import pollob.voltify.protocol.Transport;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class BLEServiceTest {
+
+    private static class Recorder implements BLEService.BLEListener {
+        boolean connected;
+        String lastError;
+        TelemetryFrame last;
+
+        @Override public void onDeviceConnected() { connected = true; }
+        @Override public void onDeviceDisconnected() { connected = false; }
+        @Override public void onError(String error) { lastError = error; }
+
+        @Override
+        public void onDataReceived(byte[] data) {
+            try {
+                last = ProtocolCodec.decodeTelemetry(data);
+            } catch (ProtocolException e) {
+                throw new AssertionError(e);
+            }
+        }
+    }
+
+    // Connected link that records writes; completions are reported by the test
+    private static class ManualTransport implements Transport {
+        TransportListener listener;
+        final List<byte[]> writes = new ArrayList<>();
+        boolean accept = true;
+        boolean connected = true;
+
+        @Override public void setListener(TransportListener listener) { this.listener = listener; }
+        @Override public boolean isConnected() { return connected; }
+
+        @Override
+        public void connect(String address) {
+            connected = true;
+            listener.onConnected();
+        }
+
+        @Override
+        public void disconnect() {
+            connected = false;
+            listener.onDisconnected();
+        }
+
+        @Override
+        public boolean write(byte[] data) {
+            if (accept) writes.add(data);
+            return accept;
+        }
+
+        void complete(boolean success) {
+            listener.onWriteComplete(success);
+        }
+    }
+
+    @Test
+    public void writesWaitForTheOneInFlight() {
+        ManualTransport transport = new ManualTransport();
+        Recorder recorder = new Recorder();
+        BLEService service = new BLEService(transport, recorder, Runnable::run);
+        service.connect("manual");
+
+        service.sendData(5.0, 1.0, 30.0, 5.0, true);
+        service.sendData(6.0, 1.0, 30.0, 5.0, true);
+        assertEquals(1, transport.writes.size());
+        transport.complete(true);
+        assertEquals(2, transport.writes.size());
+
+        // A write the link refuses is reported, and the queue moves on
+        transport.accept = false;
+        service.sendData(7.0, 1.0, 30.0, 5.0, true);
+        assertNull(recorder.lastError);
+        transport.complete(true);
+        assertEquals("Failed to send data - write operation failed", recorder.lastError);
+        assertEquals(2, transport.writes.size());
+
+        transport.accept = true;
+        service.sendData(8.0, 1.0, 30.0, 5.0, true);
+        assertEquals(3, transport.writes.size());
+    }
+
+    @Test
+    public void disconnectFailsTheWritesItDrops() {
+        ManualTransport transport = new ManualTransport();
+        Recorder recorder = new Recorder();
+        BLEService service = new BLEService(transport, recorder, Runnable::run);
+        service.connect("manual");
+        // Hello
+        transport.complete(true);
+
+        service.sendData(5.0, 1.0, 30.0, 5.0, true);
+        service.sendData(6.0, 1.0, 30.0, 5.0, true);
+        assertEquals(2, transport.writes.size());
+        transport.disconnect();
+        assertEquals("Failed to send data - write operation failed", recorder.lastError);
+
+        // Nothing from the last connection is left to go out, or to be completed by this one
+        recorder.lastError = null;
+        service.connect("manual");
+        assertEquals(3, transport.writes.size());
+        assertTrue(ProtocolCodec.isHello(transport.writes.get(2)));
+        transport.complete(true);
+        assertEquals(3, transport.writes.size());
+        assertNull(recorder.lastError);
+    }
+
+    @Test
+    public void retriesARateRequestUntilItsWriteSucceeds() {
+        ManualTransport transport = new ManualTransport();
+        BLEService service = new BLEService(transport, new Recorder(), Runnable::run);
+        service.setTelemetryInterval(200);
+        service.connect("manual");
+        assertTrue(ProtocolCodec.isHello(transport.writes.get(0)));
+        transport.complete(true);
+        transport.listener.onNotification(ProtocolCodec.encodeHelloReply(ProtocolCodec.PROTOCOL_V2));
+        assertEquals(2, transport.writes.size());
+        assertTrue(ProtocolCodec.isRateRequest(transport.writes.get(1)));
+
+        transport.complete(false);
+        assertEquals(3, transport.writes.size());
+        assertArrayEquals(transport.writes.get(1), transport.writes.get(2));
+        transport.complete(true);
+
+        // Accepted, so asking again sends nothing
+        service.setTelemetryInterval(200);
+        assertEquals(3, transport.writes.size());
+    }
+
+    @Test
+    public void sendsDeltasOnlyAgainstWhatTheDeviceAcknowledged() {
+        ManualTransport transport = new ManualTransport();
+        BLEService service = new BLEService(transport, new Recorder(), Runnable::run);
+        service.connect("manual");
+        transport.complete(true);
+        transport.listener.onNotification(ProtocolCodec.encodeHelloReply(ProtocolCodec.PROTOCOL_V2));
+        int whole = ProtocolCodec.setpointV2Length(ProtocolCodec.FIELD_ALL);
+
+        service.sendData(12.0, 1.0, 30.0, 5.0, true);
+        assertEquals(whole, transport.writes.get(1).length);
+        transport.complete(true);
+
+        service.sendData(12.0, 2.0, 30.0, 5.0, true);
+        assertTrue(transport.writes.get(2).length < whole);
+        transport.complete(false);
+
+        // The device may not have the last one, so this goes out whole
+        service.sendData(12.0, 3.0, 30.0, 5.0, true);
+        assertEquals(whole, transport.writes.get(3).length);
+    }
+
+    @Test
+    public void drivesTheSimulatorThroughTheTransport() {
+        SimulatedEsp32.Config config = new SimulatedEsp32.Config();
+        config.realTime = false;
+        SimulatedEsp32 device = new SimulatedEsp32(config);
+        Recorder recorder = new Recorder();
+        BLEService service = new BLEService(device, recorder, Runnable::run);
+
+        service.sendData(5.0, 1.0, 30.0, 5.0, true);
+        assertNotNull(recorder.lastError);
+
+        service.connect("sim");
+        assertTrue(recorder.connected);
+        service.sendData(5.0, 1.0, 30.0, 5.0, true);
+        assertTrue(device.isOutputOn());
+
+        device.emitFrame();
+        assertEquals(5.0, recorder.last.outputVolt, 0.02);
+        assertEquals(0.5, recorder.last.outputAmp, 0.01);
+
+        service.disconnect();
+        assertFalse(recorder.connected);
+    }
+
+    @Test
+    public void reportsSetpointsTheCodecRejects() {
+        SimulatedEsp32.Config config = new SimulatedEsp32.Config();
+        config.realTime = false;
+        SimulatedEsp32 device = new SimulatedEsp32(config);
+        Recorder recorder = new Recorder();
+        BLEService service = new BLEService(device, recorder, Runnable::run);
+        service.connect("sim");
+
+        service.sendData(40.0, 1.0, 40.0, 5.0, true);
+        assertTrue(recorder.lastError.startsWith("Invalid setpoint"));
+        assertEquals(0, device.getSetpointWrites());
+    }
+
+    @Test
+    public void negotiatesV2SetpointsWithDevicesThatAnswerTheHello() {
+        SimulatedEsp32.Config config = new SimulatedEsp32.Config();
+        config.realTime = false;
+        config.protocolVersion = ProtocolCodec.PROTOCOL_V2;
+        SimulatedEsp32 device = new SimulatedEsp32(config);
+        Recorder recorder = new Recorder();
+        BLEService service = new BLEService(device, recorder, Runnable::run);
+        // The hello goes out as soon as the link is ready, before any telemetry
+        service.connect("sim");
+        assertEquals(ProtocolCodec.PROTOCOL_V2, service.getProtocolVersion());
+
+        // Past the int16 range of v1
+        service.sendData(40.0, 1.0, 45.0, 5.0, true);
+        assertNull(recorder.lastError);
+        assertEquals(1, device.getSetpointWrites());
+
+        service.sendData(12.0, 1.0, 30.0, 5.0, true);
+        // Delta frame with only the set current
+        service.sendData(12.0, 2.0, 30.0, 5.0, true);
+        device.emitFrame();
+        assertEquals(2.0, recorder.last.setAmp, 1e-9);
+        assertEquals(12.0, recorder.last.setVolt, 1e-9);
+        assertEquals(3, device.getSetpointWrites());
+    }
+
+    @Test
+    public void staysOnV1WhenTheDeviceIgnoresTheHello() {
+        SimulatedEsp32.Config config = new SimulatedEsp32.Config();
+        config.realTime = false;
+        SimulatedEsp32 device = new SimulatedEsp32(config);
+        Recorder recorder = new Recorder();
+        BLEService service = new BLEService(device, recorder, Runnable::run);
+        service.connect("sim");
+        for (int i = 0; i < 5; i++) {
+            device.emitFrame();
+        }
+        assertEquals(ProtocolCodec.PROTOCOL_V1, service.getProtocolVersion());
+        assertNull(recorder.lastError);
+
+        service.sendData(7.0, 1.0, 30.0, 5.0, true);
+        device.emitFrame();
+        assertEquals(7.0, recorder.last.setVolt, 1e-9);
+    }
+
+    @Test
+    public void sendsTheTelemetryIntervalOnceV2IsNegotiated() {
+        SimulatedEsp32.Config config = new SimulatedEsp32.Config();
+        config.realTime = false;
+        config.protocolVersion = ProtocolCodec.PROTOCOL_V2;
+        SimulatedEsp32 device = new SimulatedEsp32(config);
+        BLEService service = new BLEService(device, new Recorder(), Runnable::run);
+
+        // Held until the device has shown it takes rate requests
+        service.setTelemetryInterval(200);
+        assertEquals(10.0, device.getNotifyRateHz(), 1e-9);
+        service.connect("sim");
+        assertEquals(5.0, device.getNotifyRateHz(), 1e-9);
+
+        service.setTelemetryInterval(20);
+        assertEquals(50.0, device.getNotifyRateHz(), 1e-9);
+    }
+
+    @Test
+    public void requestsBackfillOnceTheProtocolIsNegotiated() {
+        SimulatedEsp32.Config config = new SimulatedEsp32.Config();
+        config.realTime = false;
+        config.protocolVersion = ProtocolCodec.PROTOCOL_V2;
+        SimulatedEsp32 device = new SimulatedEsp32(config);
+        BLEService[] service = new BLEService[1];
+        int[] backfilled = {0};
+        service[0] = new BLEService(device, new Recorder() {
+            @Override
+            public void onDataReceived(byte[] data) {
+                if (ProtocolCodec.isBackfillData(data)) {
+                    try {
+                        backfilled[0] += ProtocolCodec.decodeBackfillData(data);
+                    } catch (ProtocolException e) {
+                        throw new AssertionError(e);
+                    }
+                } else {
+                    super.onDataReceived(data);
+                }
+            }
+
+            @Override
+            public void onProtocolNegotiated(int version) {
+                assertTrue(service[0].requestBackfill(0));
+            }
+        }, Runnable::run);
+
+        // Sampled into the device's buffer before the app connects
+        for (int i = 0; i < 5; i++) {
+            assertFalse(device.emitFrame());
+        }
+        // Before the hello reply there is no v2 to ask with
+        assertFalse(service[0].requestBackfill(0));
+        service[0].connect("sim");
+        assertEquals(ProtocolCodec.PROTOCOL_V2, service[0].getProtocolVersion());
+        // Everything buffered after device time 0
+        assertEquals(4, backfilled[0]);
+    }
+}
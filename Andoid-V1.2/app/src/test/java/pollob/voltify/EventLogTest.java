@@ -0,0 +1,75 @@
+package pollob.voltify;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import pollob.voltify.telemetry.TelemetryEvent;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.List;
+import java.util.Locale;
+
+import static org.junit.Assert.*;
+
+public class EventLogTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void eventLogIndexesByTimeAndType() {
+        EventLog log = new EventLog(null);
+        log.startSession(0);
+        log.add(new TelemetryEvent(TelemetryEvent.Type.CV_TO_CC, 10, 1000, 0, 0, 0));
+        log.add(new TelemetryEvent(TelemetryEvent.Type.CURRENT_SPIKE, 20, 2000, 0, 0, 5));
+        log.add(new TelemetryEvent(TelemetryEvent.Type.CC_TO_CV, 30, 3000, 0, 0, 0));
+
+        assertEquals(1, log.indexAtOrAfter(1500));
+        assertEquals(0, log.indexAtOrAfter(0));
+        assertEquals(3, log.indexAtOrAfter(5000));
+        assertEquals(1, log.count(TelemetryEvent.Type.CURRENT_SPIKE));
+        assertEquals(20, log.getEvents(TelemetryEvent.Type.CURRENT_SPIKE).get(0).sampleIndex);
+
+        TelemetryEvent parsed = TelemetryEvent.fromCsv(log.getEvents().get(1).toCsv());
+        assertEquals(TelemetryEvent.Type.CURRENT_SPIKE, parsed.type);
+        assertEquals(2000, parsed.sessionMillis);
+    }
+
+    @Test
+    public void sessionFilesCarryTheirWallClockStart() throws Exception {
+        File directory = folder.getRoot();
+        EventLog log = new EventLog(directory);
+        long start = 1_790_000_000_123L;
+        log.startSession(start);
+        log.add(new TelemetryEvent(TelemetryEvent.Type.CURRENT_SPIKE, 20, 2000, 0, 0, 5));
+        log.close();
+
+        File file = EventLog.sessionFile(directory, log.getSessionId());
+        // Written on the log's own thread
+        long deadline = System.nanoTime() + 2_000_000_000L;
+        while (!file.exists() || EventLog.load(file).isEmpty()) {
+            assertTrue("Timed out", System.nanoTime() < deadline);
+            Thread.sleep(1);
+        }
+        List<TelemetryEvent> loaded = EventLog.load(file);
+        assertEquals(1, loaded.size());
+        assertEquals(2000, loaded.get(0).sessionMillis);
+        assertEquals(start, EventLog.sessionStartMillis(file));
+        assertEquals(1, EventLog.sessionFiles(directory).size());
+    }
+
+    @Test
+    public void filesWithoutAHeaderStartAtTheirSessionId() throws IOException, java.text.ParseException {
+        File file = EventLog.sessionFile(folder.getRoot(), "20260101-120000");
+        try (FileWriter writer = new FileWriter(file)) {
+            writer.write(new TelemetryEvent(TelemetryEvent.Type.CC_TO_CV, 1, 10, 0, 0, 0).toCsv() + "\n");
+        }
+        long expected = new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.US).parse("20260101-120000").getTime();
+        assertEquals(expected, EventLog.sessionStartMillis(file));
+        assertEquals(1, EventLog.load(file).size());
+    }
+}
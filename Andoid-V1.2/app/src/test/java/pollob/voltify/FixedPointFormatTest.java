@@ -0,0 +1,46 @@
+package pollob.voltify;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FixedPointFormatTest {
+
+    private static String format(double value, int decimals) {
+        char[] out = new char[32];
+        int length = FixedPointFormat.format(value, decimals, out, 0);
+        return new String(out, 0, length);
+    }
+
+    @Test
+    public void matchesStringFormatForReadoutValues() {
+        double[] values = {0.0, 0.0004, 0.0005, 1.2, 12.3456, 29.999, 5.005, 300.0, 1234.5678};
+        for (double value : values) {
+            for (int decimals = 0; decimals <= 3; decimals++) {
+                String expected = String.format(java.util.Locale.US, "%." + decimals + "f", value);
+                assertEquals(value + " with " + decimals, expected, format(value, decimals));
+            }
+        }
+    }
+
+    @Test
+    public void formatsNegativeValuesAndDropsNegativeZero() {
+        assertEquals("-1.250", format(-1.25, 3));
+        assertEquals("-0.05", format(-0.05, 2));
+        assertEquals("0.00", format(-0.001, 2));
+    }
+
+    @Test
+    public void writesAtAnOffset() {
+        char[] out = "xx________".toCharArray();
+        int length = FixedPointFormat.format(7.5, 1, out, 2);
+        assertEquals(3, length);
+        assertEquals("xx7.5_____", new String(out));
+    }
+
+    @Test
+    public void scaleExposesTheVisibleDigits() {
+        assertEquals(FixedPointFormat.scale(1.2341, 3), FixedPointFormat.scale(1.2344, 3));
+        assertNotEquals(FixedPointFormat.scale(1.2341, 3), FixedPointFormat.scale(1.2346, 3));
+    }
+}
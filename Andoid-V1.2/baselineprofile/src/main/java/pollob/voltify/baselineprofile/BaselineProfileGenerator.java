@@ -0,0 +1,73 @@
+package pollob.voltify.baselineprofile;
+
+import android.content.Intent;
+
+import androidx.benchmark.macro.junit4.BaselineProfileRule;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.uiautomator.By;
+import androidx.test.uiautomator.UiDevice;
+import androidx.test.uiautomator.Until;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.regex.Pattern;
+
+import kotlin.Unit;
+
+/**
+ * Records the classes and methods used from cold start through connect, streaming and the
+ * charts, so they are AOT-compiled at install instead of interpreted on first use.
+ * The app streams from SimulatedEsp32, which runs the same BLEService, decode and
+ * TelemetryPipeline code as a real device; GattTransport is listed in app/src/main/baseline-prof.txt.
+ *
+ * ./gradlew :app:generateBaselineProfile
+ */
+@RunWith(AndroidJUnit4.class)
+public class BaselineProfileGenerator {
+    private static final String PACKAGE_NAME = "pollob.voltify";
+    // MainActivity.EXTRA_SIMULATE_HZ
+    private static final String EXTRA_SIMULATE_HZ = "pollob.voltify.SIMULATE_HZ";
+    private static final int SIMULATE_HZ = 50;
+    private static final long TIMEOUT_MILLIS = 5000;
+    private static final long STREAM_MILLIS = 3000;
+
+    @Rule
+    public BaselineProfileRule rule = new BaselineProfileRule();
+
+    @Test
+    public void connectStreamAndChart() {
+        rule.collect(PACKAGE_NAME, scope -> {
+            Intent intent = new Intent();
+            intent.setPackage(PACKAGE_NAME);
+            intent.setAction(Intent.ACTION_MAIN);
+            intent.addCategory(Intent.CATEGORY_LAUNCHER);
+            intent.putExtra(EXTRA_SIMULATE_HZ, SIMULATE_HZ);
+            scope.startActivityAndWait(intent);
+
+            // Connect happens on its own; wait for live readings on the front card
+            UiDevice device = scope.getDevice();
+            device.wait(Until.hasObject(By.res(PACKAGE_NAME, "outputVoltText")
+                    .desc(Pattern.compile("[1-9].*"))), TIMEOUT_MILLIS);
+
+            // Charts on the back card, then back to the gauge
+            device.findObject(By.res(PACKAGE_NAME, "flipButton")).click();
+            device.waitForIdle();
+            device.wait(Until.hasObject(By.res(PACKAGE_NAME, "liveChart")), TIMEOUT_MILLIS);
+            sleep(STREAM_MILLIS);
+            device.findObject(By.res(PACKAGE_NAME, "flipButton")).click();
+            device.waitForIdle();
+            sleep(STREAM_MILLIS);
+            return Unit.INSTANCE;
+        });
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
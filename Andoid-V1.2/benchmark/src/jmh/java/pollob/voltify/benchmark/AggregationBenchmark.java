@@ -0,0 +1,136 @@
+package pollob.voltify.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import pollob.voltify.telemetry.CapacityTest;
+import pollob.voltify.telemetry.ClockSync;
+import pollob.voltify.telemetry.EventDetector;
+import pollob.voltify.telemetry.RippleAnalyzer;
+import pollob.voltify.telemetry.TelemetryStats;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-sample stages that UIUpdate runs after decode: clock sync, statistics, event
+ * detection and capacity integration, plus one ripple FFT block. Sizes match UIUpdate.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class AggregationBenchmark {
+    private static final long PERIOD_NANOS = (long) (1e9 / SyntheticTelemetry.SAMPLE_RATE_HZ);
+    private static final int RIPPLE_BLOCK_SIZE = 256;
+
+    private SyntheticTelemetry telemetry;
+    private TelemetryStats windowStats;
+    private TelemetryStats sessionStats;
+    private ClockSync clockSync;
+    private EventDetector eventDetector;
+    private CapacityTest capacityTest;
+    private RippleAnalyzer rippleAnalyzer;
+    private double[] rippleVolt, rippleAmp;
+
+    private int index = 0;
+    private long nowNanos = 0;
+    private long events = 0;
+
+    @Setup
+    public void setup() {
+        telemetry = new SyntheticTelemetry(2);
+        windowStats = new TelemetryStats(600);
+        sessionStats = new TelemetryStats(0);
+        clockSync = new ClockSync(500);
+        eventDetector = new EventDetector(event -> events++);
+        eventDetector.reset(0);
+        capacityTest = new CapacityTest((setVolt, setAmp, outputOn) -> {}, new CapacityTest.CapacityListener() {
+            @Override
+            public void onProgress(long elapsedMillis, double ampHours, double wattHours, double internalResistance) {}
+
+            @Override
+            public void onFinished(CapacityTest.Report report) {}
+        });
+        capacityTest.start(0, 12.0, 2.0, 0, 0);
+
+        // Analysed synchronously; the worker thread is not started
+        rippleAnalyzer = new RippleAnalyzer(RIPPLE_BLOCK_SIZE, null);
+        rippleVolt = new double[RIPPLE_BLOCK_SIZE];
+        rippleAmp = new double[RIPPLE_BLOCK_SIZE];
+        System.arraycopy(telemetry.volt, 0, rippleVolt, 0, RIPPLE_BLOCK_SIZE);
+        System.arraycopy(telemetry.amp, 0, rippleAmp, 0, RIPPLE_BLOCK_SIZE);
+    }
+
+    private int next() {
+        index = (index + 1) & (SyntheticTelemetry.SAMPLE_COUNT - 1);
+        nowNanos += PERIOD_NANOS;
+        return index;
+    }
+
+    @Benchmark
+    public int windowStatsAdd() {
+        int i = next();
+        windowStats.add(telemetry.volt[i], telemetry.amp[i]);
+        return i;
+    }
+
+    @Benchmark
+    public int sessionStatsAdd() {
+        int i = next();
+        sessionStats.add(telemetry.volt[i], telemetry.amp[i]);
+        return i;
+    }
+
+    // Published every STATS_PUBLISH_INTERVAL samples; walks the quantile sketches
+    @Benchmark
+    public TelemetryStats.Snapshot statsSnapshot() {
+        int i = next();
+        windowStats.add(telemetry.volt[i], telemetry.amp[i]);
+        return windowStats.snapshot();
+    }
+
+    @Benchmark
+    public long clockSyncMap() {
+        int i = next();
+        // Arrival jitter in whole connection intervals
+        long arrival = nowNanos + (i & 3) * 7_500_000L;
+        return clockSync.map(nowNanos / PERIOD_NANOS, arrival);
+    }
+
+    @Benchmark
+    public long eventDetection() {
+        int i = next();
+        eventDetector.onSample(nowNanos, telemetry.volt[i], telemetry.amp[i], 12.0, telemetry.ccCv[i]);
+        return events;
+    }
+
+    @Benchmark
+    public int capacityIntegration() {
+        int i = next();
+        capacityTest.onSample(nowNanos, telemetry.volt[i], telemetry.amp[i]);
+        return i;
+    }
+
+    // Everything UIUpdate.processReceivedData does per sample after decode, minus the UI callbacks
+    @Benchmark
+    public long fullSampleStage() {
+        int i = next();
+        double volt = telemetry.volt[i], amp = telemetry.amp[i];
+        long sampleNanos = clockSync.map(nowNanos / PERIOD_NANOS, nowNanos);
+        windowStats.add(volt, amp);
+        sessionStats.add(volt, amp);
+        eventDetector.onSample(sampleNanos, volt, amp, 12.0, telemetry.ccCv[i]);
+        capacityTest.onSample(sampleNanos, volt, amp);
+        return sampleNanos;
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public RippleAnalyzer.Result rippleBlock() {
+        return rippleAnalyzer.analyze(rippleVolt, rippleAmp, (RIPPLE_BLOCK_SIZE - 1) * PERIOD_NANOS);
+    }
+}
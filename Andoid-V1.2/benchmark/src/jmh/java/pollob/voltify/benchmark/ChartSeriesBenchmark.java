@@ -0,0 +1,101 @@
+package pollob.voltify.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import pollob.voltify.telemetry.SeriesRingBuffer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-sample chart series cost. waveformAppend is what WaveformView stores for each sample of
+ * the live overlay chart; legacyTwoChartInsert is what the separate volt and amp LineCharts did
+ * with their Entry lists before every redraw. Drawing runs on the device and is covered by
+ * FrameTimingBenchmark in :macrobenchmark.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ChartSeriesBenchmark {
+    // WaveformView's ring and traces: V, V set, A, A set, P
+    private static final int WAVEFORM_CAPACITY = 1 << 14;
+    private static final int WAVEFORM_TRACES = 5;
+    // Points the LineCharts kept
+    private static final int LEGACY_POINTS = 100;
+
+    // Stand-in for the chart library's Entry
+    private static final class Point {
+        final float x, y;
+
+        Point(float x, float y) {
+            this.x = x;
+            this.y = y;
+        }
+    }
+
+    private SyntheticTelemetry telemetry;
+    private SeriesRingBuffer waveform;
+    private final float[] values = new float[WAVEFORM_TRACES];
+    private List<Point> voltPoints;
+    private List<Point> ampPoints;
+
+    private int index = 0;
+    private double seconds = 0;
+
+    @Setup
+    public void setup() {
+        telemetry = new SyntheticTelemetry(3);
+        waveform = new SeriesRingBuffer(WAVEFORM_CAPACITY, WAVEFORM_TRACES);
+        voltPoints = new ArrayList<>();
+        ampPoints = new ArrayList<>();
+    }
+
+    private int next() {
+        index = (index + 1) & (SyntheticTelemetry.SAMPLE_COUNT - 1);
+        seconds += 0.001;
+        return index;
+    }
+
+    @Benchmark
+    public long waveformAppend() {
+        int i = next();
+        float volt = (float) telemetry.volt[i], amp = (float) telemetry.amp[i];
+        values[0] = volt;
+        values[1] = 12f;
+        values[2] = amp;
+        values[3] = 2f;
+        values[4] = volt * amp;
+        waveform.add(seconds, values);
+        return waveform.getWritten();
+    }
+
+    // Entry add and remove(0) on both lists, then the min/max scan each new LineDataSet made
+    @Benchmark
+    public float legacyTwoChartInsert() {
+        int i = next();
+        voltPoints.add(new Point((float) seconds, (float) telemetry.volt[i]));
+        ampPoints.add(new Point((float) seconds, (float) telemetry.amp[i]));
+        if (voltPoints.size() > LEGACY_POINTS) {
+            voltPoints.remove(0);
+            ampPoints.remove(0);
+        }
+        return span(voltPoints) + span(ampPoints);
+    }
+
+    private static float span(List<Point> points) {
+        float min = Float.MAX_VALUE, max = -Float.MAX_VALUE;
+        for (int i = 0; i < points.size(); i++) {
+            float y = points.get(i).y;
+            if (y < min) min = y;
+            if (y > max) max = y;
+        }
+        return max - min;
+    }
+}
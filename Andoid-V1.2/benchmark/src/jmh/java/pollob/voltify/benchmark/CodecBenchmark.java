@@ -0,0 +1,104 @@
+package pollob.voltify.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import pollob.voltify.protocol.ProtocolCodec;
+import pollob.voltify.protocol.ProtocolException;
+import pollob.voltify.protocol.SetpointCommand;
+import pollob.voltify.protocol.TelemetryFrame;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Telemetry decode and setpoint encode, as run for every BLE notification and slider write.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CodecBenchmark {
+    // Frames per buffer when several notifications are handled in one go
+    static final int BATCH_FRAMES = 20;
+
+    private byte[][] frames;
+    private byte[][] timestampedFrames;
+    private byte[] batch;
+    private final TelemetryFrame frame = new TelemetryFrame();
+    private final byte[] setpointOut = new byte[ProtocolCodec.SETPOINT_FRAME_LENGTH];
+    private double[] setVolts;
+    private int index = 0;
+
+    @Setup
+    public void setup() {
+        SyntheticTelemetry telemetry = new SyntheticTelemetry(1);
+        byte[] plain = telemetry.encode(ProtocolCodec.TELEMETRY_FRAME_LENGTH);
+        byte[] timestamped = telemetry.encode(ProtocolCodec.TIMESTAMPED_TELEMETRY_FRAME_LENGTH);
+
+        // Separate arrays, like the copies BluetoothGatt hands over per notification
+        frames = new byte[SyntheticTelemetry.SAMPLE_COUNT][];
+        timestampedFrames = new byte[SyntheticTelemetry.SAMPLE_COUNT][];
+        for (int i = 0; i < SyntheticTelemetry.SAMPLE_COUNT; i++) {
+            frames[i] = Arrays.copyOfRange(plain, i * 12, i * 12 + 12);
+            timestampedFrames[i] = Arrays.copyOfRange(timestamped, i * 16, i * 16 + 16);
+        }
+        batch = Arrays.copyOf(plain, BATCH_FRAMES * ProtocolCodec.TELEMETRY_FRAME_LENGTH);
+
+        setVolts = new double[SyntheticTelemetry.SAMPLE_COUNT];
+        for (int i = 0; i < setVolts.length; i++) {
+            setVolts[i] = (i % 3000) / 100.0;
+        }
+    }
+
+    private int next() {
+        index = (index + 1) & (SyntheticTelemetry.SAMPLE_COUNT - 1);
+        return index;
+    }
+
+    @Benchmark
+    public double decodeFrame() throws ProtocolException {
+        ProtocolCodec.decodeTelemetry(frames[next()], frame);
+        return frame.outputVolt;
+    }
+
+    @Benchmark
+    public double decodeTimestampedFrame() throws ProtocolException {
+        ProtocolCodec.decodeTelemetry(timestampedFrames[next()], frame);
+        return frame.outputVolt + frame.deviceMillis;
+    }
+
+    // Allocating overload, for comparison with the reused decode target
+    @Benchmark
+    public TelemetryFrame decodeFrameAllocating() throws ProtocolException {
+        return ProtocolCodec.decodeTelemetry(frames[next()]);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_FRAMES)
+    public void decodeBatch(Blackhole blackhole) throws ProtocolException {
+        for (int offset = 0; offset < batch.length; offset += ProtocolCodec.TELEMETRY_FRAME_LENGTH) {
+            ProtocolCodec.decodeTelemetry(batch, offset, ProtocolCodec.TELEMETRY_FRAME_LENGTH, frame);
+            blackhole.consume(frame.outputVolt);
+        }
+    }
+
+    @Benchmark
+    public byte[] encodeSetpoint() throws ProtocolException {
+        double setVolt = setVolts[next()];
+        ProtocolCodec.encodeSetpoint(setVolt, 2.0, 30.0, 5.0, true, setpointOut);
+        return setpointOut;
+    }
+
+    // The BLEService.sendData path: command object plus a fresh frame
+    @Benchmark
+    public byte[] encodeSetpointAllocating() throws ProtocolException {
+        return ProtocolCodec.encodeSetpoint(new SetpointCommand(setVolts[next()], 2.0, 30.0, 5.0, true));
+    }
+}
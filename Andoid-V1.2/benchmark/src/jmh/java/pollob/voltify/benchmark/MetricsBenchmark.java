@@ -0,0 +1,50 @@
+package pollob.voltify.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import pollob.voltify.telemetry.Metrics;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of an instrumented site (a timed histogram record plus a counter) with metrics on and off,
+ * against the same work without instrumentation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MetricsBenchmark {
+    @Param({"false", "true"})
+    public boolean metricsEnabled;
+
+    private long value = 0;
+
+    @Setup
+    public void setup() {
+        Metrics.enabled = metricsEnabled;
+    }
+
+    @Benchmark
+    public long uninstrumented() {
+        return ++value;
+    }
+
+    @Benchmark
+    public long instrumented() {
+        boolean measure = Metrics.enabled;
+        long start = measure ? System.nanoTime() : 0;
+        value++;
+        if (measure) {
+            Metrics.NOTIFICATIONS.increment();
+            Metrics.DECODE.record(System.nanoTime() - start);
+        }
+        return value;
+    }
+}
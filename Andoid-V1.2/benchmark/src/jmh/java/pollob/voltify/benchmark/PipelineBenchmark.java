@@ -0,0 +1,75 @@
+package pollob.voltify.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import pollob.voltify.protocol.ProtocolCodec;
+import pollob.voltify.protocol.ProtocolException;
+import pollob.voltify.telemetry.RippleAnalyzer;
+import pollob.voltify.telemetry.TelemetryEvent;
+import pollob.voltify.telemetry.TelemetryPipeline;
+import pollob.voltify.telemetry.TelemetryStats;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One notification through TelemetryPipeline.process, the work done on the thread that
+ * delivers notifications: decode, timestamps and handing the sample to the pipeline's own
+ * analysis subscriber, the only one on the bus. Statistics, ripple and events run on that
+ * subscriber's thread, so they are not part of this cost.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PipelineBenchmark {
+    private static final long PERIOD_NANOS = (long) (1e9 / SyntheticTelemetry.SAMPLE_RATE_HZ);
+
+    private byte[][] frames;
+    private TelemetryPipeline pipeline;
+    private int index = 0;
+    private long nowNanos = 0;
+
+    @Setup
+    public void setup() {
+        // 12-byte frames: the sample index is the device tick, so it never wraps back
+        byte[] plain = new SyntheticTelemetry(3).encode(ProtocolCodec.TELEMETRY_FRAME_LENGTH);
+        frames = new byte[SyntheticTelemetry.SAMPLE_COUNT][];
+        for (int i = 0; i < SyntheticTelemetry.SAMPLE_COUNT; i++) {
+            frames[i] = Arrays.copyOfRange(plain, i * 12, i * 12 + 12);
+        }
+
+        pipeline = new TelemetryPipeline(new TelemetryPipeline.PipelineListener() {
+            @Override public void onStatistics(TelemetryStats.Snapshot windowStats, TelemetryStats.Snapshot sessionStats) {}
+            @Override public void onRipple(RippleAnalyzer.Result result) {}
+            @Override public void onEvent(TelemetryEvent event) {}
+            @Override public void onRippleFailed(Exception e) {}
+            @Override public void onSessionStarted(long startNanos) {}
+
+            @Override
+            public void onDecodeError(byte[] data, ProtocolException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        pipeline.start();
+        pipeline.startSession(0);
+    }
+
+    @TearDown
+    public void tearDown() {
+        pipeline.release();
+    }
+
+    @Benchmark
+    public boolean process() {
+        index = (index + 1) & (SyntheticTelemetry.SAMPLE_COUNT - 1);
+        nowNanos += PERIOD_NANOS;
+        return pipeline.process(frames[index], nowNanos);
+    }
+}
@@ -0,0 +1,55 @@
+package pollob.voltify.benchmark;
+
+import pollob.voltify.protocol.ProtocolCodec;
+import pollob.voltify.protocol.ProtocolException;
+import pollob.voltify.protocol.TelemetryFrame;
+
+import java.util.Random;
+
+/**
+ * Deterministic telemetry for the benchmarks: a 12 V / 2 A supply with 100 Hz ripple,
+ * a little noise and an occasional CV/CC flip, encoded with the real codec.
+ */
+final class SyntheticTelemetry {
+    static final int SAMPLE_COUNT = 4096; // power of two so benchmarks can mask the index
+    static final double SAMPLE_RATE_HZ = 200.0;
+
+    final double[] volt = new double[SAMPLE_COUNT];
+    final double[] amp = new double[SAMPLE_COUNT];
+    final int[] ccCv = new int[SAMPLE_COUNT];
+
+    SyntheticTelemetry(long seed) {
+        Random random = new Random(seed);
+        for (int i = 0; i < SAMPLE_COUNT; i++) {
+            double t = i / SAMPLE_RATE_HZ;
+            boolean cc = (i / 1024) % 2 == 1;
+            volt[i] = (cc ? 11.2 : 12.0) + 0.02 * Math.sin(2 * Math.PI * 100 * t) + random.nextGaussian() * 0.002;
+            amp[i] = (cc ? 2.0 : 1.6) + 0.01 * Math.sin(2 * Math.PI * 100 * t) + random.nextGaussian() * 0.001;
+            ccCv[i] = cc ? TelemetryFrame.MODE_CC : TelemetryFrame.MODE_CV;
+        }
+    }
+
+    // One frame per sample, back to back in a single buffer; frameLength is 12 or 16
+    byte[] encode(int frameLength) {
+        byte[] out = new byte[SAMPLE_COUNT * frameLength];
+        byte[] scratch = new byte[ProtocolCodec.TIMESTAMPED_TELEMETRY_FRAME_LENGTH];
+        TelemetryFrame frame = new TelemetryFrame();
+        for (int i = 0; i < SAMPLE_COUNT; i++) {
+            frame.outputVolt = Math.round(volt[i] * 1000) / 1000.0;
+            frame.outputAmp = Math.round(amp[i] * 1000) / 1000.0;
+            frame.outputEnergy = i / 100.0 % 300;
+            frame.ccCv = ccCv[i];
+            frame.setVolt = 12.0;
+            frame.setAmp = 2.0;
+            frame.deviceMillis = frameLength >= ProtocolCodec.TIMESTAMPED_TELEMETRY_FRAME_LENGTH
+                    ? (long) (i * 1000 / SAMPLE_RATE_HZ) : TelemetryFrame.NO_DEVICE_TIME;
+            try {
+                ProtocolCodec.encodeTelemetry(frame, scratch);
+            } catch (ProtocolException e) {
+                throw new IllegalStateException(e);
+            }
+            System.arraycopy(scratch, 0, out, i * frameLength, frameLength);
+        }
+        return out;
+    }
+}
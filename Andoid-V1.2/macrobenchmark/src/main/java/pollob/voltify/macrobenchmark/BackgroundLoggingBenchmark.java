@@ -0,0 +1,61 @@
+package pollob.voltify.macrobenchmark;
+
+import android.os.RemoteException;
+
+import androidx.benchmark.macro.CompilationMode;
+import androidx.benchmark.macro.PowerMetric;
+import androidx.benchmark.macro.junit4.MacrobenchmarkRule;
+import androidx.test.uiautomator.UiDevice;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.Collections;
+
+import kotlin.Unit;
+
+import static pollob.voltify.macrobenchmark.StartupBenchmark.PACKAGE_NAME;
+import static pollob.voltify.macrobenchmark.StartupBenchmark.awaitTelemetry;
+import static pollob.voltify.macrobenchmark.StartupBenchmark.simulatedLaunch;
+import static pollob.voltify.macrobenchmark.StartupBenchmark.sleep;
+
+/**
+ * Battery drain of unattended logging: the app is started on SimulatedEsp32 at 50 Hz, sent to
+ * the background and left recording with the screen off. The simulator answers the v2 rate
+ * request, so the run covers the whole background path: detached UI, the recorder's rate and
+ * batched flushes. Each iteration starts from a fresh process with the same simulator seed.
+ */
+public class BackgroundLoggingBenchmark {
+    private static final int ITERATIONS = 3;
+    private static final int NOTIFY_RATE_HZ = 50;
+    // Drain per hour is the reported discharge times 3600 / (LOGGING_MILLIS / 1000)
+    private static final long LOGGING_MILLIS = 10 * 60_000;
+
+    @Rule
+    public MacrobenchmarkRule rule = new MacrobenchmarkRule();
+
+    @Test
+    public void screenOffLogging() {
+        rule.measureRepeated(PACKAGE_NAME,
+                Collections.singletonList(new PowerMetric(new PowerMetric.Battery())),
+                new CompilationMode.Partial(), null, ITERATIONS,
+                scope -> {
+                    scope.killProcess();
+                    scope.startActivityAndWait(simulatedLaunch(NOTIFY_RATE_HZ));
+                    awaitTelemetry(scope.getDevice());
+                    return Unit.INSTANCE;
+                },
+                scope -> {
+                    UiDevice device = scope.getDevice();
+                    device.pressHome();
+                    try {
+                        device.sleep();
+                        sleep(LOGGING_MILLIS);
+                        device.wakeUp();
+                    } catch (RemoteException e) {
+                        throw new IllegalStateException("Cannot switch the screen", e);
+                    }
+                    return Unit.INSTANCE;
+                });
+    }
+}
@@ -0,0 +1,104 @@
+package pollob.voltify.macrobenchmark;
+
+import androidx.benchmark.macro.CompilationMode;
+import androidx.benchmark.macro.FrameTimingMetric;
+import androidx.benchmark.macro.MacrobenchmarkScope;
+import androidx.benchmark.macro.junit4.MacrobenchmarkRule;
+import androidx.test.uiautomator.By;
+import androidx.test.uiautomator.UiDevice;
+import androidx.test.uiautomator.UiObject2;
+import androidx.test.uiautomator.Until;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import kotlin.Unit;
+
+import static pollob.voltify.macrobenchmark.StartupBenchmark.PACKAGE_NAME;
+import static pollob.voltify.macrobenchmark.StartupBenchmark.awaitTelemetry;
+import static pollob.voltify.macrobenchmark.StartupBenchmark.simulatedLaunch;
+import static pollob.voltify.macrobenchmark.StartupBenchmark.sleep;
+
+/**
+ * Frame timing of MainActivity while SimulatedEsp32 streams at 10, 50, 200 and 1000 Hz: the
+ * jank budget per telemetry rate, up to the full rate the live chart is built for. Each
+ * iteration starts a fresh process on the simulator and waits for live readings before
+ * measuring, so only steady-state streaming is in the trace.
+ */
+@RunWith(Parameterized.class)
+public class FrameTimingBenchmark {
+    private static final int ITERATIONS = 5;
+    private static final long STREAM_MILLIS = 10_000;
+    private static final int FLIPS = 10;
+    // flip_in/flip_out run for 300 ms
+    private static final long FLIP_SETTLE_MILLIS = 400;
+
+    @Parameterized.Parameters(name = "{0}Hz")
+    public static List<Object[]> rates() {
+        return Arrays.asList(new Object[][]{{10}, {50}, {200}, {1000}});
+    }
+
+    @Rule
+    public MacrobenchmarkRule rule = new MacrobenchmarkRule();
+
+    private final int notifyRateHz;
+
+    public FrameTimingBenchmark(int notifyRateHz) {
+        this.notifyRateHz = notifyRateHz;
+    }
+
+    // Gauge and readouts
+    @Test
+    public void frontCard() {
+        measure(false, scope -> sleep(STREAM_MILLIS));
+    }
+
+    // Live overlay chart and spectrum
+    @Test
+    public void backCard() {
+        measure(true, scope -> sleep(STREAM_MILLIS));
+    }
+
+    // flipCard() animations back and forth while streaming continues
+    @Test
+    public void flipCard() {
+        measure(false, scope -> {
+            UiObject2 flipButton = scope.getDevice().findObject(By.res(PACKAGE_NAME, "flipButton"));
+            for (int i = 0; i < FLIPS; i++) {
+                flipButton.click();
+                sleep(FLIP_SETTLE_MILLIS);
+            }
+        });
+    }
+
+    private interface Scenario {
+        void run(MacrobenchmarkScope scope);
+    }
+
+    private void measure(boolean showCharts, Scenario scenario) {
+        rule.measureRepeated(PACKAGE_NAME, Collections.singletonList(new FrameTimingMetric()),
+                new CompilationMode.Partial(), null, ITERATIONS,
+                scope -> {
+                    scope.killProcess();
+                    scope.startActivityAndWait(simulatedLaunch(notifyRateHz));
+                    UiDevice device = scope.getDevice();
+                    awaitTelemetry(device);
+                    if (showCharts) {
+                        device.findObject(By.res(PACKAGE_NAME, "flipButton")).click();
+                        device.wait(Until.hasObject(By.res(PACKAGE_NAME, "liveChart")), FLIP_SETTLE_MILLIS * 5);
+                        sleep(FLIP_SETTLE_MILLIS);
+                    }
+                    return Unit.INSTANCE;
+                },
+                scope -> {
+                    scenario.run(scope);
+                    return Unit.INSTANCE;
+                });
+    }
+}
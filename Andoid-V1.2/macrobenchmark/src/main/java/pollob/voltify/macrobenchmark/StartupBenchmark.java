@@ -0,0 +1,121 @@
+package pollob.voltify.macrobenchmark;
+
+import android.content.Intent;
+
+import androidx.benchmark.macro.BaselineProfileMode;
+import androidx.benchmark.macro.CompilationMode;
+import androidx.benchmark.macro.FrameTimingMetric;
+import androidx.benchmark.macro.StartupMode;
+import androidx.benchmark.macro.StartupTimingMetric;
+import androidx.benchmark.macro.junit4.MacrobenchmarkRule;
+import androidx.test.uiautomator.By;
+import androidx.test.uiautomator.UiDevice;
+import androidx.test.uiautomator.Until;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import kotlin.Unit;
+
+/**
+ * Cold start of the benchmarkRelease build, without AOT compilation ("before") and with the
+ * baseline profile installed ("after").
+ * timeToInitialDisplayMs is time to first frame; timeToFullDisplayMs is time to first telemetry,
+ * since MainActivity calls reportFullyDrawn() once the first reading is on screen.
+ */
+@RunWith(Parameterized.class)
+public class StartupBenchmark {
+    static final String PACKAGE_NAME = "pollob.voltify";
+    // MainActivity.EXTRA_SIMULATE_HZ
+    static final String EXTRA_SIMULATE_HZ = "pollob.voltify.SIMULATE_HZ";
+    private static final int ITERATIONS = 10;
+    private static final int JANK_ITERATIONS = 3;
+    private static final long TELEMETRY_TIMEOUT_MILLIS = 5000;
+    private static final long FIRST_MINUTE_MILLIS = 60_000;
+
+    @Parameterized.Parameters(name = "{0}")
+    public static List<Object[]> compilationModes() {
+        return Arrays.asList(new Object[][]{
+                {"none", new CompilationMode.None()},
+                {"baselineProfile", new CompilationMode.Partial(BaselineProfileMode.Require)},
+        });
+    }
+
+    @Rule
+    public MacrobenchmarkRule rule = new MacrobenchmarkRule();
+
+    private final CompilationMode compilationMode;
+
+    public StartupBenchmark(String name, CompilationMode compilationMode) {
+        this.compilationMode = compilationMode;
+    }
+
+    @Test
+    public void timeToFirstFrame() {
+        rule.measureRepeated(PACKAGE_NAME, Collections.singletonList(new StartupTimingMetric()),
+                compilationMode, StartupMode.COLD, ITERATIONS,
+                scope -> {
+                    scope.startActivityAndWait();
+                    return Unit.INSTANCE;
+                });
+    }
+
+    // The app connects to SimulatedEsp32 on its own, so this covers the deferred init and auto-connect path
+    @Test
+    public void timeToFirstTelemetry() {
+        rule.measureRepeated(PACKAGE_NAME, Collections.singletonList(new StartupTimingMetric()),
+                compilationMode, StartupMode.COLD, ITERATIONS,
+                scope -> {
+                    scope.startActivityAndWait(simulatedLaunch(50));
+                    awaitTelemetry(scope.getDevice());
+                    return Unit.INSTANCE;
+                });
+    }
+
+    // Jank while the JIT is still warming up: the first minute of streaming, half of it on the charts
+    @Test
+    public void firstMinuteJank() {
+        rule.measureRepeated(PACKAGE_NAME, Collections.singletonList(new FrameTimingMetric()),
+                compilationMode, StartupMode.COLD, JANK_ITERATIONS,
+                scope -> {
+                    scope.startActivityAndWait(simulatedLaunch(50));
+                    UiDevice device = scope.getDevice();
+                    awaitTelemetry(device);
+                    sleep(FIRST_MINUTE_MILLIS / 2);
+                    device.findObject(By.res(PACKAGE_NAME, "flipButton")).click();
+                    sleep(FIRST_MINUTE_MILLIS / 2);
+                    return Unit.INSTANCE;
+                });
+    }
+
+    static Intent simulatedLaunch(int notifyRateHz) {
+        Intent intent = new Intent();
+        intent.setPackage(PACKAGE_NAME);
+        intent.setAction(Intent.ACTION_MAIN);
+        intent.addCategory(Intent.CATEGORY_LAUNCHER);
+        intent.putExtra(EXTRA_SIMULATE_HZ, notifyRateHz);
+        return intent;
+    }
+
+    // The simulator's output is on, so the readout (read through its content description)
+    // leaves 0.000 V with the first frame
+    static void awaitTelemetry(UiDevice device) {
+        device.wait(Until.hasObject(By.res(PACKAGE_NAME, "outputVoltText")
+                .desc(Pattern.compile("[1-9].*"))), TELEMETRY_TIMEOUT_MILLIS);
+    }
+
+    static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
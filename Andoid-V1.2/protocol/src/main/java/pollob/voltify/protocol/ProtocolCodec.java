@@ -0,0 +1,471 @@
+package pollob.voltify.protocol;
+
+/**
+ * Wire format shared with the ESP32 firmware. All fields are little-endian.
+ *
+ * Telemetry (ESP32 -> app, 12 or 16 bytes):
+ *   int16 outputVolt mV, int16 outputAmp mA, int16 outputEnergy cWh, int16 ccCv (0 = CV, 1 = CC),
+ *   int16 setVolt mV, int16 setAmp mA, [uint32 device millis]
+ *
+ * Setpoint (app -> ESP32, 12 bytes):
+ *   int16 setVolt mV, int16 setAmp mA, int16 maxVolt mV, int16 maxAmp mA, int16 outputOn, int16 reserved
+ *
+ * Setpoint v2 (app -> ESP32, 5 to 17 bytes), used once the device has answered a hello:
+ *   uint8 0xC2, uint8 type 0x01, uint8 field mask, the fields in the mask in this order, uint8 CRC-8
+ *   uint24 setVolt mV, uint24 setAmp mA, uint24 maxVolt mV, uint24 maxAmp mA, uint8 outputOn
+ *   Values are rounded to the nearest mV/mA. Only fields in the mask change on the device.
+ *   No v2 frame is 12 bytes long, so v1 firmware, which takes 12-byte writes, ignores them.
+ *
+ * Hello (app -> ESP32, 3 bytes): 0xC2, 0x10, CRC-8
+ * Hello reply (ESP32 -> app notification, 4 bytes): 0xC2, 0x11, uint8 protocol version, CRC-8
+ * Telemetry rate (app -> ESP32, v2 only, 5 bytes): 0xC2, 0x02, uint16 notify interval ms, CRC-8
+ * Backfill request (app -> ESP32, v2 only, 9 bytes):
+ *   0xC2, 0x03, uint32 device millis of the last sample received, uint16 max notification payload, CRC-8
+ * Backfill data (ESP32 -> app notification, 5 + 16n bytes):
+ *   0xC2, 0x04, uint8 frame count n, uint8 flags (bit 0: last chunk), n 16-byte telemetry frames, CRC-8
+ *   Buffered samples newer than the requested one, oldest first; a request always gets a last chunk.
+ *
+ * The CRC-8 (polynomial 0x07, initial value 0) covers every byte before it.
+ */
+public final class ProtocolCodec {
+    public static final int TELEMETRY_FRAME_LENGTH = 12;
+    public static final int TIMESTAMPED_TELEMETRY_FRAME_LENGTH = 16;
+    public static final int SETPOINT_FRAME_LENGTH = 12;
+
+    public static final int PROTOCOL_V1 = 1;
+    public static final int PROTOCOL_V2 = 2;
+
+    // Setpoint v2 field mask bits
+    public static final int FIELD_SET_VOLT = 1;
+    public static final int FIELD_SET_AMP = 1 << 1;
+    public static final int FIELD_MAX_VOLT = 1 << 2;
+    public static final int FIELD_MAX_AMP = 1 << 3;
+    public static final int FIELD_OUTPUT = 1 << 4;
+    public static final int FIELD_ALL = (1 << 5) - 1;
+    public static final int MAX_SETPOINT_V2_FRAME_LENGTH = 17;
+
+    static final byte V2_MAGIC = (byte) 0xC2;
+    static final byte TYPE_SETPOINT = 0x01;
+    static final byte TYPE_RATE = 0x02;
+    static final int RATE_LENGTH = 5;
+    static final byte TYPE_BACKFILL = 0x03;
+    static final int BACKFILL_REQUEST_LENGTH = 9;
+    static final byte TYPE_BACKFILL_DATA = 0x04;
+    static final int BACKFILL_HEADER_LENGTH = 4;
+    static final int BACKFILL_LAST_CHUNK = 1;
+    static final byte TYPE_HELLO = 0x10;
+    static final byte TYPE_HELLO_REPLY = 0x11;
+    static final int HELLO_LENGTH = 3;
+    static final int HELLO_REPLY_LENGTH = 4;
+    private static final int MAX_UINT24 = 0xFFFFFF;
+
+    private static final double MILLI = 1000.0;
+    private static final double CENTI = 100.0;
+    private static final double MAX_FIELD_VALUE = Short.MAX_VALUE / MILLI;
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+    private ProtocolCodec() {}
+
+    public static void decodeTelemetry(byte[] data, TelemetryFrame frame) throws ProtocolException {
+        decodeTelemetry(data, 0, data == null ? 0 : data.length, frame);
+    }
+
+    // Decodes one frame of the given length starting at offset, e.g. from a buffer of batched frames
+    public static void decodeTelemetry(byte[] data, int offset, int length, TelemetryFrame frame)
+            throws ProtocolException {
+        if (data == null || length < TELEMETRY_FRAME_LENGTH) {
+            throw new ProtocolException("Invalid data length: " + (data == null ? 0 : length)
+                    + " (expected " + TELEMETRY_FRAME_LENGTH + ")");
+        }
+        if (offset < 0 || offset + length > data.length) {
+            throw new ProtocolException("Frame at " + offset + "+" + length + " exceeds buffer of " + data.length);
+        }
+
+        frame.outputVolt = readShort(data, offset) / MILLI;
+        frame.outputAmp = readShort(data, offset + 2) / MILLI;
+        frame.outputEnergy = readShort(data, offset + 4) / CENTI;
+        // As the app always has: any nonzero mode is CC
+        int ccCv = readShort(data, offset + 6);
+        frame.ccCv = ccCv == TelemetryFrame.MODE_CV ? TelemetryFrame.MODE_CV : TelemetryFrame.MODE_CC;
+        frame.setVolt = readShort(data, offset + 8) / MILLI;
+        frame.setAmp = readShort(data, offset + 10) / MILLI;
+        frame.deviceMillis = length >= TIMESTAMPED_TELEMETRY_FRAME_LENGTH
+                ? readInt(data, offset + 12) & 0xFFFFFFFFL
+                : TelemetryFrame.NO_DEVICE_TIME;
+    }
+
+    public static TelemetryFrame decodeTelemetry(byte[] data) throws ProtocolException {
+        TelemetryFrame frame = new TelemetryFrame();
+        decodeTelemetry(data, frame);
+        return frame;
+    }
+
+    // Inverse of decodeTelemetry; used by simulators and tests
+    public static void encodeTelemetry(TelemetryFrame frame, byte[] out) throws ProtocolException {
+        int length = frame.hasDeviceTime() ? TIMESTAMPED_TELEMETRY_FRAME_LENGTH : TELEMETRY_FRAME_LENGTH;
+        if (out.length < length) {
+            throw new ProtocolException("Output buffer too small: " + out.length);
+        }
+        writeShort(out, 0, toFixed(frame.outputVolt, MILLI, "outputVolt"));
+        writeShort(out, 2, toFixed(frame.outputAmp, MILLI, "outputAmp"));
+        writeShort(out, 4, toFixed(frame.outputEnergy, CENTI, "outputEnergy"));
+        writeShort(out, 6, frame.ccCv);
+        writeShort(out, 8, toFixed(frame.setVolt, MILLI, "setVolt"));
+        writeShort(out, 10, toFixed(frame.setAmp, MILLI, "setAmp"));
+        if (frame.hasDeviceTime()) {
+            writeInt(out, 12, (int) frame.deviceMillis);
+        }
+    }
+
+    public static byte[] encodeSetpoint(SetpointCommand command) throws ProtocolException {
+        byte[] out = new byte[SETPOINT_FRAME_LENGTH];
+        encodeSetpoint(command.setVolt, command.setAmp, command.maxVolt, command.maxAmp, command.outputOn, out);
+        return out;
+    }
+
+    public static void encodeSetpoint(double setVolt, double setAmp, double maxVolt, double maxAmp,
+                                      boolean outputOn, byte[] out) throws ProtocolException {
+        if (out.length < SETPOINT_FRAME_LENGTH) {
+            throw new ProtocolException("Output buffer too small: " + out.length);
+        }
+        validateSetpoint(setVolt, "setVolt");
+        validateSetpoint(setAmp, "setAmp");
+        validateSetpoint(maxVolt, "maxVolt");
+        validateSetpoint(maxAmp, "maxAmp");
+
+        // Same truncating conversion the firmware has always been sent
+        writeShort(out, 0, (short) (setVolt * MILLI));
+        writeShort(out, 2, (short) (setAmp * MILLI));
+        writeShort(out, 4, (short) (maxVolt * MILLI));
+        writeShort(out, 6, (short) (maxAmp * MILLI));
+        writeShort(out, 8, outputOn ? 1 : 0);
+        writeShort(out, 10, 0);
+    }
+
+    public static SetpointCommand decodeSetpoint(byte[] data) throws ProtocolException {
+        if (data == null || data.length < SETPOINT_FRAME_LENGTH) {
+            throw new ProtocolException("Invalid setpoint length: " + (data == null ? 0 : data.length));
+        }
+        return new SetpointCommand(readShort(data, 0) / MILLI, readShort(data, 2) / MILLI,
+                readShort(data, 4) / MILLI, readShort(data, 6) / MILLI, readShort(data, 8) != 0);
+    }
+
+    // Fields whose wire value differs from previous; FIELD_ALL when there is no previous command
+    public static int changedFields(SetpointCommand command, SetpointCommand previous) {
+        if (previous == null) return FIELD_ALL;
+        int fields = 0;
+        if (Math.round(command.setVolt * MILLI) != Math.round(previous.setVolt * MILLI)) fields |= FIELD_SET_VOLT;
+        if (Math.round(command.setAmp * MILLI) != Math.round(previous.setAmp * MILLI)) fields |= FIELD_SET_AMP;
+        if (Math.round(command.maxVolt * MILLI) != Math.round(previous.maxVolt * MILLI)) fields |= FIELD_MAX_VOLT;
+        if (Math.round(command.maxAmp * MILLI) != Math.round(previous.maxAmp * MILLI)) fields |= FIELD_MAX_AMP;
+        if (command.outputOn != previous.outputOn) fields |= FIELD_OUTPUT;
+        return fields;
+    }
+
+    /**
+     * Writes the fields of command selected by the mask as a v2 frame into out.
+     * Returns the frame length.
+     */
+    public static int encodeSetpointV2(SetpointCommand command, int fields, byte[] out) throws ProtocolException {
+        if (fields == 0 || (fields & ~FIELD_ALL) != 0) {
+            throw new ProtocolException("Invalid field mask: " + fields);
+        }
+        int length = setpointV2Length(fields);
+        if (out.length < length) {
+            throw new ProtocolException("Output buffer too small: " + out.length);
+        }
+        out[0] = V2_MAGIC;
+        out[1] = TYPE_SETPOINT;
+        out[2] = (byte) fields;
+        int offset = 3;
+        if ((fields & FIELD_SET_VOLT) != 0) offset = writeUint24(out, offset, toMilli24(command.setVolt, "setVolt"));
+        if ((fields & FIELD_SET_AMP) != 0) offset = writeUint24(out, offset, toMilli24(command.setAmp, "setAmp"));
+        if ((fields & FIELD_MAX_VOLT) != 0) offset = writeUint24(out, offset, toMilli24(command.maxVolt, "maxVolt"));
+        if ((fields & FIELD_MAX_AMP) != 0) offset = writeUint24(out, offset, toMilli24(command.maxAmp, "maxAmp"));
+        if ((fields & FIELD_OUTPUT) != 0) out[offset++] = (byte) (command.outputOn ? 1 : 0);
+        out[offset] = (byte) crc8(out, 0, offset);
+        return length;
+    }
+
+    /**
+     * Decodes a v2 setpoint frame of the given length. Fields not in its mask are taken from
+     * base, which may only be null for a frame that carries every field.
+     */
+    public static SetpointCommand decodeSetpointV2(byte[] data, int length, SetpointCommand base)
+            throws ProtocolException {
+        checkV2Frame(data, length, TYPE_SETPOINT);
+        int fields = data[2] & 0xFF;
+        if (fields == 0 || (fields & ~FIELD_ALL) != 0) {
+            throw new ProtocolException("Invalid field mask: " + fields);
+        }
+        if (length != setpointV2Length(fields)) {
+            throw new ProtocolException("Invalid v2 setpoint length " + length + " for mask " + fields);
+        }
+        if (base == null && fields != FIELD_ALL) {
+            throw new ProtocolException("Partial v2 setpoint without a base");
+        }
+        int offset = 3;
+        double setVolt = base == null ? 0 : base.setVolt;
+        double setAmp = base == null ? 0 : base.setAmp;
+        double maxVolt = base == null ? 0 : base.maxVolt;
+        double maxAmp = base == null ? 0 : base.maxAmp;
+        boolean outputOn = base != null && base.outputOn;
+        if ((fields & FIELD_SET_VOLT) != 0) { setVolt = readUint24(data, offset) / MILLI; offset += 3; }
+        if ((fields & FIELD_SET_AMP) != 0) { setAmp = readUint24(data, offset) / MILLI; offset += 3; }
+        if ((fields & FIELD_MAX_VOLT) != 0) { maxVolt = readUint24(data, offset) / MILLI; offset += 3; }
+        if ((fields & FIELD_MAX_AMP) != 0) { maxAmp = readUint24(data, offset) / MILLI; offset += 3; }
+        if ((fields & FIELD_OUTPUT) != 0) outputOn = data[offset] != 0;
+        return new SetpointCommand(setVolt, setAmp, maxVolt, maxAmp, outputOn);
+    }
+
+    public static int setpointV2Length(int fields) {
+        return 3 + 3 * Integer.bitCount(fields & ~FIELD_OUTPUT) + ((fields & FIELD_OUTPUT) != 0 ? 1 : 0) + 1;
+    }
+
+    public static byte[] encodeRateRequest(int intervalMillis) throws ProtocolException {
+        if (intervalMillis <= 0 || intervalMillis > 0xFFFF) {
+            throw new ProtocolException("Notify interval out of range: " + intervalMillis);
+        }
+        byte[] out = new byte[RATE_LENGTH];
+        out[0] = V2_MAGIC;
+        out[1] = TYPE_RATE;
+        writeShort(out, 2, intervalMillis);
+        out[4] = (byte) crc8(out, 0, 4);
+        return out;
+    }
+
+    public static boolean isRateRequest(byte[] data) {
+        return data != null && data.length == RATE_LENGTH && data[0] == V2_MAGIC && data[1] == TYPE_RATE;
+    }
+
+    // Notify interval in ms
+    public static int decodeRateRequest(byte[] data) throws ProtocolException {
+        checkV2Frame(data, data == null ? 0 : data.length, TYPE_RATE);
+        if (data.length != RATE_LENGTH) {
+            throw new ProtocolException("Invalid rate request length: " + data.length);
+        }
+        int interval = readShort(data, 2) & 0xFFFF;
+        if (interval == 0) {
+            throw new ProtocolException("Notify interval out of range: 0");
+        }
+        return interval;
+    }
+
+    public static byte[] encodeBackfillRequest(long sinceDeviceMillis, int maxPayload) throws ProtocolException {
+        if (sinceDeviceMillis < 0 || sinceDeviceMillis > 0xFFFFFFFFL) {
+            throw new ProtocolException("Device millis out of range: " + sinceDeviceMillis);
+        }
+        if (maxBackfillFrames(maxPayload) < 1 || maxPayload > 0xFFFF) {
+            throw new ProtocolException("Payload too small for a backfill frame: " + maxPayload);
+        }
+        byte[] out = new byte[BACKFILL_REQUEST_LENGTH];
+        out[0] = V2_MAGIC;
+        out[1] = TYPE_BACKFILL;
+        writeInt(out, 2, (int) sinceDeviceMillis);
+        writeShort(out, 6, maxPayload);
+        out[8] = (byte) crc8(out, 0, 8);
+        return out;
+    }
+
+    public static boolean isBackfillRequest(byte[] data) {
+        return data != null && data.length == BACKFILL_REQUEST_LENGTH
+                && data[0] == V2_MAGIC && data[1] == TYPE_BACKFILL;
+    }
+
+    // Device millis of the last sample the app has; only newer ones are sent
+    public static long decodeBackfillSince(byte[] data) throws ProtocolException {
+        checkBackfillRequest(data);
+        return readInt(data, 2) & 0xFFFFFFFFL;
+    }
+
+    public static int decodeBackfillMaxPayload(byte[] data) throws ProtocolException {
+        checkBackfillRequest(data);
+        return readShort(data, 6) & 0xFFFF;
+    }
+
+    // Telemetry frames that fit in a backfill notification of payload bytes
+    public static int maxBackfillFrames(int payload) {
+        return Math.max(0, Math.min((payload - BACKFILL_HEADER_LENGTH - 1) / TIMESTAMPED_TELEMETRY_FRAME_LENGTH, 0xFF));
+    }
+
+    /**
+     * Wraps count 16-byte telemetry frames, laid end to end in frames, in a backfill notification.
+     * Used by simulators and tests.
+     */
+    public static byte[] encodeBackfillData(byte[] frames, int count, boolean last) throws ProtocolException {
+        if (count < 0 || count > 0xFF || frames.length < count * TIMESTAMPED_TELEMETRY_FRAME_LENGTH) {
+            throw new ProtocolException("Invalid backfill frame count: " + count);
+        }
+        int length = backfillDataLength(count);
+        byte[] out = new byte[length];
+        out[0] = V2_MAGIC;
+        out[1] = TYPE_BACKFILL_DATA;
+        out[2] = (byte) count;
+        out[3] = (byte) (last ? BACKFILL_LAST_CHUNK : 0);
+        System.arraycopy(frames, 0, out, BACKFILL_HEADER_LENGTH, count * TIMESTAMPED_TELEMETRY_FRAME_LENGTH);
+        out[length - 1] = (byte) crc8(out, 0, length - 1);
+        return out;
+    }
+
+    // Never 4, 12 or 16 bytes, so it cannot be taken for a hello reply or telemetry
+    public static boolean isBackfillData(byte[] data) {
+        return data != null && data.length >= BACKFILL_HEADER_LENGTH + 1
+                && (data.length - BACKFILL_HEADER_LENGTH - 1) % TIMESTAMPED_TELEMETRY_FRAME_LENGTH == 0
+                && data[0] == V2_MAGIC && data[1] == TYPE_BACKFILL_DATA;
+    }
+
+    // Number of frames in a backfill notification, after checking it is intact
+    public static int decodeBackfillData(byte[] data) throws ProtocolException {
+        checkV2Frame(data, data == null ? 0 : data.length, TYPE_BACKFILL_DATA);
+        int count = data[2] & 0xFF;
+        if (data.length != backfillDataLength(count)) {
+            throw new ProtocolException("Backfill length " + data.length + " does not hold " + count + " frames");
+        }
+        return count;
+    }
+
+    public static boolean isLastBackfillChunk(byte[] data) {
+        return (data[3] & BACKFILL_LAST_CHUNK) != 0;
+    }
+
+    // Offset of frame index in a backfill notification; each is TIMESTAMPED_TELEMETRY_FRAME_LENGTH long
+    public static int backfillFrameOffset(int index) {
+        return BACKFILL_HEADER_LENGTH + index * TIMESTAMPED_TELEMETRY_FRAME_LENGTH;
+    }
+
+    private static int backfillDataLength(int count) {
+        return BACKFILL_HEADER_LENGTH + count * TIMESTAMPED_TELEMETRY_FRAME_LENGTH + 1;
+    }
+
+    private static void checkBackfillRequest(byte[] data) throws ProtocolException {
+        checkV2Frame(data, data == null ? 0 : data.length, TYPE_BACKFILL);
+        if (data.length != BACKFILL_REQUEST_LENGTH) {
+            throw new ProtocolException("Invalid backfill request length: " + data.length);
+        }
+    }
+
+    // Capability query sent after connecting; v1 firmware does not answer it
+    public static byte[] encodeHello() {
+        byte[] out = {V2_MAGIC, TYPE_HELLO, 0};
+        out[2] = (byte) crc8(out, 0, 2);
+        return out;
+    }
+
+    public static boolean isHello(byte[] data) {
+        return data != null && data.length == HELLO_LENGTH && data[0] == V2_MAGIC && data[1] == TYPE_HELLO;
+    }
+
+    public static byte[] encodeHelloReply(int version) {
+        byte[] out = {V2_MAGIC, TYPE_HELLO_REPLY, (byte) version, 0};
+        out[3] = (byte) crc8(out, 0, 3);
+        return out;
+    }
+
+    // Cheap check for the notification path, which otherwise only sees telemetry
+    public static boolean isHelloReply(byte[] data) {
+        return data != null && data.length == HELLO_REPLY_LENGTH && data[0] == V2_MAGIC && data[1] == TYPE_HELLO_REPLY;
+    }
+
+    // Protocol version the device supports
+    public static int decodeHelloReply(byte[] data) throws ProtocolException {
+        checkV2Frame(data, data == null ? 0 : data.length, TYPE_HELLO_REPLY);
+        if (data.length != HELLO_REPLY_LENGTH) {
+            throw new ProtocolException("Invalid hello reply length: " + data.length);
+        }
+        return data[2] & 0xFF;
+    }
+
+    // Any v2 frame, as opposed to a v1 setpoint
+    public static boolean isV2Frame(byte[] data) {
+        return data != null && data.length >= HELLO_LENGTH && data.length != SETPOINT_FRAME_LENGTH
+                && data[0] == V2_MAGIC;
+    }
+
+    // CRC-8, polynomial 0x07, initial value 0, no reflection
+    public static int crc8(byte[] data, int offset, int length) {
+        int crc = 0;
+        for (int i = offset; i < offset + length; i++) {
+            crc ^= data[i] & 0xFF;
+            for (int bit = 0; bit < 8; bit++) {
+                crc = (crc & 0x80) != 0 ? ((crc << 1) ^ 0x07) & 0xFF : (crc << 1) & 0xFF;
+            }
+        }
+        return crc;
+    }
+
+    public static String toHex(byte[] data) {
+        if (data == null) return "";
+        StringBuilder hex = new StringBuilder(data.length * 3);
+        for (byte b : data) {
+            hex.append(HEX[(b >> 4) & 0xF]).append(HEX[b & 0xF]).append(' ');
+        }
+        return hex.toString();
+    }
+
+    private static void validateSetpoint(double value, String name) throws ProtocolException {
+        if (Double.isNaN(value) || value < 0 || value > MAX_FIELD_VALUE) {
+            throw new ProtocolException(name + " out of range: " + value);
+        }
+    }
+
+    private static void checkV2Frame(byte[] data, int length, byte type) throws ProtocolException {
+        if (data == null || length < HELLO_LENGTH || length > data.length) {
+            throw new ProtocolException("Invalid v2 frame length: " + (data == null ? 0 : length));
+        }
+        if (data[0] != V2_MAGIC || data[1] != type) {
+            throw new ProtocolException("Not a v2 frame of type " + type + ": " + toHex(data));
+        }
+        if ((data[length - 1] & 0xFF) != crc8(data, 0, length - 1)) {
+            throw new ProtocolException("CRC mismatch: " + toHex(data));
+        }
+    }
+
+    private static int toMilli24(double value, String name) throws ProtocolException {
+        long fixed = Math.round(value * MILLI);
+        if (Double.isNaN(value) || fixed < 0 || fixed > MAX_UINT24) {
+            throw new ProtocolException(name + " out of range: " + value);
+        }
+        return (int) fixed;
+    }
+
+    private static int toFixed(double value, double scale, String name) throws ProtocolException {
+        long fixed = Math.round(value * scale);
+        if (fixed < Short.MIN_VALUE || fixed > Short.MAX_VALUE) {
+            throw new ProtocolException(name + " out of range: " + value);
+        }
+        return (int) fixed;
+    }
+
+    static int readShort(byte[] data, int offset) {
+        return (short) ((data[offset] & 0xFF) | (data[offset + 1] << 8));
+    }
+
+    static int readInt(byte[] data, int offset) {
+        return (data[offset] & 0xFF) | ((data[offset + 1] & 0xFF) << 8)
+                | ((data[offset + 2] & 0xFF) << 16) | (data[offset + 3] << 24);
+    }
+
+    static int readUint24(byte[] data, int offset) {
+        return (data[offset] & 0xFF) | ((data[offset + 1] & 0xFF) << 8) | ((data[offset + 2] & 0xFF) << 16);
+    }
+
+    // Returns the offset after the field
+    static int writeUint24(byte[] out, int offset, int value) {
+        out[offset] = (byte) value;
+        out[offset + 1] = (byte) (value >> 8);
+        out[offset + 2] = (byte) (value >> 16);
+        return offset + 3;
+    }
+
+    static void writeShort(byte[] out, int offset, int value) {
+        out[offset] = (byte) value;
+        out[offset + 1] = (byte) (value >> 8);
+    }
+
+    static void writeInt(byte[] out, int offset, int value) {
+        out[offset] = (byte) value;
+        out[offset + 1] = (byte) (value >> 8);
+        out[offset + 2] = (byte) (value >> 16);
+        out[offset + 3] = (byte) (value >> 24);
+    }
+}
@@ -0,0 +1,12 @@
+package pollob.voltify.protocol;
+
+/**
+ * Thrown when a frame received from or built for the ESP32 fails validation.
+ */
+public class ProtocolException extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    public ProtocolException(String message) {
+        super(message);
+    }
+}
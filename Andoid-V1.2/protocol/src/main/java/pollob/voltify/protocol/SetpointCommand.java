@@ -0,0 +1,26 @@
+package pollob.voltify.protocol;
+
+/**
+ * Setpoints written to the ESP32 RX characteristic.
+ */
+public class SetpointCommand {
+    public final double setVolt;
+    public final double setAmp;
+    public final double maxVolt;
+    public final double maxAmp;
+    public final boolean outputOn;
+
+    public SetpointCommand(double setVolt, double setAmp, double maxVolt, double maxAmp, boolean outputOn) {
+        this.setVolt = setVolt;
+        this.setAmp = setAmp;
+        this.maxVolt = maxVolt;
+        this.maxAmp = maxAmp;
+        this.outputOn = outputOn;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("SetV=%.2fV, SetA=%.2fA, MaxV=%.2fV, MaxA=%.2fA, Output=%s",
+                setVolt, setAmp, maxVolt, maxAmp, outputOn ? "ON" : "OFF");
+    }
+}
@@ -0,0 +1,435 @@
+package pollob.voltify.protocol;
+
+import java.util.ArrayDeque;
+import java.util.Random;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Software stand-in for the ESP32 supply. Models a CC/CV output into a resistive load,
+ * accepts setpoint writes and sends telemetry notifications at a configurable rate with
+ * packet loss and latency, so the app pipeline can be exercised without hardware.
+ *
+ * In real-time mode a daemon thread generates frames on schedule and delivers them when their
+ * latency has elapsed, in order, like BLE does. With realTime off nothing runs on its own and
+ * tests call emitFrame() to step the device one notification at a time.
+ *
+ * Like the firmware, it keeps its most recent samples in a ring buffer whether or not they get
+ * through, and v2 backfill requests are answered from it in notifications as large as the MTU
+ * allows. While disconnected in real-time mode nothing is generated; the samples the outage
+ * cost are made up for when the link comes back.
+ */
+public class SimulatedEsp32 implements Transport {
+    private static final String THREAD_NAME = "SimulatedEsp32";
+    // Catch-up limit before the schedule is reset instead of bursting
+    private static final long MAX_BACKLOG_NANOS = 1_000_000_000L;
+
+    public static class Config {
+        public double notifyRateHz = 10.0;
+        public double packetLoss = 0.0; // 0..1
+        public double writeLoss = 0.0; // 0..1, writes without response only
+        // 2 answers the hello and takes v2 setpoints; 1 ignores both, like older firmware
+        public int protocolVersion = ProtocolCodec.PROTOCOL_V1;
+        public int mtu = 247;
+        public int bufferFrames = 3000; // samples kept for backfill, 16-byte frames only
+        public long latencyMillis = 0;
+        public long latencyJitterMillis = 0;
+        public boolean deviceClock = true; // 16-byte frames with device millis
+        public double clockDriftPpm = 0.0;
+        public double loadOhms = 10.0;
+        public boolean outputOn = false; // output state at power-up
+        public double noiseVolt = 0.002;
+        public double noiseAmp = 0.001;
+        public boolean realTime = true;
+        public long seed = 1;
+    }
+
+    private static final class Pending {
+        final long deliverAtNanos;
+        final byte[] data;
+
+        Pending(long deliverAtNanos, byte[] data) {
+            this.deliverAtNanos = deliverAtNanos;
+            this.data = data;
+        }
+    }
+
+    private final Config config;
+    // Notify period, changed by v2 rate requests
+    private volatile long periodNanos;
+    // Device clock at the next frame, without drift
+    private long deviceNanos = 0;
+    private final Random random;
+    private final TelemetryFrame frame = new TelemetryFrame();
+    private final ArrayDeque<Pending> inFlight = new ArrayDeque<>();
+    // Encoded frames kept for backfill, oldest first; guarded by itself
+    private final ArrayDeque<byte[]> buffered = new ArrayDeque<>();
+
+    private volatile TransportListener listener;
+    private volatile boolean connected = false;
+    private Thread worker;
+    private long lastDeliverAtNanos = 0;
+    private long disconnectedAtNanos = -1;
+
+    // Device state, guarded by this
+    private double setVolt = 5.0;
+    private double setAmp = 1.0;
+    private double maxVolt = 30.0;
+    private double maxAmp = 5.0;
+    private boolean outputOn = false;
+    private double loadOhms;
+    private double energyWh = 0.0;
+
+    private volatile long framesGenerated = 0;
+    private volatile long framesDropped = 0;
+    private volatile long framesDelivered = 0;
+    private volatile long setpointWrites = 0;
+    private volatile long writesLost = 0;
+    private volatile long backfillFramesSent = 0;
+
+    public SimulatedEsp32(Config config) {
+        if (config.notifyRateHz <= 0) {
+            throw new IllegalArgumentException("Notify rate must be > 0");
+        }
+        this.config = config;
+        this.periodNanos = (long) (1e9 / config.notifyRateHz);
+        this.random = new Random(config.seed);
+        this.loadOhms = config.loadOhms;
+        this.outputOn = config.outputOn;
+    }
+
+    @Override
+    public void setListener(TransportListener listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public synchronized void connect(String address) {
+        if (connected) return;
+        if (config.realTime && disconnectedAtNanos >= 0) {
+            sampleOffline(System.nanoTime() - disconnectedAtNanos);
+        }
+        connected = true;
+        TransportListener l = listener;
+        if (l != null) {
+            l.onConnected();
+        }
+        if (config.realTime) {
+            worker = new Thread(this::run, THREAD_NAME);
+            worker.setDaemon(true);
+            worker.start();
+        }
+    }
+
+    @Override
+    public void disconnect() {
+        Thread t;
+        synchronized (this) {
+            if (!connected) return;
+            connected = false;
+            disconnectedAtNanos = System.nanoTime();
+            t = worker;
+            worker = null;
+        }
+        if (t != null) {
+            LockSupport.unpark(t);
+            try {
+                t.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        TransportListener l = listener;
+        if (l != null) {
+            l.onDisconnected();
+        }
+    }
+
+    @Override
+    public boolean isConnected() {
+        return connected;
+    }
+
+    @Override
+    public boolean write(byte[] data) {
+        if (!apply(data)) return false;
+        TransportListener l = listener;
+        if (l != null) {
+            l.onWriteComplete(true);
+        }
+        return true;
+    }
+
+    // Completes once sent, like Android's flow control; lost writes complete too, as nothing tells the sender
+    @Override
+    public boolean writeWithoutResponse(byte[] data) {
+        if (!connected) return false;
+        if (config.writeLoss > 0 && random.nextDouble() < config.writeLoss) {
+            writesLost++;
+        } else if (!apply(data)) {
+            return false;
+        }
+        TransportListener l = listener;
+        if (l != null) {
+            l.onWriteComplete(true);
+        }
+        return true;
+    }
+
+    private boolean apply(byte[] data) {
+        if (!connected) return false;
+        boolean v2 = ProtocolCodec.isV2Frame(data);
+        if (v2 && config.protocolVersion < ProtocolCodec.PROTOCOL_V2) return true;
+        if (v2 && ProtocolCodec.isHello(data)) {
+            TransportListener l = listener;
+            if (l != null) {
+                l.onNotification(ProtocolCodec.encodeHelloReply(config.protocolVersion));
+            }
+            return true;
+        }
+        if (v2 && ProtocolCodec.isBackfillRequest(data)) {
+            return sendBackfill(data);
+        }
+        if (v2 && ProtocolCodec.isRateRequest(data)) {
+            try {
+                periodNanos = ProtocolCodec.decodeRateRequest(data) * 1_000_000L;
+                return true;
+            } catch (ProtocolException e) {
+                TransportListener l = listener;
+                if (l != null) {
+                    l.onError("Simulator rejected write: " + e.getMessage());
+                }
+                return false;
+            }
+        }
+        SetpointCommand command;
+        try {
+            if (v2) {
+                SetpointCommand current;
+                synchronized (this) {
+                    current = new SetpointCommand(setVolt, setAmp, maxVolt, maxAmp, outputOn);
+                }
+                command = ProtocolCodec.decodeSetpointV2(data, data.length, current);
+            } else {
+                command = ProtocolCodec.decodeSetpoint(data);
+            }
+        } catch (ProtocolException e) {
+            TransportListener l = listener;
+            if (l != null) {
+                l.onError("Simulator rejected write: " + e.getMessage());
+            }
+            return false;
+        }
+        synchronized (this) {
+            setVolt = Math.min(command.setVolt, command.maxVolt);
+            setAmp = Math.min(command.setAmp, command.maxAmp);
+            maxVolt = command.maxVolt;
+            maxAmp = command.maxAmp;
+            outputOn = command.outputOn;
+        }
+        setpointWrites++;
+        return true;
+    }
+
+    // Answers on the calling thread, like the hello reply
+    private boolean sendBackfill(byte[] request) {
+        TransportListener l = listener;
+        try {
+            long since = ProtocolCodec.decodeBackfillSince(request);
+            int payload = Math.min(ProtocolCodec.decodeBackfillMaxPayload(request), config.mtu - 3);
+            int perChunk = ProtocolCodec.maxBackfillFrames(payload);
+            if (perChunk < 1) {
+                throw new ProtocolException("MTU " + config.mtu + " too small for backfill");
+            }
+
+            byte[] frames;
+            synchronized (buffered) {
+                int count = 0;
+                for (byte[] frame : buffered) {
+                    if (newer(frame, since)) count++;
+                }
+                frames = new byte[count * ProtocolCodec.TIMESTAMPED_TELEMETRY_FRAME_LENGTH];
+                int offset = 0;
+                for (byte[] frame : buffered) {
+                    if (!newer(frame, since)) continue;
+                    System.arraycopy(frame, 0, frames, offset, frame.length);
+                    offset += frame.length;
+                }
+            }
+
+            int total = frames.length / ProtocolCodec.TIMESTAMPED_TELEMETRY_FRAME_LENGTH;
+            int sent = 0;
+            do {
+                int count = Math.min(perChunk, total - sent);
+                byte[] chunk = new byte[count * ProtocolCodec.TIMESTAMPED_TELEMETRY_FRAME_LENGTH];
+                System.arraycopy(frames, sent * ProtocolCodec.TIMESTAMPED_TELEMETRY_FRAME_LENGTH, chunk, 0, chunk.length);
+                sent += count;
+                byte[] notification = ProtocolCodec.encodeBackfillData(chunk, count, sent == total);
+                if (connected && l != null) {
+                    l.onNotification(notification);
+                }
+            } while (sent < total);
+            backfillFramesSent += total;
+            return true;
+        } catch (ProtocolException e) {
+            if (l != null) {
+                l.onError("Simulator rejected write: " + e.getMessage());
+            }
+            return false;
+        }
+    }
+
+    // Device millis compared modulo 2^32
+    private static boolean newer(byte[] frame, long sinceDeviceMillis) {
+        return ProtocolCodec.readInt(frame, 12) - (int) sinceDeviceMillis > 0;
+    }
+
+    public synchronized void setLoadOhms(double loadOhms) {
+        this.loadOhms = loadOhms;
+    }
+
+    /**
+     * Generates the next notification and delivers it on the calling thread, unless it is lost.
+     * For step-by-step tests with realTime off; returns true if the frame was delivered.
+     */
+    public boolean emitFrame() {
+        byte[] data = nextFrame();
+        return data != null && deliver(data);
+    }
+
+    public long getFramesGenerated() { return framesGenerated; }
+    public long getFramesDropped() { return framesDropped; }
+    public long getFramesDelivered() { return framesDelivered; }
+    public long getSetpointWrites() { return setpointWrites; }
+    public long getWritesLost() { return writesLost; }
+    public long getBackfillFramesSent() { return backfillFramesSent; }
+
+    @Override
+    public int getMtu() { return config.mtu; }
+    public double getNotifyRateHz() { return 1e9 / periodNanos; }
+
+    public synchronized boolean isOutputOn() { return outputOn; }
+
+    private void run() {
+        long nextFrameNanos = System.nanoTime();
+        while (connected) {
+            long now = System.nanoTime();
+            if (now - nextFrameNanos > MAX_BACKLOG_NANOS) {
+                nextFrameNanos = now;
+            }
+            if (now >= nextFrameNanos) {
+                byte[] data = nextFrame();
+                if (data != null) {
+                    inFlight.addLast(new Pending(deliverAt(now), data));
+                }
+                nextFrameNanos += periodNanos;
+                continue;
+            }
+
+            while (!inFlight.isEmpty() && inFlight.peekFirst().deliverAtNanos <= now) {
+                deliver(inFlight.pollFirst().data);
+            }
+
+            long wakeAt = inFlight.isEmpty()
+                    ? nextFrameNanos : Math.min(nextFrameNanos, inFlight.peekFirst().deliverAtNanos);
+            if (wakeAt > now) {
+                LockSupport.parkNanos(wakeAt - now);
+            }
+        }
+        inFlight.clear();
+    }
+
+    // Delivery order is preserved: a frame never overtakes the one before it
+    private long deliverAt(long sentNanos) {
+        long latency = config.latencyMillis * 1_000_000L;
+        if (config.latencyJitterMillis > 0) {
+            latency += (long) (random.nextDouble() * config.latencyJitterMillis * 1_000_000L);
+        }
+        lastDeliverAtNanos = Math.max(lastDeliverAtNanos, sentNanos + latency);
+        return lastDeliverAtNanos;
+    }
+
+    private boolean deliver(byte[] data) {
+        TransportListener l = listener;
+        if (!connected || l == null) return false;
+        framesDelivered++;
+        l.onNotification(data);
+        return true;
+    }
+
+    // Samples the outage would have produced, kept for backfill but never sent
+    private void sampleOffline(long elapsedNanos) {
+        long frames = Math.min(elapsedNanos / periodNanos, config.bufferFrames);
+        for (long i = 0; i < frames; i++) {
+            sample();
+        }
+    }
+
+    // Next notification, or null if the packet is lost
+    private byte[] nextFrame() {
+        byte[] data = sample();
+        if (config.packetLoss > 0 && random.nextDouble() < config.packetLoss) {
+            framesDropped++;
+            return null;
+        }
+        return data;
+    }
+
+    // Advances the model by one notify period, encodes it and keeps it in the buffer
+    private byte[] sample() {
+        framesGenerated++;
+        long period = periodNanos;
+        double dtHours = period / 3.6e12;
+
+        synchronized (this) {
+            double volt = 0.0, amp = 0.0;
+            int mode = TelemetryFrame.MODE_CV;
+            if (outputOn && loadOhms > 0) {
+                double cvAmp = setVolt / loadOhms;
+                if (cvAmp > setAmp) {
+                    mode = TelemetryFrame.MODE_CC;
+                    amp = setAmp;
+                    volt = setAmp * loadOhms;
+                } else {
+                    volt = setVolt;
+                    amp = cvAmp;
+                }
+                volt = Math.max(0.0, volt + random.nextGaussian() * config.noiseVolt);
+                amp = Math.max(0.0, amp + random.nextGaussian() * config.noiseAmp);
+            }
+            energyWh = (energyWh + volt * amp * dtHours) % 300.0;
+
+            frame.outputVolt = Math.min(round(volt, 1000), Short.MAX_VALUE / 1000.0);
+            frame.outputAmp = Math.min(round(amp, 1000), Short.MAX_VALUE / 1000.0);
+            frame.outputEnergy = round(energyWh, 100);
+            frame.ccCv = mode;
+            frame.setVolt = round(setVolt, 1000);
+            frame.setAmp = round(setAmp, 1000);
+        }
+
+        frame.deviceMillis = config.deviceClock
+                ? (long) (deviceNanos * (1 + config.clockDriftPpm * 1e-6) / 1e6) & 0xFFFFFFFFL
+                : TelemetryFrame.NO_DEVICE_TIME;
+        deviceNanos += period;
+
+        byte[] data = new byte[frame.hasDeviceTime()
+                ? ProtocolCodec.TIMESTAMPED_TELEMETRY_FRAME_LENGTH : ProtocolCodec.TELEMETRY_FRAME_LENGTH];
+        try {
+            ProtocolCodec.encodeTelemetry(frame, data);
+        } catch (ProtocolException e) {
+            throw new IllegalStateException("Simulator produced an unencodable frame: " + frame, e);
+        }
+        if (frame.hasDeviceTime() && config.bufferFrames > 0) {
+            synchronized (buffered) {
+                if (buffered.size() >= config.bufferFrames) {
+                    buffered.pollFirst();
+                }
+                buffered.addLast(data);
+            }
+        }
+        return data;
+    }
+
+    private static double round(double value, double scale) {
+        return Math.round(value * scale) / scale;
+    }
+}
@@ -0,0 +1,38 @@
+package pollob.voltify.protocol;
+
+/**
+ * Decoded ESP32 telemetry notification. Instances are reusable: ProtocolCodec
+ * decodes into an existing frame so the receive path does not allocate.
+ */
+public class TelemetryFrame {
+    public static final int MODE_CV = 0;
+    public static final int MODE_CC = 1;
+    public static final long NO_DEVICE_TIME = -1;
+
+    public double outputVolt;
+    public double outputAmp;
+    public double outputEnergy;
+    public int ccCv;
+    public double setVolt;
+    public double setAmp;
+    // uint32 device milliseconds from 16-byte frames, NO_DEVICE_TIME on 12-byte frames
+    public long deviceMillis = NO_DEVICE_TIME;
+
+    public boolean isConstantCurrent() {
+        return ccCv == MODE_CC;
+    }
+
+    public boolean hasDeviceTime() {
+        return deviceMillis != NO_DEVICE_TIME;
+    }
+
+    public String getCcCvStatus() {
+        return ccCv == MODE_CV ? "CV" : "CC";
+    }
+
+    @Override
+    public String toString() {
+        return String.format("OutV: %.3fV, OutA: %.3fA, Energy: %.2fWh, Mode: %s, SetV: %.2fV, SetA: %.2fA",
+                outputVolt, outputAmp, outputEnergy, getCcCvStatus(), setVolt, setAmp);
+    }
+}
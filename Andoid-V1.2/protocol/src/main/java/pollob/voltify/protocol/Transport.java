@@ -0,0 +1,47 @@
+package pollob.voltify.protocol;
+
+/**
+ * Byte link to the power supply: notifications in, writes out.
+ * Implemented over BluetoothGatt in the app and by SimulatedEsp32 for tests.
+ * Listener calls may arrive on any thread.
+ */
+public interface Transport {
+    // ATT MTU before any exchange
+    int DEFAULT_MTU = 23;
+
+    interface TransportListener {
+        void onConnected();
+        void onDisconnected();
+        void onNotification(byte[] data);
+        void onError(String error);
+
+        // The last write reached the device, or for a write without response left the phone,
+        // or failed on the way; the next write should wait for it
+        default void onWriteComplete(boolean success) {}
+    }
+
+    void setListener(TransportListener listener);
+
+    void connect(String address);
+
+    void disconnect();
+
+    // True once the link is up and ready for writes
+    boolean isConnected();
+
+    // Queues a write to the device; false if it could not be started
+    boolean write(byte[] data);
+
+    /**
+     * Queues a write the device does not acknowledge (ATT write command), so it costs no round
+     * trip; delivery has to be confirmed some other way. Falls back to write().
+     */
+    default boolean writeWithoutResponse(byte[] data) {
+        return write(data);
+    }
+
+    // Negotiated ATT MTU; a notification carries up to getMtu() - 3 bytes
+    default int getMtu() {
+        return DEFAULT_MTU;
+    }
+}
@@ -0,0 +1,296 @@
+package pollob.voltify.protocol;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ProtocolCodecTest {
+
+    private static byte[] telemetry(int volt, int amp, int energy, int ccCv, int setVolt, int setAmp) {
+        ByteBuffer buffer = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putShort((short) volt).putShort((short) amp).putShort((short) energy)
+                .putShort((short) ccCv).putShort((short) setVolt).putShort((short) setAmp);
+        return buffer.array();
+    }
+
+    @Test
+    public void decodesEsp32Telemetry() throws ProtocolException {
+        TelemetryFrame frame = ProtocolCodec.decodeTelemetry(telemetry(12345, 1500, 275, 1, 12000, 2000));
+        assertEquals(12.345, frame.outputVolt, 1e-9);
+        assertEquals(1.5, frame.outputAmp, 1e-9);
+        assertEquals(2.75, frame.outputEnergy, 1e-9);
+        assertTrue(frame.isConstantCurrent());
+        assertEquals("CC", frame.getCcCvStatus());
+        assertEquals(12.0, frame.setVolt, 1e-9);
+        assertEquals(2.0, frame.setAmp, 1e-9);
+        assertFalse(frame.hasDeviceTime());
+    }
+
+    @Test
+    public void decodesDeviceTimeFromSixteenByteFrames() throws ProtocolException {
+        byte[] data = ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN)
+                .put(telemetry(5000, 100, 0, 0, 5000, 1000)).putInt(0xFFFFFFF0).array();
+        TelemetryFrame frame = ProtocolCodec.decodeTelemetry(data);
+        assertTrue(frame.hasDeviceTime());
+        assertEquals(0xFFFFFFF0L, frame.deviceMillis);
+    }
+
+    @Test(expected = ProtocolException.class)
+    public void rejectsShortFrames() throws ProtocolException {
+        ProtocolCodec.decodeTelemetry(new byte[11]);
+    }
+
+    @Test
+    public void decodesFramesAtAnOffset() throws ProtocolException {
+        byte[] batch = ByteBuffer.allocate(24)
+                .put(telemetry(1000, 0, 0, 0, 0, 0)).put(telemetry(2000, 0, 0, 1, 0, 0)).array();
+        TelemetryFrame frame = new TelemetryFrame();
+        ProtocolCodec.decodeTelemetry(batch, 12, 12, frame);
+        assertEquals(2.0, frame.outputVolt, 1e-9);
+        assertTrue(frame.isConstantCurrent());
+    }
+
+    @Test(expected = ProtocolException.class)
+    public void rejectsFramesPastTheEndOfTheBuffer() throws ProtocolException {
+        ProtocolCodec.decodeTelemetry(new byte[20], 12, 12, new TelemetryFrame());
+    }
+
+    @Test
+    public void treatsAnyNonzeroModeAsConstantCurrent() throws ProtocolException {
+        TelemetryFrame frame = ProtocolCodec.decodeTelemetry(telemetry(0, 0, 0, 7, 0, 0));
+        assertTrue(frame.isConstantCurrent());
+        assertEquals(TelemetryFrame.MODE_CC, frame.ccCv);
+        assertFalse(ProtocolCodec.decodeTelemetry(telemetry(0, 0, 0, 0, 0, 0)).isConstantCurrent());
+    }
+
+    @Test
+    public void encodesSetpointInLegacyLayout() throws ProtocolException {
+        byte[] data = ProtocolCodec.encodeSetpoint(new SetpointCommand(7.0, 2.5, 15.0, 5.0, true));
+        ByteBuffer buffer = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals(12, data.length);
+        assertEquals(7000, buffer.getShort());
+        assertEquals(2500, buffer.getShort());
+        assertEquals(15000, buffer.getShort());
+        assertEquals(5000, buffer.getShort());
+        assertEquals(1, buffer.getShort());
+        assertEquals(0, buffer.getShort());
+    }
+
+    @Test(expected = ProtocolException.class)
+    public void rejectsSetpointsThatWouldOverflow() throws ProtocolException {
+        ProtocolCodec.encodeSetpoint(new SetpointCommand(33.0, 1.0, 34.0, 2.0, false));
+    }
+
+    @Test
+    public void telemetryRoundTripProperty() throws ProtocolException {
+        Random random = new Random(2024);
+        byte[] buffer = new byte[ProtocolCodec.TIMESTAMPED_TELEMETRY_FRAME_LENGTH];
+        TelemetryFrame in = new TelemetryFrame();
+        TelemetryFrame out = new TelemetryFrame();
+        for (int i = 0; i < 100_000; i++) {
+            in.outputVolt = (random.nextInt(65536) - 32768) / 1000.0;
+            in.outputAmp = (random.nextInt(65536) - 32768) / 1000.0;
+            in.outputEnergy = (random.nextInt(65536) - 32768) / 100.0;
+            in.ccCv = random.nextInt(2);
+            in.setVolt = random.nextInt(32768) / 1000.0;
+            in.setAmp = random.nextInt(32768) / 1000.0;
+            in.deviceMillis = random.nextBoolean() ? TelemetryFrame.NO_DEVICE_TIME : random.nextInt() & 0xFFFFFFFFL;
+
+            ProtocolCodec.encodeTelemetry(in, buffer);
+            byte[] wire = in.hasDeviceTime() ? buffer : Arrays.copyOf(buffer, 12);
+            ProtocolCodec.decodeTelemetry(wire, out);
+
+            assertEquals(in.outputVolt, out.outputVolt, 0);
+            assertEquals(in.outputAmp, out.outputAmp, 0);
+            assertEquals(in.outputEnergy, out.outputEnergy, 0);
+            assertEquals(in.ccCv, out.ccCv);
+            assertEquals(in.setVolt, out.setVolt, 0);
+            assertEquals(in.setAmp, out.setAmp, 0);
+            assertEquals(in.deviceMillis, out.deviceMillis);
+        }
+    }
+
+    @Test
+    public void setpointRoundTripProperty() throws ProtocolException {
+        Random random = new Random(7);
+        for (int i = 0; i < 100_000; i++) {
+            SetpointCommand in = new SetpointCommand(random.nextDouble() * 32.767, random.nextDouble() * 32.767,
+                    random.nextDouble() * 32.767, random.nextDouble() * 32.767, random.nextBoolean());
+            SetpointCommand out = ProtocolCodec.decodeSetpoint(ProtocolCodec.encodeSetpoint(in));
+            // v1 truncates to whole mV/mA
+            assertEquals(in.setVolt, out.setVolt, 0.001);
+            assertTrue(out.setVolt <= in.setVolt);
+            assertEquals(in.setAmp, out.setAmp, 0.001);
+            assertEquals(in.maxVolt, out.maxVolt, 0.001);
+            assertEquals(in.maxAmp, out.maxAmp, 0.001);
+            assertEquals(in.outputOn, out.outputOn);
+        }
+    }
+
+    @Test
+    public void crc8MatchesTheStandardCheckValue() {
+        // CRC-8/SMBUS check value
+        assertEquals(0xF4, ProtocolCodec.crc8("123456789".getBytes(), 0, 9));
+    }
+
+    @Test
+    public void v2SetpointRoundTripsEveryFieldMask() throws ProtocolException {
+        Random random = new Random(11);
+        byte[] frame = new byte[ProtocolCodec.MAX_SETPOINT_V2_FRAME_LENGTH];
+        SetpointCommand base = new SetpointCommand(1.0, 2.0, 3.0, 4.0, false);
+        for (int fields = 1; fields <= ProtocolCodec.FIELD_ALL; fields++) {
+            for (int i = 0; i < 2_000; i++) {
+                // Whole mV/mA across the full uint24 range, which v2 carries exactly
+                SetpointCommand in = new SetpointCommand(random.nextInt(0x1000000) / 1000.0,
+                        random.nextInt(0x1000000) / 1000.0, random.nextInt(0x1000000) / 1000.0,
+                        random.nextInt(0x1000000) / 1000.0, random.nextBoolean());
+                int length = ProtocolCodec.encodeSetpointV2(in, fields, frame);
+                assertEquals(ProtocolCodec.setpointV2Length(fields), length);
+                assertNotEquals("Would be taken for a v1 setpoint", ProtocolCodec.SETPOINT_FRAME_LENGTH, length);
+
+                SetpointCommand out = ProtocolCodec.decodeSetpointV2(frame, length, base);
+                assertEquals(pick(fields, ProtocolCodec.FIELD_SET_VOLT, in.setVolt, base.setVolt), out.setVolt, 0);
+                assertEquals(pick(fields, ProtocolCodec.FIELD_SET_AMP, in.setAmp, base.setAmp), out.setAmp, 0);
+                assertEquals(pick(fields, ProtocolCodec.FIELD_MAX_VOLT, in.maxVolt, base.maxVolt), out.maxVolt, 0);
+                assertEquals(pick(fields, ProtocolCodec.FIELD_MAX_AMP, in.maxAmp, base.maxAmp), out.maxAmp, 0);
+                assertEquals((fields & ProtocolCodec.FIELD_OUTPUT) != 0 ? in.outputOn : base.outputOn, out.outputOn);
+            }
+        }
+    }
+
+    private static double pick(int fields, int field, double value, double base) {
+        return (fields & field) != 0 ? value : base;
+    }
+
+    @Test
+    public void v2RoundsToTheNearestMilli() throws ProtocolException {
+        byte[] frame = new byte[ProtocolCodec.MAX_SETPOINT_V2_FRAME_LENGTH];
+        // 1.005 * 1000 is 1004.999... in binary; v1 truncates it to 1004 mV
+        SetpointCommand in = new SetpointCommand(1.005, 0.0005, 32.768, 0.0, true);
+        int length = ProtocolCodec.encodeSetpointV2(in, ProtocolCodec.FIELD_ALL, frame);
+        SetpointCommand out = ProtocolCodec.decodeSetpointV2(frame, length, null);
+        assertEquals(1.005, out.setVolt, 0);
+        assertEquals(0.001, out.setAmp, 0);
+        assertEquals(32.768, out.maxVolt, 0);
+        SetpointCommand v1 = ProtocolCodec.decodeSetpoint(
+                ProtocolCodec.encodeSetpoint(new SetpointCommand(1.005, 0, 5, 0, true)));
+        assertEquals(1.004, v1.setVolt, 1e-9);
+    }
+
+    @Test
+    public void v2RejectsEveryCorruptedBit() throws ProtocolException {
+        byte[] frame = new byte[ProtocolCodec.MAX_SETPOINT_V2_FRAME_LENGTH];
+        int length = ProtocolCodec.encodeSetpointV2(new SetpointCommand(12.5, 3.25, 30.0, 5.0, true),
+                ProtocolCodec.FIELD_ALL, frame);
+        for (int bit = 0; bit < length * 8; bit++) {
+            byte[] corrupted = Arrays.copyOf(frame, length);
+            corrupted[bit / 8] ^= (byte) (1 << (bit % 8));
+            try {
+                ProtocolCodec.decodeSetpointV2(corrupted, length, null);
+                fail("Bit " + bit + " flipped without an error");
+            } catch (ProtocolException expected) {
+            }
+        }
+    }
+
+    @Test
+    public void v2SendsOnlyChangedFields() throws ProtocolException {
+        SetpointCommand previous = new SetpointCommand(5.0, 1.0, 30.0, 5.0, true);
+        assertEquals(ProtocolCodec.FIELD_ALL, ProtocolCodec.changedFields(previous, null));
+        assertEquals(0, ProtocolCodec.changedFields(new SetpointCommand(5.0001, 1.0, 30.0, 5.0, true), previous));
+        int fields = ProtocolCodec.changedFields(new SetpointCommand(5.5, 1.0, 30.0, 5.0, false), previous);
+        assertEquals(ProtocolCodec.FIELD_SET_VOLT | ProtocolCodec.FIELD_OUTPUT, fields);
+        assertEquals(8, ProtocolCodec.setpointV2Length(fields));
+    }
+
+    @Test(expected = ProtocolException.class)
+    public void v2RejectsValuesPastUint24() throws ProtocolException {
+        ProtocolCodec.encodeSetpointV2(new SetpointCommand(16777.216, 1, 1, 1, true),
+                ProtocolCodec.FIELD_SET_VOLT, new byte[ProtocolCodec.MAX_SETPOINT_V2_FRAME_LENGTH]);
+    }
+
+    @Test(expected = ProtocolException.class)
+    public void v2RejectsPartialFramesWithoutABase() throws ProtocolException {
+        byte[] frame = new byte[ProtocolCodec.MAX_SETPOINT_V2_FRAME_LENGTH];
+        int length = ProtocolCodec.encodeSetpointV2(new SetpointCommand(1, 1, 1, 1, true),
+                ProtocolCodec.FIELD_SET_AMP, frame);
+        ProtocolCodec.decodeSetpointV2(frame, length, null);
+    }
+
+    @Test
+    public void helloRoundTrips() throws ProtocolException {
+        assertTrue(ProtocolCodec.isHello(ProtocolCodec.encodeHello()));
+        assertTrue(ProtocolCodec.isV2Frame(ProtocolCodec.encodeHello()));
+        byte[] reply = ProtocolCodec.encodeHelloReply(ProtocolCodec.PROTOCOL_V2);
+        assertTrue(ProtocolCodec.isHelloReply(reply));
+        assertEquals(ProtocolCodec.PROTOCOL_V2, ProtocolCodec.decodeHelloReply(reply));
+        assertFalse(ProtocolCodec.isHelloReply(telemetry(0, 0, 0, 0, 0, 0)));
+    }
+
+    @Test
+    public void rateRequestRoundTrips() throws ProtocolException {
+        for (int interval : new int[]{1, 20, 200, 5000, 0xFFFF}) {
+            byte[] frame = ProtocolCodec.encodeRateRequest(interval);
+            assertTrue(ProtocolCodec.isRateRequest(frame));
+            assertTrue(ProtocolCodec.isV2Frame(frame));
+            assertEquals(interval, ProtocolCodec.decodeRateRequest(frame));
+        }
+    }
+
+    @Test(expected = ProtocolException.class)
+    public void rejectsRateRequestsOutOfRange() throws ProtocolException {
+        ProtocolCodec.encodeRateRequest(0x10000);
+    }
+
+    @Test
+    public void backfillFramesRoundTrip() throws ProtocolException {
+        byte[] request = ProtocolCodec.encodeBackfillRequest(0xFFFFFFF0L, 244);
+        assertTrue(ProtocolCodec.isBackfillRequest(request));
+        assertTrue(ProtocolCodec.isV2Frame(request));
+        assertEquals(0xFFFFFFF0L, ProtocolCodec.decodeBackfillSince(request));
+        assertEquals(244, ProtocolCodec.decodeBackfillMaxPayload(request));
+        assertEquals(14, ProtocolCodec.maxBackfillFrames(244));
+        assertEquals("The default MTU has no room for a frame", 0, ProtocolCodec.maxBackfillFrames(20));
+
+        TelemetryFrame source = new TelemetryFrame();
+        byte[] frames = new byte[3 * ProtocolCodec.TIMESTAMPED_TELEMETRY_FRAME_LENGTH];
+        byte[] one = new byte[ProtocolCodec.TIMESTAMPED_TELEMETRY_FRAME_LENGTH];
+        for (int i = 0; i < 3; i++) {
+            source.outputVolt = i;
+            source.deviceMillis = 1000 + i;
+            ProtocolCodec.encodeTelemetry(source, one);
+            System.arraycopy(one, 0, frames, i * one.length, one.length);
+        }
+        byte[] data = ProtocolCodec.encodeBackfillData(frames, 3, true);
+        assertTrue(ProtocolCodec.isBackfillData(data));
+        assertFalse(ProtocolCodec.isHelloReply(data));
+        assertEquals(3, ProtocolCodec.decodeBackfillData(data));
+        assertTrue(ProtocolCodec.isLastBackfillChunk(data));
+
+        TelemetryFrame decoded = new TelemetryFrame();
+        ProtocolCodec.decodeTelemetry(data, ProtocolCodec.backfillFrameOffset(2),
+                ProtocolCodec.TIMESTAMPED_TELEMETRY_FRAME_LENGTH, decoded);
+        assertEquals(2.0, decoded.outputVolt, 1e-9);
+        assertEquals(1002, decoded.deviceMillis);
+
+        byte[] empty = ProtocolCodec.encodeBackfillData(new byte[0], 0, true);
+        assertEquals(0, ProtocolCodec.decodeBackfillData(empty));
+    }
+
+    @Test(expected = ProtocolException.class)
+    public void rejectsCorruptBackfillData() throws ProtocolException {
+        byte[] data = ProtocolCodec.encodeBackfillData(new byte[ProtocolCodec.TIMESTAMPED_TELEMETRY_FRAME_LENGTH], 1, false);
+        data[7] ^= 0x10;
+        ProtocolCodec.decodeBackfillData(data);
+    }
+
+    @Test
+    public void formatsHex() {
+        assertEquals("00 7F 80 FF ", ProtocolCodec.toHex(new byte[]{0, 0x7F, (byte) 0x80, (byte) 0xFF}));
+    }
+}
@@ -0,0 +1,158 @@
+package pollob.voltify.protocol;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class SimulatedEsp32Test {
+
+    private static class Recorder implements Transport.TransportListener {
+        final List<TelemetryFrame> frames = new ArrayList<>();
+        int connects, disconnects;
+        String lastError;
+
+        @Override public void onConnected() { connects++; }
+        @Override public void onDisconnected() { disconnects++; }
+        @Override public void onError(String error) { lastError = error; }
+
+        @Override
+        public void onNotification(byte[] data) {
+            try {
+                frames.add(ProtocolCodec.decodeTelemetry(data));
+            } catch (ProtocolException e) {
+                throw new AssertionError(e);
+            }
+        }
+
+        TelemetryFrame last() { return frames.get(frames.size() - 1); }
+    }
+
+    private static SimulatedEsp32.Config stepped() {
+        SimulatedEsp32.Config config = new SimulatedEsp32.Config();
+        config.realTime = false;
+        config.notifyRateHz = 100;
+        config.noiseVolt = 0;
+        config.noiseAmp = 0;
+        return config;
+    }
+
+    @Test
+    public void powersUpWithTheConfiguredOutputState() {
+        SimulatedEsp32.Config config = stepped();
+        config.outputOn = true;
+        SimulatedEsp32 device = new SimulatedEsp32(config);
+        Recorder recorder = new Recorder();
+        device.setListener(recorder);
+        device.connect("sim");
+
+        // Default 5 V / 1 A setpoint into 10 ohm, no write needed
+        assertTrue(device.isOutputOn());
+        device.emitFrame();
+        assertEquals(5.0, recorder.last().outputVolt, 1e-9);
+        assertEquals(0.5, recorder.last().outputAmp, 1e-9);
+    }
+
+    @Test
+    public void modelsConstantVoltageAndConstantCurrent() throws ProtocolException {
+        SimulatedEsp32 device = new SimulatedEsp32(stepped());
+        Recorder recorder = new Recorder();
+        device.setListener(recorder);
+        device.connect("sim");
+        assertEquals(1, recorder.connects);
+
+        // 12 V into 10 ohm with a 2 A limit: CV at 1.2 A
+        assertTrue(device.write(ProtocolCodec.encodeSetpoint(new SetpointCommand(12.0, 2.0, 30.0, 5.0, true))));
+        device.emitFrame();
+        assertEquals(12.0, recorder.last().outputVolt, 1e-9);
+        assertEquals(1.2, recorder.last().outputAmp, 1e-9);
+        assertFalse(recorder.last().isConstantCurrent());
+
+        // Heavier load pulls it into the 2 A current limit
+        device.setLoadOhms(2.0);
+        device.emitFrame();
+        assertTrue(recorder.last().isConstantCurrent());
+        assertEquals(2.0, recorder.last().outputAmp, 1e-9);
+        assertEquals(4.0, recorder.last().outputVolt, 1e-9);
+
+        device.write(ProtocolCodec.encodeSetpoint(new SetpointCommand(12.0, 2.0, 30.0, 5.0, false)));
+        device.emitFrame();
+        assertEquals(0.0, recorder.last().outputVolt, 0);
+        assertEquals(2, device.getSetpointWrites());
+    }
+
+    @Test
+    public void stampsFramesWithTheDeviceClock() {
+        SimulatedEsp32 device = new SimulatedEsp32(stepped());
+        Recorder recorder = new Recorder();
+        device.setListener(recorder);
+        device.connect("sim");
+        for (int i = 0; i < 5; i++) {
+            device.emitFrame();
+        }
+        assertEquals(40, recorder.last().deviceMillis);
+    }
+
+    @Test
+    public void dropsTheConfiguredShareOfPackets() {
+        SimulatedEsp32.Config config = stepped();
+        config.packetLoss = 0.1;
+        SimulatedEsp32 device = new SimulatedEsp32(config);
+        Recorder recorder = new Recorder();
+        device.setListener(recorder);
+        device.connect("sim");
+        for (int i = 0; i < 20_000; i++) {
+            device.emitFrame();
+        }
+        assertEquals(20_000, device.getFramesGenerated());
+        assertEquals(device.getFramesDelivered(), recorder.frames.size());
+        assertEquals(2000, device.getFramesDropped(), 200);
+    }
+
+    @Test
+    public void rejectsMalformedWrites() {
+        SimulatedEsp32 device = new SimulatedEsp32(stepped());
+        Recorder recorder = new Recorder();
+        device.setListener(recorder);
+        assertFalse(device.write(new byte[12]));
+        device.connect("sim");
+        assertFalse(device.write(new byte[3]));
+        assertNotNull(recorder.lastError);
+    }
+
+    @Test
+    public void deliversInOrderWithLatencyInRealTime() throws InterruptedException {
+        SimulatedEsp32.Config config = new SimulatedEsp32.Config();
+        config.notifyRateHz = 500;
+        config.latencyMillis = 5;
+        config.latencyJitterMillis = 20;
+        SimulatedEsp32 device = new SimulatedEsp32(config);
+
+        CountDownLatch received = new CountDownLatch(250);
+        long[] lastMillis = {-1};
+        boolean[] outOfOrder = {false};
+        device.setListener(new Recorder() {
+            @Override
+            public void onNotification(byte[] data) {
+                try {
+                    long millis = ProtocolCodec.decodeTelemetry(data).deviceMillis;
+                    if (millis <= lastMillis[0]) outOfOrder[0] = true;
+                    lastMillis[0] = millis;
+                } catch (ProtocolException e) {
+                    outOfOrder[0] = true;
+                }
+                received.countDown();
+            }
+        });
+
+        device.connect("sim");
+        assertTrue(received.await(5, TimeUnit.SECONDS));
+        device.disconnect();
+        assertFalse(outOfOrder[0]);
+        assertFalse(device.isConnected());
+    }
+}
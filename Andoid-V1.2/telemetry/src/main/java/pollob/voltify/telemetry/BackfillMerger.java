@@ -0,0 +1,202 @@
+package pollob.voltify.telemetry;
+
+import pollob.voltify.protocol.ProtocolCodec;
+import pollob.voltify.protocol.ProtocolException;
+
+import java.util.ArrayDeque;
+
+/**
+ * Keeps a session whole across a dropped link. After linkLost() live frames are held back
+ * until the device has sent the samples it buffered since the last one passed on; those go
+ * first, then the held frames, so the sink sees every sample once and in device-time order.
+ *
+ * The device millis in 16-byte frames serve as the sequence number: while merging, a frame at
+ * or before the last one passed on is a duplicate and dropped. Backfilled frames never arrived
+ * live, so their arrival time is extrapolated from the last sample before the gap, which keeps
+ * ClockSync and everything downstream of it on the device timeline. If the backfill does not complete within
+ * TIMEOUT_NANOS or MAX_HELD_FRAMES, the held frames are released and the rest stays a gap.
+ *
+ * Driven from the thread that delivers notifications; only linkLost() may be called from
+ * another thread.
+ */
+public class BackfillMerger {
+    public static final long TIMEOUT_NANOS = 5_000_000_000L;
+    // Live frames held while waiting, about 20 s at the full rate
+    static final int MAX_HELD_FRAMES = 1024;
+
+    public interface FrameSink {
+        // One telemetry frame at offset in data, with the time it arrived or would have
+        void onFrame(byte[] data, int offset, int length, long receivedNanos);
+
+        /**
+         * A gap from fromDeviceMillis to toDeviceMillis has been closed, by backfill or by
+         * giving up on it; recovered is the number of samples the backfill supplied.
+         */
+        void onGapClosed(long fromDeviceMillis, long toDeviceMillis, int recovered);
+    }
+
+    private static final class Held {
+        final byte[] data;
+        final long receivedNanos;
+
+        Held(byte[] data, long receivedNanos) {
+            this.data = data;
+            this.receivedNanos = receivedNanos;
+        }
+    }
+
+    private final FrameSink sink;
+    private final ArrayDeque<Held> held = new ArrayDeque<>();
+
+    // Set from the connection callbacks, taken up by the next frame
+    private volatile boolean linkLost = false;
+
+    // Last frame passed on, the gap anchor
+    private boolean haveLast = false;
+    private long lastDeviceMillis;
+    private long lastReceivedNanos;
+
+    private boolean holding = false;
+    private boolean requested = false;
+    private long gapStartMillis;
+    private long holdStartNanos;
+    private int recovered = 0;
+
+    private volatile long recoveredTotal = 0;
+    private volatile long duplicates = 0;
+
+    public BackfillMerger(FrameSink sink) {
+        this.sink = sink;
+    }
+
+    /** The link dropped; frames from the next connection are held until the backfill ends or abandon(). */
+    public void linkLost() {
+        linkLost = true;
+    }
+
+    // Forgets the gap anchor, e.g. for a new session
+    public void reset() {
+        linkLost = false;
+        haveLast = false;
+        holding = false;
+        requested = false;
+        held.clear();
+    }
+
+    /**
+     * Device millis to ask the device for samples after, or -1 when there is no gap to fill.
+     * Marks the backfill as requested.
+     */
+    public long requestBackfill() {
+        takeLinkLoss();
+        if (!holding || requested) return -1;
+        requested = true;
+        return gapStartMillis;
+    }
+
+    public boolean isHolding() {
+        return holding || linkLost;
+    }
+
+    /** The device cannot backfill: releases the held frames and leaves the gap. */
+    public void abandon() {
+        takeLinkLoss();
+        if (holding) finish();
+    }
+
+    /** A live telemetry notification. */
+    public void onLive(byte[] data, long receivedNanos) {
+        takeLinkLoss();
+        int length = data == null ? 0 : data.length;
+        if (!holding) {
+            pass(data, 0, length, receivedNanos, false);
+            return;
+        }
+        if (length < ProtocolCodec.TIMESTAMPED_TELEMETRY_FRAME_LENGTH) {
+            // Without device time it cannot be placed; nothing to merge it with
+            finish();
+            pass(data, 0, length, receivedNanos, false);
+            return;
+        }
+        if (held.isEmpty()) {
+            holdStartNanos = receivedNanos;
+        }
+        // The transport may reuse its buffer
+        held.addLast(new Held(data.clone(), receivedNanos));
+        if (held.size() >= MAX_HELD_FRAMES || receivedNanos - holdStartNanos >= TIMEOUT_NANOS) {
+            finish();
+        }
+    }
+
+    /** A backfill notification; the last chunk releases the held frames. */
+    public void onBackfill(byte[] data) throws ProtocolException {
+        int count = ProtocolCodec.decodeBackfillData(data);
+        takeLinkLoss();
+        for (int i = 0; i < count; i++) {
+            int offset = ProtocolCodec.backfillFrameOffset(i);
+            long deviceMillis = deviceMillis(data, offset);
+            if (!haveLast) break;
+            long receivedNanos = lastReceivedNanos + (int) (deviceMillis - lastDeviceMillis) * 1_000_000L;
+            if (pass(data, offset, ProtocolCodec.TIMESTAMPED_TELEMETRY_FRAME_LENGTH, receivedNanos, true)) {
+                recovered++;
+                recoveredTotal++;
+                if (Metrics.enabled) Metrics.BACKFILL_SAMPLES.increment();
+            }
+        }
+        if (holding && ProtocolCodec.isLastBackfillChunk(data)) {
+            finish();
+        }
+    }
+
+    public long getRecoveredTotal() { return recoveredTotal; }
+    public long getDuplicates() { return duplicates; }
+
+    private void takeLinkLoss() {
+        if (!linkLost) return;
+        linkLost = false;
+        // Dropped again before the backfill came: ask again on the next connection
+        requested = false;
+        // Without a timestamped sample there is nothing to ask from
+        if (!haveLast || holding) return;
+        holding = true;
+        gapStartMillis = lastDeviceMillis;
+        recovered = 0;
+        held.clear();
+    }
+
+    // Releases the held frames and closes the gap
+    private void finish() {
+        holding = false;
+        requested = false;
+        long gapEndMillis = held.isEmpty() ? lastDeviceMillis : deviceMillis(held.peekFirst().data, 0);
+        // A device that restarted during the outage counts from zero again; nothing to merge then
+        boolean merge = (int) (gapEndMillis - gapStartMillis) > 0;
+        sink.onGapClosed(gapStartMillis, gapEndMillis, recovered);
+        while (!held.isEmpty()) {
+            Held frame = held.pollFirst();
+            pass(frame.data, 0, frame.data.length, frame.receivedNanos, merge);
+        }
+    }
+
+    // Hands the frame to the sink, unless dedupe is on and it is not newer than the last one passed
+    private boolean pass(byte[] data, int offset, int length, long receivedNanos, boolean dedupe) {
+        if (length >= ProtocolCodec.TIMESTAMPED_TELEMETRY_FRAME_LENGTH) {
+            long deviceMillis = deviceMillis(data, offset);
+            if (dedupe && haveLast && (int) (deviceMillis - lastDeviceMillis) <= 0) {
+                duplicates++;
+                return false;
+            }
+            haveLast = true;
+            lastDeviceMillis = deviceMillis;
+            lastReceivedNanos = receivedNanos;
+        }
+        sink.onFrame(data, offset, length, receivedNanos);
+        return true;
+    }
+
+    // Unsigned device millis of the frame at offset
+    private static long deviceMillis(byte[] data, int offset) {
+        return ((data[offset + 12] & 0xFFL) | (data[offset + 13] & 0xFFL) << 8
+                | (data[offset + 14] & 0xFFL) << 16 | (data[offset + 15] & 0xFFL) << 24);
+    }
+}
@@ -0,0 +1,285 @@
+package pollob.voltify.telemetry;
+
+/**
+ * Battery capacity test driven by the telemetry stream.
+ * Integrates Ah and Wh with the trapezoidal rule, periodically steps the current
+ * setpoint down to estimate internal resistance from dV/dI, and keeps a fixed-size
+ * downsampled curve, so memory is constant however long the test runs.
+ * onSample and onSamplesMissed are called on the pipeline's analysis thread, which drops its
+ * oldest samples rather than hold up notifications; samples it dropped are bridged by the
+ * integration and counted in the report. start/stop on the main thread.
+ */
+public class CapacityTest {
+    private static final int CURVE_POINTS = 240;
+    private static final long PROGRESS_INTERVAL_NANOS = 1_000_000_000L;
+    private static final long MAX_INTEGRATION_GAP_NANOS = 5_000_000_000L;
+    private static final int CUTOFF_HOLD_SAMPLES = 5;
+
+    // Internal resistance pulses: drop the current to PULSE_CURRENT_RATIO for PULSE_SETTLE
+    private static final long PULSE_INTERVAL_NANOS = 60_000_000_000L;
+    private static final long PULSE_SETTLE_NANOS = 2_000_000_000L;
+    private static final double PULSE_CURRENT_RATIO = 0.5;
+    private static final double MIN_PULSE_DELTA_AMP = 0.05;
+    private static final double BASELINE_SMOOTHING = 0.2;
+
+    public enum State { IDLE, RUNNING, PULSE, FINISHED }
+
+    public interface SetpointController {
+        void applySetpoint(double setVolt, double setAmp, boolean outputOn);
+    }
+
+    public interface CapacityListener {
+        void onProgress(long elapsedMillis, double ampHours, double wattHours, double internalResistance);
+        void onFinished(Report report);
+    }
+
+    private final SetpointController controller;
+    private final CapacityListener listener;
+    private final CurveDownsampler curve = new CurveDownsampler(CURVE_POINTS, 3);
+    private final double[] curveSample = new double[3];
+
+    private State state = State.IDLE;
+    private double setVolt, setAmp;
+    private double cutoffVolt, cutoffAmp;
+
+    private long startNanos, lastNanos, lastProgressNanos, nextPulseNanos, pulseStartNanos;
+    private double lastVolt, lastAmp;
+    private double startVolt = Double.NaN;
+    private double ampHours, wattHours;
+    private long unmeasuredNanos;
+    private long missedSamples;
+    private int cutoffCount;
+
+    // Baseline before a pulse and average during its settled half
+    private double baselineVolt, baselineAmp;
+    private double pulseVoltSum, pulseAmpSum;
+    private int pulseSamples;
+    private double resistanceMean = Double.NaN;
+    private int resistanceCount;
+
+    public CapacityTest(SetpointController controller, CapacityListener listener) {
+        this.controller = controller;
+        this.listener = listener;
+    }
+
+    /**
+     * @param cutoffVolt stop when the voltage stays below this (discharge), 0 to disable
+     * @param cutoffAmp  stop when the current tapers below this (CV charge), 0 to disable
+     */
+    public synchronized void start(long nowNanos, double setVolt, double setAmp, double cutoffVolt, double cutoffAmp) {
+        this.setVolt = setVolt;
+        this.setAmp = setAmp;
+        this.cutoffVolt = cutoffVolt;
+        this.cutoffAmp = cutoffAmp;
+
+        startNanos = nowNanos;
+        lastNanos = -1;
+        lastProgressNanos = nowNanos;
+        nextPulseNanos = nowNanos + PULSE_INTERVAL_NANOS;
+        startVolt = Double.NaN;
+        ampHours = 0;
+        wattHours = 0;
+        unmeasuredNanos = 0;
+        missedSamples = 0;
+        cutoffCount = 0;
+        resistanceMean = Double.NaN;
+        resistanceCount = 0;
+        curve.clear();
+        state = State.RUNNING;
+    }
+
+    public synchronized void stop(long nowNanos) {
+        if (state == State.RUNNING || state == State.PULSE) {
+            finish(nowNanos, "Stopped by user");
+        }
+    }
+
+    public synchronized boolean isActive() {
+        return state == State.RUNNING || state == State.PULSE;
+    }
+
+    public synchronized State getState() { return state; }
+
+    public synchronized void onSample(long nowNanos, double volt, double amp) {
+        if (state != State.RUNNING && state != State.PULSE) return;
+
+        integrate(nowNanos, volt, amp);
+        curveSample[0] = volt;
+        curveSample[1] = amp;
+        curveSample[2] = ampHours;
+        curve.add((nowNanos - startNanos) / 1e9, curveSample);
+
+        if (state == State.RUNNING) {
+            baselineVolt += BASELINE_SMOOTHING * (volt - baselineVolt);
+            baselineAmp += BASELINE_SMOOTHING * (amp - baselineAmp);
+            if (checkCutoff(volt, amp)) {
+                finish(nowNanos, cutoffVolt > 0 && volt < cutoffVolt ? "Voltage cutoff" : "Current cutoff");
+                return;
+            }
+            if (nowNanos >= nextPulseNanos) {
+                beginPulse(nowNanos);
+            }
+        } else {
+            updatePulse(nowNanos, volt, amp);
+        }
+
+        if (listener != null && nowNanos - lastProgressNanos >= PROGRESS_INTERVAL_NANOS) {
+            lastProgressNanos = nowNanos;
+            listener.onProgress((nowNanos - startNanos) / 1_000_000L, ampHours, wattHours, resistanceMean);
+        }
+    }
+
+    // Samples that never reached onSample; the next one is integrated from the last one seen
+    public synchronized void onSamplesMissed(long count) {
+        if (state == State.RUNNING || state == State.PULSE) {
+            missedSamples += count;
+        }
+    }
+
+    private void integrate(long nowNanos, double volt, double amp) {
+        if (lastNanos < 0) {
+            startVolt = volt;
+            baselineVolt = volt;
+            baselineAmp = amp;
+        } else {
+            long dt = nowNanos - lastNanos;
+            if (dt > MAX_INTEGRATION_GAP_NANOS) {
+                // Telemetry gap: don't guess what happened in between
+                unmeasuredNanos += dt;
+            } else if (dt > 0) {
+                double hours = dt / 3.6e12;
+                ampHours += 0.5 * (Math.abs(lastAmp) + Math.abs(amp)) * hours;
+                wattHours += 0.5 * (Math.abs(lastVolt * lastAmp) + Math.abs(volt * amp)) * hours;
+            }
+        }
+        lastNanos = nowNanos;
+        lastVolt = volt;
+        lastAmp = amp;
+    }
+
+    private boolean checkCutoff(double volt, double amp) {
+        boolean below = (cutoffVolt > 0 && volt < cutoffVolt) || (cutoffAmp > 0 && amp < cutoffAmp);
+        cutoffCount = below ? cutoffCount + 1 : 0;
+        return cutoffCount >= CUTOFF_HOLD_SAMPLES;
+    }
+
+    private void beginPulse(long nowNanos) {
+        state = State.PULSE;
+        pulseStartNanos = nowNanos;
+        pulseVoltSum = 0;
+        pulseAmpSum = 0;
+        pulseSamples = 0;
+        if (controller != null) {
+            controller.applySetpoint(setVolt, setAmp * PULSE_CURRENT_RATIO, true);
+        }
+    }
+
+    private void updatePulse(long nowNanos, double volt, double amp) {
+        long elapsed = nowNanos - pulseStartNanos;
+        if (elapsed >= PULSE_SETTLE_NANOS / 2) {
+            pulseVoltSum += volt;
+            pulseAmpSum += amp;
+            pulseSamples++;
+        }
+        if (elapsed < PULSE_SETTLE_NANOS) return;
+
+        if (pulseSamples > 0) {
+            double deltaAmp = baselineAmp - pulseAmpSum / pulseSamples;
+            double deltaVolt = baselineVolt - pulseVoltSum / pulseSamples;
+            if (Math.abs(deltaAmp) >= MIN_PULSE_DELTA_AMP) {
+                double resistance = Math.abs(deltaVolt / deltaAmp);
+                resistanceCount++;
+                resistanceMean = resistanceCount == 1 ? resistance
+                        : resistanceMean + (resistance - resistanceMean) / resistanceCount;
+            }
+        }
+
+        if (controller != null) {
+            controller.applySetpoint(setVolt, setAmp, true);
+        }
+        state = State.RUNNING;
+        cutoffCount = 0;
+        nextPulseNanos = nowNanos + PULSE_INTERVAL_NANOS;
+    }
+
+    private void finish(long nowNanos, String reason) {
+        state = State.FINISHED;
+        if (controller != null) {
+            controller.applySetpoint(setVolt, setAmp, false);
+        }
+
+        int n = curve.size();
+        double[] seconds = new double[n], volts = new double[n], amps = new double[n], ah = new double[n];
+        for (int i = 0; i < n; i++) {
+            seconds[i] = curve.getTime(i);
+            volts[i] = curve.getValue(0, i);
+            amps[i] = curve.getValue(1, i);
+            ah[i] = curve.getValue(2, i);
+        }
+        Report report = new Report((nowNanos - startNanos) / 1_000_000L, unmeasuredNanos / 1_000_000L,
+                missedSamples, ampHours, wattHours, resistanceMean, resistanceCount, startVolt, lastVolt,
+                reason, seconds, volts, amps, ah);
+        if (listener != null) {
+            listener.onFinished(report);
+        }
+    }
+
+    public static class Report {
+        public final long durationMillis;
+        public final long unmeasuredMillis;
+        // Samples the integration bridged because they were dropped before reaching the test
+        public final long missedSamples;
+        public final double ampHours;
+        public final double wattHours;
+        public final double internalResistance;
+        public final int resistanceSamples;
+        public final double startVolt;
+        public final double endVolt;
+        public final String endReason;
+        public final double[] curveSeconds, curveVolt, curveAmp, curveAmpHours;
+
+        public Report(long durationMillis, long unmeasuredMillis, long missedSamples, double ampHours,
+                      double wattHours, double internalResistance, int resistanceSamples, double startVolt,
+                      double endVolt, String endReason, double[] curveSeconds, double[] curveVolt,
+                      double[] curveAmp, double[] curveAmpHours) {
+            this.durationMillis = durationMillis;
+            this.unmeasuredMillis = unmeasuredMillis;
+            this.missedSamples = missedSamples;
+            this.ampHours = ampHours;
+            this.wattHours = wattHours;
+            this.internalResistance = internalResistance;
+            this.resistanceSamples = resistanceSamples;
+            this.startVolt = startVolt;
+            this.endVolt = endVolt;
+            this.endReason = endReason;
+            this.curveSeconds = curveSeconds;
+            this.curveVolt = curveVolt;
+            this.curveAmp = curveAmp;
+            this.curveAmpHours = curveAmpHours;
+        }
+
+        public String summary() {
+            long seconds = durationMillis / 1000;
+            String resistance = resistanceSamples > 0
+                    ? String.format("%.1f mOhm (%d steps)", internalResistance * 1000, resistanceSamples)
+                    : "n/a";
+            return String.format("Duration: %d:%02d:%02d\nCapacity: %.0f mAh\nEnergy: %.3f Wh\n"
+                            + "Internal resistance: %s\nVoltage: %.3f V -> %.3f V\nEnded: %s",
+                    seconds / 3600, (seconds / 60) % 60, seconds % 60, ampHours * 1000, wattHours,
+                    resistance, startVolt, endVolt, endReason)
+                    + (unmeasuredMillis > 0 ? String.format("\nTelemetry gaps: %.1f s not integrated", unmeasuredMillis / 1000.0) : "")
+                    + (missedSamples > 0 ? String.format("\nSamples missed: %d, interpolated across", missedSamples) : "");
+        }
+
+        public String toCsv() {
+            StringBuilder csv = new StringBuilder();
+            csv.append("# ").append(summary().replace("\n", "\n# ")).append('\n');
+            csv.append("seconds,volt,amp,amp_hours\n");
+            for (int i = 0; i < curveSeconds.length; i++) {
+                csv.append(curveSeconds[i]).append(',').append(curveVolt[i]).append(',')
+                        .append(curveAmp[i]).append(',').append(curveAmpHours[i]).append('\n');
+            }
+            return csv.toString();
+        }
+    }
+}
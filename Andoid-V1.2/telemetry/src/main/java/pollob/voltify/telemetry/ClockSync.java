@@ -0,0 +1,160 @@
+package pollob.voltify.telemetry;
+
+/**
+ * Maps device clock ticks to phone monotonic time (System.nanoTime).
+ * A sliding-window least-squares fit of arrival time against device ticks gives
+ * offset and drift; each sample is then stamped with the fitted time, which removes
+ * BLE connection-interval batching jitter. Output timestamps are strictly increasing and
+ * include the average link latency as a constant offset, which cancels in rates and integrals.
+ */
+public class ClockSync {
+    // A residual this large means the device rebooted or the tick source jumped
+    private static final long RESYNC_THRESHOLD_NANOS = 2_000_000_000L;
+
+    private final int windowSize;
+    private final double[] xs; // ticks relative to originTicks
+    private final double[] ys; // arrival millis relative to originNanos
+    private int count = 0;
+    private int head = 0;
+    private int evictionsSinceRebuild = 0;
+    private double sumX, sumY, sumXX, sumXY;
+
+    private long originTicks;
+    private long originNanos;
+    private long lastOutputNanos = Long.MIN_VALUE;
+
+    // 32-bit device tick unwrapping
+    private long lastRawTicks = -1;
+    private long tickEpoch = 0;
+
+    public ClockSync(int windowSize) {
+        if (windowSize < 2) {
+            throw new IllegalArgumentException("Window size must be >= 2");
+        }
+        this.windowSize = windowSize;
+        this.xs = new double[windowSize];
+        this.ys = new double[windowSize];
+    }
+
+    public void reset() {
+        count = 0;
+        head = 0;
+        evictionsSinceRebuild = 0;
+        sumX = sumY = sumXX = sumXY = 0;
+        lastRawTicks = -1;
+        tickEpoch = 0;
+    }
+
+    // Extends a wrapping uint32 tick counter to 64 bits
+    public long unwrap32(long rawTicks) {
+        if (lastRawTicks >= 0 && rawTicks < lastRawTicks && lastRawTicks - rawTicks > 0x80000000L) {
+            tickEpoch += 0x100000000L;
+        }
+        lastRawTicks = rawTicks;
+        return tickEpoch + rawTicks;
+    }
+
+    /**
+     * Records a sample and returns its corrected timestamp in System.nanoTime() units.
+     */
+    public long map(long ticks, long arrivalNanos) {
+        if (count == 0) {
+            originTicks = ticks;
+            originNanos = arrivalNanos;
+        }
+
+        double x = ticks - originTicks;
+        double y = (arrivalNanos - originNanos) / 1e6;
+
+        if (count >= 2) {
+            double predicted = predict(x);
+            if (Math.abs(y - predicted) * 1e6 > RESYNC_THRESHOLD_NANOS) {
+                resync(ticks, arrivalNanos);
+                x = 0;
+                y = 0;
+            }
+        }
+        addPoint(x, y);
+
+        // addPoint may have moved the origin, so read the point back
+        double fittedX = xs[(head + windowSize - 1) % windowSize];
+        long corrected = count >= 2 ? originNanos + (long) (predict(fittedX) * 1e6) : arrivalNanos;
+        if (lastOutputNanos != Long.MIN_VALUE && corrected <= lastOutputNanos) corrected = lastOutputNanos + 1;
+        lastOutputNanos = corrected;
+        return corrected;
+    }
+
+    // Phone milliseconds per device tick; 1.0 means no drift for a millisecond tick
+    public double getSlope() {
+        double denominator = count * sumXX - sumX * sumX;
+        if (count < 2 || denominator == 0) return Double.NaN;
+        return (count * sumXY - sumX * sumY) / denominator;
+    }
+
+    public double getDriftPpm(double nominalMillisPerTick) {
+        return (getSlope() / nominalMillisPerTick - 1.0) * 1e6;
+    }
+
+    // Phone time (nanoTime units) corresponding to device tick 0 of the current fit
+    public long getOffsetNanos() {
+        if (count < 2) return originNanos;
+        return originNanos + (long) ((predict(0) - getSlope() * originTicks) * 1e6);
+    }
+
+    public int getCount() { return count; }
+
+    private double predict(double x) {
+        double slope = getSlope();
+        if (Double.isNaN(slope)) return sumY / Math.max(count, 1);
+        double intercept = (sumY - slope * sumX) / count;
+        return intercept + slope * x;
+    }
+
+    private void addPoint(double x, double y) {
+        if (count == windowSize) {
+            double oldX = xs[head], oldY = ys[head];
+            sumX -= oldX;
+            sumY -= oldY;
+            sumXX -= oldX * oldX;
+            sumXY -= oldX * oldY;
+            count--;
+            evictionsSinceRebuild++;
+        }
+        xs[head] = x;
+        ys[head] = y;
+        head = (head + 1) % windowSize;
+        sumX += x;
+        sumY += y;
+        sumXX += x * x;
+        sumXY += x * y;
+        count++;
+
+        // Running sums lose precision as points are removed and x grows; once per window,
+        // move the origin to the oldest point and recompute them
+        if (evictionsSinceRebuild >= windowSize) {
+            evictionsSinceRebuild = 0;
+            long shiftTicks = (long) xs[head];
+            long shiftNanos = (long) (ys[head] * 1e6);
+            originTicks += shiftTicks;
+            originNanos += shiftNanos;
+            sumX = sumY = sumXX = sumXY = 0;
+            for (int i = 0; i < count; i++) {
+                xs[i] -= shiftTicks;
+                ys[i] -= shiftNanos / 1e6;
+                sumX += xs[i];
+                sumY += ys[i];
+                sumXX += xs[i] * xs[i];
+                sumXY += xs[i] * ys[i];
+            }
+        }
+    }
+
+    private void resync(long ticks, long arrivalNanos) {
+        count = 0;
+        head = 0;
+        evictionsSinceRebuild = 0;
+        sumX = sumY = sumXX = sumXY = 0;
+        originTicks = ticks;
+        originNanos = arrivalNanos;
+    }
+}
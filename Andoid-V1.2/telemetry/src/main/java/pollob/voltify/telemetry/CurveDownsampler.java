@@ -0,0 +1,80 @@
+package pollob.voltify.telemetry;
+
+/**
+ * Keeps a fixed number of averaged points for a stream of unknown length.
+ * Each point averages bucketSpan input samples; when the buffer fills up, neighbouring
+ * points are merged pairwise and the span doubles, so memory stays constant.
+ */
+public class CurveDownsampler {
+    private final int maxPoints;
+    private final int channels;
+    private final double[] time;
+    private final double[][] values;
+    private int size = 0;
+    private long bucketSpan = 1;
+
+    // Partial bucket being accumulated
+    private final double[] pendingSum;
+    private double pendingTimeSum = 0;
+    private long pendingCount = 0;
+
+    public CurveDownsampler(int maxPoints, int channels) {
+        if (maxPoints < 2 || maxPoints % 2 != 0) {
+            throw new IllegalArgumentException("maxPoints must be an even number >= 2");
+        }
+        this.maxPoints = maxPoints;
+        this.channels = channels;
+        this.time = new double[maxPoints];
+        this.values = new double[channels][maxPoints];
+        this.pendingSum = new double[channels];
+    }
+
+    public void add(double t, double[] sample) {
+        pendingTimeSum += t;
+        for (int c = 0; c < channels; c++) {
+            pendingSum[c] += sample[c];
+        }
+        pendingCount++;
+
+        if (pendingCount == bucketSpan) {
+            if (size == maxPoints) {
+                compact();
+            }
+            time[size] = pendingTimeSum / pendingCount;
+            for (int c = 0; c < channels; c++) {
+                values[c][size] = pendingSum[c] / pendingCount;
+                pendingSum[c] = 0;
+            }
+            size++;
+            pendingTimeSum = 0;
+            pendingCount = 0;
+        }
+    }
+
+    public void clear() {
+        size = 0;
+        bucketSpan = 1;
+        pendingTimeSum = 0;
+        pendingCount = 0;
+        for (int c = 0; c < channels; c++) {
+            pendingSum[c] = 0;
+        }
+    }
+
+    public int size() { return size; }
+    public long getBucketSpan() { return bucketSpan; }
+    public double getTime(int index) { return time[index]; }
+    public double getValue(int channel, int index) { return values[channel][index]; }
+
+    private void compact() {
+        int half = size / 2;
+        for (int i = 0; i < half; i++) {
+            time[i] = (time[2 * i] + time[2 * i + 1]) * 0.5;
+            for (int c = 0; c < channels; c++) {
+                values[c][i] = (values[c][2 * i] + values[c][2 * i + 1]) * 0.5;
+            }
+        }
+        size = half;
+        bucketSpan *= 2;
+    }
+}
@@ -0,0 +1,137 @@
+package pollob.voltify.telemetry;
+
+/**
+ * Incremental detector for CC/CV transitions, output dropouts, current spikes and
+ * telemetry gaps. Feed it one decoded frame at a time; all checks are O(1) per sample.
+ */
+public class EventDetector {
+    // Current spikes: rolling z-score over the last SPIKE_WINDOW samples
+    private static final int SPIKE_WINDOW = 100;
+    private static final int SPIKE_MIN_SAMPLES = 20;
+    private static final double SPIKE_Z_THRESHOLD = 4.0;
+    private static final double SPIKE_MIN_STD = 0.005; // A, ignores quantization noise on a steady load
+
+    // Output dropout: voltage collapses below DROPOUT_RATIO of the setpoint while in CV
+    private static final double DROPOUT_RATIO = 0.5;
+    private static final double RECOVER_RATIO = 0.9;
+    private static final double DROPOUT_MIN_SET_VOLT = 0.5;
+
+    // Telemetry gaps: interval much longer than the running average interval
+    private static final double GAP_FACTOR = 5.0;
+    private static final long GAP_MIN_NANOS = 500_000_000L;
+    private static final double INTERVAL_SMOOTHING = 0.1;
+
+    public interface EventListener {
+        void onEvent(TelemetryEvent event);
+    }
+
+    private final EventListener listener;
+    private final StreamingStats ampWindow = new StreamingStats(SPIKE_WINDOW, 0.0, 32.768, 64);
+
+    private long sessionStartNanos = -1;
+    private long sampleIndex = 0;
+    private long lastTimestampNanos = 0;
+    private double meanIntervalNanos = 0.0;
+    private int lastCcCv = -1;
+    private boolean regulated = false;
+    private boolean droppedOut = false;
+    private boolean spiking = false;
+
+    public EventDetector(EventListener listener) {
+        this.listener = listener;
+    }
+
+    public void reset(long sessionStartNanos) {
+        this.sessionStartNanos = sessionStartNanos;
+        sampleIndex = 0;
+        lastTimestampNanos = 0;
+        meanIntervalNanos = 0.0;
+        lastCcCv = -1;
+        regulated = false;
+        droppedOut = false;
+        spiking = false;
+        ampWindow.reset();
+    }
+
+    public void onSample(long timestampNanos, double volt, double amp, double setVolt, int ccCv) {
+        if (sessionStartNanos < 0) {
+            sessionStartNanos = timestampNanos;
+        }
+
+        checkGap(timestampNanos, volt, amp);
+        checkMode(timestampNanos, volt, amp, ccCv);
+        checkDropout(timestampNanos, volt, amp, setVolt, ccCv);
+        checkSpike(timestampNanos, volt, amp);
+
+        lastTimestampNanos = timestampNanos;
+        sampleIndex++;
+    }
+
+    public long getSampleIndex() { return sampleIndex; }
+
+    // Samples lost on a dropped link were filled in from the device's buffer
+    public void onGapBackfilled(double volt, double amp, double gapMillis) {
+        emit(TelemetryEvent.Type.GAP_BACKFILLED, lastTimestampNanos, volt, amp, gapMillis);
+    }
+
+    private void checkGap(long timestampNanos, double volt, double amp) {
+        if (sampleIndex == 0) return;
+
+        long interval = timestampNanos - lastTimestampNanos;
+        if (sampleIndex >= 2) {
+            double threshold = Math.max(GAP_MIN_NANOS, GAP_FACTOR * meanIntervalNanos);
+            if (interval > threshold) {
+                emit(TelemetryEvent.Type.TELEMETRY_GAP, timestampNanos, volt, amp, interval / 1e6);
+                return; // keep the gap out of the running average
+            }
+        }
+        meanIntervalNanos = sampleIndex == 1 ? interval
+                : meanIntervalNanos + INTERVAL_SMOOTHING * (interval - meanIntervalNanos);
+    }
+
+    private void checkMode(long timestampNanos, double volt, double amp, int ccCv) {
+        if (lastCcCv >= 0 && ccCv != lastCcCv) {
+            emit(ccCv == 0 ? TelemetryEvent.Type.CC_TO_CV : TelemetryEvent.Type.CV_TO_CC,
+                    timestampNanos, volt, amp, 0);
+        }
+        lastCcCv = ccCv;
+    }
+
+    private void checkDropout(long timestampNanos, double volt, double amp, double setVolt, int ccCv) {
+        if (setVolt < DROPOUT_MIN_SET_VOLT) {
+            regulated = false;
+            return;
+        }
+
+        if (volt >= RECOVER_RATIO * setVolt) {
+            if (droppedOut) {
+                droppedOut = false;
+                emit(TelemetryEvent.Type.OUTPUT_RECOVERED, timestampNanos, volt, amp, 0);
+            }
+            regulated = true;
+        } else if (regulated && !droppedOut && ccCv == 0 && volt < DROPOUT_RATIO * setVolt) {
+            // In CC the voltage sagging is the current limit doing its job, not a dropout
+            droppedOut = true;
+            emit(TelemetryEvent.Type.OUTPUT_DROPOUT, timestampNanos, volt, amp, 0);
+        }
+    }
+
+    private void checkSpike(long timestampNanos, double volt, double amp) {
+        if (ampWindow.getCount() >= SPIKE_MIN_SAMPLES) {
+            double std = Math.max(ampWindow.getStdDev(), SPIKE_MIN_STD);
+            double z = (amp - ampWindow.getMean()) / std;
+            boolean isSpike = Math.abs(z) > SPIKE_Z_THRESHOLD;
+            if (isSpike && !spiking) {
+                emit(TelemetryEvent.Type.CURRENT_SPIKE, timestampNanos, volt, amp, z);
+            }
+            spiking = isSpike;
+        }
+        ampWindow.add(amp);
+    }
+
+    private void emit(TelemetryEvent.Type type, long timestampNanos, double volt, double amp, double detail) {
+        if (listener == null) return;
+        long sessionMillis = (timestampNanos - sessionStartNanos) / 1_000_000L;
+        listener.onEvent(new TelemetryEvent(type, sampleIndex, sessionMillis, volt, amp, detail));
+    }
+}
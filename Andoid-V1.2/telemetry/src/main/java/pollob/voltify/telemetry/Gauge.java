@@ -0,0 +1,23 @@
+package pollob.voltify.telemetry;
+
+/**
+ * Last-written value, e.g. a queue depth or a runtime statistic sampled by the HUD.
+ */
+public class Gauge {
+    private final String name;
+    private volatile double value = Double.NaN;
+
+    Gauge(String name) {
+        this.name = name;
+    }
+
+    public void set(double value) {
+        this.value = value;
+    }
+
+    public double get() {
+        return value;
+    }
+
+    public String getName() { return name; }
+}
@@ -0,0 +1,180 @@
+package pollob.voltify.telemetry;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Loads HistoryStore tiles for a chart viewport on a background thread.
+ * A request picks the tier for the viewport, queues the visible tiles it does not have yet and
+ * then one tile on either side, so a pan usually finds its data already loaded. Tiles are kept
+ * in an LRU of maxTiles. Only the newest request matters: queued tiles of older viewports are
+ * dropped, and the listener is called once the newest viewport's tiles are all loaded.
+ */
+public class HistoryLoader {
+    private static final String TAG = "HistoryLoader";
+
+    public interface ViewportListener {
+        // Called on the loader thread with the visible tiles in time order
+        void onViewportLoaded(long requestId, int tier, List<HistoryTile> tiles);
+
+        default void onLoadFailed(IOException e) {}
+    }
+
+    private final HistoryStore store;
+    private final ViewportListener listener;
+    private final Map<Long, HistoryTile> cache;
+
+    private final Object lock = new Object();
+    private final ArrayDeque<Long> queue = new ArrayDeque<>();
+    private long requestId = 0;
+    private int requestTier;
+    private long requestFirst, requestLast;
+    private boolean deliveryPending = false;
+    private boolean running = false;
+    private Thread worker;
+
+    private volatile long hits = 0;
+    private volatile long misses = 0;
+
+    public HistoryLoader(HistoryStore store, int maxTiles, ViewportListener listener) {
+        this.store = store;
+        this.listener = listener;
+        // Access-ordered, so the eldest entry is the least recently used tile
+        this.cache = new LinkedHashMap<Long, HistoryTile>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, HistoryTile> eldest) {
+                return size() > maxTiles;
+            }
+        };
+    }
+
+    public void start() {
+        synchronized (lock) {
+            if (running) return;
+            running = true;
+            worker = new Thread(this::workerLoop, TAG);
+            worker.setDaemon(true);
+            worker.start();
+        }
+    }
+
+    public void stop() {
+        synchronized (lock) {
+            running = false;
+            queue.clear();
+            lock.notifyAll();
+            worker = null;
+        }
+    }
+
+    /**
+     * Asks for the span [fromSeconds, toSeconds] in at most maxPoints chart points.
+     * Returns the id the listener will report for it.
+     */
+    public long request(double fromSeconds, double toSeconds, int maxPoints) {
+        int tier = HistoryStore.chooseTier(toSeconds - fromSeconds, maxPoints);
+        double tileSeconds = HistoryStore.getTileSeconds(tier);
+        long first = (long) Math.floor(fromSeconds / tileSeconds);
+        long last = (long) Math.floor(toSeconds / tileSeconds);
+
+        synchronized (lock) {
+            requestId++;
+            requestTier = tier;
+            requestFirst = first;
+            requestLast = last;
+            deliveryPending = true;
+            queue.clear();
+            for (long index = first; index <= last; index++) {
+                queueIfMissing(tier, index);
+            }
+            queueIfMissing(tier, last + 1);
+            queueIfMissing(tier, first - 1);
+            lock.notifyAll();
+            return requestId;
+        }
+    }
+
+    public long getHits() { return hits; }
+    public long getMisses() { return misses; }
+
+    public int getCachedTiles() {
+        synchronized (lock) {
+            return cache.size();
+        }
+    }
+
+    // Holding lock
+    private void queueIfMissing(int tier, long index) {
+        long key = HistoryTile.key(tier, index);
+        if (cache.containsKey(key)) {
+            hits++;
+        } else {
+            misses++;
+            queue.addLast(key);
+        }
+    }
+
+    private void workerLoop() {
+        while (true) {
+            long key = -1;
+            synchronized (lock) {
+                while (running && queue.isEmpty() && !deliveryPending) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (!running) return;
+                if (!queue.isEmpty()) {
+                    key = queue.pollFirst();
+                }
+            }
+
+            if (key != -1) {
+                int tier = (int) (key >>> 56);
+                long index = (key << 8) >> 8;
+                boolean traced = Tracing.begin("history tile");
+                try {
+                    HistoryTile tile = store.readTile(tier, index);
+                    synchronized (lock) {
+                        cache.put(key, tile);
+                    }
+                } catch (IOException e) {
+                    listener.onLoadFailed(e);
+                } finally {
+                    Tracing.end(traced);
+                }
+            }
+            deliverIfComplete();
+        }
+    }
+
+    private void deliverIfComplete() {
+        long id;
+        int tier;
+        List<HistoryTile> tiles;
+        synchronized (lock) {
+            if (!deliveryPending) return;
+            tiles = new ArrayList<>((int) (requestLast - requestFirst + 1));
+            for (long index = requestFirst; index <= requestLast; index++) {
+                // get() also marks the tile as recently used
+                HistoryTile tile = cache.get(HistoryTile.key(requestTier, index));
+                if (tile == null) {
+                    // Still queued, or failed to load once the queue is empty
+                    if (!queue.isEmpty()) return;
+                    continue;
+                }
+                tiles.add(tile);
+            }
+            deliveryPending = false;
+            id = requestId;
+            tier = requestTier;
+        }
+        listener.onViewportLoaded(id, tier, tiles);
+    }
+}
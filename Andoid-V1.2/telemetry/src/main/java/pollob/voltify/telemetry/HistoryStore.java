@@ -0,0 +1,248 @@
+package pollob.voltify.telemetry;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Recorded telemetry on disk, in resolution tiers for the history chart. Every tier holds
+ * min/max volt and amp buckets; tier 0 buckets are FINEST_BUCKET_SECONDS long and each tier
+ * above is TIER_FACTOR times coarser, so a week is a few thousand buckets at the top tier.
+ * Records are fixed-size and in time order in one file per tier, so a time range is found by
+ * binary search and read with a single positional read.
+ *
+ * Reads are grouped in tiles of TILE_BUCKETS buckets, the unit HistoryLoader caches.
+ * One thread appends; any thread may read. Buckets still being filled are included in reads.
+ */
+public class HistoryStore implements Closeable {
+    public static final int TIER_COUNT = 5;
+    public static final int TILE_BUCKETS = 256;
+    private static final double FINEST_BUCKET_SECONDS = 0.1;
+    private static final int TIER_FACTOR = 16;
+    // double bucket start (epoch seconds), then volt min/max and amp min/max as floats
+    static final int RECORD_BYTES = 24;
+    private static final int WRITE_BUFFER_BYTES = 16 * 1024;
+
+    private static final class Tier {
+        final double bucketSeconds;
+        final File file;
+        FileChannel reader;
+        DataOutputStream writer;
+
+        // Bucket being filled
+        long key = Long.MIN_VALUE;
+        float voltMin, voltMax, ampMin, ampMax;
+
+        Tier(double bucketSeconds, File file) {
+            this.bucketSeconds = bucketSeconds;
+            this.file = file;
+        }
+    }
+
+    private final File directory;
+    private final Tier[] tiers = new Tier[TIER_COUNT];
+    private double startSeconds = Double.NaN;
+    private double endSeconds = Double.NaN;
+    private boolean closed = false;
+
+    public HistoryStore(File directory) throws IOException {
+        this.directory = directory;
+        for (int i = 0; i < TIER_COUNT; i++) {
+            tiers[i] = new Tier(getBucketSeconds(i), new File(directory, "tier" + i + ".bin"));
+        }
+        // The finest tier has the first and last bucket of everything recorded so far
+        FileChannel channel = reader(tiers[0]);
+        long count = recordCount(channel);
+        if (count > 0) {
+            ByteBuffer buffer = ByteBuffer.allocate(8);
+            startSeconds = readTime(channel, 0, buffer);
+            endSeconds = readTime(channel, count - 1, buffer) + tiers[0].bucketSeconds;
+        }
+    }
+
+    public static double getBucketSeconds(int tier) {
+        return FINEST_BUCKET_SECONDS * Math.pow(TIER_FACTOR, tier);
+    }
+
+    public static double getTileSeconds(int tier) {
+        return getBucketSeconds(tier) * TILE_BUCKETS;
+    }
+
+    // Finest tier that covers spanSeconds in at most maxPoints chart points (two per bucket)
+    public static int chooseTier(double spanSeconds, int maxPoints) {
+        for (int tier = 0; tier < TIER_COUNT - 1; tier++) {
+            if (2 * spanSeconds / getBucketSeconds(tier) <= maxPoints) return tier;
+        }
+        return TIER_COUNT - 1;
+    }
+
+    public synchronized void append(double seconds, float volt, float amp) throws IOException {
+        if (closed) return;
+        if (startSeconds != startSeconds) startSeconds = seconds;
+        if (!(seconds < endSeconds)) endSeconds = seconds;
+        for (Tier tier : tiers) {
+            long key = (long) Math.floor(seconds / tier.bucketSeconds);
+            if (key != tier.key) {
+                if (tier.key != Long.MIN_VALUE) {
+                    writeBucket(tier);
+                }
+                tier.key = key;
+                tier.voltMin = tier.voltMax = volt;
+                tier.ampMin = tier.ampMax = amp;
+            } else {
+                tier.voltMin = Math.min(tier.voltMin, volt);
+                tier.voltMax = Math.max(tier.voltMax, volt);
+                tier.ampMin = Math.min(tier.ampMin, amp);
+                tier.ampMax = Math.max(tier.ampMax, amp);
+            }
+        }
+    }
+
+    // Makes completed buckets visible to other HistoryStore instances on the same directory
+    public synchronized void flush() throws IOException {
+        for (Tier tier : tiers) {
+            if (tier.writer != null) tier.writer.flush();
+        }
+    }
+
+    /**
+     * Reads tile index of tier: the buckets starting in
+     * [index * getTileSeconds(tier), (index + 1) * getTileSeconds(tier)).
+     */
+    public HistoryTile readTile(int tier, long index) throws IOException {
+        Tier t = tiers[tier];
+        double from = index * getTileSeconds(tier);
+        double to = from + getTileSeconds(tier);
+
+        FileChannel channel;
+        synchronized (this) {
+            channel = reader(t);
+        }
+        long count = recordCount(channel);
+        ByteBuffer probe = ByteBuffer.allocate(8);
+        long first = lowerBound(channel, count, from, probe);
+        long last = lowerBound(channel, count, to, probe);
+        ByteBuffer records = ByteBuffer.allocate((int) ((last - first) * RECORD_BYTES));
+        if (last > first) {
+            readFully(channel, records, first * RECORD_BYTES);
+        }
+
+        synchronized (this) {
+            double pendingStart = t.key * t.bucketSeconds;
+            boolean withPending = t.key != Long.MIN_VALUE && pendingStart >= from && pendingStart < to
+                    && (last == first || records.getDouble((int) ((last - first - 1) * RECORD_BYTES)) < pendingStart);
+            int size = (int) (last - first) + (withPending ? 1 : 0);
+            HistoryTile tile = new HistoryTile(tier, index, size);
+            records.rewind();
+            for (int i = 0; i < last - first; i++) {
+                tile.times[i] = records.getDouble();
+                tile.voltMin[i] = records.getFloat();
+                tile.voltMax[i] = records.getFloat();
+                tile.ampMin[i] = records.getFloat();
+                tile.ampMax[i] = records.getFloat();
+            }
+            if (withPending) {
+                int i = size - 1;
+                tile.times[i] = pendingStart;
+                tile.voltMin[i] = t.voltMin;
+                tile.voltMax[i] = t.voltMax;
+                tile.ampMin[i] = t.ampMin;
+                tile.ampMax[i] = t.ampMax;
+            }
+            return tile;
+        }
+    }
+
+    // NaN while nothing is recorded
+    public synchronized double getStartSeconds() { return startSeconds; }
+    public synchronized double getEndSeconds() { return endSeconds; }
+    public synchronized boolean isEmpty() { return startSeconds != startSeconds; }
+    public File getDirectory() { return directory; }
+
+    // Writes the buckets still being filled, so nothing recorded is lost
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        IOException failure = null;
+        for (Tier tier : tiers) {
+            try {
+                if (tier.key != Long.MIN_VALUE) {
+                    writeBucket(tier);
+                    tier.key = Long.MIN_VALUE;
+                }
+                if (tier.writer != null) tier.writer.close();
+                if (tier.reader != null) tier.reader.close();
+            } catch (IOException e) {
+                if (failure == null) failure = e;
+            }
+        }
+        if (failure != null) throw failure;
+    }
+
+    private void writeBucket(Tier tier) throws IOException {
+        if (tier.writer == null) {
+            if (!directory.exists() && !directory.mkdirs()) {
+                throw new IOException("Cannot create history directory: " + directory);
+            }
+            tier.writer = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(tier.file, true), WRITE_BUFFER_BYTES));
+        }
+        tier.writer.writeDouble(tier.key * tier.bucketSeconds);
+        tier.writer.writeFloat(tier.voltMin);
+        tier.writer.writeFloat(tier.voltMax);
+        tier.writer.writeFloat(tier.ampMin);
+        tier.writer.writeFloat(tier.ampMax);
+    }
+
+    // Opened once the file exists; null before anything has been written
+    private static FileChannel reader(Tier tier) throws IOException {
+        if (tier.reader == null && tier.file.exists()) {
+            tier.reader = new RandomAccessFile(tier.file, "r").getChannel();
+        }
+        return tier.reader;
+    }
+
+    // A record cut short by the writer's buffer is not counted until its flush completes it
+    private static long recordCount(FileChannel channel) throws IOException {
+        return channel == null ? 0 : channel.size() / RECORD_BYTES;
+    }
+
+    // Index of the first record starting at or after seconds
+    private static long lowerBound(FileChannel channel, long count, double seconds, ByteBuffer probe)
+            throws IOException {
+        long low = 0, high = count;
+        while (low < high) {
+            long mid = (low + high) >>> 1;
+            if (readTime(channel, mid, probe) < seconds) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static double readTime(FileChannel channel, long record, ByteBuffer probe) throws IOException {
+        probe.clear();
+        readFully(channel, probe, record * RECORD_BYTES);
+        return probe.getDouble(0);
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("History file ended at " + position);
+            }
+            position += read;
+        }
+        buffer.flip();
+    }
+}
@@ -0,0 +1,30 @@
+package pollob.voltify.telemetry;
+
+/**
+ * One tile of a HistoryStore tier: its buckets in time order, each with the start time in
+ * epoch seconds and the min/max volts and amps seen in it. Not modified once loaded.
+ */
+public class HistoryTile {
+    public final int tier;
+    public final long index;
+    public final double[] times;
+    public final float[] voltMin, voltMax;
+    public final float[] ampMin, ampMax;
+
+    HistoryTile(int tier, long index, int size) {
+        this.tier = tier;
+        this.index = index;
+        this.times = new double[size];
+        this.voltMin = new float[size];
+        this.voltMax = new float[size];
+        this.ampMin = new float[size];
+        this.ampMax = new float[size];
+    }
+
+    public int size() { return times.length; }
+
+    // Cache key shared with HistoryLoader
+    static long key(int tier, long index) {
+        return ((long) tier << 56) | (index & 0x00FFFFFFFFFFFFFFL);
+    }
+}
@@ -0,0 +1,93 @@
+package pollob.voltify.telemetry;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency histogram in nanoseconds with HdrHistogram-style log-linear buckets:
+ * values below 32 are exact, above that every power of two is split into 16 sub-buckets,
+ * so any recorded value is reported within about 3%. Covers up to ~2^40 ns (18 minutes);
+ * larger values land in the last bucket. Recording is a few atomic adds and never allocates.
+ */
+public class LatencyHistogram {
+    private static final int LINEAR_BUCKETS = 32;
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_MSB = 40;
+    static final int BUCKET_COUNT = LINEAR_BUCKETS + (MAX_MSB - 5) * SUB_BUCKETS;
+
+    private final String name;
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    LatencyHistogram(String name) {
+        this.name = name;
+    }
+
+    public void record(long nanos) {
+        if (nanos < 0) nanos = 0;
+        counts.incrementAndGet(bucketOf(nanos));
+        count.incrementAndGet();
+        sum.addAndGet(nanos);
+        long currentMax;
+        while (nanos > (currentMax = max.get())) {
+            if (max.compareAndSet(currentMax, nanos)) break;
+        }
+    }
+
+    public long getCount() { return count.get(); }
+
+    public long getMax() { return max.get(); }
+
+    public double getMean() {
+        long n = count.get();
+        return n == 0 ? Double.NaN : (double) sum.get() / n;
+    }
+
+    // Nearest-rank percentile, reported as the midpoint of its bucket; 0 when empty
+    public long percentile(double q) {
+        long n = count.get();
+        if (n == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(q * n));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(midpointOf(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    // Concurrent records may be partly lost while this runs; fine for interval readouts
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts.set(i, 0);
+        }
+        count.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+
+    public String getName() { return name; }
+
+    static int bucketOf(long value) {
+        if (value < LINEAR_BUCKETS) return (int) value;
+        int msb = 63 - Long.numberOfLeadingZeros(value);
+        if (msb >= MAX_MSB) return BUCKET_COUNT - 1;
+        int shift = msb - SUB_BUCKET_BITS;
+        return LINEAR_BUCKETS + (msb - 5) * SUB_BUCKETS + (int) ((value >> shift) - SUB_BUCKETS);
+    }
+
+    static long midpointOf(int bucket) {
+        if (bucket < LINEAR_BUCKETS) return bucket;
+        int k = bucket - LINEAR_BUCKETS;
+        int msb = k / SUB_BUCKETS + 5;
+        long sub = k % SUB_BUCKETS + SUB_BUCKETS;
+        int shift = msb - SUB_BUCKET_BITS;
+        long lower = sub << shift;
+        return lower + ((1L << shift) >> 1);
+    }
+}
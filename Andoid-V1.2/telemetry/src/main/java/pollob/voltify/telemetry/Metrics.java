@@ -0,0 +1,38 @@
+package pollob.voltify.telemetry;
+
+/**
+ * The app's metrics. Instrumented code checks {@link #enabled} before touching a clock or a
+ * metric, so when the HUD is off the cost is one volatile read per site.
+ */
+public final class Metrics {
+    public static volatile boolean enabled = false;
+
+    public static final MetricsRegistry REGISTRY = new MetricsRegistry();
+
+    // Notifications handed over by the transport (onCharacteristicChanged on a real device)
+    public static final Counter NOTIFICATIONS = REGISTRY.counter("ble.notifications");
+    public static final Counter DECODE_ERRORS = REGISTRY.counter("decode.errors");
+    // Choreographer frames that took longer than 1.5 vsync periods
+    public static final Counter UI_FRAMES_DROPPED = REGISTRY.counter("ui.frames.dropped");
+    // Setpoint writes started by SetpointStreamer
+    public static final Counter SETPOINT_WRITES = REGISTRY.counter("setpoint.writes");
+    // Writes sent again because telemetry did not echo them in time
+    public static final Counter SETPOINT_RETRANSMITS = REGISTRY.counter("setpoint.retransmits");
+    // Samples lost on a dropped link and filled in from the device's buffer
+    public static final Counter BACKFILL_SAMPLES = REGISTRY.counter("backfill.samples");
+    // Samples a bus subscription lost to a full queue, one counter per subscription name
+    public static final String BUS_DROPPED_PREFIX = "bus.dropped.";
+
+    public static final LatencyHistogram DECODE = REGISTRY.histogram("decode");
+    public static final LatencyHistogram AGGREGATION = REGISTRY.histogram("aggregation");
+    public static final LatencyHistogram CHART_UPDATE = REGISTRY.histogram("chart.update");
+    // Notification arrival to chart data updated
+    public static final LatencyHistogram END_TO_END = REGISTRY.histogram("end.to.end");
+    // Streamed setpoint write to the device reporting it in telemetry
+    public static final LatencyHistogram SETPOINT_ECHO = REGISTRY.histogram("setpoint.echo");
+
+    public static final Gauge GC_COUNT = REGISTRY.gauge("gc.count");
+    public static final Gauge RIPPLE_DROPPED_BLOCKS = REGISTRY.gauge("ripple.dropped.blocks");
+
+    private Metrics() {}
+}
@@ -0,0 +1,36 @@
+package pollob.voltify.telemetry;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Named counters, gauges and latency histograms. Lookups are for setup and display;
+ * hot paths hold on to the metric objects directly.
+ */
+public class MetricsRegistry {
+    private final ConcurrentHashMap<String, Counter> counters = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Gauge> gauges = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+
+    public Counter counter(String name) {
+        return counters.computeIfAbsent(name, Counter::new);
+    }
+
+    public Gauge gauge(String name) {
+        return gauges.computeIfAbsent(name, Gauge::new);
+    }
+
+    public LatencyHistogram histogram(String name) {
+        return histograms.computeIfAbsent(name, LatencyHistogram::new);
+    }
+
+    public Map<String, Counter> getCounters() { return new TreeMap<>(counters); }
+    public Map<String, Gauge> getGauges() { return new TreeMap<>(gauges); }
+    public Map<String, LatencyHistogram> getHistograms() { return new TreeMap<>(histograms); }
+
+    public void reset() {
+        for (Counter counter : counters.values()) counter.reset();
+        for (LatencyHistogram histogram : histograms.values()) histogram.reset();
+    }
+}
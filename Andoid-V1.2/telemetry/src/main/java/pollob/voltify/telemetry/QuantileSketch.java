@@ -0,0 +1,73 @@
+package pollob.voltify.telemetry;
+
+import java.util.Arrays;
+
+/**
+ * Fixed-memory quantile estimator backed by a linear histogram over [minValue, maxValue].
+ * Samples can be added and removed, so it also works over a sliding window.
+ * Any quantile is reported within half a bin width of the exact nearest-rank value
+ * for samples inside the range; samples outside the range are clamped to the edge bins.
+ */
+public class QuantileSketch {
+    private final double minValue;
+    private final double maxValue;
+    private final double binWidth;
+    private final int[] bins;
+    private long count = 0;
+
+    public QuantileSketch(double minValue, double maxValue, int binCount) {
+        if (binCount <= 0 || maxValue <= minValue) {
+            throw new IllegalArgumentException("Invalid sketch range or bin count");
+        }
+        this.minValue = minValue;
+        this.maxValue = maxValue;
+        this.binWidth = (maxValue - minValue) / binCount;
+        this.bins = new int[binCount];
+    }
+
+    public void add(double value) {
+        bins[binIndex(value)]++;
+        count++;
+    }
+
+    public void remove(double value) {
+        int index = binIndex(value);
+        if (bins[index] > 0) {
+            bins[index]--;
+            count--;
+        }
+    }
+
+    public void clear() {
+        Arrays.fill(bins, 0);
+        count = 0;
+    }
+
+    // Nearest-rank quantile, q in [0, 1]; returns NaN when empty
+    public double quantile(double q) {
+        if (count == 0) return Double.NaN;
+
+        long rank = (long) Math.ceil(q * count);
+        if (rank < 1) rank = 1;
+        if (rank > count) rank = count;
+
+        long seen = 0;
+        for (int i = 0; i < bins.length; i++) {
+            seen += bins[i];
+            if (seen >= rank) {
+                return minValue + (i + 0.5) * binWidth;
+            }
+        }
+        return maxValue;
+    }
+
+    public long getCount() { return count; }
+    public double getAccuracy() { return binWidth / 2.0; }
+
+    private int binIndex(double value) {
+        int index = (int) ((value - minValue) / binWidth);
+        if (index < 0) return 0;
+        if (index >= bins.length) return bins.length - 1;
+        return index;
+    }
+}
@@ -0,0 +1,91 @@
+package pollob.voltify.telemetry;
+
+/**
+ * Radix-2 FFT for real input of a fixed power-of-two size.
+ * The real signal is packed into an N/2-point complex FFT and split afterwards,
+ * and all tables and work arrays are allocated once in the constructor.
+ * Not thread-safe: use one instance per thread.
+ */
+public class RealFft {
+    private final int size;
+    private final int half;
+    private final int[] bitReverse;
+    private final double[] cosTable; // exp(-2*pi*i*k/N), k < N/2
+    private final double[] sinTable;
+    private final double[] re;
+    private final double[] im;
+
+    public RealFft(int size) {
+        if (size < 4 || Integer.bitCount(size) != 1) {
+            throw new IllegalArgumentException("FFT size must be a power of two >= 4");
+        }
+        this.size = size;
+        this.half = size / 2;
+        this.re = new double[half];
+        this.im = new double[half];
+        this.cosTable = new double[half];
+        this.sinTable = new double[half];
+        for (int k = 0; k < half; k++) {
+            cosTable[k] = Math.cos(2 * Math.PI * k / size);
+            sinTable[k] = -Math.sin(2 * Math.PI * k / size);
+        }
+
+        this.bitReverse = new int[half];
+        int bits = Integer.numberOfTrailingZeros(half);
+        for (int i = 0; i < half; i++) {
+            bitReverse[i] = bits == 0 ? 0 : Integer.reverse(i) >>> (32 - bits);
+        }
+    }
+
+    public int getSize() { return size; }
+
+    /**
+     * Computes |X[k]| for k = 0..N/2 into magnitudes (length >= N/2 + 1).
+     */
+    public void magnitudes(double[] input, double[] magnitudes) {
+        forward(input);
+        magnitudes[0] = Math.abs(re[0] + im[0]);
+        magnitudes[half] = Math.abs(re[0] - im[0]);
+        for (int k = 1; k < half; k++) {
+            int m = half - k;
+            // Even and odd sub-spectra from Z[k] and conj(Z[N/2 - k])
+            double evenRe = (re[k] + re[m]) * 0.5;
+            double evenIm = (im[k] - im[m]) * 0.5;
+            double oddRe = (im[k] + im[m]) * 0.5;
+            double oddIm = (re[m] - re[k]) * 0.5;
+            double wr = cosTable[k];
+            double wi = sinTable[k];
+            double xr = evenRe + wr * oddRe - wi * oddIm;
+            double xi = evenIm + wr * oddIm + wi * oddRe;
+            magnitudes[k] = Math.sqrt(xr * xr + xi * xi);
+        }
+    }
+
+    // N/2-point complex FFT of z[n] = x[2n] + i*x[2n+1], left in re/im
+    private void forward(double[] input) {
+        for (int i = 0; i < half; i++) {
+            int j = bitReverse[i];
+            re[j] = input[2 * i];
+            im[j] = input[2 * i + 1];
+        }
+
+        for (int len = 2; len <= half; len <<= 1) {
+            int step = size / len; // twiddle stride in the N-point table
+            int span = len >> 1;
+            for (int start = 0; start < half; start += len) {
+                for (int k = 0; k < span; k++) {
+                    double wr = cosTable[k * step];
+                    double wi = sinTable[k * step];
+                    int a = start + k;
+                    int b = a + span;
+                    double tr = re[b] * wr - im[b] * wi;
+                    double ti = re[b] * wi + im[b] * wr;
+                    re[b] = re[a] - tr;
+                    im[b] = im[a] - ti;
+                    re[a] += tr;
+                    im[a] += ti;
+                }
+            }
+        }
+    }
+}
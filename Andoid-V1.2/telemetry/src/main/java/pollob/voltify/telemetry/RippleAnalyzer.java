@@ -0,0 +1,218 @@
+package pollob.voltify.telemetry;
+
+/**
+ * Ripple and noise analysis of the decoded V/I stream.
+ * Samples are collected into fixed blocks on the pipeline's analysis subscription thread and
+ * handed to a background worker that removes DC, applies a Hann window and runs a RealFft.
+ * All buffers are preallocated; a block that arrives while the worker is still busy is dropped.
+ */
+public class RippleAnalyzer {
+    private static final String TAG = "RippleAnalyzer";
+
+    public interface RippleListener {
+        // Called on the worker thread; the result is reused, copy what you need
+        void onRippleAnalyzed(Result result);
+
+        default void onRippleFailed(Exception e) {}
+    }
+
+    private final int blockSize;
+    private final RippleListener listener;
+    private final RealFft fft;
+    private final double[] hann;
+    private final double hannGain;
+
+    // Filled by addSample(), on the analysis subscription thread
+    private double[] fillVolt, fillAmp;
+    private long fillStartNanos;
+    private int fillCount = 0;
+
+    // Owned by the worker while pending
+    private double[] workVolt, workAmp;
+    private long workDurationNanos;
+    private boolean workPending = false;
+
+    private final double[] windowed;
+    private final double[] mags;
+    private final Result result;
+
+    private final Object lock = new Object();
+    private Thread worker;
+    private volatile boolean running = false;
+    private volatile long droppedBlocks = 0;
+
+    public RippleAnalyzer(int blockSize, RippleListener listener) {
+        this.blockSize = blockSize;
+        this.listener = listener;
+        this.fft = new RealFft(blockSize);
+
+        this.hann = new double[blockSize];
+        double sum = 0;
+        for (int i = 0; i < blockSize; i++) {
+            hann[i] = 0.5 - 0.5 * Math.cos(2 * Math.PI * i / (blockSize - 1));
+            sum += hann[i];
+        }
+        this.hannGain = sum / blockSize;
+
+        this.fillVolt = new double[blockSize];
+        this.fillAmp = new double[blockSize];
+        this.workVolt = new double[blockSize];
+        this.workAmp = new double[blockSize];
+        this.windowed = new double[blockSize];
+        this.mags = new double[blockSize / 2 + 1];
+        this.result = new Result(blockSize / 2 + 1);
+    }
+
+    public synchronized void start() {
+        if (running) return;
+        running = true;
+        worker = new Thread(this::workerLoop, TAG);
+        worker.setPriority(Thread.MIN_PRIORITY);
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    public synchronized void stop() {
+        running = false;
+        synchronized (lock) {
+            lock.notifyAll();
+        }
+        worker = null;
+    }
+
+    public void addSample(long timestampNanos, double volt, double amp) {
+        if (fillCount == 0) {
+            fillStartNanos = timestampNanos;
+        }
+        fillVolt[fillCount] = volt;
+        fillAmp[fillCount] = amp;
+        fillCount++;
+
+        if (fillCount == blockSize) {
+            long duration = timestampNanos - fillStartNanos;
+            fillCount = 0;
+            synchronized (lock) {
+                if (workPending) {
+                    droppedBlocks++;
+                    return;
+                }
+                // Swap the full block to the worker and keep filling the other buffer
+                double[] v = workVolt, a = workAmp;
+                workVolt = fillVolt;
+                workAmp = fillAmp;
+                fillVolt = v;
+                fillAmp = a;
+                workDurationNanos = duration;
+                workPending = true;
+                lock.notifyAll();
+            }
+        }
+    }
+
+    public long getDroppedBlocks() { return droppedBlocks; }
+
+    public int getBlockSize() { return blockSize; }
+
+    private void workerLoop() {
+        while (running) {
+            synchronized (lock) {
+                while (running && !workPending) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (!running) return;
+            }
+
+            boolean traced = Tracing.begin("ripple FFT");
+            try {
+                analyze(workVolt, workAmp, workDurationNanos);
+                if (listener != null) {
+                    listener.onRippleAnalyzed(result);
+                }
+            } catch (Exception e) {
+                if (listener != null) {
+                    listener.onRippleFailed(e);
+                }
+            } finally {
+                Tracing.end(traced);
+            }
+
+            synchronized (lock) {
+                workPending = false;
+            }
+        }
+    }
+
+    // Runs on the worker; public so it can be driven directly from tests and benchmarks
+    public Result analyze(double[] volt, double[] amp, long durationNanos) {
+        long startNanos = System.nanoTime();
+
+        double sampleRate = durationNanos > 0 ? (blockSize - 1) * 1e9 / durationNanos : 0.0;
+        result.sampleRateHz = sampleRate;
+        result.binHz = sampleRate / blockSize;
+
+        result.voltRipplePp = analyzeChannel(volt, result.voltSpectrum);
+        result.dominantVoltHz = dominantBin(result.voltSpectrum) * result.binHz;
+        result.ampRipplePp = analyzeChannel(amp, result.ampSpectrum);
+        result.dominantAmpHz = dominantBin(result.ampSpectrum) * result.binHz;
+
+        long elapsed = System.nanoTime() - startNanos;
+        result.blocksPerSecond = elapsed > 0 ? 1e9 / elapsed : 0.0;
+        result.droppedBlocks = droppedBlocks;
+        return result;
+    }
+
+    // Fills spectrum with single-sided amplitudes and returns the peak-to-peak ripple
+    private double analyzeChannel(double[] samples, float[] spectrum) {
+        double mean = 0;
+        double min = samples[0], max = samples[0];
+        for (int i = 0; i < blockSize; i++) {
+            double v = samples[i];
+            mean += v;
+            if (v < min) min = v;
+            if (v > max) max = v;
+        }
+        mean /= blockSize;
+
+        for (int i = 0; i < blockSize; i++) {
+            windowed[i] = (samples[i] - mean) * hann[i];
+        }
+        fft.magnitudes(windowed, mags);
+
+        double scale = 2.0 / (blockSize * hannGain);
+        for (int k = 0; k < mags.length; k++) {
+            spectrum[k] = (float) (mags[k] * scale);
+        }
+        spectrum[0] = 0f;
+        return max - min;
+    }
+
+    private static int dominantBin(float[] spectrum) {
+        int best = 1;
+        for (int k = 2; k < spectrum.length; k++) {
+            if (spectrum[k] > spectrum[best]) best = k;
+        }
+        return best;
+    }
+
+    public static class Result {
+        public double sampleRateHz;
+        public double binHz;
+        public double dominantVoltHz;
+        public double dominantAmpHz;
+        public double voltRipplePp;
+        public double ampRipplePp;
+        public double blocksPerSecond;
+        public long droppedBlocks;
+        public final float[] voltSpectrum;
+        public final float[] ampSpectrum;
+
+        Result(int bins) {
+            voltSpectrum = new float[bins];
+            ampSpectrum = new float[bins];
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package pollob.voltify.telemetry;
+
+/**
+ * Fixed-capacity samples for live charts: one time axis shared by any number of value
+ * channels. Appends are O(1) and never allocate; once full, the oldest sample is overwritten.
+ * Samples keep their absolute index since the buffer was created, so a reader can hold on to
+ * a position while the buffer wraps; [getFirst(), getWritten()) are available.
+ *
+ * One thread appends. A reader on another thread may read indices below a getWritten() it has
+ * seen without a lock, provided the writer has not lapped them, i.e. it stays less than a
+ * capacity behind.
+ */
+public class SeriesRingBuffer {
+    private final int mask;
+    private final double[] xs;
+    private final float[][] ys;
+    // Written after the sample, so readers that see it see the sample too
+    private volatile long written = 0;
+    private volatile long cleared = 0;
+
+    public SeriesRingBuffer(int capacity, int channels) {
+        if (capacity < 1 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Capacity must be a power of two");
+        }
+        if (channels < 1) {
+            throw new IllegalArgumentException("Channels must be >= 1");
+        }
+        this.mask = capacity - 1;
+        this.xs = new double[capacity];
+        this.ys = new float[channels][capacity];
+    }
+
+    // values holds one entry per channel
+    public void add(double x, float[] values) {
+        long index = written;
+        int p = (int) (index & mask);
+        xs[p] = x;
+        for (int c = 0; c < ys.length; c++) {
+            ys[c][p] = values[c];
+        }
+        written = index + 1;
+    }
+
+    // Drops every sample; indices carry on from where they were
+    public void clear() {
+        cleared = written;
+    }
+
+    public long getWritten() { return written; }
+
+    // Oldest index still held
+    public long getFirst() {
+        long end = written;
+        return Math.max(cleared, end - xs.length);
+    }
+
+    public int size() { return (int) (written - getFirst()); }
+
+    public int capacity() { return xs.length; }
+
+    public int channels() { return ys.length; }
+
+    public boolean isEmpty() { return size() == 0; }
+
+    public double getX(long index) { return xs[(int) (index & mask)]; }
+
+    public float getY(int channel, long index) { return ys[channel][(int) (index & mask)]; }
+
+    // Time of the newest sample; only meaningful when not empty
+    public double getLastX() { return getX(written - 1); }
+}
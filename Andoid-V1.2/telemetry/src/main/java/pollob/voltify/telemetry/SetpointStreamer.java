@@ -0,0 +1,236 @@
+package pollob.voltify.telemetry;
+
+import pollob.voltify.protocol.SetpointCommand;
+
+/**
+ * Streams setpoints to the device while a slider is dragged. One write is in flight at a
+ * time: the next starts once the transport reports the previous one complete (or after
+ * WRITE_TIMEOUT_NANOS without a completion) and never sooner than MIN_INTERVAL_NANOS after it.
+ * Only the newest offered value is kept, so positions passed while a write was in flight are
+ * coalesced away, and a value whose write fails is sent again, up to MAX_RETRIES times,
+ * unless a newer one replaced it.
+ *
+ * As a bus subscriber it watches for the device echoing the last written set values in
+ * telemetry; the time from write to echo is the echo latency.
+ *
+ * With echoAcknowledged the writer is expected to use writes without response: their completion
+ * only says the write left the phone, so the echo is the acknowledgement. Writes still wait for
+ * that completion, which paces them to what the link accepts. If telemetry still reports other
+ * set values ECHO_TIMEOUT_NANOS after the last write, that write is sent again.
+ */
+public class SetpointStreamer implements TelemetryBus.Subscriber {
+    private static final String TAG = "SetpointStreamer";
+    // Fallback for a transport that never reports completion
+    static final long WRITE_TIMEOUT_NANOS = 500_000_000L;
+    // Spacing between writes even when completions come back faster
+    static final long MIN_INTERVAL_NANOS = 20_000_000L;
+    // Telemetry interval plus link latency, with margin
+    static final long ECHO_TIMEOUT_NANOS = 300_000_000L;
+    static final int MAX_RETRIES = 5;
+    // One step of the setpoint fields, a millivolt or a milliamp
+    private static final double SETPOINT_STEP = 0.001;
+    // The echo is what the device was sent. v2 frames round to the nearest step, so they are
+    // off by at most half of one; v1 frames truncate, off by just under a whole step. The other
+    // half step keeps floating-point error at that boundary from failing a match.
+    private static final double ECHO_TOLERANCE = SETPOINT_STEP + SETPOINT_STEP / 2;
+
+    public interface SetpointWriter {
+        // Starts a write; false if it could not be started
+        boolean write(SetpointCommand command);
+    }
+
+    private final SetpointWriter writer;
+    private final boolean echoAcknowledged;
+
+    private final Object lock = new Object();
+    private SetpointCommand pending;
+    // Last command handed to the writer, resent if its write fails
+    private SetpointCommand written;
+    private int retries = 0;
+    private boolean inFlight = false;
+    private long writeStartNanos;
+    private boolean running = false;
+    private Thread worker;
+
+    // Written command not yet seen in telemetry, and when it went out
+    private SetpointCommand awaitingEcho;
+    private long awaitingEchoNanos;
+
+    private volatile long offered = 0;
+    private volatile long writes = 0;
+    private volatile long coalesced = 0;
+    private volatile long failures = 0;
+    private volatile long retransmits = 0;
+    private volatile long echoes = 0;
+    private volatile long lastEchoNanos = -1;
+
+    public SetpointStreamer(SetpointWriter writer) {
+        this(writer, false);
+    }
+
+    public SetpointStreamer(SetpointWriter writer, boolean echoAcknowledged) {
+        this.writer = writer;
+        this.echoAcknowledged = echoAcknowledged;
+        // So the first write goes out at once
+        this.writeStartNanos = System.nanoTime() - WRITE_TIMEOUT_NANOS;
+    }
+
+    public void start() {
+        synchronized (lock) {
+            if (running) return;
+            running = true;
+            worker = new Thread(this::workerLoop, TAG);
+            worker.setDaemon(true);
+            worker.start();
+        }
+    }
+
+    // Drops anything not yet written
+    public void stop() {
+        synchronized (lock) {
+            running = false;
+            pending = null;
+            inFlight = false;
+            lock.notifyAll();
+            worker = null;
+        }
+    }
+
+    /**
+     * Queues command, replacing any value not yet written. The newest value is always written
+     * eventually, so offering the value a drag ended on leaves the device on it.
+     */
+    public void offer(SetpointCommand command) {
+        synchronized (lock) {
+            if (pending != null) {
+                coalesced++;
+            }
+            pending = command;
+            retries = 0;
+            offered++;
+            lock.notifyAll();
+        }
+        start();
+    }
+
+    /** Called by the transport when the in-flight write has completed. */
+    public void onWriteComplete(boolean success) {
+        synchronized (lock) {
+            if (!inFlight) return;
+            inFlight = false;
+            if (!success) {
+                failures++;
+                retry(written);
+            }
+            lock.notifyAll();
+        }
+    }
+
+    @Override
+    public void onTelemetry(TelemetrySnapshot snapshot) {
+        synchronized (lock) {
+            if (awaitingEcho == null) return;
+            if (!echoes(awaitingEcho, snapshot)) {
+                if (echoAcknowledged && pending == null && running
+                        && snapshot.getReceivedNanos() - awaitingEchoNanos >= ECHO_TIMEOUT_NANOS) {
+                    // Lost on the way; the next write restarts the timeout
+                    retry(awaitingEcho);
+                    if (pending != null) {
+                        retransmits++;
+                        if (Metrics.enabled) Metrics.SETPOINT_RETRANSMITS.increment();
+                        lock.notifyAll();
+                    }
+                }
+                return;
+            }
+            long latency = snapshot.getReceivedNanos() - awaitingEchoNanos;
+            awaitingEcho = null;
+            if (latency < 0) return;
+            lastEchoNanos = latency;
+            echoes++;
+            if (Metrics.enabled) Metrics.SETPOINT_ECHO.record(latency);
+        }
+    }
+
+    public boolean isIdle() {
+        synchronized (lock) {
+            return pending == null && !inFlight;
+        }
+    }
+
+    public long getOffered() { return offered; }
+    public long getWrites() { return writes; }
+    public long getCoalesced() { return coalesced; }
+    public long getFailures() { return failures; }
+    public long getRetransmits() { return retransmits; }
+    public long getEchoes() { return echoes; }
+    // Write to echo of the last confirmed setpoint, or -1 before the first
+    public long getLastEchoNanos() { return lastEchoNanos; }
+
+    // The device clamps the set values to the limits before reporting them
+    private static boolean echoes(SetpointCommand command, TelemetrySnapshot snapshot) {
+        return Math.abs(Math.min(command.setVolt, command.maxVolt) - snapshot.getSetVolt()) < ECHO_TOLERANCE
+                && Math.abs(Math.min(command.setAmp, command.maxAmp) - snapshot.getSetAmp()) < ECHO_TOLERANCE;
+    }
+
+    private void workerLoop() {
+        while (true) {
+            SetpointCommand command;
+            long now;
+            synchronized (lock) {
+                while (true) {
+                    if (!running) return;
+                    now = System.nanoTime();
+                    if (pending != null) {
+                        long readyAt = writeStartNanos + (inFlight ? WRITE_TIMEOUT_NANOS : MIN_INTERVAL_NANOS);
+                        if (now - readyAt >= 0) break;
+                        waitNanos(readyAt - now);
+                    } else {
+                        waitNanos(0);
+                    }
+                }
+                command = pending;
+                pending = null;
+                written = command;
+                inFlight = true;
+                writeStartNanos = now;
+            }
+
+            boolean started = writer.write(command);
+            synchronized (lock) {
+                if (started) {
+                    writes++;
+                    awaitingEcho = command;
+                    awaitingEchoNanos = now;
+                    if (Metrics.enabled) Metrics.SETPOINT_WRITES.increment();
+                } else {
+                    // Not started, so no completion will come; retried after MIN_INTERVAL_NANOS
+                    inFlight = false;
+                    failures++;
+                    retry(command);
+                }
+            }
+        }
+    }
+
+    // Holding lock
+    private void retry(SetpointCommand command) {
+        if (pending == null && retries < MAX_RETRIES) {
+            retries++;
+            pending = command;
+        }
+    }
+
+    // Holding lock; 0 waits until notified
+    private void waitNanos(long nanos) {
+        try {
+            if (nanos == 0) {
+                lock.wait();
+            } else {
+                lock.wait(nanos / 1_000_000L, (int) (nanos % 1_000_000L));
+            }
+        } catch (InterruptedException e) {
+            running = false;
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package pollob.voltify.telemetry;
+
+/**
+ * O(1)-per-sample statistics for one telemetry channel.
+ * With a window size > 0 the stats cover the last windowSize samples (sliding Welford,
+ * monotonic deques for min/max); with windowSize == 0 they cover the whole session.
+ * Memory is fixed at construction time in both modes.
+ */
+public class StreamingStats {
+    private final int windowSize;
+    private final QuantileSketch sketch;
+
+    // Sliding window samples (windowed mode only)
+    private final double[] window;
+    private long sampleIndex = 0;
+    private int evictionsSinceRebuild = 0;
+
+    // Welford state
+    private long count = 0;
+    private double mean = 0.0;
+    private double m2 = 0.0;
+
+    // Monotonic deques of sample indices (windowed mode) or plain extremes (session mode)
+    private final long[] minDeque;
+    private final long[] maxDeque;
+    private int minHead = 0, minSize = 0;
+    private int maxHead = 0, maxSize = 0;
+    private double sessionMin = Double.NaN;
+    private double sessionMax = Double.NaN;
+
+    public StreamingStats(int windowSize, double sketchMin, double sketchMax, int sketchBins) {
+        if (windowSize < 0) {
+            throw new IllegalArgumentException("Window size must be >= 0");
+        }
+        this.windowSize = windowSize;
+        this.sketch = new QuantileSketch(sketchMin, sketchMax, sketchBins);
+        this.window = windowSize > 0 ? new double[windowSize] : null;
+        this.minDeque = windowSize > 0 ? new long[windowSize] : null;
+        this.maxDeque = windowSize > 0 ? new long[windowSize] : null;
+    }
+
+    public void add(double value) {
+        if (window == null) {
+            welfordAdd(value);
+            sketch.add(value);
+            if (count == 1 || value < sessionMin) sessionMin = value;
+            if (count == 1 || value > sessionMax) sessionMax = value;
+            sampleIndex++;
+            return;
+        }
+
+        int slot = (int) (sampleIndex % windowSize);
+        if (sampleIndex >= windowSize) {
+            double evicted = window[slot];
+            welfordRemove(evicted);
+            sketch.remove(evicted);
+            evictionsSinceRebuild++;
+        }
+        window[slot] = value;
+        welfordAdd(value);
+        sketch.add(value);
+
+        pushMin(value);
+        pushMax(value);
+        sampleIndex++;
+
+        // Sliding Welford drifts over very long sessions; re-derive it once per full window
+        if (evictionsSinceRebuild >= windowSize) {
+            rebuildMoments();
+        }
+    }
+
+    public void reset() {
+        sampleIndex = 0;
+        evictionsSinceRebuild = 0;
+        count = 0;
+        mean = 0.0;
+        m2 = 0.0;
+        minHead = minSize = 0;
+        maxHead = maxSize = 0;
+        sessionMin = Double.NaN;
+        sessionMax = Double.NaN;
+        sketch.clear();
+    }
+
+    public long getCount() { return count; }
+    public double getMean() { return count > 0 ? mean : Double.NaN; }
+    public double getVariance() { return count > 1 ? m2 / (count - 1) : 0.0; }
+    public double getStdDev() { return Math.sqrt(getVariance()); }
+
+    public double getRms() {
+        if (count == 0) return Double.NaN;
+        // mean of squares = population variance + mean^2
+        return Math.sqrt(Math.max(0.0, m2 / count + mean * mean));
+    }
+
+    public double getMin() {
+        if (window == null) return sessionMin;
+        return minSize > 0 ? valueAt(minDeque[minHead]) : Double.NaN;
+    }
+
+    public double getMax() {
+        if (window == null) return sessionMax;
+        return maxSize > 0 ? valueAt(maxDeque[maxHead]) : Double.NaN;
+    }
+
+    public double getPercentile(double q) { return sketch.quantile(q); }
+    public double getPercentileAccuracy() { return sketch.getAccuracy(); }
+
+    public Summary summary() {
+        return new Summary(count, getMin(), getMax(), getMean(), getStdDev(), getRms(),
+                sketch.quantile(0.50), sketch.quantile(0.95), sketch.quantile(0.99));
+    }
+
+    private void welfordAdd(double value) {
+        count++;
+        double delta = value - mean;
+        mean += delta / count;
+        m2 += delta * (value - mean);
+    }
+
+    private void welfordRemove(double value) {
+        if (count <= 1) {
+            count = 0;
+            mean = 0.0;
+            m2 = 0.0;
+            return;
+        }
+        count--;
+        double delta = value - mean;
+        mean -= delta / count;
+        m2 -= delta * (value - mean);
+        if (m2 < 0) m2 = 0;
+    }
+
+    private void rebuildMoments() {
+        evictionsSinceRebuild = 0;
+        count = 0;
+        mean = 0.0;
+        m2 = 0.0;
+        for (double v : window) {
+            welfordAdd(v);
+        }
+    }
+
+    private double valueAt(long index) {
+        return window[(int) (index % windowSize)];
+    }
+
+    private void pushMin(double value) {
+        long oldest = sampleIndex - windowSize;
+        if (minSize > 0 && minDeque[minHead] <= oldest) {
+            minHead = (minHead + 1) % windowSize;
+            minSize--;
+        }
+        while (minSize > 0 && valueAt(minDeque[(minHead + minSize - 1) % windowSize]) >= value) {
+            minSize--;
+        }
+        minDeque[(minHead + minSize) % windowSize] = sampleIndex;
+        minSize++;
+    }
+
+    private void pushMax(double value) {
+        long oldest = sampleIndex - windowSize;
+        if (maxSize > 0 && maxDeque[maxHead] <= oldest) {
+            maxHead = (maxHead + 1) % windowSize;
+            maxSize--;
+        }
+        while (maxSize > 0 && valueAt(maxDeque[(maxHead + maxSize - 1) % windowSize]) <= value) {
+            maxSize--;
+        }
+        maxDeque[(maxHead + maxSize) % windowSize] = sampleIndex;
+        maxSize++;
+    }
+
+    public static class Summary {
+        public final long count;
+        public final double min, max, mean, stdDev, rms;
+        public final double p50, p95, p99;
+
+        public Summary(long count, double min, double max, double mean, double stdDev, double rms,
+                       double p50, double p95, double p99) {
+            this.count = count;
+            this.min = min;
+            this.max = max;
+            this.mean = mean;
+            this.stdDev = stdDev;
+            this.rms = rms;
+            this.p50 = p50;
+            this.p95 = p95;
+            this.p99 = p99;
+        }
+    }
+}
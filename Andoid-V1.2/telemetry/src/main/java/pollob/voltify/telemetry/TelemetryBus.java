@@ -0,0 +1,215 @@
+package pollob.voltify.telemetry;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Fan-out of published telemetry to independent consumers (UI, charts, recorder, watchdog,
+ * exporters). Every subscription has its own bounded queue of preallocated snapshots and its
+ * own delivery thread, so a slow consumer only ever fills its own queue.
+ *
+ * Queue policies:
+ * - DROP_OLDEST: a full queue discards its oldest sample; for consumers that want every sample
+ *   but must not hold anything up, such as charts.
+ * - LATEST_ONLY: a one-slot queue that is overwritten; for readouts and watchdogs that only care
+ *   about the newest value.
+ * - BLOCK: the publisher waits for space, up to BLOCK_TIMEOUT_MILLIS, then drops the sample for
+ *   that subscriber; only for publishers that can afford to wait, such as tests. Blocking
+ *   subscribers are served after all others, so their back-pressure never delays the current
+ *   sample for anyone else. Anything fed from the Bluetooth thread uses a deep DROP_OLDEST
+ *   queue instead and watches getDropped().
+ */
+public class TelemetryBus {
+    private static final String TAG = "TelemetryBus";
+    // Longest a BLOCK subscriber can hold up the publishing (Bluetooth) thread per sample
+    static final long BLOCK_TIMEOUT_MILLIS = 100;
+
+    public enum Policy { BLOCK, DROP_OLDEST, LATEST_ONLY }
+
+    public interface Subscriber {
+        // Called on the subscription's own thread with a snapshot it owns until the call returns
+        void onTelemetry(TelemetrySnapshot snapshot);
+    }
+
+    private final CopyOnWriteArrayList<Subscription> immediate = new CopyOnWriteArrayList<>();
+    private final CopyOnWriteArrayList<Subscription> blocking = new CopyOnWriteArrayList<>();
+
+    /**
+     * Starts delivering to subscriber on a new thread named after the subscription.
+     * capacity is ignored for LATEST_ONLY, which always keeps one sample.
+     */
+    public Subscription subscribe(String name, int capacity, Policy policy, Subscriber subscriber) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be >= 1");
+        }
+        Subscription subscription = new Subscription(this, name, policy == Policy.LATEST_ONLY ? 1 : capacity,
+                policy, subscriber);
+        (policy == Policy.BLOCK ? blocking : immediate).add(subscription);
+        subscription.start();
+        return subscription;
+    }
+
+    // Publishing thread only; snapshot must not be recycled until this returns
+    public void publish(TelemetrySnapshot snapshot) {
+        for (Subscription subscription : immediate) {
+            subscription.offer(snapshot);
+        }
+        for (Subscription subscription : blocking) {
+            subscription.offer(snapshot);
+        }
+    }
+
+    // Stops every subscription after it has delivered what is already queued
+    public void close() {
+        for (Subscription subscription : immediate) {
+            subscription.close();
+        }
+        for (Subscription subscription : blocking) {
+            subscription.close();
+        }
+    }
+
+    public int getSubscriberCount() {
+        return immediate.size() + blocking.size();
+    }
+
+    private void remove(Subscription subscription) {
+        immediate.remove(subscription);
+        blocking.remove(subscription);
+    }
+
+    public static final class Subscription {
+        private final TelemetryBus bus;
+        private final String name;
+        private final Policy policy;
+        private final Subscriber subscriber;
+
+        // Ring of preallocated slots; head is the next to deliver, tail the next to fill
+        private final TelemetrySnapshot[] ring;
+        private long head = 0, tail = 0;
+        private boolean closed = false;
+        private final Object lock = new Object();
+        // Owned by the delivery thread
+        private final TelemetrySnapshot current = new TelemetrySnapshot();
+        private Thread worker;
+
+        private volatile long delivered = 0;
+        private volatile long dropped = 0;
+        private volatile long failures = 0;
+        // Same counter across resubscriptions under one name
+        private final Counter droppedCounter;
+
+        private Subscription(TelemetryBus bus, String name, int capacity, Policy policy, Subscriber subscriber) {
+            this.bus = bus;
+            this.name = name;
+            this.policy = policy;
+            this.subscriber = subscriber;
+            this.droppedCounter = Metrics.REGISTRY.counter(Metrics.BUS_DROPPED_PREFIX + name);
+            this.ring = new TelemetrySnapshot[capacity];
+            for (int i = 0; i < capacity; i++) {
+                ring[i] = new TelemetrySnapshot();
+            }
+        }
+
+        private void start() {
+            worker = new Thread(this::deliveryLoop, TAG + "-" + name);
+            worker.setDaemon(true);
+            worker.start();
+        }
+
+        private void offer(TelemetrySnapshot snapshot) {
+            synchronized (lock) {
+                if (closed) return;
+                if (tail - head == ring.length) {
+                    if (policy != Policy.BLOCK) {
+                        head++; // overwrite the oldest
+                        countDrop();
+                    } else if (!awaitSpace()) {
+                        countDrop();
+                        return;
+                    }
+                }
+                ring[(int) (tail % ring.length)].copyFrom(snapshot);
+                tail++;
+                lock.notifyAll();
+            }
+        }
+
+        private void countDrop() {
+            dropped++;
+            if (Metrics.enabled) droppedCounter.increment();
+        }
+
+        // Holding lock; false if the queue is still full after BLOCK_TIMEOUT_MILLIS
+        private boolean awaitSpace() {
+            long deadline = System.nanoTime() + BLOCK_TIMEOUT_MILLIS * 1_000_000L;
+            while (tail - head == ring.length && !closed) {
+                long remainingMillis = (deadline - System.nanoTime()) / 1_000_000L;
+                if (remainingMillis <= 0) return false;
+                try {
+                    lock.wait(remainingMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+            return !closed;
+        }
+
+        private void deliveryLoop() {
+            while (true) {
+                synchronized (lock) {
+                    while (head == tail && !closed) {
+                        try {
+                            lock.wait();
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                    }
+                    if (head == tail) return; // closed and drained
+                    current.copyFrom(ring[(int) (head % ring.length)]);
+                    head++;
+                    lock.notifyAll();
+                }
+                try {
+                    subscriber.onTelemetry(current);
+                    delivered++;
+                } catch (RuntimeException e) {
+                    // One bad sample must not stop the subscription
+                    failures++;
+                }
+            }
+        }
+
+        // Delivers what is queued, then stops the thread and leaves the bus
+        public void close() {
+            Thread t;
+            synchronized (lock) {
+                if (closed) return;
+                closed = true;
+                lock.notifyAll();
+                t = worker;
+            }
+            bus.remove(this);
+            if (t != null && t != Thread.currentThread()) {
+                try {
+                    t.join(1000);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        public int getQueued() {
+            synchronized (lock) {
+                return (int) (tail - head);
+            }
+        }
+
+        public String getName() { return name; }
+        public Policy getPolicy() { return policy; }
+        public int getCapacity() { return ring.length; }
+        public long getDelivered() { return delivered; }
+        public long getDropped() { return dropped; }
+        public long getFailures() { return failures; }
+    }
+}
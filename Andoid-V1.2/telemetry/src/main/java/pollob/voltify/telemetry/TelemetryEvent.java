@@ -0,0 +1,59 @@
+package pollob.voltify.telemetry;
+
+/**
+ * A notable moment in the telemetry stream, positioned by sample index and by
+ * time since the start of its session.
+ */
+public class TelemetryEvent {
+    public enum Type {
+        CV_TO_CC,
+        CC_TO_CV,
+        OUTPUT_DROPOUT,
+        OUTPUT_RECOVERED,
+        CURRENT_SPIKE,
+        TELEMETRY_GAP,
+        GAP_BACKFILLED
+    }
+
+    public final Type type;
+    public final long sampleIndex;
+    public final long sessionMillis;
+    public final double volt;
+    public final double amp;
+    public final double detail; // z-score for spikes, gap length in ms for gaps and backfills, 0 otherwise
+
+    public TelemetryEvent(Type type, long sampleIndex, long sessionMillis, double volt, double amp, double detail) {
+        this.type = type;
+        this.sampleIndex = sampleIndex;
+        this.sessionMillis = sessionMillis;
+        this.volt = volt;
+        this.amp = amp;
+        this.detail = detail;
+    }
+
+    public String describe() {
+        switch (type) {
+            case CV_TO_CC: return "CV -> CC";
+            case CC_TO_CV: return "CC -> CV";
+            case OUTPUT_DROPOUT: return String.format("Output dropout (%.3f V)", volt);
+            case OUTPUT_RECOVERED: return String.format("Output recovered (%.3f V)", volt);
+            case CURRENT_SPIKE: return String.format("Current spike %.3f A (z=%.1f)", amp, detail);
+            case TELEMETRY_GAP: return String.format("Telemetry gap %.0f ms", detail);
+            case GAP_BACKFILLED: return String.format("Gap of %.0f ms backfilled", detail);
+            default: return type.name();
+        }
+    }
+
+    public String toCsv() {
+        return type.name() + "," + sampleIndex + "," + sessionMillis + "," + volt + "," + amp + "," + detail;
+    }
+
+    public static TelemetryEvent fromCsv(String line) {
+        String[] parts = line.split(",");
+        if (parts.length != 6) {
+            throw new IllegalArgumentException("Invalid event line: " + line);
+        }
+        return new TelemetryEvent(Type.valueOf(parts[0]), Long.parseLong(parts[1]), Long.parseLong(parts[2]),
+                Double.parseDouble(parts[3]), Double.parseDouble(parts[4]), Double.parseDouble(parts[5]));
+    }
+}
@@ -0,0 +1,367 @@
+package pollob.voltify.telemetry;
+
+import pollob.voltify.protocol.ProtocolCodec;
+import pollob.voltify.protocol.ProtocolException;
+import pollob.voltify.protocol.TelemetryFrame;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Everything a telemetry notification goes through before the UI sees it: decode,
+ * timestamping, statistics, ripple analysis, event detection and the capacity test.
+ * process() runs on the thread that delivers notifications and only decodes, timestamps and
+ * publishes; kept free of Android so the whole chain can be driven by SimulatedEsp32 in plain
+ * JVM tests.
+ * Each decoded sample is published to getState() and fanned out on getBus(), where consumers
+ * subscribe with their own queue and threading instead of running on this thread. Statistics,
+ * ripple, events and the capacity test are the pipeline's own "analysis" subscriber, so the
+ * listener callbacks come from that thread.
+ * After onLinkLost() samples go through a BackfillMerger, so the ones the device buffered during
+ * the outage are slotted in ahead of the live ones from the new connection.
+ * Session starts may be requested from any thread; the notification thread applies them ahead
+ * of its next frame and the analysis thread ahead of that frame's sample.
+ */
+public class TelemetryPipeline {
+    // Sample timestamps: device ticks (or sample index on 12-byte frames) mapped to phone time
+    private static final int CLOCK_SYNC_WINDOW = 500;
+    // Streaming statistics
+    private static final int STATS_WINDOW_SIZE = 600;
+    private static final int STATS_PUBLISH_INTERVAL = 10;
+    // Ripple analysis
+    private static final int RIPPLE_BLOCK_SIZE = 256;
+    // About four seconds at 1 kHz before the analysis thread starts losing samples
+    private static final int ANALYSIS_QUEUE_CAPACITY = 4096;
+    public static final String ANALYSIS_SUBSCRIPTION = "analysis";
+
+    public interface PipelineListener {
+        void onStatistics(TelemetryStats.Snapshot windowStats, TelemetryStats.Snapshot sessionStats);
+        void onRipple(RippleAnalyzer.Result result);
+        void onEvent(TelemetryEvent event);
+        void onDecodeError(byte[] data, ProtocolException e);
+        void onRippleFailed(Exception e);
+        // Analysis thread, before the first sample of a session that started at startNanos
+        void onSessionStarted(long startNanos);
+    }
+
+    private final PipelineListener listener;
+
+    // Decode target, reused for every notification
+    private final TelemetryFrame frame = new TelemetryFrame();
+    // Published samples for readers on other threads
+    private final TelemetryState state = new TelemetryState();
+    private final TelemetryBus bus = new TelemetryBus();
+
+    // Owned by the notification thread
+    private final ClockSync clockSync = new ClockSync(CLOCK_SYNC_WINDOW);
+    private long sampleCount = 0;
+    private long chartOriginNanos = -1;
+
+    // Session requests from other threads, taken up by the notification thread before its next frame
+    private final AtomicBoolean sessionRequested = new AtomicBoolean();
+    private final AtomicBoolean connectRequested = new AtomicBoolean();
+    private volatile long requestedStartNanos;
+
+    // Owned by the analysis thread
+    private final TelemetryStats windowStats = new TelemetryStats(STATS_WINDOW_SIZE);
+    private final TelemetryStats sessionStats = new TelemetryStats(0);
+    private int samplesSinceStatsPublish = 0;
+    private double lastVolt, lastAmp;
+    // Analysis drops already passed on to the capacity test
+    private long droppedSeen = 0;
+
+    private final RippleAnalyzer rippleAnalyzer;
+    private final EventDetector eventDetector;
+    private final TelemetryBus.Subscription analysis;
+
+    // Requests for the analysis thread, taken up before the sample they apply from
+    private volatile boolean statsResetPending = false;
+    private final ConcurrentLinkedQueue<SessionStart> sessionStarts = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<ClosedGap> closedGaps = new ConcurrentLinkedQueue<>();
+
+    // Battery capacity test, set per run
+    private volatile CapacityTest capacityTest;
+
+    private final BackfillMerger backfill;
+    // Whether the last live notification decoded, when it was not held back
+    private boolean decoded;
+
+    private volatile long framesProcessed = 0;
+    private volatile long decodeErrors = 0;
+
+    // A gap the backfill recovered samples for, reported ahead of the sample with this sequence
+    private static final class ClosedGap {
+        final long sequence;
+        final long gapMillis;
+
+        ClosedGap(long sequence, long gapMillis) {
+            this.sequence = sequence;
+            this.gapMillis = gapMillis;
+        }
+    }
+
+    // A session that starts at phone time startNanos with the sample with this sequence
+    private static final class SessionStart {
+        final long sequence;
+        final long startNanos;
+
+        SessionStart(long sequence, long startNanos) {
+            this.sequence = sequence;
+            this.startNanos = startNanos;
+        }
+    }
+
+    public TelemetryPipeline(PipelineListener listener) {
+        this.listener = listener;
+        this.rippleAnalyzer = new RippleAnalyzer(RIPPLE_BLOCK_SIZE, new RippleAnalyzer.RippleListener() {
+            @Override
+            public void onRippleAnalyzed(RippleAnalyzer.Result result) {
+                listener.onRipple(result);
+            }
+
+            @Override
+            public void onRippleFailed(Exception e) {
+                listener.onRippleFailed(e);
+            }
+        });
+        this.eventDetector = new EventDetector(listener::onEvent);
+        this.backfill = new BackfillMerger(new BackfillMerger.FrameSink() {
+            @Override
+            public void onFrame(byte[] data, int offset, int length, long receivedNanos) {
+                decoded = processFrame(data, offset, length, receivedNanos);
+            }
+
+            @Override
+            public void onGapClosed(long fromDeviceMillis, long toDeviceMillis, int recovered) {
+                if (recovered > 0) {
+                    closedGaps.add(new ClosedGap(state.getSequence() + 1, toDeviceMillis - fromDeviceMillis));
+                }
+            }
+        });
+        this.analysis = bus.subscribe(ANALYSIS_SUBSCRIPTION, ANALYSIS_QUEUE_CAPACITY,
+                TelemetryBus.Policy.DROP_OLDEST, this::analyze);
+    }
+
+    public void start() {
+        rippleAnalyzer.start();
+    }
+
+    // Drains the bus, analysis included, before the ripple worker stops
+    public void release() {
+        bus.close();
+        rippleAnalyzer.stop();
+    }
+
+    // Starts a new session from the next notification
+    public void startSession(long nowNanos) {
+        requestedStartNanos = nowNanos;
+        sessionRequested.set(true);
+    }
+
+    /**
+     * A connection came up. Starts a new session from the next notification, unless the link
+     * dropped mid-session with a backfill to come; that is decided on the notification thread,
+     * so it cannot race the link loss being taken up there.
+     */
+    public void onConnected(long nowNanos) {
+        requestedStartNanos = nowNanos;
+        connectRequested.set(true);
+    }
+
+    /**
+     * The link dropped mid-session. Samples from the next connection are held until
+     * requestBackfill() has been answered or abandonBackfill() is called.
+     */
+    public void onLinkLost() {
+        backfill.linkLost();
+    }
+
+    // Device millis to backfill after, or -1 if there is no gap; call on the notification thread
+    public long requestBackfill() {
+        return backfill.requestBackfill();
+    }
+
+    // The device cannot backfill; call on the notification thread
+    public void abandonBackfill() {
+        backfill.abandon();
+    }
+
+    public boolean isBackfillPending() {
+        return backfill.isHolding();
+    }
+
+    // Takes effect from the next analyzed sample
+    public void resetStatistics() {
+        statsResetPending = true;
+    }
+
+    public void setCapacityTest(CapacityTest test) {
+        capacityTest = test;
+    }
+
+    public CapacityTest getCapacityTest() {
+        return capacityTest;
+    }
+
+    /**
+     * Handles one notification received at receivedNanos (System.nanoTime units): a telemetry
+     * frame or a chunk of backfilled ones. Returns false if it could not be decoded.
+     */
+    public boolean process(byte[] data, long receivedNanos) {
+        takeSessionRequest();
+        if (ProtocolCodec.isBackfillData(data)) {
+            try {
+                backfill.onBackfill(data);
+                return true;
+            } catch (ProtocolException e) {
+                decodeErrors++;
+                if (Metrics.enabled) Metrics.DECODE_ERRORS.increment();
+                listener.onDecodeError(data, e);
+                return false;
+            }
+        }
+        decoded = true;
+        backfill.onLive(data, receivedNanos);
+        return decoded;
+    }
+
+    private boolean processFrame(byte[] data, int offset, int length, long receivedNanos) {
+        boolean measure = Metrics.enabled;
+        long decodeStart = measure ? System.nanoTime() : 0;
+        boolean traced = Tracing.begin("decode");
+        try {
+            ProtocolCodec.decodeTelemetry(data, offset, length, frame);
+        } catch (ProtocolException e) {
+            decodeErrors++;
+            if (measure) Metrics.DECODE_ERRORS.increment();
+            listener.onDecodeError(data, e);
+            return false;
+        } finally {
+            Tracing.end(traced);
+        }
+        framesProcessed++;
+        if (measure) Metrics.DECODE.record(System.nanoTime() - decodeStart);
+
+        // Firmware that appends a uint32 millisecond clock gets drift-corrected device time;
+        // plain 12-byte frames fall back to the sample index as the device tick
+        traced = Tracing.begin("clock sync");
+        long deviceTicks = frame.hasDeviceTime() ? clockSync.unwrap32(frame.deviceMillis) : sampleCount;
+        sampleCount++;
+        long sampleNanos = clockSync.map(deviceTicks, receivedNanos);
+        if (chartOriginNanos < 0) {
+            chartOriginNanos = sampleNanos;
+        }
+        Tracing.end(traced);
+
+        TelemetrySnapshot snapshot = state.publish(frame, sampleNanos, receivedNanos,
+                (sampleNanos - chartOriginNanos) / 1e9);
+
+        traced = Tracing.begin("bus publish");
+        bus.publish(snapshot);
+        Tracing.end(traced);
+        return true;
+    }
+
+    // Notification thread: a requested session starts over the timeline and the backfill anchor
+    private void takeSessionRequest() {
+        // Plain reads on the way past; the swaps only when there is something to take
+        if (!sessionRequested.get() && !connectRequested.get()) return;
+        boolean connected = connectRequested.getAndSet(false);
+        boolean requested = sessionRequested.getAndSet(false);
+        if (!requested && !(connected && !backfill.isHolding())) return;
+        clockSync.reset();
+        sampleCount = 0;
+        backfill.reset();
+        chartOriginNanos = -1;
+        sessionStarts.add(new SessionStart(state.getSequence() + 1, requestedStartNanos));
+    }
+
+    // Analysis subscriber: statistics, ripple, events and the capacity test for one sample
+    private void analyze(TelemetrySnapshot snapshot) {
+        takeRequests(snapshot.getSequence());
+        boolean measure = Metrics.enabled;
+        long aggregationStart = measure ? System.nanoTime() : 0;
+        long sampleNanos = snapshot.getSampleNanos();
+        double volt = snapshot.getOutputVolt(), amp = snapshot.getOutputAmp();
+        boolean traced = Tracing.begin("statistics");
+        updateStatistics(volt, amp);
+        Tracing.end(traced);
+
+        traced = Tracing.begin("ripple");
+        rippleAnalyzer.addSample(sampleNanos, volt, amp);
+        Tracing.end(traced);
+
+        traced = Tracing.begin("events");
+        eventDetector.onSample(sampleNanos, volt, amp, snapshot.getSetVolt(), snapshot.getCcCv());
+        Tracing.end(traced);
+
+        CapacityTest test = capacityTest;
+        long dropped = analysis.getDropped();
+        if (dropped != droppedSeen) {
+            // The samples dropped before this one are missing from the Ah/Wh integration
+            if (test != null) test.onSamplesMissed(dropped - droppedSeen);
+            droppedSeen = dropped;
+        }
+        if (test != null) {
+            traced = Tracing.begin("capacity test");
+            test.onSample(sampleNanos, volt, amp);
+            Tracing.end(traced);
+        }
+        lastVolt = volt;
+        lastAmp = amp;
+        if (measure) {
+            Metrics.AGGREGATION.record(System.nanoTime() - aggregationStart);
+            Metrics.RIPPLE_DROPPED_BLOCKS.set(rippleAnalyzer.getDroppedBlocks());
+        }
+    }
+
+    // Analysis thread: session and statistics resets, then gaps closed before this sample
+    private void takeRequests(long sequence) {
+        SessionStart start;
+        while ((start = sessionStarts.peek()) != null && start.sequence <= sequence) {
+            sessionStarts.poll();
+            statsResetPending = true;
+            // Gaps closed in the last session, with no sample of it left to report them on
+            ClosedGap gap;
+            while ((gap = closedGaps.peek()) != null && gap.sequence <= start.sequence) {
+                closedGaps.poll();
+            }
+            eventDetector.reset(start.startNanos);
+            listener.onSessionStarted(start.startNanos);
+        }
+        if (statsResetPending) {
+            statsResetPending = false;
+            windowStats.reset();
+            sessionStats.reset();
+            samplesSinceStatsPublish = 0;
+        }
+        ClosedGap gap;
+        while ((gap = closedGaps.peek()) != null && gap.sequence <= sequence) {
+            closedGaps.poll();
+            eventDetector.onGapBackfilled(lastVolt, lastAmp, gap.gapMillis);
+        }
+    }
+
+    private void updateStatistics(double volt, double amp) {
+        windowStats.add(volt, amp);
+        sessionStats.add(volt, amp);
+
+        // Percentile queries walk the sketch, so publish at a lower rate than the samples arrive
+        if (++samplesSinceStatsPublish >= STATS_PUBLISH_INTERVAL) {
+            samplesSinceStatsPublish = 0;
+            listener.onStatistics(windowStats.snapshot(), sessionStats.snapshot());
+        }
+    }
+
+    public TelemetryState getState() { return state; }
+    public TelemetryBus getBus() { return bus; }
+    public long getFramesProcessed() { return framesProcessed; }
+    public long getDecodeErrors() { return decodeErrors; }
+    public TelemetryStats getWindowStats() { return windowStats; }
+    public TelemetryStats getSessionStats() { return sessionStats; }
+    public ClockSync getClockSync() { return clockSync; }
+    public BackfillMerger getBackfill() { return backfill; }
+    public RippleAnalyzer getRippleAnalyzer() { return rippleAnalyzer; }
+    // Samples statistics, events and the capacity test missed because the analysis queue was full
+    public long getAnalysisDropped() { return analysis.getDropped(); }
+}
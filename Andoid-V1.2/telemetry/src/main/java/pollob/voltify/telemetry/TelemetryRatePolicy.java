@@ -0,0 +1,34 @@
+package pollob.voltify.telemetry;
+
+/**
+ * Picks the notify interval to ask the device for, from what the app is doing: full rate while
+ * the live chart is on screen, a capacity test is running or a setpoint is being tuned live,
+ * a readout rate when only the numbers are shown, and a crawl in the background, a little
+ * faster while the recorder still writes history. Not thread-safe; meant for the UI thread.
+ */
+public class TelemetryRatePolicy {
+    public static final int FULL_RATE_INTERVAL_MILLIS = 20;
+    public static final int READOUT_INTERVAL_MILLIS = 200;
+    public static final int BACKGROUND_RECORDING_INTERVAL_MILLIS = 1000;
+    public static final int BACKGROUND_INTERVAL_MILLIS = 5000;
+
+    private boolean foreground = true;
+    private boolean chartsVisible = false;
+    private boolean captureRunning = false;
+    private boolean liveTuning = false;
+    private boolean recording = false;
+
+    public void setForeground(boolean foreground) { this.foreground = foreground; }
+    public void setChartsVisible(boolean chartsVisible) { this.chartsVisible = chartsVisible; }
+    public void setCaptureRunning(boolean captureRunning) { this.captureRunning = captureRunning; }
+    public void setLiveTuning(boolean liveTuning) { this.liveTuning = liveTuning; }
+    public void setRecording(boolean recording) { this.recording = recording; }
+
+    public int getIntervalMillis() {
+        // A capture needs every sample even with the screen off
+        if (captureRunning) return FULL_RATE_INTERVAL_MILLIS;
+        if (!foreground) return recording ? BACKGROUND_RECORDING_INTERVAL_MILLIS : BACKGROUND_INTERVAL_MILLIS;
+        if (chartsVisible || liveTuning) return FULL_RATE_INTERVAL_MILLIS;
+        return READOUT_INTERVAL_MILLIS;
+    }
+}
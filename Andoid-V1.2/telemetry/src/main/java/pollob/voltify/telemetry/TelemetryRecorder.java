@@ -0,0 +1,81 @@
+package pollob.voltify.telemetry;
+
+import java.io.IOException;
+
+/**
+ * Bus subscriber that records every sample into a HistoryStore, for the history chart.
+ * Meant for a deep DROP_OLDEST subscription: a stalled disk then costs recorded samples,
+ * counted by the subscription, instead of holding up notifications. Sample times are moved onto the
+ * wall clock with an offset fixed at construction, and the store is flushed about once per
+ * flush interval: every second by default, much less often in background logging so the disk
+ * is touched in large batches.
+ */
+public class TelemetryRecorder implements TelemetryBus.Subscriber {
+    public static final long FLUSH_INTERVAL_NANOS = 1_000_000_000L;
+
+    // Brackets every flush, e.g. to hold a wake lock only while writing
+    public interface FlushHook {
+        void beforeFlush();
+        void afterFlush();
+    }
+
+    private final HistoryStore store;
+    private volatile long flushIntervalNanos = FLUSH_INTERVAL_NANOS;
+    private volatile FlushHook flushHook;
+    // Epoch nanos minus System.nanoTime()
+    private final long wallOffsetNanos;
+    private long lastFlushNanos;
+
+    private volatile long recorded = 0;
+    private volatile long failures = 0;
+    private volatile long flushes = 0;
+
+    public TelemetryRecorder(HistoryStore store) {
+        this(store, System.currentTimeMillis() * 1_000_000L - System.nanoTime());
+    }
+
+    public TelemetryRecorder(HistoryStore store, long wallOffsetNanos) {
+        this.store = store;
+        this.wallOffsetNanos = wallOffsetNanos;
+        this.lastFlushNanos = System.nanoTime();
+    }
+
+    @Override
+    public void onTelemetry(TelemetrySnapshot snapshot) {
+        try {
+            store.append((snapshot.getSampleNanos() + wallOffsetNanos) / 1e9,
+                    (float) snapshot.getOutputVolt(), (float) snapshot.getOutputAmp());
+            recorded++;
+            long now = System.nanoTime();
+            if (now - lastFlushNanos >= flushIntervalNanos) {
+                lastFlushNanos = now;
+                flush();
+            }
+        } catch (IOException e) {
+            failures++;
+        }
+    }
+
+    public void setFlushIntervalNanos(long flushIntervalNanos) {
+        this.flushIntervalNanos = flushIntervalNanos;
+    }
+
+    public void setFlushHook(FlushHook flushHook) {
+        this.flushHook = flushHook;
+    }
+
+    private void flush() throws IOException {
+        FlushHook hook = flushHook;
+        if (hook != null) hook.beforeFlush();
+        try {
+            store.flush();
+            flushes++;
+        } finally {
+            if (hook != null) hook.afterFlush();
+        }
+    }
+
+    public long getRecorded() { return recorded; }
+    public long getFlushes() { return flushes; }
+    public long getFailures() { return failures; }
+}
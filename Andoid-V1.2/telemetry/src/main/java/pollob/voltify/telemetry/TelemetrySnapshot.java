@@ -0,0 +1,112 @@
+package pollob.voltify.telemetry;
+
+import java.util.concurrent.locks.StampedLock;
+
+import pollob.voltify.protocol.TelemetryFrame;
+
+/**
+ * One published telemetry sample, read-only to consumers. The notification thread writes each
+ * sample into TelemetryState's pool, and the bus copies it into every subscription's queue; a
+ * subscriber is handed its subscription's own copy and can read it directly until onTelemetry()
+ * returns. Anything that keeps one longer, or reads from another thread, uses copyFrom() or
+ * TelemetryState.copyLatest() into its own instance, which never tears.
+ */
+public final class TelemetrySnapshot {
+    // Written only by the publishing thread; readers validate optimistically and never block it
+    private final StampedLock lock = new StampedLock();
+
+    private long sequence;
+    private long sampleNanos;
+    private long receivedNanos;
+    private double chartSeconds;
+    private double outputVolt;
+    private double outputAmp;
+    private double outputEnergy;
+    private int ccCv;
+    private double setVolt;
+    private double setAmp;
+
+    // Private instance for copyFrom(); the pool and the bus queues create their own
+    public TelemetrySnapshot() {
+    }
+
+    void write(long sequence, TelemetryFrame frame, long sampleNanos, long receivedNanos, double chartSeconds) {
+        long stamp = lock.writeLock();
+        try {
+            this.sequence = sequence;
+            this.sampleNanos = sampleNanos;
+            this.receivedNanos = receivedNanos;
+            this.chartSeconds = chartSeconds;
+            this.outputVolt = frame.outputVolt;
+            this.outputAmp = frame.outputAmp;
+            this.outputEnergy = frame.outputEnergy;
+            this.ccCv = frame.ccCv;
+            this.setVolt = frame.setVolt;
+            this.setAmp = frame.setAmp;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Copies source into this instance, retrying if the slot is recycled mid-read.
+     * Returns the copied sequence number.
+     */
+    public long copyFrom(TelemetrySnapshot source) {
+        while (true) {
+            long stamp = source.lock.tryOptimisticRead();
+            if (stamp != 0) {
+                long sequence = source.sequence;
+                long sampleNanos = source.sampleNanos;
+                long receivedNanos = source.receivedNanos;
+                double chartSeconds = source.chartSeconds;
+                double outputVolt = source.outputVolt;
+                double outputAmp = source.outputAmp;
+                double outputEnergy = source.outputEnergy;
+                int ccCv = source.ccCv;
+                double setVolt = source.setVolt;
+                double setAmp = source.setAmp;
+                if (source.lock.validate(stamp)) {
+                    long writeStamp = lock.writeLock();
+                    try {
+                        this.sequence = sequence;
+                        this.sampleNanos = sampleNanos;
+                        this.receivedNanos = receivedNanos;
+                        this.chartSeconds = chartSeconds;
+                        this.outputVolt = outputVolt;
+                        this.outputAmp = outputAmp;
+                        this.outputEnergy = outputEnergy;
+                        this.ccCv = ccCv;
+                        this.setVolt = setVolt;
+                        this.setAmp = setAmp;
+                    } finally {
+                        lock.unlockWrite(writeStamp);
+                    }
+                    return sequence;
+                }
+            }
+            Thread.yield();
+        }
+    }
+
+    // Sequence number, starting at 1; 0 means nothing has been published yet
+    public long getSequence() { return sequence; }
+    public long getSampleNanos() { return sampleNanos; }
+    // Arrival time of the notification on the phone, for end-to-end latency
+    public long getReceivedNanos() { return receivedNanos; }
+    public double getChartSeconds() { return chartSeconds; }
+    public double getOutputVolt() { return outputVolt; }
+    public double getOutputAmp() { return outputAmp; }
+    public double getOutputEnergy() { return outputEnergy; }
+    public double getOutputPower() { return outputVolt * outputAmp; }
+    public int getCcCv() { return ccCv; }
+    public String getCcCvStatus() { return ccCv == TelemetryFrame.MODE_CV ? "CV" : "CC"; }
+    public double getSetVolt() { return setVolt; }
+    public double getSetAmp() { return setAmp; }
+
+    @Override
+    public String toString() {
+        return String.format("#%d OutV: %.3fV, OutA: %.3fA, Energy: %.2fWh, Mode: %s, SetV: %.2fV, SetA: %.2fA",
+                sequence, outputVolt, outputAmp, outputEnergy, getCcCvStatus(), setVolt, setAmp);
+    }
+}
@@ -0,0 +1,48 @@
+package pollob.voltify.telemetry;
+
+import pollob.voltify.protocol.TelemetryFrame;
+
+/**
+ * Latest telemetry sample, shared with any number of readers (UI, recorder, watchdog, stats)
+ * without locks. The single publishing thread fills the next snapshot of a fixed pool and swaps
+ * it into one volatile reference; each publication gets the next sequence number, so readers
+ * can tell whether anything changed since they last looked.
+ */
+public class TelemetryState {
+    // A slot is reused after this many publications; at 1 kHz that leaves readers ~7 ms
+    static final int POOL_SIZE = 8;
+
+    private final TelemetrySnapshot[] pool = new TelemetrySnapshot[POOL_SIZE];
+    private final TelemetrySnapshot empty = new TelemetrySnapshot();
+    private volatile TelemetrySnapshot latest = empty;
+    private long sequence = 0;
+
+    public TelemetryState() {
+        for (int i = 0; i < POOL_SIZE; i++) {
+            pool[i] = new TelemetrySnapshot();
+        }
+    }
+
+    // Publishing thread only
+    public TelemetrySnapshot publish(TelemetryFrame frame, long sampleNanos, long receivedNanos, double chartSeconds) {
+        long next = sequence + 1;
+        TelemetrySnapshot slot = pool[(int) (next % POOL_SIZE)];
+        slot.write(next, frame, sampleNanos, receivedNanos, chartSeconds);
+        sequence = next;
+        latest = slot;
+        return slot;
+    }
+
+    /**
+     * Tear-free copy of the newest snapshot into a reader-owned instance; returns its sequence.
+     * Before the first sample the copy is all zero with sequence 0. Pool slots are never handed
+     * out here, since the publisher rewrites them while readers hold on to them.
+     */
+    public long copyLatest(TelemetrySnapshot target) {
+        return target.copyFrom(latest);
+    }
+
+    public long getSequence() {
+        return latest.getSequence();
+    }
+}
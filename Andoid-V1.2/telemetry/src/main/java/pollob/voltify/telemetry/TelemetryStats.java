@@ -0,0 +1,60 @@
+package pollob.voltify.telemetry;
+
+/**
+ * Streaming statistics for the volts, amps and power channels of the telemetry stream.
+ * A window size of 0 keeps whole-session statistics.
+ */
+public class TelemetryStats {
+    // Sketch ranges follow the ESP32 wire format (int16 in mV / mA)
+    private static final double MAX_VOLT = 32.768;
+    private static final double MAX_AMP = 32.768;
+    private static final double MAX_POWER = MAX_VOLT * MAX_AMP;
+    private static final int VOLT_BINS = 4096;   // 8 mV bins
+    private static final int AMP_BINS = 4096;    // 8 mA bins
+    private static final int POWER_BINS = 8192;  // ~0.13 W bins
+
+    private final int windowSize;
+    private final StreamingStats volt;
+    private final StreamingStats amp;
+    private final StreamingStats power;
+
+    public TelemetryStats(int windowSize) {
+        this.windowSize = windowSize;
+        this.volt = new StreamingStats(windowSize, 0.0, MAX_VOLT, VOLT_BINS);
+        this.amp = new StreamingStats(windowSize, 0.0, MAX_AMP, AMP_BINS);
+        this.power = new StreamingStats(windowSize, 0.0, MAX_POWER, POWER_BINS);
+    }
+
+    public void add(double outputVolt, double outputAmp) {
+        volt.add(outputVolt);
+        amp.add(outputAmp);
+        power.add(outputVolt * outputAmp);
+    }
+
+    public void reset() {
+        volt.reset();
+        amp.reset();
+        power.reset();
+    }
+
+    public Snapshot snapshot() {
+        return new Snapshot(volt.summary(), amp.summary(), power.summary());
+    }
+
+    public int getWindowSize() { return windowSize; }
+    public StreamingStats getVolt() { return volt; }
+    public StreamingStats getAmp() { return amp; }
+    public StreamingStats getPower() { return power; }
+
+    public static class Snapshot {
+        public final StreamingStats.Summary volt;
+        public final StreamingStats.Summary amp;
+        public final StreamingStats.Summary power;
+
+        public Snapshot(StreamingStats.Summary volt, StreamingStats.Summary amp, StreamingStats.Summary power) {
+            this.volt = volt;
+            this.amp = amp;
+            this.power = power;
+        }
+    }
+}
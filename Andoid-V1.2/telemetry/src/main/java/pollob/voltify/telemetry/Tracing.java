@@ -0,0 +1,74 @@
+package pollob.voltify.telemetry;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Trace sections for the telemetry path. This module has no Android dependency, so the app
+ * installs a Tracer backed by android.os.Trace; with none installed every call is one
+ * volatile read. begin() reports whether a section was opened so callers only close
+ * sections they opened, even if tracing is switched off in between.
+ */
+public final class Tracing {
+
+    public interface Tracer {
+        void beginSection(String name);
+        void endSection();
+        void beginAsyncSection(String name, int cookie);
+        void endAsyncSection(String name, int cookie);
+        void setCounter(String name, long value);
+    }
+
+    private static volatile Tracer tracer;
+    private static final AtomicInteger sequence = new AtomicInteger();
+
+    private Tracing() {}
+
+    public static void install(Tracer newTracer) {
+        tracer = newTracer;
+    }
+
+    public static boolean isEnabled() {
+        return tracer != null;
+    }
+
+    public static boolean begin(String name) {
+        Tracer t = tracer;
+        if (t == null) return false;
+        t.beginSection(name);
+        return true;
+    }
+
+    public static void end(boolean begun) {
+        if (!begun) return;
+        Tracer t = tracer;
+        if (t != null) {
+            t.endSection();
+        }
+    }
+
+    // Cookie for an async section that follows one notification across threads
+    public static int nextSequence() {
+        return sequence.incrementAndGet();
+    }
+
+    public static boolean beginAsync(String name, int cookie) {
+        Tracer t = tracer;
+        if (t == null) return false;
+        t.beginAsyncSection(name, cookie);
+        return true;
+    }
+
+    public static void endAsync(String name, int cookie) {
+        Tracer t = tracer;
+        if (t != null) {
+            t.endAsyncSection(name, cookie);
+        }
+    }
+
+    public static void counter(String name, long value) {
+        Tracer t = tracer;
+        if (t != null) {
+            t.setCounter(name, value);
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package pollob.voltify.telemetry;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class CapacityTestTest {
+    private static final long PERIOD_NANOS = 100_000_000L; // 10 Hz
+
+    // Charging a cell: terminal voltage = open-circuit voltage + I * R
+    private static class SimulatedCell implements CapacityTest.SetpointController {
+        final double resistance;
+        double amp;
+        boolean outputOn = true;
+        int setpointWrites = 0;
+
+        SimulatedCell(double resistance, double amp) {
+            this.resistance = resistance;
+            this.amp = amp;
+        }
+
+        @Override
+        public void applySetpoint(double setVolt, double setAmp, boolean outputOn) {
+            this.amp = setAmp;
+            this.outputOn = outputOn;
+            setpointWrites++;
+        }
+
+        double volt(double openCircuit) {
+            return openCircuit + amp * resistance;
+        }
+    }
+
+    private CapacityTest.Report report;
+
+    private CapacityTest newTest(SimulatedCell cell) {
+        return new CapacityTest(cell, new CapacityTest.CapacityListener() {
+            @Override
+            public void onProgress(long elapsedMillis, double ampHours, double wattHours, double internalResistance) {}
+
+            @Override
+            public void onFinished(CapacityTest.Report finished) {
+                report = finished;
+            }
+        });
+    }
+
+    @Test
+    public void integratesCapacityAndEstimatesResistance() {
+        SimulatedCell cell = new SimulatedCell(0.120, 1.0);
+        CapacityTest test = newTest(cell);
+        test.start(0, 4.2, 1.0, 0, 0);
+
+        long t = 0;
+        long oneHour = 3_600_000_000_000L;
+        while (t < oneHour) {
+            t += PERIOD_NANOS;
+            test.onSample(t, cell.volt(3.7), cell.amp);
+        }
+        test.stop(t);
+
+        assertNotNull(report);
+        assertFalse(cell.outputOn);
+        // Pulses halve the current for 2 s every minute
+        double expectedAh = 1.0 - 0.5 * (2.0 / 62.0);
+        assertEquals(expectedAh, report.ampHours, 0.01);
+        assertEquals(0.120, report.internalResistance, 0.005);
+        assertTrue(report.resistanceSamples >= 50);
+        assertTrue(report.curveSeconds.length <= 240);
+        assertEquals(3600, report.curveSeconds[report.curveSeconds.length - 1], 60);
+    }
+
+    @Test
+    public void stopsOnCurrentTaper() {
+        SimulatedCell cell = new SimulatedCell(0.1, 1.0);
+        CapacityTest test = newTest(cell);
+        test.start(0, 4.2, 1.0, 0, 0.05);
+
+        long t = 0;
+        for (int i = 0; i < 100; i++) {
+            t += PERIOD_NANOS;
+            test.onSample(t, 4.2, 1.0 - i * 0.01);
+        }
+        assertNotNull(report);
+        assertEquals("Current cutoff", report.endReason);
+        assertFalse(test.isActive());
+    }
+
+    @Test
+    public void doesNotIntegrateAcrossTelemetryGaps() {
+        SimulatedCell cell = new SimulatedCell(0.1, 2.0);
+        CapacityTest test = newTest(cell);
+        test.start(0, 4.2, 2.0, 0, 0);
+        test.onSample(1_000_000_000L, 4.0, 2.0);
+        test.onSample(2_000_000_000L, 4.0, 2.0);
+        test.onSample(62_000_000_000L, 4.0, 2.0); // 60 s gap
+        test.stop(62_000_000_000L);
+
+        assertEquals(2.0 / 3600.0, report.ampHours, 1e-9);
+        assertEquals(60_000, report.unmeasuredMillis);
+    }
+
+    @Test
+    public void countsMissedSamplesInTheReport() {
+        SimulatedCell cell = new SimulatedCell(0.1, 2.0);
+        CapacityTest test = newTest(cell);
+        test.start(0, 4.2, 2.0, 0, 0);
+        test.onSample(1_000_000_000L, 4.0, 2.0);
+        test.onSamplesMissed(9);
+        test.onSample(2_000_000_000L, 4.0, 2.0);
+        test.stop(2_000_000_000L);
+
+        assertEquals(2.0 / 3600.0, report.ampHours, 1e-9);
+        assertEquals(9, report.missedSamples);
+        assertTrue(report.summary().contains("Samples missed: 9"));
+    }
+
+    @Test
+    public void downsamplerKeepsFixedMemory() {
+        CurveDownsampler curve = new CurveDownsampler(8, 1);
+        double[] sample = new double[1];
+        for (int i = 0; i < 1000; i++) {
+            sample[0] = i;
+            curve.add(i, sample);
+        }
+        assertTrue(curve.size() <= 8);
+        assertEquals(128, curve.getBucketSpan());
+        // Each point is the mean of its bucket, so value tracks time exactly here
+        for (int i = 0; i < curve.size(); i++) {
+            assertEquals(curve.getTime(i), curve.getValue(0, i), 1e-9);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package pollob.voltify.telemetry;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ClockSyncTest {
+
+    @Test
+    public void removesBatchingJitterAndEstimatesDrift() {
+        ClockSync sync = new ClockSync(500);
+        Random random = new Random(5);
+        double driftPpm = 80.0;
+        long offsetNanos = 123_456_789_000L;
+
+        double maxRawError = 0, maxCorrectedError = 0;
+        double firstError = Double.NaN;
+        long last = Long.MIN_VALUE;
+        for (int i = 0; i < 5000; i++) {
+            long deviceMillis = i * 20L; // 50 Hz notifications
+            long trueNanos = offsetNanos + (long) (deviceMillis * 1e6 * (1 + driftPpm * 1e-6));
+            // Notifications are delivered in connection events every 7.5 ms, plus radio latency
+            long latency = 7_500_000L * random.nextInt(4) + random.nextInt(1_000_000);
+            long arrival = trueNanos + latency;
+
+            long corrected = sync.map(deviceMillis, arrival);
+            assertTrue(corrected > last);
+            last = corrected;
+
+            if (i >= 1000) {
+                // The fit carries the mean latency as a constant offset; compare against the first one
+                double error = corrected - trueNanos;
+                if (Double.isNaN(firstError)) firstError = error;
+                maxCorrectedError = Math.max(maxCorrectedError, Math.abs(error - firstError));
+                maxRawError = Math.max(maxRawError, latency);
+            }
+        }
+
+        assertTrue("raw jitter should be tens of ms", maxRawError > 20_000_000);
+        assertTrue("corrected jitter " + maxCorrectedError, maxCorrectedError < 3_000_000);
+        assertEquals(driftPpm, sync.getDriftPpm(1.0), 40.0);
+    }
+
+    @Test
+    public void resyncsAfterDeviceReboot() {
+        ClockSync sync = new ClockSync(50);
+        for (int i = 0; i < 100; i++) {
+            sync.map(1_000_000 + i * 100L, i * 100_000_000L);
+        }
+        // Device clock restarts from 0 while phone time keeps going
+        long arrival = 10_000_000_000L;
+        long corrected = sync.map(0, arrival);
+        assertTrue(Math.abs(corrected - arrival) < 100_000_000L);
+        assertEquals(1, sync.getCount());
+    }
+
+    @Test
+    public void unwrapsThirtyTwoBitTicks() {
+        ClockSync sync = new ClockSync(10);
+        assertEquals(0xFFFFFF00L, sync.unwrap32(0xFFFFFF00L));
+        assertEquals(0x100000010L, sync.unwrap32(0x10L));
+        assertEquals(0x100000020L, sync.unwrap32(0x20L));
+    }
+
+    @Test
+    public void sampleIndexModeSmoothsArrivalTimes() {
+        ClockSync sync = new ClockSync(100);
+        Random random = new Random(9);
+        long previous = 0;
+        double minStep = Double.MAX_VALUE, maxStep = 0;
+        for (int i = 0; i < 1000; i++) {
+            long arrival = i * 100_000_000L + 15_000_000L * random.nextInt(3);
+            long corrected = sync.map(i, arrival);
+            if (i > 200) {
+                minStep = Math.min(minStep, corrected - previous);
+                maxStep = Math.max(maxStep, corrected - previous);
+            }
+            previous = corrected;
+        }
+        // 100 ms cadence recovered to within a couple of ms per step
+        assertEquals(100_000_000L, minStep, 2_000_000);
+        assertEquals(100_000_000L, maxStep, 2_000_000);
+    }
+}
@@ -0,0 +1,91 @@
+package pollob.voltify.telemetry;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class EventDetectorTest {
+    private static final long PERIOD_NANOS = 100_000_000L; // 10 Hz notifications
+
+    private final List<TelemetryEvent> events = new ArrayList<>();
+    private EventDetector detector;
+    private long now;
+
+    @Before
+    public void setUp() {
+        detector = new EventDetector(events::add);
+        detector.reset(0);
+        now = 0;
+    }
+
+    private void feed(int samples, double volt, double amp, double setVolt, int ccCv) {
+        for (int i = 0; i < samples; i++) {
+            now += PERIOD_NANOS;
+            detector.onSample(now, volt, amp, setVolt, ccCv);
+        }
+    }
+
+    @Test
+    public void steadyOutputProducesNoEvents() {
+        feed(500, 12.0, 1.0, 12.0, 0);
+        assertTrue(events.isEmpty());
+    }
+
+    @Test
+    public void flagsModeTransitions() {
+        feed(10, 12.0, 1.0, 12.0, 0);
+        feed(10, 9.0, 2.0, 12.0, 1);
+        feed(10, 12.0, 1.0, 12.0, 0);
+        assertEquals(2, events.size());
+        assertEquals(TelemetryEvent.Type.CV_TO_CC, events.get(0).type);
+        assertEquals(10, events.get(0).sampleIndex);
+        assertEquals(TelemetryEvent.Type.CC_TO_CV, events.get(1).type);
+        assertEquals(2100, events.get(1).sessionMillis);
+    }
+
+    @Test
+    public void flagsDropoutAndRecoveryOnce() {
+        feed(10, 12.0, 1.0, 12.0, 0);
+        feed(5, 1.0, 0.0, 12.0, 0);
+        feed(5, 12.0, 1.0, 12.0, 0);
+        assertEquals(2, events.size());
+        assertEquals(TelemetryEvent.Type.OUTPUT_DROPOUT, events.get(0).type);
+        assertEquals(TelemetryEvent.Type.OUTPUT_RECOVERED, events.get(1).type);
+    }
+
+    @Test
+    public void voltageSagInCcIsNotADropout() {
+        feed(10, 12.0, 1.0, 12.0, 0);
+        feed(10, 3.0, 2.0, 12.0, 1);
+        for (TelemetryEvent event : events) {
+            assertNotEquals(TelemetryEvent.Type.OUTPUT_DROPOUT, event.type);
+        }
+    }
+
+    @Test
+    public void flagsCurrentSpikeByZScore() {
+        for (int i = 0; i < 100; i++) {
+            feed(1, 12.0, 1.0 + (i % 2) * 0.01, 12.0, 0);
+        }
+        feed(1, 12.0, 1.5, 12.0, 0);
+        feed(1, 12.0, 1.5, 12.0, 0); // still spiking, no duplicate
+        assertEquals(1, events.size());
+        assertEquals(TelemetryEvent.Type.CURRENT_SPIKE, events.get(0).type);
+        assertTrue(events.get(0).detail > 4.0);
+    }
+
+    @Test
+    public void flagsTelemetryGap() {
+        feed(20, 12.0, 1.0, 12.0, 0);
+        now += 2_000_000_000L;
+        detector.onSample(now, 12.0, 1.0, 12.0, 0);
+        feed(5, 12.0, 1.0, 12.0, 0);
+        assertEquals(1, events.size());
+        assertEquals(TelemetryEvent.Type.TELEMETRY_GAP, events.get(0).type);
+        assertEquals(2000, events.get(0).detail, 1e-6);
+    }
+}
@@ -0,0 +1,150 @@
+package pollob.voltify.telemetry;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import pollob.voltify.protocol.TelemetryFrame;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class HistoryStoreTest {
+    // Arbitrary epoch time on a top-tier bucket boundary, so tile boundaries are easy to predict
+    private static final double START = 6553.6 * 250_000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    // One hour at 10 Hz of a 12 V output with a single 15 V spike halfway through
+    private HistoryStore recordHour(File directory) throws IOException {
+        HistoryStore store = new HistoryStore(directory);
+        for (int i = 0; i < 36_000; i++) {
+            float volt = i == 18_000 ? 15f : 12f;
+            store.append(START + i * 0.1, volt, 1.2f);
+        }
+        store.flush();
+        return store;
+    }
+
+    @Test
+    public void choosesFinestTierThatFitsTheWidth() {
+        assertEquals(0, HistoryStore.chooseTier(10, 1000));
+        assertEquals(1, HistoryStore.chooseTier(600, 1000));
+        assertEquals(3, HistoryStore.chooseTier(86_400, 1000));
+        assertEquals(HistoryStore.TIER_COUNT - 1, HistoryStore.chooseTier(7 * 86_400, 1000));
+    }
+
+    @Test
+    public void coarseTiersKeepSpikes() throws IOException {
+        File directory = folder.newFolder();
+        HistoryStore store = recordHour(directory);
+
+        int tier = 2;
+        long index = (long) Math.floor((START + 1800) / HistoryStore.getTileSeconds(tier));
+        HistoryTile tile = store.readTile(tier, index);
+        float peak = 0f;
+        for (int i = 0; i < tile.size(); i++) {
+            peak = Math.max(peak, tile.voltMax[i]);
+            assertEquals(12f, tile.voltMin[i], 0f);
+        }
+        assertEquals(15f, peak, 0f);
+        store.close();
+    }
+
+    @Test
+    public void reopenedStoreReadsWhatWasRecorded() throws IOException {
+        File directory = folder.newFolder();
+        recordHour(directory).close();
+
+        HistoryStore store = new HistoryStore(directory);
+        assertEquals(START, store.getStartSeconds(), 1e-6);
+        assertEquals(START + 3600, store.getEndSeconds(), 1e-3);
+
+        // Tier 1 buckets are 1.6 s, so a 409.6 s tile holds 256 of them
+        long index = (long) Math.floor(START / HistoryStore.getTileSeconds(1));
+        HistoryTile tile = store.readTile(1, index);
+        assertEquals(HistoryStore.TILE_BUCKETS, tile.size());
+        for (int i = 1; i < tile.size(); i++) {
+            assertEquals(1.6, tile.times[i] - tile.times[i - 1], 1e-6);
+        }
+        assertEquals(0, store.readTile(1, index - 1).size());
+        store.close();
+    }
+
+    @Test
+    public void includesBucketsStillBeingFilled() throws IOException {
+        HistoryStore store = new HistoryStore(folder.newFolder());
+        store.append(START, 5f, 0.5f);
+        store.append(START + 0.01, 6f, 0.4f);
+
+        HistoryTile tile = store.readTile(4, (long) Math.floor(START / HistoryStore.getTileSeconds(4)));
+        assertEquals(1, tile.size());
+        assertEquals(5f, tile.voltMin[0], 0f);
+        assertEquals(6f, tile.voltMax[0], 0f);
+        assertEquals(0.4f, tile.ampMin[0], 0f);
+        store.close();
+    }
+
+    @Test
+    public void loaderCachesTilesAndPrefetchesNeighbours() throws Exception {
+        HistoryStore store = recordHour(folder.newFolder());
+        AtomicReference<List<HistoryTile>> loaded = new AtomicReference<>();
+        CountDownLatch[] latch = {new CountDownLatch(1)};
+        HistoryLoader loader = new HistoryLoader(store, 8, (requestId, tier, tiles) -> {
+            loaded.set(tiles);
+            latch[0].countDown();
+        });
+        loader.start();
+
+        // 600 s in 1000 points is tier 1, whose tiles are 409.6 s: two visible plus two prefetched
+        loader.request(START + 100, START + 700, 1000);
+        assertTrue(latch[0].await(5, TimeUnit.SECONDS));
+        assertEquals(2, loaded.get().size());
+        assertEquals(1, loaded.get().get(0).tier);
+        assertEquals(4, loader.getMisses());
+
+        // Panning one tile to the right only needs tiles that were prefetched
+        Thread.sleep(100);
+        latch[0] = new CountDownLatch(1);
+        loader.request(START + 500, START + 1100, 1000);
+        assertTrue(latch[0].await(5, TimeUnit.SECONDS));
+        assertEquals(4 + 1, loader.getMisses());
+        assertTrue(loader.getCachedTiles() <= 8);
+
+        loader.stop();
+        store.close();
+    }
+
+    @Test
+    public void recorderFlushesOnlyOncePerIntervalInsideTheHook() throws Exception {
+        HistoryStore store = new HistoryStore(folder.newFolder());
+        TelemetryRecorder recorder = new TelemetryRecorder(store, 0);
+        int[] hookCalls = {0, 0};
+        recorder.setFlushHook(new TelemetryRecorder.FlushHook() {
+            @Override public void beforeFlush() { hookCalls[0]++; }
+            @Override public void afterFlush() { hookCalls[1]++; }
+        });
+        recorder.setFlushIntervalNanos(60_000_000_000L);
+
+        TelemetryState state = new TelemetryState();
+        TelemetryFrame frame = new TelemetryFrame();
+        for (int i = 0; i < 1000; i++) {
+            recorder.onTelemetry(state.publish(frame, i * 100_000_000L, 0, 0.0));
+        }
+        assertEquals(1000, recorder.getRecorded());
+        assertEquals("Nothing is due within the interval", 0, recorder.getFlushes());
+
+        recorder.setFlushIntervalNanos(0);
+        recorder.onTelemetry(state.publish(frame, 1000 * 100_000_000L, 0, 0.0));
+        assertEquals(1, recorder.getFlushes());
+        assertArrayEquals(new int[]{1, 1}, hookCalls);
+        store.close();
+    }
+}
@@ -0,0 +1,65 @@
+package pollob.voltify.telemetry;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void percentilesAreWithinThreePercent() {
+        LatencyHistogram histogram = new MetricsRegistry().histogram("test");
+        Random random = new Random(11);
+        long[] values = new long[100_000];
+        for (int i = 0; i < values.length; i++) {
+            // Log-normal around 200 us with a long tail
+            values[i] = (long) (200_000 * Math.exp(random.nextGaussian()));
+            histogram.record(values[i]);
+        }
+        Arrays.sort(values);
+
+        for (double q : new double[]{0.5, 0.9, 0.99, 0.999}) {
+            long exact = values[(int) Math.ceil(q * values.length) - 1];
+            assertEquals("p" + q, exact, histogram.percentile(q), exact * 0.035);
+        }
+        assertEquals(values[values.length - 1], histogram.getMax());
+        assertEquals(values.length, histogram.getCount());
+    }
+
+    @Test
+    public void bucketsCoverTheRangeMonotonically() {
+        int previous = -1;
+        for (long v = 0; v < 1L << 41; v = v < 64 ? v + 1 : v + (v >> 6)) {
+            int bucket = LatencyHistogram.bucketOf(v);
+            assertTrue(bucket >= previous);
+            assertTrue(bucket < LatencyHistogram.BUCKET_COUNT);
+            if (v < 1L << 39) {
+                assertEquals(v, LatencyHistogram.midpointOf(bucket), Math.max(1, v * 0.035));
+            }
+            previous = bucket;
+        }
+    }
+
+    @Test
+    public void countsEveryRecordFromConcurrentThreads() throws InterruptedException {
+        LatencyHistogram histogram = new MetricsRegistry().histogram("test");
+        Counter counter = new MetricsRegistry().counter("test");
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 50_000; i++) {
+                    histogram.record(i);
+                    counter.increment();
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) thread.join();
+        assertEquals(200_000, histogram.getCount());
+        assertEquals(200_000, counter.get());
+        assertEquals(49_999, histogram.getMax());
+    }
+}
@@ -0,0 +1,55 @@
+package pollob.voltify.telemetry;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class RippleAnalyzerTest {
+
+    @Test
+    public void realFftMatchesDirectDft() {
+        int n = 64;
+        RealFft fft = new RealFft(n);
+        Random random = new Random(1);
+        double[] x = new double[n];
+        for (int i = 0; i < n; i++) x[i] = random.nextDouble() - 0.5;
+
+        double[] mags = new double[n / 2 + 1];
+        fft.magnitudes(x, mags);
+
+        for (int k = 0; k <= n / 2; k++) {
+            double re = 0, im = 0;
+            for (int t = 0; t < n; t++) {
+                re += x[t] * Math.cos(2 * Math.PI * k * t / n);
+                im -= x[t] * Math.sin(2 * Math.PI * k * t / n);
+            }
+            assertEquals("bin " + k, Math.hypot(re, im), mags[k], 1e-9);
+        }
+    }
+
+    @Test
+    public void reportsDominantFrequencyAndRipple() {
+        int blockSize = 256;
+        double sampleRate = 1000.0;
+        double rippleHz = 125.0;
+        RippleAnalyzer analyzer = new RippleAnalyzer(blockSize, null);
+
+        double[] volt = new double[blockSize];
+        double[] amp = new double[blockSize];
+        for (int i = 0; i < blockSize; i++) {
+            double t = i / sampleRate;
+            volt[i] = 12.0 + 0.010 * Math.sin(2 * Math.PI * rippleHz * t);  // 20 mVpp
+            amp[i] = 1.5 + 0.002 * Math.sin(2 * Math.PI * 50.0 * t);
+        }
+        long duration = (long) ((blockSize - 1) / sampleRate * 1e9);
+
+        RippleAnalyzer.Result result = analyzer.analyze(volt, amp, duration);
+        assertEquals(sampleRate, result.sampleRateHz, 1e-3);
+        assertEquals(rippleHz, result.dominantVoltHz, result.binHz);
+        assertEquals(50.0, result.dominantAmpHz, result.binHz);
+        assertEquals(0.020, result.voltRipplePp, 1e-4);
+        assertEquals(0.004, result.ampRipplePp, 1e-4);
+    }
+}
@@ -0,0 +1,49 @@
+package pollob.voltify.telemetry;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SeriesRingBufferTest {
+
+    @Test
+    public void overwritesOldestPoints() {
+        SeriesRingBuffer series = new SeriesRingBuffer(4, 2);
+        float[] values = new float[2];
+        for (int i = 0; i < 10; i++) {
+            values[0] = i * 10;
+            values[1] = -i;
+            series.add(i, values);
+        }
+        assertEquals(4, series.size());
+        assertEquals(6, series.getFirst());
+        assertEquals(10, series.getWritten());
+        for (long i = 6; i < 10; i++) {
+            assertEquals(i, series.getX(i), 0);
+            assertEquals(i * 10, series.getY(0, i), 0);
+            assertEquals(-i, series.getY(1, i), 0);
+        }
+        assertEquals(9, series.getLastX(), 0);
+    }
+
+    @Test
+    public void clearKeepsIndicesGoing() {
+        SeriesRingBuffer series = new SeriesRingBuffer(8, 1);
+        float[] values = {1f};
+        for (int i = 0; i < 5; i++) series.add(i, values);
+        series.clear();
+        assertTrue(series.isEmpty());
+        assertEquals(5, series.getFirst());
+
+        values[0] = 2f;
+        series.add(0.5, values);
+        assertEquals(1, series.size());
+        assertEquals(0.5, series.getX(5), 0);
+        assertEquals(2f, series.getY(0, 5), 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void capacityMustBeAPowerOfTwo() {
+        new SeriesRingBuffer(100, 1);
+    }
+}
@@ -0,0 +1,162 @@
+package pollob.voltify.telemetry;
+
+import org.junit.After;
+import org.junit.Test;
+
+import pollob.voltify.protocol.SetpointCommand;
+import pollob.voltify.protocol.TelemetryFrame;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.*;
+
+public class SetpointStreamerTest {
+
+    // Records writes; completions are reported by the test
+    private final List<SetpointCommand> written = new ArrayList<>();
+    private final SetpointStreamer streamer = new SetpointStreamer(command -> {
+        synchronized (written) {
+            written.add(command);
+        }
+        return true;
+    });
+
+    @After
+    public void tearDown() {
+        streamer.stop();
+    }
+
+    private static SetpointCommand volts(double setVolt) {
+        return new SetpointCommand(setVolt, 1.0, 30.0, 5.0, true);
+    }
+
+    private int writeCount() {
+        synchronized (written) {
+            return written.size();
+        }
+    }
+
+    private SetpointCommand lastWritten() {
+        synchronized (written) {
+            return written.get(written.size() - 1);
+        }
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + 2_000_000_000L;
+        while (!condition.getAsBoolean()) {
+            assertTrue("Timed out", System.nanoTime() < deadline);
+            Thread.sleep(1);
+        }
+    }
+
+    @Test
+    public void offersDuringAWriteCoalesceToTheNewest() throws Exception {
+        streamer.offer(volts(5.0));
+        await(() -> writeCount() == 1);
+
+        for (int i = 1; i <= 10; i++) {
+            streamer.offer(volts(5.0 + i * 0.1));
+        }
+        Thread.sleep(50);
+        assertEquals("Nothing is written while the first write is in flight", 1, writeCount());
+
+        streamer.onWriteComplete(true);
+        await(() -> writeCount() == 2);
+        assertEquals(6.0, lastWritten().setVolt, 1e-9);
+        assertEquals(9, streamer.getCoalesced());
+
+        streamer.onWriteComplete(true);
+        await(streamer::isIdle);
+        assertEquals(2, writeCount());
+    }
+
+    @Test
+    public void failedWriteIsResentUnlessReplaced() throws Exception {
+        streamer.offer(volts(7.0));
+        await(() -> writeCount() == 1);
+        streamer.onWriteComplete(false);
+        await(() -> writeCount() == 2);
+        assertEquals(7.0, lastWritten().setVolt, 1e-9);
+
+        streamer.offer(volts(8.0));
+        streamer.onWriteComplete(false);
+        await(() -> writeCount() == 3);
+        assertEquals("The newer value replaces the retry", 8.0, lastWritten().setVolt, 1e-9);
+        streamer.onWriteComplete(true);
+        await(streamer::isIdle);
+        assertEquals(2, streamer.getFailures());
+    }
+
+    @Test
+    public void echoLatencyIsMeasuredFromTheWrite() throws Exception {
+        long before = System.nanoTime();
+        streamer.offer(volts(12.0));
+        await(() -> streamer.getWrites() == 1);
+        streamer.onWriteComplete(true);
+
+        TelemetryState state = new TelemetryState();
+        TelemetryFrame frame = new TelemetryFrame();
+        frame.setVolt = 11.0;
+        frame.setAmp = 1.0;
+        streamer.onTelemetry(state.publish(frame, 0, System.nanoTime(), 0.0));
+        assertEquals("Old setpoint still reported", 0, streamer.getEchoes());
+
+        frame.setVolt = 12.0;
+        long received = System.nanoTime() + 30_000_000L;
+        streamer.onTelemetry(state.publish(frame, 0, received, 0.0));
+        assertEquals(1, streamer.getEchoes());
+        assertTrue(streamer.getLastEchoNanos() >= 30_000_000L);
+        assertTrue(streamer.getLastEchoNanos() <= received - before);
+
+        // Only the first matching sample counts
+        streamer.onTelemetry(state.publish(frame, 0, received + 1_000_000L, 0.0));
+        assertEquals(1, streamer.getEchoes());
+    }
+
+    @Test
+    public void echoAcknowledgedWritesAreResentOnlyWhenTelemetryDisagreesAfterTheTimeout() throws Exception {
+        List<SetpointCommand> sent = new ArrayList<>();
+        SetpointStreamer fast = new SetpointStreamer(command -> {
+            synchronized (sent) {
+                sent.add(command);
+            }
+            return true;
+        }, true);
+        try {
+            fast.offer(volts(5.0));
+            await(() -> fast.getWrites() == 1);
+            // The next write waits for the completion, which only says it was sent
+            fast.offer(volts(6.0));
+            Thread.sleep(SetpointStreamer.MIN_INTERVAL_NANOS * 2 / 1_000_000L);
+            assertEquals(1, fast.getWrites());
+            fast.onWriteComplete(true);
+            await(() -> fast.getWrites() == 2);
+            fast.onWriteComplete(true);
+            long writtenAt = System.nanoTime();
+
+            TelemetryState state = new TelemetryState();
+            TelemetryFrame frame = new TelemetryFrame();
+            frame.setVolt = 5.0;
+            frame.setAmp = 1.0;
+            fast.onTelemetry(state.publish(frame, 0, writtenAt + 100_000_000L, 0.0));
+            assertEquals("Within the timeout", 0, fast.getRetransmits());
+
+            fast.onTelemetry(state.publish(frame, 0, writtenAt + SetpointStreamer.ECHO_TIMEOUT_NANOS, 0.0));
+            assertEquals(1, fast.getRetransmits());
+            await(() -> fast.getWrites() == 3);
+            synchronized (sent) {
+                assertEquals(6.0, sent.get(2).setVolt, 1e-9);
+            }
+
+            frame.setVolt = 6.0;
+            fast.onTelemetry(state.publish(frame, 0, System.nanoTime() + SetpointStreamer.ECHO_TIMEOUT_NANOS, 0.0));
+            assertEquals(1, fast.getEchoes());
+            assertEquals(1, fast.getRetransmits());
+        } finally {
+            fast.stop();
+        }
+    }
+}
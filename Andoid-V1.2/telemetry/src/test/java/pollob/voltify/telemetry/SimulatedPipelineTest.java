@@ -0,0 +1,284 @@
+package pollob.voltify.telemetry;
+
+import org.junit.Test;
+
+import pollob.voltify.protocol.ProtocolCodec;
+import pollob.voltify.protocol.ProtocolException;
+import pollob.voltify.protocol.SetpointCommand;
+import pollob.voltify.protocol.SimulatedEsp32;
+import pollob.voltify.protocol.Transport;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Drives the whole telemetry pipeline from the simulated supply, without hardware.
+ */
+public class SimulatedPipelineTest {
+
+    private static class CountingListener implements TelemetryPipeline.PipelineListener {
+        final AtomicInteger samples = new AtomicInteger();
+        final AtomicInteger statistics = new AtomicInteger();
+        final AtomicInteger events = new AtomicInteger();
+        final AtomicInteger sessions = new AtomicInteger();
+        volatile TelemetryStats.Snapshot lastWindow;
+
+        @Override
+        public void onStatistics(TelemetryStats.Snapshot windowStats, TelemetryStats.Snapshot sessionStats) {
+            statistics.incrementAndGet();
+            lastWindow = windowStats;
+        }
+
+        @Override public void onRipple(RippleAnalyzer.Result result) {}
+        @Override public void onEvent(TelemetryEvent event) { events.incrementAndGet(); }
+        @Override public void onDecodeError(byte[] data, ProtocolException e) { fail(e.getMessage()); }
+        @Override public void onRippleFailed(Exception e) { fail(e.getMessage()); }
+        @Override public void onSessionStarted(long startNanos) { sessions.incrementAndGet(); }
+    }
+
+    private static Transport.TransportListener feed(TelemetryPipeline pipeline) {
+        return new Transport.TransportListener() {
+            @Override public void onConnected() {}
+            @Override public void onDisconnected() {}
+            @Override public void onError(String error) { fail(error); }
+
+            @Override
+            public void onNotification(byte[] data) {
+                pipeline.process(data, System.nanoTime());
+            }
+        };
+    }
+
+    @Test
+    public void sustainsOneKilohertzWithLossAndLatency() throws Exception {
+        SimulatedEsp32.Config config = new SimulatedEsp32.Config();
+        config.notifyRateHz = 1000;
+        config.packetLoss = 0.02;
+        config.latencyMillis = 8;
+        config.latencyJitterMillis = 15;
+        SimulatedEsp32 device = new SimulatedEsp32(config);
+
+        CountingListener listener = new CountingListener();
+        TelemetryPipeline pipeline = new TelemetryPipeline(listener);
+        pipeline.getBus().subscribe("counter", 64, TelemetryBus.Policy.BLOCK,
+                snapshot -> listener.samples.incrementAndGet());
+        pipeline.start();
+        pipeline.startSession(System.nanoTime());
+        device.setListener(feed(pipeline));
+
+        device.connect("sim");
+        device.write(ProtocolCodec.encodeSetpoint(new SetpointCommand(12.0, 2.0, 30.0, 5.0, true)));
+        long start = System.nanoTime();
+        Thread.sleep(2000);
+        device.disconnect();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        // Drains the bus before the counts are compared
+        pipeline.release();
+
+        long delivered = device.getFramesDelivered();
+        double rate = delivered / seconds;
+
+        assertTrue("delivered rate " + rate, rate > 800);
+        assertEquals(delivered, pipeline.getFramesProcessed());
+        assertEquals(delivered, listener.samples.get());
+        assertEquals(0, pipeline.getDecodeErrors());
+        assertTrue(listener.statistics.get() >= delivered / 10 - 1);
+        assertEquals(12.0, listener.lastWindow.volt.mean, 0.01);
+        assertEquals(1.2, listener.lastWindow.amp.mean, 0.01);
+        // The device clock drives timestamps, so the fitted tick period is 1 ms
+        assertEquals(1.0, pipeline.getClockSync().getSlope(), 0.05);
+    }
+
+    @Test
+    public void detectsModeChangeFromSetpointWrite() throws ProtocolException {
+        SimulatedEsp32.Config config = new SimulatedEsp32.Config();
+        config.realTime = false;
+        config.notifyRateHz = 50;
+        SimulatedEsp32 device = new SimulatedEsp32(config);
+
+        CountingListener listener = new CountingListener();
+        TelemetryPipeline pipeline = new TelemetryPipeline(listener);
+        pipeline.startSession(0);
+        long[] clock = {0};
+        device.setListener(new Transport.TransportListener() {
+            @Override public void onConnected() {}
+            @Override public void onDisconnected() {}
+            @Override public void onError(String error) { fail(error); }
+
+            @Override
+            public void onNotification(byte[] data) {
+                clock[0] += 20_000_000L;
+                pipeline.process(data, clock[0]);
+            }
+        });
+        device.connect("sim");
+
+        device.write(ProtocolCodec.encodeSetpoint(new SetpointCommand(12.0, 2.0, 30.0, 5.0, true)));
+        for (int i = 0; i < 100; i++) device.emitFrame();
+        TelemetrySnapshot latest = new TelemetrySnapshot();
+        pipeline.getState().copyLatest(latest);
+        assertEquals("CV", latest.getCcCvStatus());
+
+        // Lowering the current limit below 1.2 A forces CC
+        device.write(ProtocolCodec.encodeSetpoint(new SetpointCommand(12.0, 0.5, 30.0, 5.0, true)));
+        for (int i = 0; i < 100; i++) device.emitFrame();
+        pipeline.getState().copyLatest(latest);
+        assertEquals("CC", latest.getCcCvStatus());
+        // Events come from the analysis subscriber
+        pipeline.release();
+        assertTrue(listener.events.get() >= 1);
+    }
+
+    @Test
+    public void analysisRunsOffTheNotificationThread() throws ProtocolException {
+        SimulatedEsp32.Config config = new SimulatedEsp32.Config();
+        config.realTime = false;
+        config.notifyRateHz = 50;
+        SimulatedEsp32 device = new SimulatedEsp32(config);
+
+        List<Thread> threads = new ArrayList<>();
+        TelemetryPipeline pipeline = new TelemetryPipeline(new CountingListener() {
+            @Override
+            public void onStatistics(TelemetryStats.Snapshot windowStats, TelemetryStats.Snapshot sessionStats) {
+                threads.add(Thread.currentThread());
+            }
+        });
+        pipeline.startSession(0);
+        long[] clock = {0};
+        device.setListener(new Transport.TransportListener() {
+            @Override public void onConnected() {}
+            @Override public void onDisconnected() {}
+            @Override public void onError(String error) { fail(error); }
+
+            @Override
+            public void onNotification(byte[] data) {
+                clock[0] += 20_000_000L;
+                pipeline.process(data, clock[0]);
+            }
+        });
+        device.connect("sim");
+        for (int i = 0; i < 100; i++) device.emitFrame();
+        pipeline.release();
+
+        assertEquals(10, threads.size());
+        assertNotSame(Thread.currentThread(), threads.get(0));
+        assertEquals(0, pipeline.getAnalysisDropped());
+    }
+
+    @Test
+    public void backfillsTheSamplesAnOutageCost() throws ProtocolException {
+        SimulatedEsp32.Config config = new SimulatedEsp32.Config();
+        config.realTime = false;
+        config.notifyRateHz = 50;
+        config.protocolVersion = ProtocolCodec.PROTOCOL_V2;
+        SimulatedEsp32 device = new SimulatedEsp32(config);
+
+        List<TelemetryEvent> logged = new ArrayList<>();
+        TelemetryPipeline pipeline = new TelemetryPipeline(new CountingListener() {
+            @Override public void onEvent(TelemetryEvent event) { logged.add(event); }
+        });
+        List<Long> sampleTimes = new ArrayList<>();
+        pipeline.getBus().subscribe("times", 1024, TelemetryBus.Policy.BLOCK,
+                snapshot -> sampleTimes.add(snapshot.getSampleNanos()));
+        pipeline.startSession(0);
+        long[] clock = {0};
+        AtomicInteger chunks = new AtomicInteger();
+        device.setListener(new Transport.TransportListener() {
+            @Override public void onConnected() {}
+            @Override public void onDisconnected() {}
+            @Override public void onError(String error) { fail(error); }
+
+            @Override
+            public void onNotification(byte[] data) {
+                if (ProtocolCodec.isBackfillData(data)) chunks.incrementAndGet();
+                clock[0] += 20_000_000L;
+                pipeline.process(data, clock[0]);
+            }
+        });
+
+        device.connect("sim");
+        device.write(ProtocolCodec.encodeSetpoint(new SetpointCommand(12.0, 2.0, 30.0, 5.0, true)));
+        for (int i = 0; i < 50; i++) device.emitFrame();
+
+        // Two seconds out of range: the device keeps sampling into its buffer
+        device.disconnect();
+        pipeline.onLinkLost();
+        for (int i = 0; i < 100; i++) {
+            assertFalse(device.emitFrame());
+            clock[0] += 20_000_000L;
+        }
+
+        device.connect("sim");
+        pipeline.onConnected(clock[0]);
+        for (int i = 0; i < 10; i++) device.emitFrame();
+        assertTrue(pipeline.isBackfillPending());
+        assertEquals("Live samples wait for the backfill", 50, pipeline.getFramesProcessed());
+
+        long since = pipeline.requestBackfill();
+        assertTrue(device.write(ProtocolCodec.encodeBackfillRequest(since, device.getMtu() - 3)));
+        assertFalse(pipeline.isBackfillPending());
+        for (int i = 0; i < 5; i++) device.emitFrame();
+        pipeline.release();
+
+        // The buffered samples since the last one received, 14 to a 247-byte MTU notification
+        assertEquals(110, device.getBackfillFramesSent());
+        assertEquals(8, chunks.get());
+        assertEquals("Held live samples the backfill repeated", 10, pipeline.getBackfill().getDuplicates());
+        assertEquals(165, pipeline.getFramesProcessed());
+        assertEquals(165, sampleTimes.size());
+        for (int i = 1; i < sampleTimes.size(); i++) {
+            long interval = sampleTimes.get(i) - sampleTimes.get(i - 1);
+            assertTrue("interval " + interval + " at " + i, interval > 15_000_000L && interval < 25_000_000L);
+        }
+
+        assertEquals("The reconnect continued the session", 165, pipeline.getSessionStats().getVolt().getCount());
+        assertEquals(1, logged.size());
+        assertEquals(TelemetryEvent.Type.GAP_BACKFILLED, logged.get(0).type);
+        // From the last sample before the outage to the first live one after it
+        assertEquals(2020, logged.get(0).detail, 1);
+    }
+
+    @Test
+    public void aNewSessionStartsOnTheNotificationThread() throws ProtocolException {
+        SimulatedEsp32.Config config = new SimulatedEsp32.Config();
+        config.realTime = false;
+        config.notifyRateHz = 50;
+        SimulatedEsp32 device = new SimulatedEsp32(config);
+
+        CountingListener listener = new CountingListener();
+        TelemetryPipeline pipeline = new TelemetryPipeline(listener);
+        List<Double> chartSeconds = new ArrayList<>();
+        pipeline.getBus().subscribe("chart", 1024, TelemetryBus.Policy.BLOCK,
+                snapshot -> chartSeconds.add(snapshot.getChartSeconds()));
+        long[] clock = {0};
+        device.setListener(new Transport.TransportListener() {
+            @Override public void onConnected() {}
+            @Override public void onDisconnected() {}
+            @Override public void onError(String error) { fail(error); }
+
+            @Override
+            public void onNotification(byte[] data) {
+                clock[0] += 20_000_000L;
+                pipeline.process(data, clock[0]);
+            }
+        });
+        device.connect("sim");
+        pipeline.onConnected(clock[0]);
+        for (int i = 0; i < 50; i++) device.emitFrame();
+
+        // Nothing changes until the next notification applies it
+        pipeline.startSession(clock[0]);
+        assertEquals(50, pipeline.getFramesProcessed());
+        for (int i = 0; i < 50; i++) device.emitFrame();
+        pipeline.release();
+
+        assertEquals(2, listener.sessions.get());
+        assertEquals(100, chartSeconds.size());
+        assertEquals(0.98, chartSeconds.get(49), 1e-6);
+        assertEquals("The chart timeline starts over", 0.0, chartSeconds.get(50), 1e-9);
+        assertEquals(50, pipeline.getSessionStats().getVolt().getCount());
+    }
+}
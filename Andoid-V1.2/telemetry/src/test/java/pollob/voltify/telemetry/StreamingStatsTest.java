@@ -0,0 +1,118 @@
+package pollob.voltify.telemetry;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class StreamingStatsTest {
+    private static final double EPS = 1e-9;
+
+    @Test
+    public void windowedMomentsMatchExactComputation() {
+        int window = 50;
+        StreamingStats stats = new StreamingStats(window, 0.0, 32.768, 4096);
+        Random random = new Random(42);
+        double[] samples = new double[5000];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = 5.0 + random.nextGaussian() * 0.05;
+            stats.add(samples[i]);
+        }
+
+        double[] tail = Arrays.copyOfRange(samples, samples.length - window, samples.length);
+        double mean = 0, sumSq = 0, min = Double.MAX_VALUE, max = -Double.MAX_VALUE;
+        for (double v : tail) {
+            mean += v;
+            sumSq += v * v;
+            min = Math.min(min, v);
+            max = Math.max(max, v);
+        }
+        mean /= window;
+        double var = 0;
+        for (double v : tail) var += (v - mean) * (v - mean);
+        var /= (window - 1);
+
+        assertEquals(window, stats.getCount());
+        assertEquals(mean, stats.getMean(), 1e-9);
+        assertEquals(var, stats.getVariance(), 1e-9);
+        assertEquals(Math.sqrt(sumSq / window), stats.getRms(), 1e-9);
+        assertEquals(min, stats.getMin(), EPS);
+        assertEquals(max, stats.getMax(), EPS);
+    }
+
+    @Test
+    public void windowedMinMaxFollowsEvictions() {
+        StreamingStats stats = new StreamingStats(3, 0.0, 10.0, 100);
+        stats.add(9.0);
+        stats.add(1.0);
+        stats.add(5.0);
+        assertEquals(1.0, stats.getMin(), EPS);
+        assertEquals(9.0, stats.getMax(), EPS);
+
+        stats.add(4.0); // 9.0 leaves the window
+        assertEquals(1.0, stats.getMin(), EPS);
+        assertEquals(5.0, stats.getMax(), EPS);
+
+        stats.add(6.0); // 1.0 leaves the window
+        assertEquals(4.0, stats.getMin(), EPS);
+        assertEquals(6.0, stats.getMax(), EPS);
+    }
+
+    @Test
+    public void sessionModeCoversAllSamples() {
+        StreamingStats stats = new StreamingStats(0, 0.0, 10.0, 1000);
+        for (int i = 1; i <= 100; i++) {
+            stats.add(i / 10.0);
+        }
+        assertEquals(100, stats.getCount());
+        assertEquals(5.05, stats.getMean(), 1e-12);
+        assertEquals(0.1, stats.getMin(), EPS);
+        assertEquals(10.0, stats.getMax(), EPS);
+    }
+
+    @Test
+    public void quantilesStayWithinSketchAccuracy() {
+        int window = 1000;
+        StreamingStats stats = new StreamingStats(window, 0.0, 32.768, 4096);
+        Random random = new Random(7);
+        double[] samples = new double[20000];
+        for (int i = 0; i < samples.length; i++) {
+            // Bimodal load: mostly idle with bursts, to exercise the tails
+            samples[i] = random.nextInt(10) == 0 ? 2.0 + random.nextDouble() * 8.0 : Math.abs(0.3 + random.nextGaussian() * 0.02);
+            stats.add(samples[i]);
+        }
+
+        double[] tail = Arrays.copyOfRange(samples, samples.length - window, samples.length);
+        Arrays.sort(tail);
+        double bound = stats.getPercentileAccuracy();
+        assertEquals(0.004, bound, 1e-12);
+        for (double q : new double[]{0.5, 0.95, 0.99}) {
+            double exact = tail[(int) Math.ceil(q * window) - 1];
+            assertEquals("P" + (int) (q * 100), exact, stats.getPercentile(q), bound + EPS);
+        }
+    }
+
+    @Test
+    public void quantileSketchClampsOutOfRangeValues() {
+        QuantileSketch sketch = new QuantileSketch(0.0, 1.0, 10);
+        assertTrue(Double.isNaN(sketch.quantile(0.5)));
+        sketch.add(-5.0);
+        sketch.add(50.0);
+        assertEquals(0.05, sketch.quantile(0.0), EPS);
+        assertEquals(0.95, sketch.quantile(1.0), EPS);
+        sketch.remove(50.0);
+        assertEquals(1, sketch.getCount());
+    }
+
+    @Test
+    public void resetClearsState() {
+        TelemetryStats stats = new TelemetryStats(10);
+        stats.add(5.0, 1.0);
+        stats.reset();
+        TelemetryStats.Snapshot snapshot = stats.snapshot();
+        assertEquals(0, snapshot.volt.count);
+        assertTrue(Double.isNaN(snapshot.power.p50));
+    }
+}
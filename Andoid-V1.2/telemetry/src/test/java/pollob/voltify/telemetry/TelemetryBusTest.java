@@ -0,0 +1,137 @@
+package pollob.voltify.telemetry;
+
+import org.junit.Test;
+
+import pollob.voltify.protocol.TelemetryFrame;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class TelemetryBusTest {
+
+    private final TelemetryState state = new TelemetryState();
+    private final TelemetryFrame frame = new TelemetryFrame();
+
+    private void publish(TelemetryBus bus, int count) {
+        for (int i = 0; i < count; i++) {
+            frame.outputVolt = state.getSequence() + 1;
+            bus.publish(state.publish(frame, 0, 0, 0.0));
+        }
+    }
+
+    // Holds its thread in the first delivery until released, recording the sequences it sees
+    private static class StalledSubscriber implements TelemetryBus.Subscriber {
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<Long> sequences = Collections.synchronizedList(new ArrayList<>());
+
+        @Override
+        public void onTelemetry(TelemetrySnapshot snapshot) {
+            sequences.add(snapshot.getSequence());
+            entered.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Test
+    public void dropOldestKeepsTheNewestSamples() throws Exception {
+        TelemetryBus bus = new TelemetryBus();
+        StalledSubscriber subscriber = new StalledSubscriber();
+        TelemetryBus.Subscription subscription = bus.subscribe("chart", 4, TelemetryBus.Policy.DROP_OLDEST, subscriber);
+
+        publish(bus, 1);
+        assertTrue(subscriber.entered.await(1, TimeUnit.SECONDS));
+        publish(bus, 10); // 2..11 into a queue of 4
+        subscriber.release.countDown();
+        subscription.close();
+
+        assertEquals(List.of(1L, 8L, 9L, 10L, 11L), subscriber.sequences);
+        assertEquals(6, subscription.getDropped());
+        assertEquals(5, subscription.getDelivered());
+    }
+
+    @Test
+    public void latestOnlyConflatesToTheNewestSample() throws Exception {
+        TelemetryBus bus = new TelemetryBus();
+        StalledSubscriber subscriber = new StalledSubscriber();
+        TelemetryBus.Subscription subscription = bus.subscribe("readout", 16, TelemetryBus.Policy.LATEST_ONLY, subscriber);
+        assertEquals(1, subscription.getCapacity());
+
+        publish(bus, 1);
+        assertTrue(subscriber.entered.await(1, TimeUnit.SECONDS));
+        publish(bus, 10);
+        subscriber.release.countDown();
+        subscription.close();
+
+        assertEquals(List.of(1L, 11L), subscriber.sequences);
+    }
+
+    @Test
+    public void blockDeliversEverySampleInOrder() {
+        TelemetryBus bus = new TelemetryBus();
+        List<Long> sequences = Collections.synchronizedList(new ArrayList<>());
+        TelemetryBus.Subscription subscription = bus.subscribe("recorder", 2, TelemetryBus.Policy.BLOCK,
+                snapshot -> sequences.add(snapshot.getSequence()));
+
+        publish(bus, 1000);
+        bus.close();
+
+        assertEquals(1000, sequences.size());
+        for (int i = 0; i < sequences.size(); i++) {
+            assertEquals(i + 1, (long) sequences.get(i));
+        }
+        assertEquals(0, subscription.getDropped());
+        assertEquals(0, bus.getSubscriberCount());
+    }
+
+    @Test
+    public void stalledSubscriberDoesNotHoldUpTheOthers() throws Exception {
+        TelemetryBus bus = new TelemetryBus();
+        StalledSubscriber exporter = new StalledSubscriber();
+        bus.subscribe("exporter", 8, TelemetryBus.Policy.DROP_OLDEST, exporter);
+        CountDownLatch watchdogSawLast = new CountDownLatch(1);
+        bus.subscribe("watchdog", 1, TelemetryBus.Policy.LATEST_ONLY, snapshot -> {
+            if (snapshot.getSequence() == 10_000) watchdogSawLast.countDown();
+        });
+
+        publish(bus, 1);
+        assertTrue(exporter.entered.await(1, TimeUnit.SECONDS));
+        long start = System.nanoTime();
+        publish(bus, 9_999);
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000L;
+
+        assertTrue("watchdog missed the newest sample", watchdogSawLast.await(1, TimeUnit.SECONDS));
+        assertTrue("publishing took " + elapsedMillis + " ms", elapsedMillis < 500);
+        exporter.release.countDown();
+        bus.close();
+    }
+
+    @Test
+    public void blockingSubscriberTimesOutInsteadOfStallingThePublisher() throws Exception {
+        TelemetryBus bus = new TelemetryBus();
+        StalledSubscriber recorder = new StalledSubscriber();
+        TelemetryBus.Subscription subscription = bus.subscribe("recorder", 1, TelemetryBus.Policy.BLOCK, recorder);
+
+        publish(bus, 1);
+        assertTrue(recorder.entered.await(1, TimeUnit.SECONDS));
+        publish(bus, 1); // fills the queue
+        long start = System.nanoTime();
+        publish(bus, 1); // waits, then gives up
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000L;
+
+        assertTrue(elapsedMillis >= TelemetryBus.BLOCK_TIMEOUT_MILLIS - 5);
+        assertEquals(1, subscription.getDropped());
+        recorder.release.countDown();
+        bus.close();
+        assertEquals(List.of(1L, 2L), recorder.sequences);
+    }
+}
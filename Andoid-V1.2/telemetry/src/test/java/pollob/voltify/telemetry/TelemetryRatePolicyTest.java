@@ -0,0 +1,34 @@
+package pollob.voltify.telemetry;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TelemetryRatePolicyTest {
+
+    @Test
+    public void readoutRateUntilSomethingNeedsEverySample() {
+        TelemetryRatePolicy policy = new TelemetryRatePolicy();
+        assertEquals(TelemetryRatePolicy.READOUT_INTERVAL_MILLIS, policy.getIntervalMillis());
+
+        policy.setChartsVisible(true);
+        assertEquals(TelemetryRatePolicy.FULL_RATE_INTERVAL_MILLIS, policy.getIntervalMillis());
+        policy.setChartsVisible(false);
+        policy.setLiveTuning(true);
+        assertEquals(TelemetryRatePolicy.FULL_RATE_INTERVAL_MILLIS, policy.getIntervalMillis());
+    }
+
+    @Test
+    public void backgroundThrottlesUnlessACaptureIsRunning() {
+        TelemetryRatePolicy policy = new TelemetryRatePolicy();
+        policy.setChartsVisible(true);
+        policy.setForeground(false);
+        assertEquals(TelemetryRatePolicy.BACKGROUND_INTERVAL_MILLIS, policy.getIntervalMillis());
+
+        policy.setRecording(true);
+        assertEquals(TelemetryRatePolicy.BACKGROUND_RECORDING_INTERVAL_MILLIS, policy.getIntervalMillis());
+
+        policy.setCaptureRunning(true);
+        assertEquals(TelemetryRatePolicy.FULL_RATE_INTERVAL_MILLIS, policy.getIntervalMillis());
+    }
+}
@@ -0,0 +1,86 @@
+package pollob.voltify.telemetry;
+
+import org.junit.Test;
+
+import pollob.voltify.protocol.TelemetryFrame;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class TelemetryStateTest {
+
+    private static TelemetryFrame frame(double volt, double amp) {
+        TelemetryFrame frame = new TelemetryFrame();
+        frame.outputVolt = volt;
+        frame.outputAmp = amp;
+        frame.setVolt = volt;
+        frame.setAmp = amp;
+        return frame;
+    }
+
+    @Test
+    public void publishesInSequence() {
+        TelemetryState state = new TelemetryState();
+        TelemetrySnapshot copy = new TelemetrySnapshot();
+        assertEquals(0, state.getSequence());
+        assertEquals(0, state.copyLatest(copy));
+        assertEquals(0.0, copy.getOutputVolt(), 0.0);
+
+        state.publish(frame(5.0, 0.5), 1000, 1100, 0.0);
+        TelemetrySnapshot second = state.publish(frame(12.0, 1.2), 2000, 2100, 0.001);
+        assertEquals(2, state.copyLatest(copy));
+        assertEquals(12.0, copy.getOutputVolt(), 0.0);
+        assertEquals(2, second.getSequence());
+        assertEquals(12.0, second.getOutputVolt(), 0.0);
+        assertEquals(14.4, second.getOutputPower(), 1e-9);
+        assertEquals(2000, second.getSampleNanos());
+        assertEquals(2100, second.getReceivedNanos());
+    }
+
+    @Test
+    public void reusesSlotsOnlyAfterAFullPool() {
+        TelemetryState state = new TelemetryState();
+        TelemetrySnapshot first = state.publish(frame(1.0, 0.1), 0, 0, 0.0);
+        for (int i = 2; i <= TelemetryState.POOL_SIZE; i++) {
+            assertNotSame(first, state.publish(frame(i, 0.1), 0, 0, 0.0));
+            assertEquals(1, first.getSequence());
+        }
+        // The next publication recycles the oldest slot
+        assertSame(first, state.publish(frame(99.0, 0.1), 0, 0, 0.0));
+        assertEquals(TelemetryState.POOL_SIZE + 1, first.getSequence());
+    }
+
+    @Test
+    public void copiesNeverTearUnderConcurrentPublishing() throws Exception {
+        TelemetryState state = new TelemetryState();
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicLong torn = new AtomicLong();
+        AtomicLong reads = new AtomicLong();
+
+        // Every field is derived from the sequence, so a mix of two samples is detectable
+        Thread reader = new Thread(() -> {
+            TelemetrySnapshot copy = new TelemetrySnapshot();
+            while (running.get()) {
+                long sequence = state.copyLatest(copy);
+                if (sequence == 0) continue;
+                if (copy.getOutputVolt() != sequence || copy.getOutputAmp() != sequence * 2
+                        || copy.getSampleNanos() != sequence * 3) {
+                    torn.incrementAndGet();
+                }
+                reads.incrementAndGet();
+            }
+        });
+        reader.start();
+
+        for (long i = 1; i <= 2_000_000; i++) {
+            state.publish(frame(i, i * 2), i * 3, 0, 0.0);
+        }
+        running.set(false);
+        reader.join();
+
+        assertTrue("reads " + reads.get(), reads.get() > 0);
+        assertEquals(0, torn.get());
+    }
+}